@@ -15,7 +15,7 @@ package org.sonatype.spice.zapper;
 import java.io.IOException;
 
 /**
- * IOException that carries the statuses/exceptions per each track.
+ * IOException that carries the statuses/exceptions per each track, or per each payload that was given up.
  *
  * @author cstamas
  */
@@ -27,6 +27,13 @@ public interface Client
   void upload(IOSourceListable listableSource)
       throws IOException;
 
+  /**
+   * Uploads all that listable source lists, with given priority (positive, higher is more important), that is used
+   * to share the tracks of this client among concurrently running uploads. Plain uploads have priority 1.
+   */
+  void upload(IOSourceListable listableSource, int priority)
+      throws IOException;
+
   /**
    * Uploads given paths from the source.
    */
@@ -34,7 +41,7 @@ public interface Client
       throws IOException;
 
   /**
-   * Downloads given paths into the target.
+   * Downloads given paths into the target. Fails if this client does not support download.
    */
   void download(IOTarget target, Path... paths)
       throws IOException;
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.sonatype.spice.zapper.codec.Codec;
+
+/**
+ * {@link CodecSelector} that selects codec(s) by the content of transported files, reading it from the source being
+ * uploaded. Where there is no source to read from, {@link #selectCodecs(ZFile)} is used.
+ */
+public interface ContentCodecSelector
+    extends CodecSelector
+{
+  /**
+   * Returns the list of {@link Codec}s to apply to payload of given file, that might be read from given source. Never
+   * returns {@code null}.
+   */
+  List<Codec> selectCodecs(ZFile zfile, IOSource source)
+      throws IOException;
+}
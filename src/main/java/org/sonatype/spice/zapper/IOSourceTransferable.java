@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Source that is able to transfer segments directly into a channel, without exposing them as input streams. Sources
+ * backed by files should transfer using {@link java.nio.channels.FileChannel#transferTo(long, long,
+ * WritableByteChannel)}, hence when target is a file or socket channel, the bytes are not copied through Java heap at
+ * all.
+ */
+public interface IOSourceTransferable
+    extends IOSource
+{
+  /**
+   * Transfers all the bytes belonging to given range of passed in path into the target channel. Returns the count of
+   * bytes transferred, that is always the length of the range. Target channel is not closed.
+   */
+  long transferSegment(Path path, Range range, WritableByteChannel target)
+      throws IOException;
+}
@@ -40,6 +40,16 @@ public interface IOTarget
   long writeSegment(ZFile zfile, Range range, InputStream in)
       throws IOException;
 
+  /**
+   * Invoked instead of writing the segments of a file that has same content as other file of the transfer, once all
+   * segments of the other file are written to target, and before either of them is finalized.
+   *
+   * @param source the file having same content, that is received.
+   * @param zfile  the file to be copied from source.
+   */
+  void copyZFile(ZFile source, ZFile zfile)
+      throws IOException;
+
   /**
    * Invoked after all segments are successfully written to target.
    *
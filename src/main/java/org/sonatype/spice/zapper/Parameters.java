@@ -12,8 +12,12 @@
  */
 package org.sonatype.spice.zapper;
 
+import java.io.File;
+
 import org.sonatype.spice.zapper.codec.NoopCodecSelector;
+import org.sonatype.spice.zapper.executor.PlatformTrackExecutorFactory;
 import org.sonatype.spice.zapper.hash.HashAlgorithm;
+import org.sonatype.spice.zapper.scheduler.FifoPayloadScheduler;
 
 public interface Parameters
 {
@@ -35,8 +39,115 @@ public interface Parameters
    */
   int getMaximumTrackCount();
 
+  /**
+   * How many parallel tracks might exist across all the concurrently running transfers of one client. This budget is
+   * shared among transfers by their priority. Defaults to {@link #getMaximumTrackCount()}, hence concurrent transfers
+   * share the tracks a single transfer might use.
+   */
+  int getMaximumTotalTrackCount();
+
   /**
    * Gets the maximum segment length. Not all protocols uses this, for example "whole-file" does not use this value.
    */
   long getMaximumSegmentLength();
+
+  /**
+   * If {@code true}, protocols that send hashes along with segments (like "zapper") will calculate them while the
+   * segment content is being sent, and will send them in a trailer following the segment body. This means every
+   * segment is read only once, but the hashes are not known upfront (before the segment is sent).
+   */
+  boolean isHashingWhileStreaming();
+
+  /**
+   * Returns the {@link PayloadScheduler} to be used, never should return {@code null}. See
+   * {@link FifoPayloadScheduler}, that is used by default in default implementation (unless overridden).
+   */
+  PayloadScheduler getPayloadScheduler();
+
+  /**
+   * If {@code true}, the count of tracks actively sending is adapted during the transfer, based on measured throughput
+   * and server back-pressure (HTTP 429 and 503 responses, honoring "Retry-After"). The
+   * {@link #getMaximumTrackCount()} remains the hard maximum.
+   */
+  boolean isAdaptiveTrackCount();
+
+  /**
+   * If {@code true}, each track sends all of it's payloads in one long-lived chunked request, one after another,
+   * instead of issuing one request per payload. This is applied only with protocols having self-delimiting payloads
+   * (like "zapper"), codecs are not applied to streamed payloads, and the track count is not adapted (see
+   * {@link #isAdaptiveTrackCount()}) as a track sends continuously. Streaming tracks still count against the track
+   * budget (see {@link #getMaximumTotalTrackCount()}), each of them for as long as it's request lasts.
+   */
+  boolean isTrackStreaming();
+
+  /**
+   * Returns the {@link TrackExecutorFactory} creating the executor for tracks, never should return {@code null}. See
+   * {@link PlatformTrackExecutorFactory}, that is used by default in default implementation (unless overridden).
+   */
+  TrackExecutorFactory getTrackExecutorFactory();
+
+  /**
+   * How long (in milliseconds) the capabilities of remote end, discovered by the handshake, are reused by the transfers
+   * of a client, before remote end is probed again. Value of 0 means every transfer performs the handshake.
+   */
+  long getHandshakeTtl();
+
+  /**
+   * Returns the directory where journals of transfers are kept, or {@code null} if transfers are not journaled. The
+   * journal of an upload records it's segments and the segments sent so far, and is removed once the upload succeeds.
+   * A failed upload of same files to same remote URL is resumed from it's journal by next upload: only the segments
+   * that remote end does not hold yet are sent. Applies to "zapper" protocol only.
+   */
+  File getJournalDirectory();
+
+  /**
+   * How many times a payload that failed to be sent is retried before it is given up. Failed payload is re-queued, to
+   * be sent again by any track once it's back-off elapsed, while tracks continue with other payloads. Payloads given up
+   * fail the transfer once all other payloads were sent, with {@link AggregatingIOException} carrying their failures.
+   * Value of 0 means first failure fails the transfer. Not applied by asynchronous client.
+   */
+  int getMaximumRetryCount();
+
+  /**
+   * The back-off (in milliseconds) of first retry of a payload, that doubles with each further retry of same payload,
+   * up to {@link #getMaximumRetryBackOff()}. Actual back-off is randomized between 0 and this value, so payloads that
+   * failed at once are not retried at once.
+   */
+  long getRetryBackOff();
+
+  /**
+   * The maximum back-off (in milliseconds) of payload retries, see {@link #getRetryBackOff()}.
+   */
+  long getMaximumRetryBackOff();
+
+  /**
+   * How long (in milliseconds) a payload is being sent, before it is sent again on an idle track ("hedged"), once
+   * there is nothing else to send. The copy sent first is taken, and the other is aborted, so the end of a transfer
+   * does not wait for one slow connection. Applied only with "zapper" protocol (that verifies every segment it
+   * receives), not with streaming tracks (see {@link #isTrackStreaming()}), and not by asynchronous client. Value of 0
+   * (the default) means payloads are not hedged. As hedged payload is sent whole again, sharing the bandwidth with
+   * the first copy, the delay should be well over the usual send time of a segment (see
+   * {@link #getMaximumSegmentLength()}).
+   */
+  long getHedgeDelay();
+
+  /**
+   * The length (in bytes) of blocks of "delta" uploads, or 0 if uploads are not delta uploads (default). In a delta
+   * upload, remote end tells the checksums of blocks of it's existing versions of the files, and sends only the parts
+   * of files where those blocks are not found, as rsync does. Remote end copies the blocks found from existing
+   * versions. Worth for large files changing slightly between uploads. Must be at least 1024, as remote end does not
+   * tell the checksums of shorter blocks. Applied only with "zapper" protocol.
+   */
+  int getDeltaBlockLength();
+
+  /**
+   * The average length (in bytes) of segments cut at content-defined boundaries, or 0 if files are cut at fixed
+   * offsets of {@link #getMaximumSegmentLength()} (default). Boundaries are found by a rolling "gear" hash of content,
+   * as FastCDC does, so bytes inserted into or removed from a file shift only the segments around the change. Remote
+   * end is asked which of the segments (by their hashes) it already holds in any file it received, and copies those
+   * instead of receiving them. Segments are at least quarter and at most 8 times (but not more than maximum segment
+   * length) of this long. Worth for repeated uploads of large files changing slightly. Applied only with "zapper"
+   * protocol.
+   */
+  long getAverageSegmentLength();
 }
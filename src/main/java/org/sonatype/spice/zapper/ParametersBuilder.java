@@ -12,13 +12,16 @@
  */
 package org.sonatype.spice.zapper;
 
+import java.io.File;
 import java.security.NoSuchAlgorithmException;
 
 import org.sonatype.spice.zapper.codec.NoopCodecSelector;
+import org.sonatype.spice.zapper.executor.PlatformTrackExecutorFactory;
 import org.sonatype.spice.zapper.hash.HashAlgorithm;
 import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
 import org.sonatype.spice.zapper.internal.Check;
 import org.sonatype.spice.zapper.internal.ParametersImpl;
+import org.sonatype.spice.zapper.scheduler.FifoPayloadScheduler;
 
 public class ParametersBuilder
 {
@@ -28,13 +31,55 @@ public class ParametersBuilder
 
   private int maximumTrackCount;
 
+  private int maximumTotalTrackCount;
+
   private long maximumSegmentLength;
 
+  private boolean hashingWhileStreaming;
+
+  private PayloadScheduler payloadScheduler;
+
+  private boolean adaptiveTrackCount;
+
+  private boolean trackStreaming;
+
+  private TrackExecutorFactory trackExecutorFactory;
+
+  private long handshakeTtl;
+
+  private File journalDirectory;
+
+  private int maximumRetryCount;
+
+  private long retryBackOff;
+
+  private long maximumRetryBackOff;
+
+  private long hedgeDelay;
+
+  private int deltaBlockLength;
+
+  private long averageSegmentLength;
+
   private ParametersBuilder(final HashAlgorithm hashAlgorithm) {
     this.hashAlgorithm = Check.notNull(hashAlgorithm, HashAlgorithm.class);
     this.codecSelector = new NoopCodecSelector();
     this.maximumTrackCount = 6;
+    this.maximumTotalTrackCount = 0; // same as maximumTrackCount
     this.maximumSegmentLength = 1073741824L; // 1MB
+    this.hashingWhileStreaming = false;
+    this.payloadScheduler = new FifoPayloadScheduler();
+    this.adaptiveTrackCount = false;
+    this.trackStreaming = false;
+    this.trackExecutorFactory = new PlatformTrackExecutorFactory();
+    this.handshakeTtl = 300000L; // 5 minutes
+    this.journalDirectory = null; // not journaled
+    this.maximumRetryCount = 3;
+    this.retryBackOff = 500L; // 0.5 seconds
+    this.maximumRetryBackOff = 30000L; // 30 seconds
+    this.hedgeDelay = 0; // not hedged
+    this.deltaBlockLength = 0; // not delta
+    this.averageSegmentLength = 0; // fixed offsets
   }
 
   public ParametersBuilder setHashAlgorithm(final HashAlgorithm hashAlgorithm) {
@@ -53,6 +98,12 @@ public class ParametersBuilder
     return this;
   }
 
+  public ParametersBuilder setMaximumTotalTrackCount(final int maximumTotalTrackCount) {
+    this.maximumTotalTrackCount =
+        Check.argument(maximumTotalTrackCount > 0, maximumTotalTrackCount, "maximumTotalTrackCount not positive!");
+    return this;
+  }
+
   public ParametersBuilder setMaximumSegmentLength(final long maximumSegmentLength) {
     // this could be stricter, like "is there any sense to have 1 byte large segments?"
     // maybe some sensible minimum like 1MB?
@@ -61,8 +112,107 @@ public class ParametersBuilder
     return this;
   }
 
+  public ParametersBuilder setHashingWhileStreaming(final boolean hashingWhileStreaming) {
+    this.hashingWhileStreaming = hashingWhileStreaming;
+    return this;
+  }
+
+  public ParametersBuilder setPayloadScheduler(final PayloadScheduler payloadScheduler) {
+    this.payloadScheduler = Check.notNull(payloadScheduler, PayloadScheduler.class);
+    return this;
+  }
+
+  public ParametersBuilder setAdaptiveTrackCount(final boolean adaptiveTrackCount) {
+    this.adaptiveTrackCount = adaptiveTrackCount;
+    return this;
+  }
+
+  public ParametersBuilder setTrackStreaming(final boolean trackStreaming) {
+    this.trackStreaming = trackStreaming;
+    return this;
+  }
+
+  public ParametersBuilder setTrackExecutorFactory(final TrackExecutorFactory trackExecutorFactory) {
+    this.trackExecutorFactory = Check.notNull(trackExecutorFactory, TrackExecutorFactory.class);
+    return this;
+  }
+
+  public ParametersBuilder setHandshakeTtl(final long handshakeTtl) {
+    this.handshakeTtl = Check.argument(handshakeTtl >= 0, handshakeTtl, "handshakeTtl is negative!");
+    return this;
+  }
+
+  public ParametersBuilder setJournalDirectory(final File journalDirectory) {
+    this.journalDirectory = Check.notNull(journalDirectory, "Journal directory is null!");
+    return this;
+  }
+
+  public ParametersBuilder setMaximumRetryCount(final int maximumRetryCount) {
+    this.maximumRetryCount =
+        Check.argument(maximumRetryCount >= 0, maximumRetryCount, "maximumRetryCount is negative!");
+    return this;
+  }
+
+  public ParametersBuilder setRetryBackOff(final long retryBackOff) {
+    this.retryBackOff = Check.argument(retryBackOff >= 0, retryBackOff, "retryBackOff is negative!");
+    return this;
+  }
+
+  public ParametersBuilder setMaximumRetryBackOff(final long maximumRetryBackOff) {
+    this.maximumRetryBackOff =
+        Check.argument(maximumRetryBackOff >= 0, maximumRetryBackOff, "maximumRetryBackOff is negative!");
+    return this;
+  }
+
+  public ParametersBuilder setHedgeDelay(final long hedgeDelay) {
+    this.hedgeDelay = Check.argument(hedgeDelay >= 0, hedgeDelay, "hedgeDelay is negative!");
+    return this;
+  }
+
+  public ParametersBuilder setDeltaBlockLength(final int deltaBlockLength) {
+    this.deltaBlockLength =
+        Check.argument(deltaBlockLength >= 0, deltaBlockLength, "deltaBlockLength is negative!");
+    return this;
+  }
+
+  public ParametersBuilder setAverageSegmentLength(final long averageSegmentLength) {
+    this.averageSegmentLength = Check.argument(averageSegmentLength == 0 || averageSegmentLength >= 256,
+        averageSegmentLength, "averageSegmentLength is neither 0 nor at least 256!");
+    return this;
+  }
+
   public Parameters build() {
-    return new ParametersImpl(hashAlgorithm, codecSelector, maximumTrackCount, maximumSegmentLength);
+    return new ParametersImpl(hashAlgorithm, codecSelector, maximumTrackCount,
+        maximumTotalTrackCount > 0 ? maximumTotalTrackCount : maximumTrackCount, maximumSegmentLength,
+        hashingWhileStreaming, payloadScheduler, adaptiveTrackCount, trackStreaming, trackExecutorFactory,
+        handshakeTtl, journalDirectory, maximumRetryCount, retryBackOff, maximumRetryBackOff,
+        hedgeDelay, deltaBlockLength, averageSegmentLength);
+  }
+
+  /**
+   * Returns builder having all the values of given parameters, to build parameters differing from them in some.
+   */
+  public static ParametersBuilder copyOf(final Parameters parameters) {
+    Check.notNull(parameters, Parameters.class);
+    final ParametersBuilder builder = new ParametersBuilder(parameters.getHashAlgorithm());
+    builder.codecSelector = parameters.getCodecSelector();
+    builder.maximumTrackCount = parameters.getMaximumTrackCount();
+    builder.maximumTotalTrackCount = parameters.getMaximumTotalTrackCount();
+    builder.maximumSegmentLength = parameters.getMaximumSegmentLength();
+    builder.hashingWhileStreaming = parameters.isHashingWhileStreaming();
+    builder.payloadScheduler = parameters.getPayloadScheduler();
+    builder.adaptiveTrackCount = parameters.isAdaptiveTrackCount();
+    builder.trackStreaming = parameters.isTrackStreaming();
+    builder.trackExecutorFactory = parameters.getTrackExecutorFactory();
+    builder.handshakeTtl = parameters.getHandshakeTtl();
+    builder.journalDirectory = parameters.getJournalDirectory();
+    builder.maximumRetryCount = parameters.getMaximumRetryCount();
+    builder.retryBackOff = parameters.getRetryBackOff();
+    builder.maximumRetryBackOff = parameters.getMaximumRetryBackOff();
+    builder.hedgeDelay = parameters.getHedgeDelay();
+    builder.deltaBlockLength = parameters.getDeltaBlockLength();
+    builder.averageSegmentLength = parameters.getAverageSegmentLength();
+    return builder;
   }
 
   public static ParametersBuilder defaults()
@@ -21,5 +21,6 @@ public class Path
   public Path(final String stringValue) {
     super(stringValue);
     Check.argument(!stringValue.contains("\\"), "Path must contain only forward slashes! path=" + stringValue);
+    Check.argument(!("/" + stringValue + "/").contains("/../"), "Path must not contain \"..\"! path=" + stringValue);
   }
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper;
+
+import java.util.List;
+
+import org.sonatype.spice.zapper.internal.AbstractPayloadSupplier;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.scheduler.FifoPayloadScheduler;
+
+/**
+ * Decides the order in which payloads of a transfer are sent, and over which tracks. See
+ * {@link FifoPayloadScheduler}, that is used by default.
+ */
+public interface PayloadScheduler
+{
+  /**
+   * Creates a {@link PayloadSupplier} handing out given payloads to at most {@code trackCount} tracks. The returned
+   * supplier must be thread safe, and must hand out each payload exactly once. Never returns {@code null}. Returned
+   * supplier should extend {@link AbstractPayloadSupplier}, to keep working when {@link PayloadSupplier} gets new
+   * notifications.
+   */
+  PayloadSupplier createPayloadSupplier(List<SegmentPayload> payloads, int trackCount);
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper;
+
+import java.util.concurrent.ExecutorService;
+
+import org.sonatype.spice.zapper.executor.PlatformTrackExecutorFactory;
+
+/**
+ * Creates the executor running the (blocking) tracks of a client. The executor is created once per client, and is
+ * shut down when client is closed. See {@link PlatformTrackExecutorFactory}, that is used by default.
+ */
+public interface TrackExecutorFactory
+{
+  /**
+   * Creates a new executor, never returns {@code null}. The executor must not queue tasks for long, as tracks of
+   * a transfer are all submitted at once, and are expected to run concurrently.
+   */
+  ExecutorService createExecutorService();
+}
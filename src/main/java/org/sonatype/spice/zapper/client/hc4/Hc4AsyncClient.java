@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.Payload;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.Protocol;
+import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.ranged.RangedPayload;
+import org.sonatype.spice.zapper.internal.transport.AbstractClient;
+import org.sonatype.spice.zapper.internal.transport.RemoteCapabilities;
+import org.sonatype.spice.zapper.internal.transport.RemoteFile;
+import org.sonatype.spice.zapper.internal.transport.State;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpOptions;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+
+/**
+ * Client using the non-blocking HC4 async client: no thread is spawned per track, all tracks of all uploads performed
+ * by this client are driven by the (few) I/O reactor threads of the HTTP client, while the thread invoking upload
+ * just awaits the tracks. Payload content is read and encoded by short tasks run on the executor created by
+ * {@link Parameters#getTrackExecutorFactory()}, so I/O reactor threads never block on files or spend time in codecs.
+ * The HTTP client might be shared by multiple instances of this client (see
+ * {@link Hc4AsyncClientBuilder#withHttpAsyncClient(CloseableHttpAsyncClient)}). Concurrent uploads share the
+ * connection pool of the HTTP client, but neither transfer priorities, adaptive track count nor track streaming (see
+ * {@link Parameters}) are applied by this client. Downloads are not supported by this client.
+ */
+public class Hc4AsyncClient
+    extends AbstractClient<Hc4AsyncTrack>
+{
+  private final CloseableHttpAsyncClient httpClient;
+
+  private final boolean ownHttpClient;
+
+  private final CredentialsProvider preemptiveCredentialsProvider;
+
+  private final ExecutorService contentExecutor;
+
+  public Hc4AsyncClient(final Parameters parameters,
+                        final String remoteUrl,
+                        final CloseableHttpAsyncClient httpClient,
+                        final boolean ownHttpClient,
+                        final CredentialsProvider preemptiveCredentialsProvider)
+  {
+    super(parameters, remoteUrl);
+    this.httpClient = Check.notNull(httpClient, CloseableHttpAsyncClient.class);
+    this.ownHttpClient = ownHttpClient;
+    this.preemptiveCredentialsProvider = preemptiveCredentialsProvider;
+    this.contentExecutor = parameters.getTrackExecutorFactory().createExecutorService();
+    if (!httpClient.isRunning()) {
+      httpClient.start();
+    }
+  }
+
+  public void close() {
+    contentExecutor.shutdown();
+    if (ownHttpClient) {
+      try {
+        httpClient.close();
+      }
+      catch (IOException e) {
+        getLogger().warn("Could not cleanly close httpClient", e);
+      }
+    }
+  }
+
+  // ==
+
+  @Override
+  protected void doUpload(final Transfer transfer, final Protocol protocol, final int trackCount)
+      throws IOException
+  {
+    final PayloadSupplier payloadSupplier =
+        transfer.getPayloadSupplier(getParameters().getPayloadScheduler(), trackCount);
+    final Hc4AsyncUpload upload = new Hc4AsyncUpload(trackCount);
+    for (int i = 0; i < trackCount; i++) {
+      new Hc4AsyncTrack(transfer.getNextTrackIdentifier(), i, payloadSupplier, upload, this).next();
+    }
+    upload.await();
+  }
+
+  // ==
+
+  @Override
+  public State upload(final Payload payload, final Hc4AsyncTrack track)
+      throws IOException
+  {
+    Hc4Responses.checkResponse(await(execute(payload, track, null), payload));
+    return State.SUCCESS;
+  }
+
+  @Override
+  public State upload(final Payload payload)
+      throws IOException
+  {
+    return upload(payload, null);
+  }
+
+  @Override
+  public InputStream exchange(final Payload payload)
+      throws IOException
+  {
+    final HttpResponse response = await(execute(payload, null, null), payload);
+    Hc4Responses.checkResponse(response);
+    if (response.getEntity() == null) {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+    // response consumer buffered the content
+    return response.getEntity().getContent();
+  }
+
+  /**
+   * Probes remote end with OPTIONS request of remote URL. Remote ends not answering it successfully are considered
+   * plain.
+   */
+  @Override
+  protected RemoteCapabilities probe()
+      throws IOException
+  {
+    final URI uri = URI.create(getRemoteUrl());
+    final HttpResponse response;
+    try {
+      response = httpClient.execute(new HttpOptions(uri), createContext(URIUtils.extractHost(uri)), null).get();
+    }
+    catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while probing " + getRemoteUrl());
+    }
+    catch (ExecutionException e) {
+      throw toIOException(e);
+    }
+    if (response.getStatusLine().getStatusCode() < 200 || response.getStatusLine().getStatusCode() > 299) {
+      return RemoteCapabilities.PLAIN;
+    }
+    return Hc4Responses.getRemoteCapabilities(response);
+  }
+
+  @Override
+  public RemoteFile stat(final TransferIdentifier transferIdentifier, final Path path)
+      throws IOException
+  {
+    final URI uri = URI.create(getRemoteUrl() + path.stringValue());
+    final HttpHead head = new HttpHead(uri);
+    head.addHeader("X-Zapper-Transfer-ID", transferIdentifier.stringValue());
+    final HttpResponse response;
+    try {
+      response = httpClient.execute(head, createContext(URIUtils.extractHost(uri)), null).get();
+    }
+    catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while stating " + path.stringValue());
+    }
+    catch (ExecutionException e) {
+      throw toIOException(e);
+    }
+    if (response.getStatusLine().getStatusCode() == 404) {
+      return null;
+    }
+    Hc4Responses.checkResponse(response);
+    return Hc4Responses.getRemoteFile(path, response);
+  }
+
+  /**
+   * Blocks until the response of payload arrives.
+   */
+  protected HttpResponse await(final Future<HttpResponse> future, final Payload payload)
+      throws IOException
+  {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while sending " + payload.getPath().stringValue());
+    }
+    catch (ExecutionException e) {
+      throw toIOException(e);
+    }
+  }
+
+  protected IOException toIOException(final ExecutionException e) {
+    if (e.getCause() instanceof IOException) {
+      return (IOException) e.getCause();
+    }
+    final IOException ee = new IOException("Failure:" + e.getCause().toString());
+    ee.initCause(e.getCause());
+    return ee;
+  }
+
+  /**
+   * Starts sending the payload, and returns immediately. The callback, if given, is invoked by I/O reactor thread once
+   * the response is received (that is consumed, but status not checked).
+   */
+  protected Future<HttpResponse> execute(final Payload payload, final Hc4AsyncTrack track,
+                                         final FutureCallback<HttpResponse> callback)
+  {
+    final URI uri = URI.create(getRemoteUrl() + payload.getPath().stringValue());
+    final PayloadContentProducer contentProducer =
+        new PayloadContentProducer(payload, payload.getCodecs(), contentExecutor);
+    // entity only describes the content, that is produced by content producer
+    final BasicHttpEntity entity = new BasicHttpEntity();
+    entity.setContentLength(contentProducer.getContentLength());
+    entity.setChunked(contentProducer.getContentLength() < 0);
+    final HttpPut put = new HttpPut(uri);
+    put.setEntity(entity);
+    put.addHeader("X-Zapper-Transfer-ID", payload.getTransferIdentifier().stringValue());
+    if (track != null) {
+      put.addHeader("X-Zapper-Track-ID", track.getIdentifier().stringValue());
+    }
+    if (Hc4Responses.getCodecs(payload) != null) {
+      put.addHeader("X-Zapper-Codecs", Hc4Responses.getCodecs(payload));
+    }
+    if (payload instanceof RangedPayload) {
+      final String contentRange = ((RangedPayload) payload).getContentRange();
+      if (contentRange != null) {
+        put.addHeader("Content-Range", contentRange);
+      }
+    }
+    final HttpHost host = URIUtils.extractHost(uri);
+    return httpClient.execute(new PayloadRequestProducer(host, put, contentProducer),
+        new BasicAsyncResponseConsumer(), createContext(host), callback);
+  }
+
+  protected HttpClientContext createContext(final HttpHost host) {
+    final HttpClientContext context = new HttpClientContext();
+    if (preemptiveCredentialsProvider != null) {
+      context.setCredentialsProvider(preemptiveCredentialsProvider);
+      context.setAuthCache(new BasicAuthCache());
+      context.getAuthCache().put(host, new BasicScheme());
+    }
+    return context;
+  }
+
+  // ==
+
+  private static class PayloadRequestProducer
+      extends BasicAsyncRequestProducer
+  {
+    private PayloadRequestProducer(final HttpHost target, final HttpEntityEnclosingRequest request,
+                                   final PayloadContentProducer contentProducer)
+    {
+      super(target, request, contentProducer);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.IOException;
+
+import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.internal.Check;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+
+public class Hc4AsyncClientBuilder
+{
+  private Parameters parameters;
+
+  private String remoteUrl;
+
+  private HttpHost proxyServer;
+
+  private CredentialsProvider credentialsProvider;
+
+  private boolean preemptiveAuth;
+
+  private int ioThreadCount;
+
+  private CloseableHttpAsyncClient httpAsyncClient;
+
+  public Hc4AsyncClientBuilder(final Parameters parameters, final String remoteUrl) {
+    this.parameters = Check.notNull(parameters, Parameters.class);
+    this.remoteUrl = Check.notNull(remoteUrl, "Remote URL is null!");
+    this.preemptiveAuth = false;
+    this.ioThreadCount = 2;
+  }
+
+  public Hc4AsyncClientBuilder withProxy(final HttpHost proxyServer) {
+    this.proxyServer = proxyServer;
+    return this;
+  }
+
+  public Hc4AsyncClientBuilder withRealm(final CredentialsProvider credentialsProvider) {
+    this.credentialsProvider = credentialsProvider;
+    return this;
+  }
+
+  public Hc4AsyncClientBuilder withPreemptiveRealm(final CredentialsProvider credentialsProvider) {
+    this.credentialsProvider = credentialsProvider;
+    this.preemptiveAuth = true;
+    return this;
+  }
+
+  /**
+   * Sets the count of I/O reactor threads, that drive all the tracks. Not used if HTTP client is set.
+   */
+  public Hc4AsyncClientBuilder withIoThreadCount(final int ioThreadCount) {
+    this.ioThreadCount = Check.argument(ioThreadCount > 0, ioThreadCount, "ioThreadCount not positive!");
+    return this;
+  }
+
+  /**
+   * Sets a HTTP client to be used (and possibly shared with other clients), instead of creating a new one. The
+   * built client will not close this HTTP client, it's lifecycle is managed by caller. Proxy, realm and I/O thread
+   * count set on this builder are not applied to it.
+   */
+  public Hc4AsyncClientBuilder withHttpAsyncClient(final CloseableHttpAsyncClient httpAsyncClient) {
+    this.httpAsyncClient = httpAsyncClient;
+    return this;
+  }
+
+  public Hc4AsyncClient build()
+      throws IOException
+  {
+    final CredentialsProvider preemptiveCredentialsProvider = preemptiveAuth ? credentialsProvider : null;
+    if (httpAsyncClient != null) {
+      return new Hc4AsyncClient(parameters, remoteUrl, httpAsyncClient, false, preemptiveCredentialsProvider);
+    }
+
+    final DefaultConnectingIOReactor ioReactor =
+        new DefaultConnectingIOReactor(IOReactorConfig.custom().setIoThreadCount(ioThreadCount).build());
+    final PoolingNHttpClientConnectionManager cm = new PoolingNHttpClientConnectionManager(ioReactor);
+    // all tracks of all transfers, plus one for protocol messages
+    cm.setMaxTotal(parameters.getMaximumTotalTrackCount() + 1);
+    cm.setDefaultMaxPerRoute(parameters.getMaximumTotalTrackCount() + 1);
+
+    final HttpAsyncClientBuilder httpClientBuilder = HttpAsyncClientBuilder.create().setConnectionManager(cm)
+        .setUserAgent("Zapper/1.0-HC4Async");
+
+    if (proxyServer != null) {
+      httpClientBuilder.setProxy(proxyServer);
+    }
+    if (credentialsProvider != null) {
+      httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+    }
+
+    return new Hc4AsyncClient(parameters, remoteUrl, httpClientBuilder.build(), true, preemptiveCredentialsProvider);
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.internal.transport.Track;
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * Track that owns no thread: it sends the next payload from the completion callback of the previous one, hence it is
+ * driven by the I/O reactor threads of the HTTP client.
+ */
+public class Hc4AsyncTrack
+    extends Track
+    implements FutureCallback<HttpResponse>
+{
+  private final int trackIndex;
+
+  private final PayloadSupplier payloadSupplier;
+
+  private final Hc4AsyncUpload upload;
+
+  private final Hc4AsyncClient hc4AsyncClient;
+
+  private SegmentPayload payload;
+
+  Hc4AsyncTrack(final TrackIdentifier identifier, final int trackIndex, final PayloadSupplier payloadSupplier,
+                final Hc4AsyncUpload upload, final Hc4AsyncClient hc4AsyncClient)
+  {
+    super(identifier);
+    this.trackIndex = trackIndex;
+    this.payloadSupplier = Check.notNull(payloadSupplier, PayloadSupplier.class);
+    this.upload = Check.notNull(upload, Hc4AsyncUpload.class);
+    this.hc4AsyncClient = Check.notNull(hc4AsyncClient, Hc4AsyncClient.class);
+  }
+
+  /**
+   * Sends the next payload, or marks this track done if there are no more payloads, or some other track failed.
+   */
+  void next() {
+    if (upload.isFailed()) {
+      upload.trackDone();
+      return;
+    }
+    try {
+      payload = payloadSupplier.getNextPayload(getIdentifier());
+      if (payload == null) {
+        upload.trackDone();
+      }
+      else {
+        hc4AsyncClient.execute(payload, this, this);
+      }
+    }
+    catch (Exception e) {
+      failed(e);
+    }
+  }
+
+  public void completed(final HttpResponse response) {
+    try {
+      Hc4Responses.checkResponse(response);
+    }
+    catch (IOException e) {
+      failed(e);
+      return;
+    }
+    payloadSupplier.payloadSent(getIdentifier(), payload);
+    next();
+  }
+
+  public void failed(final Exception e) {
+    upload.trackFailed(trackIndex, e);
+  }
+
+  public void cancelled() {
+    failed(new InterruptedIOException("Request cancelled"));
+  }
+}
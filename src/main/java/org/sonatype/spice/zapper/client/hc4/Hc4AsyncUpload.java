@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+
+import org.sonatype.spice.zapper.AggregatingIOException;
+
+/**
+ * State of one upload driven by {@link Hc4AsyncTrack}s: tracks report here when they are done or failed, while the
+ * thread that started the upload awaits all of them.
+ */
+class Hc4AsyncUpload
+{
+  private final CountDownLatch trackLatch;
+
+  private final IOException[] trackExceptions;
+
+  private volatile boolean failed;
+
+  Hc4AsyncUpload(final int trackCount) {
+    this.trackLatch = new CountDownLatch(trackCount);
+    this.trackExceptions = new IOException[trackCount];
+    this.failed = false;
+  }
+
+  boolean isFailed() {
+    return failed;
+  }
+
+  void trackDone() {
+    trackLatch.countDown();
+  }
+
+  void trackFailed(final int trackIndex, final Exception e) {
+    if (e instanceof IOException) {
+      trackExceptions[trackIndex] = (IOException) e;
+    }
+    else {
+      final IOException ioe = new IOException("Failure:" + e.toString());
+      ioe.initCause(e);
+      trackExceptions[trackIndex] = ioe;
+    }
+    failed = true;
+    trackLatch.countDown();
+  }
+
+  /**
+   * Blocks until all tracks are done, and throws if any of them failed.
+   */
+  void await()
+      throws IOException
+  {
+    try {
+      trackLatch.await();
+    }
+    catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting for tracks");
+    }
+    if (failed) {
+      throw new AggregatingIOException("Upload failed", trackExceptions);
+    }
+  }
+}
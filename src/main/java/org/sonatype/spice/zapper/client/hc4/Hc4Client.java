@@ -12,25 +12,38 @@
  */
 package org.sonatype.spice.zapper.client.hc4;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.Callable;
 
 import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.Range;
 import org.sonatype.spice.zapper.internal.Check;
 import org.sonatype.spice.zapper.internal.Payload;
 import org.sonatype.spice.zapper.internal.PayloadSupplier;
 import org.sonatype.spice.zapper.internal.Protocol;
-import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.internal.Segment;
 import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.ranged.RangedPayload;
 import org.sonatype.spice.zapper.internal.transport.AbstractChargerClient;
+import org.sonatype.spice.zapper.internal.transport.ConcurrencyLimiter;
+import org.sonatype.spice.zapper.internal.transport.NoopConcurrencyLimiter;
+import org.sonatype.spice.zapper.internal.transport.RemoteCapabilities;
+import org.sonatype.spice.zapper.internal.transport.RemoteFile;
 import org.sonatype.spice.zapper.internal.transport.State;
 import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
 
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
-import org.apache.http.StatusLine;
 import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpOptions;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.BasicAuthCache;
@@ -40,6 +53,11 @@ import org.apache.http.util.EntityUtils;
 public class Hc4Client
     extends AbstractChargerClient<Hc4Track>
 {
+  /**
+   * The path streaming tracks are uploaded to.
+   */
+  public static final String TRACK_PATH = "track";
+
   private final CloseableHttpClient httpClient;
 
   private final CredentialsProvider preemptiveCredentialsProvider;
@@ -69,9 +87,23 @@ public class Hc4Client
 
   @Override
   protected Callable<State> createCallable(final TrackIdentifier trackIdentifier, final Transfer transfer,
-                                           final Protocol protocol, final PayloadSupplier payloadSupplier)
+                                           final Protocol protocol, final PayloadSupplier payloadSupplier,
+                                           final ConcurrencyLimiter concurrencyLimiter)
   {
-    return new Hc4Track(trackIdentifier, payloadSupplier, this);
+    if (isTrackStreaming(protocol)) {
+      return new Hc4StreamingTrack(trackIdentifier, payloadSupplier, concurrencyLimiter, this,
+          transfer.getIdentifier());
+    }
+    return new Hc4Track(trackIdentifier, payloadSupplier, concurrencyLimiter, this);
+  }
+
+  @Override
+  protected ConcurrencyLimiter createConcurrencyLimiter(final Protocol protocol, final int trackCount) {
+    if (isTrackStreaming(protocol)) {
+      // adaptive track count does not apply to streaming tracks, see Parameters#isTrackStreaming()
+      return new NoopConcurrencyLimiter();
+    }
+    return super.createConcurrencyLimiter(protocol, trackCount);
   }
 
   // ==
@@ -82,38 +114,180 @@ public class Hc4Client
   {
     final String url = getRemoteUrl() + payload.getPath().stringValue();
     final HttpPut put = new HttpPut(url);
-    if (payload instanceof SegmentPayload) {
-      put.setEntity(new ZapperEntity(payload, getParameters().getCodecSelector().selectCodecs(
-          SegmentPayload.class.cast(payload).getSegment().getZFile())));
+    put.setEntity(new ZapperEntity(payload, payload.getCodecs(), track != null ? track.getBuffer() : null));
+    if (Hc4Responses.getCodecs(payload) != null) {
+      put.addHeader("X-Zapper-Codecs", Hc4Responses.getCodecs(payload));
     }
-    else {
-      put.setEntity(new ZapperEntity(payload));
+    if (payload instanceof RangedPayload) {
+      final String contentRange = ((RangedPayload) payload).getContentRange();
+      if (contentRange != null) {
+        put.addHeader("Content-Range", contentRange);
+      }
     }
-    put.addHeader("X-Zapper-Transfer-ID", payload.getTransferIdentifier().stringValue());
-    if (track != null) {
-      put.addHeader("X-Zapper-Track-ID", track.getIdentifier().stringValue());
+    return execute(put, payload.getTransferIdentifier(), track);
+  }
+
+  /**
+   * Uploads all the payloads of a track in one request, see {@link TrackEntity}.
+   */
+  public State uploadTrack(final TransferIdentifier transferIdentifier, final TrackEntity entity,
+                           final Hc4Track track)
+      throws IOException
+  {
+    final HttpPut put = new HttpPut(getRemoteUrl() + TRACK_PATH);
+    put.setEntity(entity);
+    return execute(put, transferIdentifier, track);
+  }
+
+  @Override
+  public State upload(final Payload payload)
+      throws IOException
+  {
+    return upload(payload, null);
+  }
+
+  @Override
+  public InputStream exchange(final Payload payload)
+      throws IOException
+  {
+    final HttpPut put = new HttpPut(getRemoteUrl() + payload.getPath().stringValue());
+    put.setEntity(new ZapperEntity(payload));
+    return open(put, payload.getTransferIdentifier(), null);
+  }
+
+  /**
+   * GETs the segment, telling it's identifier and byte range. The range is not told in standard "Range" header, as
+   * the answer is the framed segment, not the plain range of file.
+   */
+  @Override
+  public InputStream download(final Transfer transfer, final Segment segment, final TrackIdentifier trackIdentifier)
+      throws IOException
+  {
+    final HttpGet get = new HttpGet(getRemoteUrl() + segment.getZFile().getIdentifier().stringValue());
+    get.addHeader("X-Zapper-Segment-ID", segment.getIdentifier().stringValue());
+    get.addHeader("X-Zapper-Segment-Range", Hc4Responses.getRange(segment));
+    return open(get, transfer.getIdentifier(), trackIdentifier);
+  }
+
+  /**
+   * GETs the range of file, conditionally by "If-Range" if validator given. Without range, the whole file is got.
+   */
+  @Override
+  public InputStream downloadRange(final TransferIdentifier transferIdentifier, final Path path, final Range range,
+                                   final String validator, final TrackIdentifier trackIdentifier)
+      throws IOException
+  {
+    final HttpGet get = new HttpGet(getRemoteUrl() + path.stringValue());
+    if (range == null) {
+      return open(get, transferIdentifier, trackIdentifier);
     }
-    final HttpClientContext context = new HttpClientContext();
-    if (preemptiveCredentialsProvider != null) {
-      context.setCredentialsProvider(preemptiveCredentialsProvider);
-      context.setAuthCache(new BasicAuthCache());
-      context.getAuthCache().put(new HttpHost(put.getURI().getHost(), put.getURI().getPort(), put.getURI().getScheme()),
-          new BasicScheme());
+    get.addHeader("Range", Hc4Responses.getRange(range));
+    if (validator != null) {
+      get.addHeader("If-Range", validator);
+    }
+    final HttpResponse response = send(get, transferIdentifier, trackIdentifier);
+    try {
+      Hc4Responses.checkResponse(response);
+      Hc4Responses.checkContentRange(path, range, response);
+    }
+    catch (IOException e) {
+      // do not consume the (possibly whole file) content
+      get.abort();
+      throw e;
     }
-    final HttpResponse response = httpClient.execute(put, context);
-    final StatusLine statusLine = response.getStatusLine();
+    return response.getEntity().getContent();
+  }
+
+  @Override
+  public RemoteFile stat(final TransferIdentifier transferIdentifier, final Path path)
+      throws IOException
+  {
+    final HttpResponse response = send(new HttpHead(getRemoteUrl() + path.stringValue()), transferIdentifier, null);
     EntityUtils.consume(response.getEntity());
-    if (!(statusLine.getStatusCode() > 199 && statusLine.getStatusCode() < 299)) {
-      throw new IOException(String.format("Unexpected server response: %s %s", statusLine.getStatusCode(),
-          statusLine.getReasonPhrase()));
+    if (response.getStatusLine().getStatusCode() == 404) {
+      return null;
     }
-    return State.SUCCESS;
+    Hc4Responses.checkResponse(response);
+    return Hc4Responses.getRemoteFile(path, response);
   }
 
+  // ==
+
+  /**
+   * Probes remote end with OPTIONS request of remote URL. Remote ends not answering it successfully are considered
+   * plain.
+   */
   @Override
-  public State upload(final Payload payload)
+  protected RemoteCapabilities probe()
       throws IOException
   {
-    return upload(payload, null);
+    final HttpResponse response = send(new HttpOptions(getRemoteUrl()), null, null);
+    EntityUtils.consume(response.getEntity());
+    if (response.getStatusLine().getStatusCode() < 200 || response.getStatusLine().getStatusCode() > 299) {
+      return RemoteCapabilities.PLAIN;
+    }
+    return Hc4Responses.getRemoteCapabilities(response);
+  }
+
+  protected State execute(final HttpPut put, final TransferIdentifier transferIdentifier, final Hc4Track track)
+      throws IOException
+  {
+    if (track != null) {
+      // track might abort the request, see Hc4Track#abortUpload()
+      track.setRequest(put);
+    }
+    try {
+      final HttpResponse response = send(put, transferIdentifier, track != null ? track.getIdentifier() : null);
+      EntityUtils.consume(response.getEntity());
+      Hc4Responses.checkResponse(response);
+      return State.SUCCESS;
+    }
+    finally {
+      if (track != null) {
+        track.setRequest(null);
+      }
+    }
+  }
+
+  /**
+   * Executes the request, and returns the content of the response if it is successful. The content must be closed.
+   */
+  protected InputStream open(final HttpRequestBase request, final TransferIdentifier transferIdentifier,
+                             final TrackIdentifier trackIdentifier)
+      throws IOException
+  {
+    final HttpResponse response = send(request, transferIdentifier, trackIdentifier);
+    try {
+      Hc4Responses.checkResponse(response);
+    }
+    catch (IOException e) {
+      EntityUtils.consume(response.getEntity());
+      throw e;
+    }
+    if (response.getEntity() == null) {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+    return response.getEntity().getContent();
+  }
+
+  protected HttpResponse send(final HttpRequestBase request, final TransferIdentifier transferIdentifier,
+                              final TrackIdentifier trackIdentifier)
+      throws IOException
+  {
+    if (transferIdentifier != null) {
+      request.addHeader("X-Zapper-Transfer-ID", transferIdentifier.stringValue());
+    }
+    if (trackIdentifier != null) {
+      request.addHeader("X-Zapper-Track-ID", trackIdentifier.stringValue());
+    }
+    final HttpClientContext context = new HttpClientContext();
+    if (preemptiveCredentialsProvider != null) {
+      context.setCredentialsProvider(preemptiveCredentialsProvider);
+      context.setAuthCache(new BasicAuthCache());
+      context.getAuthCache().put(
+          new HttpHost(request.getURI().getHost(), request.getURI().getPort(), request.getURI().getScheme()),
+          new BasicScheme());
+    }
+    return httpClient.execute(request, context);
   }
 }
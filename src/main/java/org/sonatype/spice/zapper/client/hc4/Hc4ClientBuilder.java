@@ -65,8 +65,9 @@ public class Hc4ClientBuilder
         .register("https", SSLConnectionSocketFactory.getSystemSocketFactory()).build();
 
     final PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(registry);
-    cm.setMaxTotal(200);
-    cm.setDefaultMaxPerRoute(parameters.getMaximumTrackCount());
+    // all tracks of all transfers, plus one for protocol messages
+    cm.setMaxTotal(parameters.getMaximumTotalTrackCount() + 1);
+    cm.setDefaultMaxPerRoute(parameters.getMaximumTotalTrackCount() + 1);
 
     final HttpClientBuilder httpClientBuilder = HttpClientBuilder.create().setConnectionManager(cm)
         .setUserAgent("Zapper/1.0-HC4");
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.Range;
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.codec.CodecIdentifier;
+import org.sonatype.spice.zapper.internal.Payload;
+import org.sonatype.spice.zapper.internal.ProtocolIdentifier;
+import org.sonatype.spice.zapper.internal.transport.BackPressureIOException;
+import org.sonatype.spice.zapper.internal.transport.RemoteCapabilities;
+import org.sonatype.spice.zapper.internal.transport.RemoteFile;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * Request and response handling shared by HC4 clients.
+ */
+final class Hc4Responses
+{
+  private Hc4Responses() {
+    // no instances
+  }
+
+  /**
+   * Checks the status of response, that should be already consumed. Throws {@link BackPressureIOException} on 429 and
+   * 503 responses, and {@link IOException} on any other non-2xx response.
+   */
+  static void checkResponse(final HttpResponse response)
+      throws IOException
+  {
+    final StatusLine statusLine = response.getStatusLine();
+    if (statusLine.getStatusCode() == 429 || statusLine.getStatusCode() == 503) {
+      throw new BackPressureIOException(String.format("Server back-pressure: %s %s", statusLine.getStatusCode(),
+          statusLine.getReasonPhrase()), getRetryAfterMillis(response));
+    }
+    if (!(statusLine.getStatusCode() > 199 && statusLine.getStatusCode() < 299)) {
+      throw new IOException(String.format("Unexpected server response: %s %s", statusLine.getStatusCode(),
+          statusLine.getReasonPhrase()));
+    }
+  }
+
+  /**
+   * Returns the milliseconds to wait as told by "Retry-After" header (either seconds or HTTP date), or -1 if header
+   * not present or not parseable.
+   */
+  static long getRetryAfterMillis(final HttpResponse response) {
+    final Header retryAfter = response.getFirstHeader("Retry-After");
+    if (retryAfter == null || retryAfter.getValue() == null) {
+      return -1;
+    }
+    final String value = retryAfter.getValue().trim();
+    try {
+      return Math.max(0, Long.parseLong(value) * 1000L);
+    }
+    catch (NumberFormatException e) {
+      final Date date = DateUtils.parseDate(value);
+      if (date != null) {
+        return Math.max(0, date.getTime() - System.currentTimeMillis());
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the remote file as described by the headers of a successful HEAD (or GET) response. The validator is the
+   * strong entity tag if present, the last modified date otherwise, as only these are usable with "If-Range".
+   */
+  static RemoteFile getRemoteFile(final Path path, final HttpResponse response)
+      throws IOException
+  {
+    final Header contentLength = response.getFirstHeader("Content-Length");
+    if (contentLength == null) {
+      throw new IOException(String.format("Length of %s not known", path.stringValue()));
+    }
+    final long length;
+    try {
+      length = Long.parseLong(contentLength.getValue().trim());
+    }
+    catch (NumberFormatException e) {
+      throw new IOException(String.format("Unexpected length of %s: %s", path.stringValue(),
+          contentLength.getValue()));
+    }
+    final Header lastModified = response.getFirstHeader("Last-Modified");
+    final Date lastModifiedDate = lastModified != null ? DateUtils.parseDate(lastModified.getValue()) : null;
+    final Header etag = response.getFirstHeader("ETag");
+    final String validator;
+    if (etag != null && !etag.getValue().startsWith("W/")) {
+      validator = etag.getValue();
+    }
+    else if (lastModifiedDate != null) {
+      validator = lastModified.getValue();
+    }
+    else {
+      validator = null;
+    }
+    final Header acceptRanges = response.getFirstHeader("Accept-Ranges");
+    return new RemoteFile(path, length,
+        lastModifiedDate != null ? lastModifiedDate.getTime() : System.currentTimeMillis(), validator,
+        acceptRanges != null && acceptRanges.getValue().contains("bytes"));
+  }
+
+  /**
+   * Returns the capabilities of remote end as told by the headers of a successful OPTIONS response: the protocols in
+   * "X-Zapper-Protocols", the codecs in "X-Zapper-Codecs" (both comma separated), and byte ranges support in
+   * "Accept-Ranges".
+   */
+  static RemoteCapabilities getRemoteCapabilities(final HttpResponse response) {
+    final HashSet<ProtocolIdentifier> protocols = new HashSet<ProtocolIdentifier>();
+    for (String protocol : getValues(response, "X-Zapper-Protocols")) {
+      protocols.add(new ProtocolIdentifier(protocol));
+    }
+    HashSet<CodecIdentifier> codecs = null;
+    if (response.getFirstHeader("X-Zapper-Codecs") != null) {
+      codecs = new HashSet<CodecIdentifier>();
+      for (String codec : getValues(response, "X-Zapper-Codecs")) {
+        codecs.add(new CodecIdentifier(codec));
+      }
+    }
+    return new RemoteCapabilities(protocols, getValues(response, "Accept-Ranges").contains("bytes"), codecs);
+  }
+
+  /**
+   * Returns the comma separated values of all headers with given name.
+   */
+  static List<String> getValues(final HttpResponse response, final String name) {
+    final ArrayList<String> result = new ArrayList<String>();
+    for (Header header : response.getHeaders(name)) {
+      for (String value : header.getValue().split(",")) {
+        if (value.trim().length() > 0) {
+          result.add(value.trim());
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the value of "X-Zapper-Codecs" header telling the codecs applied to payload (in order), or {@code null}
+   * if there are none.
+   */
+  static String getCodecs(final Payload payload) {
+    if (payload.getCodecs().isEmpty()) {
+      return null;
+    }
+    final StringBuilder result = new StringBuilder();
+    for (Codec codec : payload.getCodecs()) {
+      result.append(result.length() > 0 ? "," : "").append(codec.getIdentifier().stringValue());
+    }
+    return result.toString();
+  }
+
+  /**
+   * Returns the value of "Range" header requesting given range.
+   */
+  static String getRange(final Range range) {
+    return "bytes=" + range.getOffset() + "-" + (range.getOffset() + range.getLength() - 1);
+  }
+
+  /**
+   * Checks that a successful response to a range request is a partial content with requested range. A full content
+   * (status 200) is not accepted, as either server ignored the range, or remote file changed since validator was got.
+   */
+  static void checkContentRange(final Path path, final Range range, final HttpResponse response)
+      throws IOException
+  {
+    if (response.getStatusLine().getStatusCode() != 206) {
+      throw new IOException(String.format("Range %s of %s not served (status %s), remote file changed?",
+          getRange(range), path.stringValue(), response.getStatusLine().getStatusCode()));
+    }
+    final Header contentRange = response.getFirstHeader("Content-Range");
+    final String expected = "bytes " + range.getOffset() + "-" + (range.getOffset() + range.getLength() - 1) + "/";
+    if (contentRange == null || !contentRange.getValue().trim().startsWith(expected)) {
+      throw new IOException(String.format("Unexpected range of %s: requested %s, got %s", path.stringValue(),
+          getRange(range), contentRange != null ? contentRange.getValue() : null));
+    }
+  }
+}
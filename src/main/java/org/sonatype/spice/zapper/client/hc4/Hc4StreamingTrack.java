@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.IOException;
+
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.transport.ConcurrencyLimiter;
+import org.sonatype.spice.zapper.internal.transport.State;
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
+/**
+ * Track that sends all of it's payloads in one chunked request, see {@link TrackEntity}. The track holds one permit
+ * of it's limiter while the request lasts.
+ */
+public class Hc4StreamingTrack
+    extends Hc4Track
+{
+  private final TransferIdentifier transferIdentifier;
+
+  public Hc4StreamingTrack(final TrackIdentifier identifier, final PayloadSupplier payloadSupplier,
+                           final ConcurrencyLimiter concurrencyLimiter, final Hc4Client hc4Client,
+                           final TransferIdentifier transferIdentifier)
+  {
+    super(identifier, payloadSupplier, concurrencyLimiter, hc4Client);
+    this.transferIdentifier = Check.notNull(transferIdentifier, TransferIdentifier.class);
+  }
+
+  @Override
+  public State call()
+      throws IOException
+  {
+    while (true) {
+      final TrackEntity entity = new TrackEntity(getPayloadSupplier(), getIdentifier());
+      final State state;
+      getConcurrencyLimiter().acquire();
+      try {
+        state = getHc4Client().uploadTrack(transferIdentifier, entity, this);
+      }
+      catch (IOException e) {
+        // remote end did not accept the track, hence any of the payloads streamed in it
+        if (entity.getPayloads().isEmpty()) {
+          throw e;
+        }
+        for (SegmentPayload payload : entity.getPayloads()) {
+          if (!getPayloadSupplier().payloadFailed(getIdentifier(), payload, e)) {
+            throw e;
+          }
+        }
+        continue;
+      }
+      finally {
+        getConcurrencyLimiter().release(-1, 0);
+      }
+      // remote end accepted the track, hence all the payloads streamed in it
+      for (SegmentPayload payload : entity.getPayloads()) {
+        getPayloadSupplier().payloadSent(getIdentifier(), payload);
+      }
+      return state;
+    }
+  }
+}
@@ -17,27 +17,49 @@ import java.io.IOException;
 import org.sonatype.spice.zapper.internal.Payload;
 import org.sonatype.spice.zapper.internal.PayloadSupplier;
 import org.sonatype.spice.zapper.internal.transport.AbstractChargerTrack;
+import org.sonatype.spice.zapper.internal.transport.ConcurrencyLimiter;
 import org.sonatype.spice.zapper.internal.transport.State;
 import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
 
+import org.apache.http.client.methods.HttpRequestBase;
+
 public class Hc4Track
     extends AbstractChargerTrack
 {
   private final Hc4Client hc4Client;
 
-  public Hc4Track(final TrackIdentifier identifier, final PayloadSupplier payloadSupplier, final Hc4Client hc4Client) {
-    super(identifier, payloadSupplier);
+  private volatile HttpRequestBase request;
+
+  public Hc4Track(final TrackIdentifier identifier, final PayloadSupplier payloadSupplier,
+                  final ConcurrencyLimiter concurrencyLimiter, final Hc4Client hc4Client)
+  {
+    super(identifier, payloadSupplier, concurrencyLimiter);
     this.hc4Client = hc4Client;
   }
 
-  public State call()
+  protected Hc4Client getHc4Client() {
+    return hc4Client;
+  }
+
+  /**
+   * Sets the request being executed on this track, or {@code null} once it is done.
+   */
+  void setRequest(final HttpRequestBase request) {
+    this.request = request;
+  }
+
+  @Override
+  protected void abortUpload() {
+    final HttpRequestBase current = request;
+    if (current != null) {
+      current.abort();
+    }
+  }
+
+  @Override
+  protected State upload(final Payload payload)
       throws IOException
   {
-    Payload payload = getPayloadSupplier().getNextPayload();
-    while (payload != null) {
-      hc4Client.upload(payload, this);
-      payload = getPayloadSupplier().getNextPayload();
-    }
-    return State.SUCCESS;
+    return hc4Client.upload(payload, this);
   }
 }
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.Payload;
+
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/**
+ * Produces the payload content (encoded with codecs, if any) as the I/O reactor asks for it. The I/O reactor thread
+ * only writes out already pending bytes, as much as the channel accepts without blocking: the content is read and
+ * encoded in chunks by fill tasks run by the worker executor, at most one chunk ahead of the channel. Output is
+ * suspended while there is nothing pending, and requested again by the fill task once it has a chunk ready.
+ */
+public class PayloadContentProducer
+    implements HttpAsyncContentProducer
+{
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Payload payload;
+
+  private final List<Codec> codecs;
+
+  private final Executor executor;
+
+  private final Runnable filler;
+
+  // guarded by this
+
+  private final PendingOutputStream pending;
+
+  private IOControl ioctrl;
+
+  private boolean filling;
+
+  private boolean eof;
+
+  private boolean closed;
+
+  private IOException failure;
+
+  // used by fill tasks only, one at a time
+
+  private final byte[] buffer;
+
+  private final ByteArrayOutputStream encoded;
+
+  private InputStream instream;
+
+  private OutputStream outstream;
+
+  private long remaining;
+
+  public PayloadContentProducer(final Payload payload, final List<Codec> codecs, final Executor executor) {
+    this.payload = Check.notNull(payload, Payload.class);
+    this.codecs = Check.notNull(codecs, Codec.class);
+    this.executor = Check.notNull(executor, Executor.class);
+    this.filler = new Runnable()
+    {
+      public void run() {
+        fill();
+      }
+    };
+    this.pending = new PendingOutputStream();
+    this.buffer = new byte[BUFFER_SIZE];
+    this.encoded = new ByteArrayOutputStream(BUFFER_SIZE);
+  }
+
+  /**
+   * Returns the content length, or -1 if not known upfront (when codecs are applied).
+   */
+  public long getContentLength() {
+    return codecs.isEmpty() ? payload.getLength() : -1;
+  }
+
+  public synchronized void produceContent(final ContentEncoder encoder, final IOControl ioctrl)
+      throws IOException
+  {
+    if (failure != null) {
+      throw failure;
+    }
+    this.ioctrl = ioctrl;
+    pending.drainTo(encoder);
+    if (pending.isEmpty()) {
+      if (eof) {
+        encoder.complete();
+        return;
+      }
+      // nothing to write, fill task requests output once it has a chunk ready
+      ioctrl.suspendOutput();
+    }
+    if (!eof && !filling && pending.available() < BUFFER_SIZE) {
+      filling = true;
+      executor.execute(filler);
+    }
+  }
+
+  public boolean isRepeatable() {
+    return false;
+  }
+
+  public void close()
+      throws IOException
+  {
+    synchronized (this) {
+      closed = true;
+      if (filling) {
+        // running fill task closes the streams
+        return;
+      }
+    }
+    closeStreams();
+  }
+
+  // ==
+
+  /**
+   * Reads and encodes one chunk of content, and appends it to pending bytes. Runs on worker executor, never
+   * concurrently with another fill of same producer.
+   */
+  private void fill() {
+    boolean done = false;
+    IOException e = null;
+    try {
+      synchronized (this) {
+        if (closed) {
+          done = true;
+          return;
+        }
+      }
+      done = read();
+    }
+    catch (IOException ex) {
+      done = true;
+      e = ex;
+    }
+    catch (RuntimeException ex) {
+      done = true;
+      e = new IOException("Could not produce content of " + payload.getPath().stringValue() + ": " + ex);
+      e.initCause(ex);
+    }
+    finally {
+      final boolean close;
+      synchronized (this) {
+        filling = false;
+        close = closed;
+        if (e != null) {
+          failure = e;
+        }
+        else if (!closed) {
+          pending.write(encoded.toByteArray(), 0, encoded.size());
+          eof = done;
+        }
+        encoded.reset();
+        if (ioctrl != null) {
+          ioctrl.requestOutput();
+        }
+      }
+      if (done || close) {
+        closeStreams();
+      }
+    }
+  }
+
+  /**
+   * Reads one chunk into encoded bytes, returns {@code true} once all content is read.
+   */
+  private boolean read()
+      throws IOException
+  {
+    if (instream == null) {
+      instream = payload.getContent();
+      outstream = new NonClosingOutputStream(encoded);
+      for (Codec codec : codecs) {
+        outstream = codec.encode(outstream);
+      }
+      remaining = payload.getLength();
+    }
+    // when not encoded, consume no more than length, otherwise until EOF
+    final int l = instream.read(buffer, 0, codecs.isEmpty() ? (int) Math.min(BUFFER_SIZE, remaining) : BUFFER_SIZE);
+    if (l == -1 && codecs.isEmpty()) {
+      throw new IOException(String.format("Payload %s shorter than declared: %s bytes missing",
+          payload.getPath().stringValue(), remaining));
+    }
+    if (l > 0) {
+      outstream.write(buffer, 0, l);
+      remaining -= l;
+    }
+    if (l == -1 || (codecs.isEmpty() && remaining == 0)) {
+      // flushes codec trailers, if any
+      outstream.close();
+      return true;
+    }
+    return false;
+  }
+
+  private void closeStreams() {
+    if (instream != null) {
+      try {
+        instream.close();
+      }
+      catch (IOException e) {
+        // nothing to do, content is either sent or failed already
+      }
+    }
+  }
+
+  // ==
+
+  /**
+   * Buffer of bytes read (and encoded) but not yet written to the channel.
+   */
+  private static class PendingOutputStream
+      extends ByteArrayOutputStream
+  {
+    private int position;
+
+    private int available() {
+      return count - position;
+    }
+
+    private boolean isEmpty() {
+      return position == count;
+    }
+
+    /**
+     * Writes pending bytes to encoder, as much as it accepts.
+     */
+    private void drainTo(final ContentEncoder encoder)
+        throws IOException
+    {
+      if (position < count) {
+        position += encoder.write(ByteBuffer.wrap(buf, position, count - position));
+      }
+      if (position == count) {
+        reset();
+        position = 0;
+      }
+    }
+  }
+
+  /**
+   * Stream of encoded bytes, that stays open when codecs close their streams.
+   */
+  private static class NonClosingOutputStream
+      extends OutputStream
+  {
+    private final OutputStream out;
+
+    private NonClosingOutputStream(final OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(final int b)
+        throws IOException
+    {
+      out.write(b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len)
+        throws IOException
+    {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() {
+      // nop, closed by codecs
+    }
+  }
+}
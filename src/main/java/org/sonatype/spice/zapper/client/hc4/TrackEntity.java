@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sonatype.spice.zapper.internal.ChannelUtils;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * Entity of a streaming track: writes the content of successive payloads got from the supplier, one after another,
+ * until there are no more payloads. Payloads must be self-delimiting (like "zapper" protocol framed segments are), as
+ * receiver has to split the stream back into payloads. Codecs of payloads are not applied. Is not repeatable, as the
+ * payloads are pulled from supplier while written.
+ */
+public class TrackEntity
+    extends AbstractHttpEntity
+{
+  private final PayloadSupplier payloadSupplier;
+
+  private final TrackIdentifier trackIdentifier;
+
+  private final List<SegmentPayload> payloads;
+
+  public TrackEntity(final PayloadSupplier payloadSupplier, final TrackIdentifier trackIdentifier) {
+    this.payloadSupplier = Check.notNull(payloadSupplier, PayloadSupplier.class);
+    this.trackIdentifier = Check.notNull(trackIdentifier, TrackIdentifier.class);
+    this.payloads = new ArrayList<SegmentPayload>();
+    setChunked(true);
+  }
+
+  /**
+   * Returns the count of payloads written so far.
+   */
+  public int getPayloadCount() {
+    return payloads.size();
+  }
+
+  /**
+   * Returns the payloads written so far. If writing failed, the last one might be written partially.
+   */
+  public List<SegmentPayload> getPayloads() {
+    return payloads;
+  }
+
+  public boolean isRepeatable() {
+    return false;
+  }
+
+  public long getContentLength() {
+    return -1;
+  }
+
+  public InputStream getContent()
+      throws IOException, IllegalStateException
+  {
+    throw new UnsupportedOperationException("Streaming track entity supports writeTo only");
+  }
+
+  public void writeTo(final OutputStream outstream)
+      throws IOException
+  {
+    final WritableByteChannel channel = ChannelUtils.newChannel(outstream);
+    try {
+      SegmentPayload payload = payloadSupplier.getNextPayload(trackIdentifier);
+      while (payload != null) {
+        payloads.add(payload);
+        payload.writeTo(channel);
+        payload = payloadSupplier.getNextPayload(trackIdentifier);
+      }
+    }
+    finally {
+      outstream.close();
+    }
+  }
+
+  public boolean isStreaming() {
+    return false;
+  }
+}
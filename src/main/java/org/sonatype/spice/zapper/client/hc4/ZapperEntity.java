@@ -19,6 +19,7 @@ import java.util.Collections;
 import java.util.List;
 
 import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.internal.ChannelUtils;
 import org.sonatype.spice.zapper.internal.Check;
 import org.sonatype.spice.zapper.internal.Payload;
 
@@ -31,13 +32,24 @@ public class ZapperEntity
 
   private final List<Codec> codecs;
 
+  private final byte[] buffer;
+
   public ZapperEntity(final Payload payload) {
     this(payload, Collections.<Codec>emptyList());
   }
 
   public ZapperEntity(final Payload payload, final List<Codec> codecs) {
+    this(payload, codecs, null);
+  }
+
+  /**
+   * Creates entity copying bytes through given buffer, if not {@code null}, that is reused by all the entities of a
+   * track.
+   */
+  public ZapperEntity(final Payload payload, final List<Codec> codecs, final byte[] buffer) {
     this.payload = Check.notNull(payload, Payload.class);
     this.codecs = Check.notNull(codecs, Codec.class);
+    this.buffer = buffer;
   }
 
   public boolean isRepeatable() {
@@ -59,11 +71,23 @@ public class ZapperEntity
     return payload.getContent();
   }
 
-  private final int BUFFER_SIZE = 2048;
-
+  /**
+   * Without codecs, the payload is written directly into the stream, letting it transfer it's content without
+   * intermediate copying. With codecs, the content is pumped through them using a large buffer.
+   */
   public void writeTo(final OutputStream _outstream)
       throws IOException
   {
+    if (codecs.isEmpty()) {
+      try {
+        payload.writeTo(ChannelUtils.newChannel(_outstream, buffer));
+      }
+      finally {
+        _outstream.close();
+      }
+      return;
+    }
+
     final InputStream instream = getContent();
     OutputStream outstream = _outstream;
     for (Codec codec : codecs) {
@@ -71,25 +95,11 @@ public class ZapperEntity
     }
 
     try {
-      byte[] buffer = new byte[BUFFER_SIZE];
+      final byte[] buffer = this.buffer != null ? this.buffer : ChannelUtils.newBuffer(ChannelUtils.BUFFER_SIZE);
       int l;
-      if (getContentLength() < 0) {
-        // consume until EOF
-        while ((l = instream.read(buffer)) != -1) {
-          outstream.write(buffer, 0, l);
-        }
-      }
-      else {
-        // consume no more than length
-        long remaining = getContentLength();
-        while (remaining > 0) {
-          l = instream.read(buffer, 0, (int) Math.min(BUFFER_SIZE, remaining));
-          if (l == -1) {
-            break;
-          }
-          outstream.write(buffer, 0, l);
-          remaining -= l;
-        }
+      // consume until EOF
+      while ((l = instream.read(buffer)) != -1) {
+        outstream.write(buffer, 0, l);
       }
     }
     finally {
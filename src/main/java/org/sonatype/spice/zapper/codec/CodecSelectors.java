@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.codec;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.sonatype.spice.zapper.CodecSelector;
+import org.sonatype.spice.zapper.ContentCodecSelector;
+import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.ZFile;
+
+/**
+ * Helpers of {@link CodecSelector}s.
+ */
+public final class CodecSelectors
+{
+  private CodecSelectors() {
+    // no instances
+  }
+
+  /**
+   * Selects the codecs of file being uploaded from given source, letting a {@link ContentCodecSelector} read it.
+   */
+  public static List<Codec> selectCodecs(final CodecSelector codecSelector, final ZFile zfile, final IOSource source)
+      throws IOException
+  {
+    if (codecSelector instanceof ContentCodecSelector) {
+      return ((ContentCodecSelector) codecSelector).selectCodecs(zfile, source);
+    }
+    return codecSelector.selectCodecs(zfile);
+  }
+}
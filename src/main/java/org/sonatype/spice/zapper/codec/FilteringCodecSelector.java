@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.sonatype.spice.zapper.CodecSelector;
+import org.sonatype.spice.zapper.ContentCodecSelector;
+import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.internal.Check;
+
+/**
+ * {@link CodecSelector} that drops the codecs not in given set from codecs selected by another selector. Used to
+ * apply only the codecs remote end accepts. Lets another selector read the content of files, if it selects codecs by
+ * content.
+ */
+public class FilteringCodecSelector
+    implements ContentCodecSelector
+{
+  private final CodecSelector codecSelector;
+
+  private final Set<CodecIdentifier> codecs;
+
+  public FilteringCodecSelector(final CodecSelector codecSelector, final Set<CodecIdentifier> codecs) {
+    this.codecSelector = Check.notNull(codecSelector, CodecSelector.class);
+    this.codecs = Check.notNull(codecs, Set.class);
+  }
+
+  public List<Codec> selectCodecs(final ZFile zfile) {
+    return filter(codecSelector.selectCodecs(zfile));
+  }
+
+  public List<Codec> selectCodecs(final ZFile zfile, final IOSource source)
+      throws IOException
+  {
+    return filter(CodecSelectors.selectCodecs(codecSelector, zfile, source));
+  }
+
+  // ==
+
+  private List<Codec> filter(final List<Codec> selected) {
+    final ArrayList<Codec> result = new ArrayList<Codec>(selected.size());
+    for (Codec codec : selected) {
+      if (codecs.contains(codec.getIdentifier())) {
+        result.add(codec);
+      }
+    }
+    return result;
+  }
+}
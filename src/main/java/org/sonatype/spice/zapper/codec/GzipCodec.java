@@ -15,25 +15,52 @@ package org.sonatype.spice.zapper.codec;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import org.sonatype.spice.zapper.internal.AbstractIdentified;
+import org.sonatype.spice.zapper.internal.Check;
 
+/**
+ * Codec of gzip format. Level is the deflate level, from 1 (fastest) to 9 (best compression), by default 6. Level is
+ * not needed to decode.
+ */
 public class GzipCodec
     extends AbstractIdentified<CodecIdentifier>
     implements Codec
 {
   public static final CodecIdentifier ID = new CodecIdentifier("gzip");
 
+  private final int level;
+
   public GzipCodec() {
+    this(Deflater.DEFAULT_COMPRESSION);
+  }
+
+  public GzipCodec(final int level) {
     super(ID);
+    this.level = Check.argument(level == Deflater.DEFAULT_COMPRESSION
+        || (level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION), level,
+        "level must be between 1 and 9!");
+  }
+
+  public int getLevel() {
+    return level;
   }
 
   public OutputStream encode(final OutputStream outputStream)
       throws IOException
   {
-    return new GZIPOutputStream(outputStream);
+    if (level == Deflater.DEFAULT_COMPRESSION) {
+      return new GZIPOutputStream(outputStream);
+    }
+    return new GZIPOutputStream(outputStream)
+    {
+      {
+        def.setLevel(level);
+      }
+    };
   }
 
   public InputStream decode(InputStream inputStream)
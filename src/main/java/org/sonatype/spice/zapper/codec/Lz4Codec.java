@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.sonatype.spice.zapper.internal.AbstractIdentified;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.lz4.Lz4Blocks;
+import org.sonatype.spice.zapper.internal.lz4.Lz4InputStream;
+import org.sonatype.spice.zapper.internal.lz4.Lz4OutputStream;
+
+/**
+ * Codec of LZ4 frame format, compressing several times faster than gzip for a somewhat worse ratio. Level 1 (default)
+ * is the fastest, up to level 3 compressing better but slower. Level is not needed to decode.
+ */
+public class Lz4Codec
+    extends AbstractIdentified<CodecIdentifier>
+    implements Codec
+{
+  public static final CodecIdentifier ID = new CodecIdentifier("lz4");
+
+  private final int level;
+
+  public Lz4Codec() {
+    this(Lz4Blocks.MINIMUM_LEVEL);
+  }
+
+  public Lz4Codec(final int level) {
+    super(ID);
+    this.level = Check.argument(level >= Lz4Blocks.MINIMUM_LEVEL && level <= Lz4Blocks.MAXIMUM_LEVEL, level,
+        "level must be between 1 and 3!");
+  }
+
+  public int getLevel() {
+    return level;
+  }
+
+  public OutputStream encode(final OutputStream outputStream)
+      throws IOException
+  {
+    return new Lz4OutputStream(outputStream, level);
+  }
+
+  public InputStream decode(final InputStream inputStream)
+      throws IOException
+  {
+    return new Lz4InputStream(inputStream);
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.sonatype.spice.zapper.CodecSelector;
+import org.sonatype.spice.zapper.ContentCodecSelector;
+import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.RangeImpl;
+
+/**
+ * {@link ContentCodecSelector} that applies the codecs selected by another selector only to files they compress well
+ * enough. A sample is read from the middle of the file and encoded with the selected codecs: if encoded sample is not
+ * smaller than the given ratio of it, the file is sent as is, as it's likely already compressed (archives, images).
+ * Samples are accumulated per file extension, and once enough files of an extension were sampled, the decision is
+ * remembered for the extension and its files are not sampled anymore. Files without extension are always sampled.
+ */
+public class SamplingCodecSelector
+    implements ContentCodecSelector
+{
+  public static final int DEFAULT_SAMPLE_LENGTH = 8 * 1024;
+
+  public static final double DEFAULT_MAXIMUM_RATIO = 0.9d;
+
+  public static final int DEFAULT_SAMPLES_PER_EXTENSION = 3;
+
+  /**
+   * The count of file decisions kept, as codecs are selected for each segment of a file.
+   */
+  private static final int MAXIMUM_FILE_DECISION_COUNT = 1024;
+
+  private final CodecSelector codecSelector;
+
+  private final int sampleLength;
+
+  private final double maximumRatio;
+
+  private final int samplesPerExtension;
+
+  private final Map<String, ExtensionStats> extensions;
+
+  private final Map<Path, Boolean> files;
+
+  public SamplingCodecSelector(final CodecSelector codecSelector) {
+    this(codecSelector, DEFAULT_SAMPLE_LENGTH, DEFAULT_MAXIMUM_RATIO, DEFAULT_SAMPLES_PER_EXTENSION);
+  }
+
+  public SamplingCodecSelector(final CodecSelector codecSelector, final int sampleLength, final double maximumRatio,
+                               final int samplesPerExtension)
+  {
+    this.codecSelector = Check.notNull(codecSelector, CodecSelector.class);
+    this.sampleLength = Check.argument(sampleLength > 0, sampleLength, "sampleLength must be greater than zero!");
+    this.maximumRatio = Check.argument(maximumRatio > 0, maximumRatio, "maximumRatio must be greater than zero!");
+    this.samplesPerExtension = Check.argument(samplesPerExtension > 0, samplesPerExtension,
+        "samplesPerExtension must be greater than zero!");
+    this.extensions = new HashMap<String, ExtensionStats>();
+    this.files = new LinkedHashMap<Path, Boolean>(16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Path, Boolean> eldest) {
+        return size() > MAXIMUM_FILE_DECISION_COUNT;
+      }
+    };
+  }
+
+  /**
+   * Selects codecs without sampling: applies the decision remembered for the file or its extension, if any, otherwise
+   * the codecs selected by the other selector.
+   */
+  public List<Codec> selectCodecs(final ZFile zfile) {
+    final List<Codec> selected = codecSelector.selectCodecs(zfile);
+    if (selected.isEmpty()) {
+      return selected;
+    }
+    final Boolean compressible = getDecision(zfile);
+    if (compressible != null && !compressible) {
+      return Collections.emptyList();
+    }
+    return selected;
+  }
+
+  public List<Codec> selectCodecs(final ZFile zfile, final IOSource source)
+      throws IOException
+  {
+    final List<Codec> selected = codecSelector.selectCodecs(zfile);
+    if (selected.isEmpty()) {
+      return selected;
+    }
+    Boolean compressible = getDecision(zfile);
+    if (compressible == null) {
+      compressible = sample(zfile, source, selected);
+    }
+    return compressible ? selected : Collections.<Codec>emptyList();
+  }
+
+  // ==
+
+  /**
+   * Returns the extension of given file lower cased, or {@code null} if it has none.
+   */
+  protected String getExtension(final ZFile zfile) {
+    final String path = zfile.getIdentifier().stringValue();
+    final int dot = path.lastIndexOf('.');
+    if (dot <= path.lastIndexOf('/') + 1 || dot == path.length() - 1) {
+      return null;
+    }
+    return path.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+  }
+
+  private synchronized Boolean getDecision(final ZFile zfile) {
+    final Boolean compressible = files.get(zfile.getIdentifier());
+    if (compressible != null) {
+      return compressible;
+    }
+    final String extension = getExtension(zfile);
+    if (extension == null) {
+      return null;
+    }
+    final ExtensionStats stats = extensions.get(extension);
+    return stats != null && stats.samples >= samplesPerExtension ? stats.isCompressible() : null;
+  }
+
+  /**
+   * Samples the file and records the outcome for file and its extension. Returns whether file should be encoded.
+   */
+  private boolean sample(final ZFile zfile, final IOSource source, final List<Codec> codecs)
+      throws IOException
+  {
+    final long length = Math.min(zfile.getLength(), sampleLength);
+    if (length == 0) {
+      // nothing to compress
+      return false;
+    }
+    final long offset = (zfile.getLength() - length) / 2;
+    final CountingOutputStream counter = new CountingOutputStream();
+    OutputStream encoder = counter;
+    for (Codec codec : codecs) {
+      encoder = codec.encode(encoder);
+    }
+    final byte[] buffer = new byte[4096];
+    long read = 0;
+    final InputStream input = source.readSegment(zfile.getIdentifier(), new RangeImpl(offset, length));
+    try {
+      int n;
+      while ((n = input.read(buffer)) != -1) {
+        encoder.write(buffer, 0, n);
+        read += n;
+      }
+      encoder.close();
+    }
+    finally {
+      input.close();
+    }
+    if (read == 0) {
+      return false;
+    }
+
+    final boolean compressible = counter.count <= maximumRatio * read;
+    synchronized (this) {
+      files.put(zfile.getIdentifier(), compressible);
+      final String extension = getExtension(zfile);
+      if (extension != null) {
+        ExtensionStats stats = extensions.get(extension);
+        if (stats == null) {
+          stats = new ExtensionStats();
+          extensions.put(extension, stats);
+        }
+        stats.samples++;
+        stats.sampled += read;
+        stats.encoded += counter.count;
+      }
+    }
+    return compressible;
+  }
+
+  private class ExtensionStats
+  {
+    private int samples;
+
+    private long sampled;
+
+    private long encoded;
+
+    private boolean isCompressible() {
+      return encoded <= maximumRatio * sampled;
+    }
+  }
+
+  private static class CountingOutputStream
+      extends OutputStream
+  {
+    private long count;
+
+    @Override
+    public void write(final int b) {
+      count++;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+      count += len;
+    }
+  }
+}
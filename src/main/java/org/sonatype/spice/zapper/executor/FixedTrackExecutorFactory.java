@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.executor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.sonatype.spice.zapper.TrackExecutorFactory;
+import org.sonatype.spice.zapper.internal.Check;
+
+/**
+ * Runs tracks on fixed count of platform daemon threads. Tracks over the thread count are queued, hence the thread
+ * count should not be less than the maximum total track count.
+ */
+public class FixedTrackExecutorFactory
+    implements TrackExecutorFactory
+{
+  private final int threadCount;
+
+  public FixedTrackExecutorFactory(final int threadCount) {
+    this.threadCount = Check.argument(threadCount > 0, threadCount, "threadCount not positive!");
+  }
+
+  public ExecutorService createExecutorService() {
+    return Executors.newFixedThreadPool(threadCount, new PlatformTrackExecutorFactory.TrackThreadFactory());
+  }
+}
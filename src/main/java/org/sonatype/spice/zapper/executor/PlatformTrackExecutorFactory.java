@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.executor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sonatype.spice.zapper.TrackExecutorFactory;
+
+/**
+ * Runs tracks on cached (reused) platform daemon threads, created on demand.
+ */
+public class PlatformTrackExecutorFactory
+    implements TrackExecutorFactory
+{
+  public ExecutorService createExecutorService() {
+    return Executors.newCachedThreadPool(new TrackThreadFactory());
+  }
+
+  // ==
+
+  static class TrackThreadFactory
+      implements ThreadFactory
+  {
+    private final AtomicInteger threadCounter = new AtomicInteger(1);
+
+    public Thread newThread(final Runnable r) {
+      final Thread thread = new Thread(r, "zapper-track-" + threadCounter.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
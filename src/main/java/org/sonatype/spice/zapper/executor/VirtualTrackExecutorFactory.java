@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.executor;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.sonatype.spice.zapper.TrackExecutorFactory;
+
+/**
+ * Runs each track on a new virtual thread, hence tracks blocked on network I/O do not hold a platform thread (and
+ * it's stack). Virtual threads are available on Java 21 and newer only, and as this library is built for older Java
+ * versions, they are accessed reflectively: use {@link #isAvailable()} to check whether running JVM supports them.
+ * Note: on Java versions before 24, a virtual thread waiting in a monitor (like the adaptive limiter does) pins it's
+ * carrier thread.
+ */
+public class VirtualTrackExecutorFactory
+    implements TrackExecutorFactory
+{
+  private static final Method OF_VIRTUAL;
+
+  private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+  static {
+    Method ofVirtual = null;
+    Method newThreadPerTaskExecutor = null;
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+    }
+    catch (NoSuchMethodException e) {
+      // not supported by this JVM
+      ofVirtual = null;
+      newThreadPerTaskExecutor = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+  }
+
+  /**
+   * Returns {@code true} if running JVM supports virtual threads.
+   */
+  public static boolean isAvailable() {
+    return OF_VIRTUAL != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  public VirtualTrackExecutorFactory() {
+    if (!isAvailable()) {
+      throw new IllegalStateException("Virtual threads are not supported by this JVM");
+    }
+  }
+
+  public ExecutorService createExecutorService() {
+    try {
+      // Thread.ofVirtual().name("zapper-track-", 1).factory()
+      final Object builder = OF_VIRTUAL.invoke(null);
+      final Class<?> builderClass = OF_VIRTUAL.getReturnType();
+      final Object namedBuilder = builderClass.getMethod("name", String.class, long.class)
+          .invoke(builder, "zapper-track-", 1L);
+      final ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(namedBuilder);
+      return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+    }
+    catch (NoSuchMethodException e) {
+      throw new IllegalStateException("Could not create virtual thread executor", e);
+    }
+    catch (IllegalAccessException e) {
+      throw new IllegalStateException("Could not create virtual thread executor", e);
+    }
+    catch (InvocationTargetException e) {
+      throw new IllegalStateException("Could not create virtual thread executor", e.getCause());
+    }
+  }
+}
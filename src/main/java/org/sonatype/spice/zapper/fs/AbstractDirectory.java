@@ -22,11 +22,14 @@ public class AbstractDirectory
 {
   private final File root;
 
+  private final String canonicalRoot;
+
   public AbstractDirectory(final File root)
       throws IOException
   {
     if (root.isDirectory()) {
       this.root = root.getAbsoluteFile();
+      this.canonicalRoot = root.getCanonicalPath() + File.separator;
     }
     else {
       throw new IOException(String.format("Supplied file %s is a not an existing directory!",
@@ -38,14 +41,28 @@ public class AbstractDirectory
     return root;
   }
 
+  /**
+   * Returns {@code true} if given file is within root, once symbolic links are resolved.
+   */
+  public boolean isWithinRoot(final File file)
+      throws IOException
+  {
+    return file.getCanonicalPath().startsWith(canonicalRoot);
+  }
+
   // ==
 
+  /**
+   * Returns the file on given path within root. Fails if the file, once symbolic links are resolved, is not within
+   * root, so paths received from remote end can not read or write files elsewhere. As resolving links costs a few
+   * system calls, subclasses reading the same files repeatedly should check them once.
+   */
   protected File getFile(final Path path)
       throws IOException
   {
-    final File result = new File(getRoot(), path.stringValue()).getAbsoluteFile();
+    final File result = new File(getRoot(), path.stringValue());
 
-    if (!result.getAbsolutePath().startsWith(root.getAbsolutePath())) {
+    if (!isWithinRoot(result)) {
       throw new IOException(String.format("Path %s was about to escape sandbox %s!", path,
           root.getAbsolutePath()));
     }
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashAlgorithm;
+import org.sonatype.spice.zapper.hash.HashAlgorithmIdentifier;
+import org.sonatype.spice.zapper.internal.Check;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link HashStrategy} that caches the hashes got from another strategy in a compact on-disk index, keyed by file
+ * path and hash algorithm, and validated by file length and last modified timestamp. Hence, hashes of files not
+ * changed since they were last hashed are not calculated again. Note: as with any timestamp based cache, a file
+ * modified without changing it's length within the timestamp granularity of the filesystem will not be detected as
+ * changed.
+ * <p/>
+ * The index is loaded when this instance is created, and is written on {@link #flush()}, that is invoked by
+ * {@link DirectoryIOSource} when it is closed.
+ */
+public class CachingHashStrategy
+    implements HashStrategy, Flushable
+{
+  private static final int MAGIC = 0x7a486331; // "zHc1"
+
+  private final Logger logger;
+
+  private final HashStrategy hashStrategy;
+
+  private final File indexFile;
+
+  private final Map<String, Entry> entries;
+
+  private final AtomicLong hitCount;
+
+  private final AtomicLong missCount;
+
+  private volatile boolean dirty;
+
+  public CachingHashStrategy(final HashStrategy hashStrategy, final File indexFile) {
+    this.logger = LoggerFactory.getLogger(getClass());
+    this.hashStrategy = Check.notNull(hashStrategy, HashStrategy.class);
+    this.indexFile = Check.notNull(indexFile, File.class).getAbsoluteFile();
+    this.entries = new ConcurrentHashMap<String, Entry>();
+    this.hitCount = new AtomicLong(0);
+    this.missCount = new AtomicLong(0);
+    this.dirty = false;
+    load();
+  }
+
+  public HashAlgorithm getHashAlgorithm() {
+    return hashStrategy.getHashAlgorithm();
+  }
+
+  public Hash getHashFor(final File file)
+      throws IOException
+  {
+    Check.notNull(file, File.class);
+    final String key = key(file.getAbsolutePath(), getHashAlgorithm().getIdentifier());
+    final long length = file.length();
+    final long lastModified = file.lastModified();
+    final Entry entry = entries.get(key);
+    if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+      hitCount.incrementAndGet();
+      return entry.hash;
+    }
+    missCount.incrementAndGet();
+    final Hash hash = hashStrategy.getHashFor(file);
+    entries.put(key, new Entry(file.getAbsolutePath(), length, lastModified, hash));
+    dirty = true;
+    return hash;
+  }
+
+  /**
+   * Writes the index to disk, if it was changed since it was loaded or last written.
+   */
+  public synchronized void flush()
+      throws IOException
+  {
+    if (!dirty) {
+      return;
+    }
+    dirty = false;
+    final File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+    indexFile.getParentFile().mkdirs();
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+    try {
+      out.writeInt(MAGIC);
+      // snapshot, as map might be concurrently modified
+      final Entry[] snapshot = entries.values().toArray(new Entry[0]);
+      out.writeInt(snapshot.length);
+      for (Entry entry : snapshot) {
+        out.writeUTF(entry.path);
+        out.writeUTF(entry.hash.getHashAlgorithmIdentifier().stringValue());
+        out.writeLong(entry.length);
+        out.writeLong(entry.lastModified);
+        final byte[] hashBytes = entry.hash.byteValue();
+        out.writeByte(hashBytes.length);
+        out.write(hashBytes);
+      }
+    }
+    catch (IOException e) {
+      dirty = true;
+      throw e;
+    }
+    finally {
+      out.close();
+    }
+    if (!tmpFile.renameTo(indexFile)) {
+      // on some OSes rename does not replace existing file
+      indexFile.delete();
+      if (!tmpFile.renameTo(indexFile)) {
+        dirty = true;
+        throw new IOException(String.format("Could not write hash cache index %s", indexFile));
+      }
+    }
+  }
+
+  /**
+   * Returns the count of hash requests served from cache.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the count of hash requests that were not served from cache, but hashes were calculated.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(index=" + indexFile + ", hits=" + getHitCount() + ", misses="
+        + getMissCount() + ")";
+  }
+
+  // ==
+
+  protected void load() {
+    if (!indexFile.isFile()) {
+      return;
+    }
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      try {
+        if (in.readInt() != MAGIC) {
+          logger.warn("Hash cache index {} is not recognized, ignoring it", indexFile);
+          return;
+        }
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          final String path = in.readUTF();
+          final String algorithm = in.readUTF();
+          final long length = in.readLong();
+          final long lastModified = in.readLong();
+          final byte[] hashBytes = new byte[in.readUnsignedByte()];
+          in.readFully(hashBytes);
+          final HashAlgorithmIdentifier identifier = new HashAlgorithmIdentifier(algorithm, hashBytes.length);
+          entries.put(key(path, identifier),
+              new Entry(path, length, lastModified, new Hash(identifier, hashBytes)));
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      logger.warn("Could not read hash cache index {}, ignoring it", indexFile, e);
+      entries.clear();
+    }
+  }
+
+  protected String key(final String path, final HashAlgorithmIdentifier algorithm) {
+    return algorithm.stringValue() + ":" + path;
+  }
+
+  private static class Entry
+  {
+    private final String path;
+
+    private final long length;
+
+    private final long lastModified;
+
+    private final Hash hash;
+
+    private Entry(final String path, final long length, final long lastModified, final Hash hash) {
+      this.path = path;
+      this.length = length;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.sonatype.spice.zapper.Range;
+
+/**
+ * Input stream reading a range of a shared channel using positional reads. Releases the channel handle when closed.
+ */
+class ChannelSegmentInputStream
+    extends InputStream
+{
+  private final FileChannelCache.Handle handle;
+
+  private long position;
+
+  private long remaining;
+
+  private boolean closed;
+
+  ChannelSegmentInputStream(final FileChannelCache.Handle handle, final Range range) {
+    this.handle = handle;
+    this.position = range.getOffset();
+    this.remaining = range.getLength();
+    this.closed = false;
+  }
+
+  @Override
+  public int read()
+      throws IOException
+  {
+    final byte[] b = new byte[1];
+    final int l = read(b, 0, 1);
+    return l == -1 ? -1 : b[0] & 0xFF;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len)
+      throws IOException
+  {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (remaining <= 0) {
+      return -1;
+    }
+    final int l = handle.getChannel().read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+    if (l > 0) {
+      position += l;
+      remaining -= l;
+    }
+    return l;
+  }
+
+  @Override
+  public long skip(final long n) {
+    if (n <= 0) {
+      return 0;
+    }
+    final long l = Math.min(n, remaining);
+    position += l;
+    remaining -= l;
+    return l;
+  }
+
+  @Override
+  public int available() {
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(remaining, 0));
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      handle.release();
+    }
+  }
+}
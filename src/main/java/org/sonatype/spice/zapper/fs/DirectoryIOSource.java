@@ -14,40 +14,65 @@ package org.sonatype.spice.zapper.fs;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
-import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.sonatype.spice.zapper.IOSourceListable;
+import org.sonatype.spice.zapper.IOSourceTransferable;
 import org.sonatype.spice.zapper.Path;
 import org.sonatype.spice.zapper.Range;
 import org.sonatype.spice.zapper.ZFile;
 import org.sonatype.spice.zapper.hash.Hash;
 import org.sonatype.spice.zapper.hash.HashAlgorithm;
 import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.ByteBufferInputStream;
+import org.sonatype.spice.zapper.internal.ChannelUtils;
 import org.sonatype.spice.zapper.internal.Check;
 import org.sonatype.spice.zapper.internal.RangeImpl;
-import org.sonatype.spice.zapper.internal.RangeInputStream;
 import org.sonatype.spice.zapper.internal.ZFileImpl;
 
 public class DirectoryIOSource
     extends AbstractDirectory
-    implements IOSourceListable
+    implements IOSourceListable, IOSourceTransferable
 {
+  /**
+   * Default length a file must have at least to have it's segments memory mapped, when mapping is enabled.
+   */
+  public static final long DEFAULT_MAPPING_THRESHOLD = 1024 * 1024;
+
+  /**
+   * Default maximum count of files kept open for reading.
+   */
+  public static final int DEFAULT_OPEN_FILE_COUNT = 64;
+
   private final HashStrategy hashStrategy;
 
+  private final int scanThreadCount;
+
+  private final FileChannelCache fileChannelCache;
+
+  private final long mappingThreshold;
+
+  private final MappedSegmentCache mappedSegmentCache;
+
+  private final ConcurrentMap<Path, File> checkedFiles;
+
   /**
    * Creates source that will source ZFiles with SHA1 hashes.
    */
   public DirectoryIOSource(final File root)
       throws IOException, NoSuchAlgorithmException
   {
-    this(root, new Sha1HashAlgorithm());
+    this(builder(root).setHashAlgorithm(new Sha1HashAlgorithm()));
   }
 
   /**
@@ -56,7 +81,7 @@ public class DirectoryIOSource
   public DirectoryIOSource(final File root, final HashAlgorithm hashAlgorithm)
       throws IOException
   {
-    this(root, new CalculateHashStrategy(hashAlgorithm));
+    this(builder(root).setHashAlgorithm(hashAlgorithm));
   }
 
   /**
@@ -65,47 +90,103 @@ public class DirectoryIOSource
   public DirectoryIOSource(final File root, final HashStrategy hashStrategy)
       throws IOException
   {
-    super(root);
-    this.hashStrategy = Check.notNull(hashStrategy, HashStrategy.class);
+    this(builder(root).setHashStrategy(hashStrategy));
+  }
+
+  /**
+   * Creates source as configured by builder, see {@link #builder(File)} for scanning threads, open files and memory
+   * mapping. Open files are closed when source is closed.
+   */
+  private DirectoryIOSource(final DirectoryIOSourceBuilder builder)
+      throws IOException
+  {
+    super(builder.root);
+    this.hashStrategy = Check.notNull(builder.hashStrategy, HashStrategy.class);
+    this.scanThreadCount = builder.scanThreadCount;
+    this.fileChannelCache = new FileChannelCache(builder.maximumOpenFileCount);
+    this.mappingThreshold = builder.mappingThreshold;
+    this.mappedSegmentCache =
+        builder.maximumMappedBytes > 0 ? new MappedSegmentCache(builder.maximumMappedBytes) : null;
+    this.checkedFiles = new ConcurrentHashMap<Path, File>();
   }
 
   public ZFile createZFile(final Path path)
       throws IOException
   {
-    final File file = getFile(Check.notNull(path, Path.class));
+    final File file = getCheckedFile(Check.notNull(path, Path.class));
     return createZFile(path, file);
   }
 
   public InputStream readSegment(final Path path, final Range range)
       throws IOException
   {
-    final File file = getFile(path);
+    final File file = getCheckedFile(path);
     final Range fileRange = new RangeImpl(0, file.length());
 
-    if (fileRange.matches(range)) {
-      return Channels.newInputStream(new RandomAccessFile(file, "r").getChannel());
+    if (!fileRange.contains(range)) {
+      throw new IOException("Range falls out of the supplied ZFile!");
     }
-    else if (fileRange.contains(range)) {
-      final RandomAccessFile raf = new RandomAccessFile(file, "r");
-      raf.seek(range.getOffset());
-      return new RangeInputStream(Channels.newInputStream(raf.getChannel()), range, false, true);
+    if (isMapped(fileRange, range)) {
+      return new ByteBufferInputStream(mappedSegmentCache.getRegion(file, range, fileChannelCache).duplicate());
     }
-    else {
+    // stream releases the channel when closed
+    return new ChannelSegmentInputStream(fileChannelCache.acquire(file), range);
+  }
+
+  /**
+   * Transfers the range from mapped region if mapped, otherwise using
+   * {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)} if target is a file or socket
+   * channel, otherwise using positional reads into a large buffer.
+   */
+  public long transferSegment(final Path path, final Range range, final WritableByteChannel target)
+      throws IOException
+  {
+    final File file = getCheckedFile(path);
+    final Range fileRange = new RangeImpl(0, file.length());
+    if (!fileRange.contains(range)) {
       throw new IOException("Range falls out of the supplied ZFile!");
     }
+    if (isMapped(fileRange, range)) {
+      ChannelUtils.writeFully(mappedSegmentCache.getRegion(file, range, fileChannelCache).duplicate(), target);
+      return range.getLength();
+    }
+    final FileChannelCache.Handle handle = fileChannelCache.acquire(file);
+    try {
+      return ChannelUtils.transfer(handle.getChannel(), range.getOffset(), range.getLength(), target);
+    }
+    finally {
+      handle.release();
+    }
   }
 
   public void close(final boolean successful)
       throws IOException
   {
-    // nothing
+    try {
+      // persist whatever the strategy gathered (ie. cached hashes), as it's valid regardless of transfer outcome
+      if (hashStrategy instanceof Flushable) {
+        ((Flushable) hashStrategy).flush();
+      }
+    }
+    finally {
+      if (mappedSegmentCache != null) {
+        mappedSegmentCache.clear();
+      }
+      // streams left open (leaked) do not keep their files open
+      fileChannelCache.close();
+    }
   }
 
   public List<ZFile> listFiles()
       throws IOException
   {
     final ArrayList<ZFile> zfiles = new ArrayList<ZFile>();
-    scanDirectory(getRoot(), zfiles);
+    if (scanThreadCount > 1) {
+      new ParallelDirectoryScanner(this, scanThreadCount).scanDirectory(getRoot(), zfiles);
+    }
+    else {
+      scanDirectory(getRoot(), zfiles);
+    }
     return Collections.unmodifiableList(zfiles);
   }
 
@@ -140,23 +221,152 @@ public class DirectoryIOSource
       return 0;
     }
     int i = 0;
-    File[] fileArray = dir.listFiles();
-    if (fileArray != null) {
-      for (File file : fileArray) {
-        if (file.isDirectory()) {
-          i += scanDirectory(file, zfiles);
-        }
-        else if (file.isFile()) {
-          // win paths
-          final String pathString =
-              file.getAbsolutePath().substring(getRoot().getAbsolutePath().length() + 1).replace('\\', '/');
-          final Path path = new Path(pathString);
-          final ZFile zfile = createZFile(path, file);
-          zfiles.add(zfile);
-          i++;
-        }
+    for (File file : listDirectory(dir)) {
+      if (file.isDirectory()) {
+        i += scanDirectory(file, zfiles);
+      }
+      else if (file.isFile()) {
+        final ZFile zfile = createZFile(getPath(file), file);
+        zfiles.add(zfile);
+        i++;
       }
     }
     return i;
   }
+
+  /**
+   * Returns the file on given path, checked to be within root (see {@link #getFile(Path)}) only the first time it is
+   * asked for, as segments of the file are read by many tracks.
+   */
+  protected File getCheckedFile(final Path path)
+      throws IOException
+  {
+    File file = checkedFiles.get(path);
+    if (file == null) {
+      file = getFile(path);
+      checkedFiles.put(path, file);
+    }
+    return file;
+  }
+
+  /**
+   * Returns {@code true} if the range of file should be served from a memory mapped region.
+   */
+  protected boolean isMapped(final Range fileRange, final Range range) {
+    return mappedSegmentCache != null && fileRange.getLength() >= mappingThreshold
+        && mappedSegmentCache.isMappable(range);
+  }
+
+  /**
+   * Lists the directory children, sorted, to have listing order deterministic. Never returns {@code null}.
+   */
+  protected File[] listDirectory(final File dir) {
+    final File[] fileArray = dir.listFiles();
+    if (fileArray == null) {
+      return new File[0];
+    }
+    Arrays.sort(fileArray);
+    return fileArray;
+  }
+
+  /**
+   * Returns the path of a file (that is within root) relative to root.
+   */
+  protected Path getPath(final File file) {
+    // win paths
+    final String pathString =
+        file.getAbsolutePath().substring(getRoot().getAbsolutePath().length() + 1).replace('\\', '/');
+    return new Path(pathString);
+  }
+
+  // ==
+
+  public static DirectoryIOSourceBuilder builder(final File root) {
+    return new DirectoryIOSourceBuilder(root);
+  }
+
+  // ==
+
+  public static class DirectoryIOSourceBuilder
+  {
+    private final File root;
+
+    private HashStrategy hashStrategy;
+
+    private int scanThreadCount;
+
+    private int maximumOpenFileCount;
+
+    private long mappingThreshold;
+
+    private long maximumMappedBytes;
+
+    public DirectoryIOSourceBuilder(final File root) {
+      this.root = Check.notNull(root, File.class);
+      this.scanThreadCount = 1;
+      this.maximumOpenFileCount = DEFAULT_OPEN_FILE_COUNT;
+      this.mappingThreshold = DEFAULT_MAPPING_THRESHOLD;
+      this.maximumMappedBytes = 0;
+    }
+
+    public DirectoryIOSourceBuilder setHashAlgorithm(final HashAlgorithm hashAlgorithm) {
+      return setHashStrategy(new CalculateHashStrategy(hashAlgorithm));
+    }
+
+    public DirectoryIOSourceBuilder setHashStrategy(final HashStrategy hashStrategy) {
+      this.hashStrategy = Check.notNull(hashStrategy, HashStrategy.class);
+      return this;
+    }
+
+    /**
+     * Sets the count of threads used to scan directories and create (hash) ZFiles when listing. This bounds the I/O
+     * concurrency of listing. Default is 1, meaning sequential scan on the calling thread.
+     */
+    public DirectoryIOSourceBuilder setScanThreadCount(final int scanThreadCount) {
+      this.scanThreadCount =
+          Check.argument(scanThreadCount > 0, scanThreadCount, "scanThreadCount not positive!");
+      return this;
+    }
+
+    /**
+     * Sets the maximum count of files kept open for reading. Open files are shared by all the readers (tracks) using
+     * positional reads, and least recently used ones are closed to make room for new ones. Default is
+     * {@link DirectoryIOSource#DEFAULT_OPEN_FILE_COUNT}.
+     */
+    public DirectoryIOSourceBuilder setMaximumOpenFileCount(final int maximumOpenFileCount) {
+      this.maximumOpenFileCount =
+          Check.argument(maximumOpenFileCount > 0, maximumOpenFileCount, "maximumOpenFileCount not positive!");
+      return this;
+    }
+
+    /**
+     * Sets the length a file must have at least to have it's segments served from memory mapped regions. Small files
+     * are cheaper to read than to map. Default is {@link DirectoryIOSource#DEFAULT_MAPPING_THRESHOLD}.
+     */
+    public DirectoryIOSourceBuilder setMappingThreshold(final long mappingThreshold) {
+      this.mappingThreshold =
+          Check.argument(mappingThreshold >= 0, mappingThreshold, "mappingThreshold is negative!");
+      return this;
+    }
+
+    /**
+     * Sets the maximum count of bytes kept memory mapped. Segments longer than this are not mapped but read, and
+     * least recently used regions are unmapped to make room for new ones. Default is 0, meaning segments are never
+     * memory mapped.
+     */
+    public DirectoryIOSourceBuilder setMaximumMappedBytes(final long maximumMappedBytes) {
+      this.maximumMappedBytes =
+          Check.argument(maximumMappedBytes >= 0, maximumMappedBytes, "maximumMappedBytes is negative!");
+      return this;
+    }
+
+    public DirectoryIOSource build()
+        throws IOException, NoSuchAlgorithmException
+    {
+      if (hashStrategy == null) {
+        setHashAlgorithm(new Sha1HashAlgorithm());
+      }
+      return new DirectoryIOSource(this);
+    }
+  }
 }
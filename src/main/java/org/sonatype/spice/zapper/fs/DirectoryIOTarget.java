@@ -13,32 +13,40 @@
 package org.sonatype.spice.zapper.fs;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.sonatype.spice.zapper.IOTarget;
 import org.sonatype.spice.zapper.Path;
 import org.sonatype.spice.zapper.Range;
+import org.sonatype.spice.zapper.ReadableIOTarget;
 import org.sonatype.spice.zapper.ZFile;
 import org.sonatype.spice.zapper.internal.Check;
 
 
 public class DirectoryIOTarget
     extends AbstractDirectory
-    implements IOTarget
+    implements ReadableIOTarget
 {
   private final Map<Path, File> files;
 
+  private final List<File> directories;
+
   public DirectoryIOTarget(final File root)
       throws IOException
   {
     super(root);
-    files = new HashMap<Path, File>();
+    // segments are written concurrently
+    files = new ConcurrentHashMap<Path, File>();
+    directories = new ArrayList<File>();
   }
 
   public void close(final boolean successful)
@@ -48,6 +56,10 @@ public class DirectoryIOTarget
       for (File file : files.values()) {
         file.delete();
       }
+      // innermost first, only those left empty
+      for (int i = directories.size() - 1; i >= 0; i--) {
+        directories.get(i).delete();
+      }
     }
   }
 
@@ -55,6 +67,7 @@ public class DirectoryIOTarget
       throws IOException
   {
     final File file = getFile(zfile.getIdentifier());
+    mkdirs(file.getParentFile());
     final RandomAccessFile raf = new RandomAccessFile(file, "rw");
     raf.setLength(zfile.getLength());
     raf.close();
@@ -64,7 +77,7 @@ public class DirectoryIOTarget
   public long writeSegment(final ZFile zfile, final Range range, final InputStream in)
       throws IOException
   {
-    final File file = files.get(zfile.getIdentifier());
+    final File file = getInitializedFile(zfile);
     final FileRange fileRange = new FileRange(file, range);
     final long result =
         fileRange.getFileChannel().transferFrom(Channels.newChannel(in), range.getOffset(), range.getLength());
@@ -72,13 +85,86 @@ public class DirectoryIOTarget
     return result;
   }
 
+  public void copyZFile(final ZFile source, final ZFile zfile)
+      throws IOException
+  {
+    final File sourceFile = getInitializedFile(source);
+    final File file = getInitializedFile(zfile);
+    final FileChannel in = new FileInputStream(sourceFile).getChannel();
+    try {
+      final FileChannel out = new FileOutputStream(file).getChannel();
+      try {
+        long copied = 0;
+        while (copied < source.getLength()) {
+          final long transferred = in.transferTo(copied, source.getLength() - copied, out);
+          if (transferred <= 0) {
+            throw new IOException(String.format("Could not copy %s to %s, copied %s of %s bytes",
+                source.getIdentifier().stringValue(), zfile.getIdentifier().stringValue(), copied,
+                source.getLength()));
+          }
+          copied += transferred;
+        }
+      }
+      finally {
+        out.close();
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  public InputStream readZFile(final ZFile zfile)
+      throws IOException
+  {
+    return new FileInputStream(getInitializedFile(zfile));
+  }
+
   public void finalizeZFile(ZFile zfile)
       throws IOException
   {
-    final File file = files.get(zfile.getIdentifier());
+    final File file = getInitializedFile(zfile);
     file.setLastModified(zfile.getLastModifiedTimestamp());
   }
 
+  // ==
+
+  /**
+   * Returns the files initialized so far, keyed by their path.
+   */
+  protected Map<Path, File> getFiles() {
+    return files;
+  }
+
+  /**
+   * Returns the file of given ZFile, failing if it was not initialized.
+   */
+  private File getInitializedFile(final ZFile zfile)
+      throws IOException
+  {
+    final File file = files.get(zfile.getIdentifier());
+    if (file == null) {
+      throw new IOException(String.format("File %s not initialized", zfile.getIdentifier().stringValue()));
+    }
+    return file;
+  }
+
+  /**
+   * Creates the directory and its missing parents, remembering the created ones, outermost first.
+   */
+  private synchronized void mkdirs(final File dir)
+      throws IOException
+  {
+    if (dir.isDirectory()) {
+      return;
+    }
+    mkdirs(dir.getParentFile());
+    if (!dir.mkdir()) {
+      throw new IOException(String.format("Could not create directory %s", dir));
+    }
+    directories.add(dir);
+  }
+
   public static class FileRange
   {
     private final RandomAccessFile randomAccessFile;
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+import org.sonatype.spice.zapper.internal.Check;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded LRU cache of shared read-only {@link FileChannel}s, keyed by file. Channels are reference counted: users
+ * {@link #acquire(File)} a {@link Handle}, read it using positional reads only (that are safe to perform
+ * concurrently, and do not disturb each other), and {@link Handle#release()} it once done. Channels evicted from the
+ * cache, or still in use when cache is {@link #clear()}ed, are closed when last user releases them, while all of them
+ * are closed immediately when cache is {@link #close()}d. As interrupting a thread reading a channel closes the
+ * channel, channels found closed are opened again on next acquire.
+ */
+class FileChannelCache
+{
+  private final Logger logger;
+
+  private final int maximumOpenFileCount;
+
+  private final LinkedHashMap<File, Handle> handles;
+
+  /**
+   * Handles retired while still in use, to be closed once released.
+   */
+  private final Set<Handle> retiredHandles;
+
+  FileChannelCache(final int maximumOpenFileCount) {
+    this.logger = LoggerFactory.getLogger(getClass());
+    this.maximumOpenFileCount =
+        Check.argument(maximumOpenFileCount > 0, maximumOpenFileCount, "maximumOpenFileCount not positive!");
+    this.handles = new LinkedHashMap<File, Handle>(16, 0.75f, true);
+    this.retiredHandles = new HashSet<Handle>();
+  }
+
+  /**
+   * Returns a handle of the opened channel of the file. The handle must be released.
+   */
+  synchronized Handle acquire(final File file)
+      throws IOException
+  {
+    Handle handle = handles.get(file);
+    if (handle != null && !handle.channel.isOpen()) {
+      handles.remove(file);
+      retire(handle);
+      handle = null;
+    }
+    if (handle == null) {
+      handle = new Handle(file, new RandomAccessFile(file, "r").getChannel());
+      handles.put(file, handle);
+      final Iterator<Handle> iterator = handles.values().iterator();
+      while (handles.size() > maximumOpenFileCount && iterator.hasNext()) {
+        final Handle eldest = iterator.next();
+        iterator.remove();
+        retire(eldest);
+      }
+    }
+    handle.references++;
+    return handle;
+  }
+
+  /**
+   * Returns the count of channels held open by this cache.
+   */
+  synchronized int getOpenFileCount() {
+    return handles.size();
+  }
+
+  /**
+   * Retires all the channels: idle ones are closed immediately, those in use once released.
+   */
+  synchronized void clear() {
+    final ArrayList<Handle> all = new ArrayList<Handle>(handles.values());
+    handles.clear();
+    for (Handle handle : all) {
+      retire(handle);
+    }
+  }
+
+  /**
+   * Closes all the channels immediately, including those still in use (whose users fail reading them), so no file is
+   * held open once the cache is closed.
+   */
+  synchronized void close() {
+    clear();
+    final ArrayList<Handle> inUse = new ArrayList<Handle>(retiredHandles);
+    retiredHandles.clear();
+    for (Handle handle : inUse) {
+      handle.close();
+    }
+  }
+
+  // ==
+
+  private void retire(final Handle handle) {
+    handle.retired = true;
+    if (handle.references == 0) {
+      handle.close();
+    }
+    else {
+      retiredHandles.add(handle);
+    }
+  }
+
+  private synchronized void release(final Handle handle) {
+    handle.references--;
+    if (handle.references == 0 && (handle.retired || !handle.channel.isOpen())) {
+      if (!handle.retired) {
+        handles.remove(handle.file);
+      }
+      retiredHandles.remove(handle);
+      handle.close();
+    }
+  }
+
+  /**
+   * Handle of a shared channel.
+   */
+  class Handle
+  {
+    private final File file;
+
+    private final FileChannel channel;
+
+    private int references;
+
+    private boolean retired;
+
+    private Handle(final File file, final FileChannel channel) {
+      this.file = file;
+      this.channel = channel;
+    }
+
+    /**
+     * The shared channel, that must be read using positional reads only, and must not be closed.
+     */
+    FileChannel getChannel() {
+      return channel;
+    }
+
+    void release() {
+      FileChannelCache.this.release(this);
+    }
+
+    private void close() {
+      try {
+        channel.close();
+      }
+      catch (IOException e) {
+        logger.debug("Could not close {}", file, e);
+      }
+    }
+  }
+}
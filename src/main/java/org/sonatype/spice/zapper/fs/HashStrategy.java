@@ -18,7 +18,10 @@ import java.io.IOException;
 import org.sonatype.spice.zapper.hash.Hash;
 import org.sonatype.spice.zapper.hash.HashAlgorithm;
 
-
+/**
+ * Strategy to get the hash of a file. Implementations should be thread safe, as they might be invoked concurrently,
+ * for example when {@link DirectoryIOSource} scans the directory using multiple threads.
+ */
 public interface HashStrategy
 {
   HashAlgorithm getHashAlgorithm();
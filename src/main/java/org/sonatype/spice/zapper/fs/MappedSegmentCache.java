@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sonatype.spice.zapper.Range;
+import org.sonatype.spice.zapper.internal.Check;
+
+/**
+ * LRU cache of read-only memory mapped file regions, bounded by the total count of mapped bytes. As segments are read
+ * several times (hashing, envelope hashing and sending), keeping them mapped lets all the reads be served from the
+ * page cache without system calls. Java offers no way to explicitly unmap a region, evicted regions are unmapped once
+ * garbage collected, hence the bound limits the mapped bytes retained by this cache, not the address space used by
+ * readers still holding evicted regions.
+ */
+class MappedSegmentCache
+{
+  private final long maximumMappedBytes;
+
+  private final LinkedHashMap<String, MappedByteBuffer> regions;
+
+  private long mappedBytes;
+
+  MappedSegmentCache(final long maximumMappedBytes) {
+    this.maximumMappedBytes =
+        Check.argument(maximumMappedBytes > 0, maximumMappedBytes, "maximumMappedBytes not positive!");
+    this.regions = new LinkedHashMap<String, MappedByteBuffer>(16, 0.75f, true);
+    this.mappedBytes = 0;
+  }
+
+  /**
+   * Returns {@code true} if a region of given length is mappable within the limits of this cache.
+   */
+  boolean isMappable(final Range range) {
+    return range.getLength() <= Math.min(maximumMappedBytes, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns the mapped region of the file, mapping it using the cached channel if not yet mapped. The returned buffer
+   * is shared, callers must {@link MappedByteBuffer#duplicate()} it before reading.
+   */
+  synchronized MappedByteBuffer getRegion(final File file, final Range range, final FileChannelCache channels)
+      throws IOException
+  {
+    final String key = file.getPath() + "@" + range.getOffset() + "+" + range.getLength();
+    MappedByteBuffer region = regions.get(key);
+    if (region == null) {
+      evict(range.getLength());
+      final FileChannelCache.Handle handle = channels.acquire(file);
+      try {
+        // mapping stays valid after the channel is closed
+        region = handle.getChannel().map(MapMode.READ_ONLY, range.getOffset(), range.getLength());
+      }
+      finally {
+        handle.release();
+      }
+      regions.put(key, region);
+      mappedBytes += range.getLength();
+    }
+    return region;
+  }
+
+  synchronized long getMappedBytes() {
+    return mappedBytes;
+  }
+
+  synchronized void clear() {
+    regions.clear();
+    mappedBytes = 0;
+  }
+
+  // ==
+
+  /**
+   * Evicts least recently used regions until a region of given length fits into the limit.
+   */
+  private void evict(final long length) {
+    final Iterator<Map.Entry<String, MappedByteBuffer>> iterator = regions.entrySet().iterator();
+    while (mappedBytes + length > maximumMappedBytes && iterator.hasNext()) {
+      mappedBytes -= iterator.next().getValue().capacity();
+      iterator.remove();
+    }
+  }
+}
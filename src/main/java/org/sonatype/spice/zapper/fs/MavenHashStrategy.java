@@ -13,7 +13,11 @@
 package org.sonatype.spice.zapper.fs;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.sonatype.spice.zapper.hash.Hash;
 import org.sonatype.spice.zapper.hash.HashAlgorithm;
@@ -21,12 +25,36 @@ import org.sonatype.spice.zapper.hash.HashUtils;
 import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
 import org.sonatype.spice.zapper.internal.Check;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link HashStrategy} for Maven repositories, that uses the SHA1 hash from the {@code .sha1} file found next to the
+ * file (as Maven repositories have them for every artifact), if the sidecar file exists, is not older than the file,
+ * and contains a valid SHA1 hash. Otherwise, it falls back to calculating the hash.
+ */
 public class MavenHashStrategy
     implements HashStrategy
 {
+  private static final String SIDECAR_EXTENSION = ".sha1";
+
+  /**
+   * Sidecar files might contain the hash only, or hash followed by file name, or other formats produced by various
+   * tools, so we look for the first "word" of 40 hex characters.
+   */
+  private static final Pattern SHA1_PATTERN = Pattern.compile("(?<![0-9a-fA-F])[0-9a-fA-F]{40}(?![0-9a-fA-F])");
+
+  /**
+   * Sidecar files bigger than this are considered not being sidecar files at all.
+   */
+  private static final long SIDECAR_MAX_LENGTH = 1024;
+
+  private final Logger logger;
+
   private final HashAlgorithm hashAlgorithm;
 
   public MavenHashStrategy(final HashAlgorithm hashAlgorithm) {
+    this.logger = LoggerFactory.getLogger(getClass());
     this.hashAlgorithm = Check.notNull(hashAlgorithm, HashAlgorithm.class);
     if (!Sha1HashAlgorithm.ID.equals(hashAlgorithm.getIdentifier())) {
       throw new IllegalArgumentException("Maven repository layout supports SHA1 hashes only!");
@@ -40,7 +68,46 @@ public class MavenHashStrategy
   public Hash getHashFor(final File file)
       throws IOException
   {
-    return HashUtils.getDigest(Check.notNull(hashAlgorithm, HashAlgorithm.class),
-        Check.notNull(file, File.class));
+    final Hash hash = readSidecar(Check.notNull(file, File.class));
+    if (hash != null) {
+      return hash;
+    }
+    return HashUtils.getDigest(Check.notNull(hashAlgorithm, HashAlgorithm.class), file);
+  }
+
+  // ==
+
+  /**
+   * Returns the hash read from sidecar file of the passed in file, or {@code null} if no usable sidecar exists.
+   */
+  protected Hash readSidecar(final File file) {
+    final File sidecar = new File(file.getParentFile(), file.getName() + SIDECAR_EXTENSION);
+    if (!sidecar.isFile() || sidecar.length() > SIDECAR_MAX_LENGTH || sidecar.lastModified() < file.lastModified()) {
+      return null;
+    }
+    try {
+      final byte[] content = new byte[(int) sidecar.length()];
+      final FileInputStream in = new FileInputStream(sidecar);
+      try {
+        int offset = 0;
+        int read;
+        while (offset < content.length && (read = in.read(content, offset, content.length - offset)) != -1) {
+          offset += read;
+        }
+      }
+      finally {
+        in.close();
+      }
+      final Matcher matcher = SHA1_PATTERN.matcher(new String(content, HashUtils.CHARSET_UTF8_STRING));
+      if (matcher.find()) {
+        return new Hash(hashAlgorithm.getIdentifier(),
+            HashUtils.decodeHexString(matcher.group().toLowerCase(Locale.ENGLISH)));
+      }
+      logger.debug("Sidecar {} does not contain SHA1 hash, calculating it", sidecar);
+    }
+    catch (IOException e) {
+      logger.debug("Could not read sidecar {}, calculating hash", sidecar, e);
+    }
+    return null;
   }
 }
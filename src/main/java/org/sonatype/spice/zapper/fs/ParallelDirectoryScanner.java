@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.internal.Check;
+
+/**
+ * Scans a directory tree using a bounded pool of threads, where both listing of (sub)directories and creation of ZFiles
+ * (hence hashing of the files) happen in parallel, but never more than {@code threadCount} of them at once. Tasks
+ * never wait for each other: each directory task lists the directory, and forks a new task for each child. Results are
+ * collected into a tree mirroring the directory structure, that is flattened once all tasks are done, so the resulting
+ * order is same as the sequential scan would produce.
+ */
+public class ParallelDirectoryScanner
+{
+  private final DirectoryIOSource source;
+
+  private final int threadCount;
+
+  public ParallelDirectoryScanner(final DirectoryIOSource source, final int threadCount) {
+    this.source = Check.notNull(source, DirectoryIOSource.class);
+    this.threadCount = Check.argument(threadCount > 0, threadCount, "threadCount not positive!");
+  }
+
+  /**
+   * Scans the directory, and adds the ZFiles found to the list. Returns the count of added ZFiles.
+   */
+  public int scanDirectory(final File dir, final List<ZFile> zfiles)
+      throws IOException
+  {
+    final Scan scan = new Scan(Executors.newFixedThreadPool(threadCount));
+    try {
+      final Object[] root = new Object[1];
+      scan.fork(new DirectoryTask(scan, dir, root, 0));
+      scan.await();
+      return flatten(root, zfiles);
+    }
+    finally {
+      scan.executorService.shutdownNow();
+    }
+  }
+
+  // ==
+
+  /**
+   * Flattens the tree in order: elements are either {@link ZFile}s or {@code Object[]} being subdirectories.
+   */
+  private int flatten(final Object[] node, final List<ZFile> zfiles) {
+    int i = 0;
+    for (Object element : node) {
+      if (element instanceof ZFile) {
+        zfiles.add((ZFile) element);
+        i++;
+      }
+      else if (element instanceof Object[]) {
+        i += flatten((Object[]) element, zfiles);
+      }
+    }
+    return i;
+  }
+
+  /**
+   * State of one scan: the pending task count and the first failure, if any.
+   */
+  private class Scan
+  {
+    private final ExecutorService executorService;
+
+    private int pending;
+
+    private Throwable failure;
+
+    private Scan(final ExecutorService executorService) {
+      this.executorService = executorService;
+    }
+
+    private void fork(final Task task) {
+      synchronized (this) {
+        pending++;
+      }
+      executorService.execute(task);
+    }
+
+    private synchronized void done(final Throwable e) {
+      if (e != null && failure == null) {
+        failure = e;
+      }
+      pending--;
+      if (pending == 0 || failure != null) {
+        notifyAll();
+      }
+    }
+
+    private synchronized boolean isFailed() {
+      return failure != null;
+    }
+
+    private synchronized void await()
+        throws IOException
+    {
+      try {
+        while (pending > 0 && failure == null) {
+          wait();
+        }
+      }
+      catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while scanning " + source.getRoot());
+      }
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      }
+      else if (failure != null) {
+        final IOException e = new IOException("Failure:" + failure.toString());
+        e.initCause(failure);
+        throw e;
+      }
+    }
+  }
+
+  private abstract class Task
+      implements Runnable
+  {
+    protected final Scan scan;
+
+    protected final File file;
+
+    protected final Object[] slots;
+
+    protected final int slot;
+
+    protected Task(final Scan scan, final File file, final Object[] slots, final int slot) {
+      this.scan = scan;
+      this.file = file;
+      this.slots = slots;
+      this.slot = slot;
+    }
+
+    public void run() {
+      Throwable result = null;
+      try {
+        if (!scan.isFailed()) {
+          execute();
+        }
+      }
+      catch (Throwable e) {
+        result = e;
+      }
+      finally {
+        scan.done(result);
+      }
+    }
+
+    protected abstract void execute()
+        throws IOException;
+  }
+
+  private class DirectoryTask
+      extends Task
+  {
+    private DirectoryTask(final Scan scan, final File file, final Object[] slots, final int slot) {
+      super(scan, file, slots, slot);
+    }
+
+    @Override
+    protected void execute() {
+      final File[] fileArray = source.listDirectory(file);
+      final Object[] children = new Object[fileArray.length];
+      slots[slot] = children;
+      for (int i = 0; i < fileArray.length; i++) {
+        if (fileArray[i].isDirectory()) {
+          scan.fork(new DirectoryTask(scan, fileArray[i], children, i));
+        }
+        else if (fileArray[i].isFile()) {
+          scan.fork(new FileTask(scan, fileArray[i], children, i));
+        }
+      }
+    }
+  }
+
+  private class FileTask
+      extends Task
+  {
+    private FileTask(final Scan scan, final File file, final Object[] slots, final int slot) {
+      super(scan, file, slots, slot);
+    }
+
+    @Override
+    protected void execute()
+        throws IOException
+    {
+      slots[slot] = source.createZFile(source.getPath(file), file);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.sonatype.spice.zapper.Path;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link DirectoryIOTarget} that receives the files into a staging directory, and moves them into the target directory
+ * only when closed successfully, hence the target directory gets either all the files, or none of them. Files being
+ * replaced are moved aside first, and are moved back if any file could not be moved into target directory. The staging
+ * directory is removed when this target is closed. Staging directory should be on same filesystem as target
+ * directory, to have files moved by cheap renames. Concurrent readers of target directory might see some of the files
+ * replaced while they are being moved.
+ */
+public class StagingDirectoryIOTarget
+    extends DirectoryIOTarget
+{
+  private final Logger logger;
+
+  private final AbstractDirectory target;
+
+  public StagingDirectoryIOTarget(final File root, final File stagingRoot)
+      throws IOException
+  {
+    super(mkdirs(stagingRoot));
+    this.logger = LoggerFactory.getLogger(getClass());
+    this.target = new AbstractDirectory(root);
+  }
+
+  /**
+   * Returns the target directory, where files are moved once all received.
+   */
+  public File getTargetRoot() {
+    return target.getRoot();
+  }
+
+  @Override
+  public void close(final boolean successful)
+      throws IOException
+  {
+    try {
+      if (successful) {
+        moveFiles();
+      }
+      else {
+        super.close(false);
+      }
+    }
+    finally {
+      delete(getRoot());
+    }
+  }
+
+  // ==
+
+  /**
+   * Moves the received files into target directory, in path order. Replaced files are moved aside to backups, removed
+   * once all files were moved. If any move fails, the files moved so far are removed, the backups are moved back, and
+   * the directories created are removed.
+   */
+  private void moveFiles()
+      throws IOException
+  {
+    final TreeMap<String, File> staged = new TreeMap<String, File>();
+    for (Map.Entry<Path, File> entry : getFiles().entrySet()) {
+      staged.put(entry.getKey().stringValue(), entry.getValue());
+    }
+    final List<File> moved = new ArrayList<File>();
+    final Map<File, File> backups = new LinkedHashMap<File, File>();
+    final List<File> directories = new ArrayList<File>();
+    boolean success = false;
+    try {
+      for (Map.Entry<String, File> entry : staged.entrySet()) {
+        final File file = target.getFile(new Path(entry.getKey()));
+        mkdirs(file.getParentFile(), directories);
+        if (file.exists()) {
+          final File backup = new File(file.getParentFile(), "." + file.getName() + "." + getRoot().getName() + ".bak");
+          if (backup.exists() || !file.renameTo(backup)) {
+            throw new IOException(String.format("Could not replace %s", file));
+          }
+          backups.put(file, backup);
+        }
+        if (!entry.getValue().renameTo(file)) {
+          throw new IOException(String.format("Could not move %s to %s", entry.getValue(), file));
+        }
+        moved.add(file);
+      }
+      success = true;
+    }
+    finally {
+      if (!success) {
+        for (File file : moved) {
+          file.delete();
+        }
+        for (Map.Entry<File, File> entry : backups.entrySet()) {
+          if (!entry.getValue().renameTo(entry.getKey())) {
+            logger.warn("Could not restore {} from {}", entry.getKey(), entry.getValue());
+          }
+        }
+        // innermost first
+        for (int i = directories.size() - 1; i >= 0; i--) {
+          directories.get(i).delete();
+        }
+      }
+    }
+    for (File backup : backups.values()) {
+      backup.delete();
+    }
+  }
+
+  /**
+   * Creates the directory and its missing parents, adding the created ones to given list, outermost first.
+   */
+  private static void mkdirs(final File dir, final List<File> directories)
+      throws IOException
+  {
+    if (dir.isDirectory()) {
+      return;
+    }
+    mkdirs(dir.getParentFile(), directories);
+    if (!dir.mkdir()) {
+      throw new IOException(String.format("Could not create directory %s", dir));
+    }
+    directories.add(dir);
+  }
+
+  private static File mkdirs(final File dir) {
+    dir.mkdirs();
+    return dir;
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -12,6 +12,8 @@
  */
 package org.sonatype.spice.zapper.internal;
 
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -59,4 +61,10 @@ public abstract class AbstractPayload
   public List<Codec> getCodecs() {
     return codecs;
   }
+
+  public long writeTo(final WritableByteChannel target)
+      throws IOException
+  {
+    return ChannelUtils.copy(getContent(), target, getLength());
+  }
 }
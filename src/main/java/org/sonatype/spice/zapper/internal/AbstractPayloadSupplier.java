@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal;
+
+import java.io.IOException;
+
+import org.sonatype.spice.zapper.PayloadScheduler;
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
+/**
+ * Base class of {@link PayloadSupplier}s that only decide the order of payloads: sent payloads need no book keeping,
+ * and failed payloads fail their track. Suppliers created by custom {@link PayloadScheduler}s should extend this
+ * class, as it provides defaults for the notifications that {@link PayloadSupplier} gets over time.
+ */
+public abstract class AbstractPayloadSupplier
+    implements PayloadSupplier
+{
+  public void payloadSent(final TrackIdentifier trackIdentifier, final SegmentPayload payload) {
+    // nothing to do
+  }
+
+  public boolean payloadFailed(final TrackIdentifier trackIdentifier, final SegmentPayload payload,
+                               final IOException failure)
+  {
+    return false;
+  }
+}
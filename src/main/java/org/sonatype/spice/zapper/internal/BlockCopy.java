@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal;
+
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.hash.Hash;
+
+/**
+ * Block of a file, that remote end copies from it's existing version of the file (or from other file it has, if source
+ * path is given) instead of receiving it: the range of block in file, the offset of block in existing version of the
+ * file, and the hash of block.
+ */
+public class BlockCopy
+    extends AbstractRange
+{
+  private final long sourceOffset;
+
+  private final Hash hash;
+
+  private final Path sourcePath;
+
+  public BlockCopy(final long offset, final long length, final long sourceOffset, final Hash hash) {
+    this(offset, length, sourceOffset, hash, null);
+  }
+
+  public BlockCopy(final long offset, final long length, final long sourceOffset, final Hash hash,
+                   final Path sourcePath)
+  {
+    super(offset, length);
+    this.sourceOffset = Check.argument(sourceOffset >= 0, sourceOffset, "Source offset is less than 0!");
+    this.hash = Check.notNull(hash, Hash.class);
+    this.sourcePath = sourcePath;
+  }
+
+  public long getSourceOffset() {
+    return sourceOffset;
+  }
+
+  public Hash getHash() {
+    return hash;
+  }
+
+  /**
+   * Returns the path of file block is copied from, or {@code null} if it is copied from existing version of the file
+   * itself.
+   */
+  public Path getSourcePath() {
+    return sourcePath;
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Helpers to move bytes into {@link WritableByteChannel}s, using large buffers, and using
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} where the JVM is able to do it without copying the
+ * bytes into user space (when target is a file or socket channel).
+ */
+public final class ChannelUtils
+{
+  /**
+   * Size of buffers used when bytes have to be copied.
+   */
+  public static final int BUFFER_SIZE = 64 * 1024;
+
+  private ChannelUtils() {
+    // no instances
+  }
+
+  /**
+   * Writes all the remaining bytes of buffer into target.
+   */
+  public static void writeFully(final ByteBuffer buffer, final WritableByteChannel target)
+      throws IOException
+  {
+    while (buffer.hasRemaining()) {
+      target.write(buffer);
+    }
+  }
+
+  /**
+   * Writes all the bytes of array into target.
+   */
+  public static void writeFully(final byte[] bytes, final WritableByteChannel target)
+      throws IOException
+  {
+    writeFully(ByteBuffer.wrap(bytes), target);
+  }
+
+  /**
+   * Copies exactly {@code length} bytes from the input stream into target, and closes the input stream. Throws if
+   * stream has less bytes than expected. Returns the count of bytes copied.
+   */
+  public static long copy(final InputStream in, final WritableByteChannel target, final long length)
+      throws IOException
+  {
+    try {
+      final byte[] buffer = getBuffer(target, length);
+      long remaining = length;
+      while (remaining > 0) {
+        final int l = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (l == -1) {
+          throw new IOException(String.format("Content shorter than declared: %s bytes missing", remaining));
+        }
+        writeFully(ByteBuffer.wrap(buffer, 0, l), target);
+        remaining -= l;
+      }
+      return length;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Transfers exactly {@code count} bytes of the file channel starting at {@code position} into target, without
+   * changing the position of the file channel. When target is a file or socket channel, the transfer happens using
+   * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, otherwise the bytes are read into a large buffer
+   * (the one of target, if it is a channel created by {@link #newChannel(OutputStream, byte[])}) and written into
+   * target. Throws if file has less bytes than expected. Returns the count of bytes transferred.
+   */
+  public static long transfer(final FileChannel channel, final long position, final long count,
+                              final WritableByteChannel target)
+      throws IOException
+  {
+    long transferred = 0;
+    if (target instanceof FileChannel || target instanceof SelectableChannel) {
+      while (transferred < count) {
+        final long l = channel.transferTo(position + transferred, count - transferred, target);
+        if (l <= 0) {
+          if (channel.size() < position + count) {
+            throw new IOException(String.format("File shorter than declared: %s bytes missing",
+                count - transferred));
+          }
+          // target is non-blocking and is full, or transferTo gave up, continue by copying
+          break;
+        }
+        transferred += l;
+      }
+    }
+    if (transferred < count) {
+      final ByteBuffer buffer = ByteBuffer.wrap(getBuffer(target, count - transferred));
+      while (transferred < count) {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), count - transferred));
+        final int l = channel.read(buffer, position + transferred);
+        if (l == -1) {
+          throw new IOException(String.format("File shorter than declared: %s bytes missing", count - transferred));
+        }
+        buffer.flip();
+        writeFully(buffer, target);
+        transferred += l;
+      }
+    }
+    return transferred;
+  }
+
+  /**
+   * Returns a channel writing into the output stream. Unlike
+   * {@link java.nio.channels.Channels#newChannel(OutputStream)} this one does not copy heap buffers, but writes their
+   * backing array directly into the stream. Closing the channel closes the stream.
+   */
+  public static WritableByteChannel newChannel(final OutputStream out) {
+    return newChannel(out, null);
+  }
+
+  /**
+   * Returns a channel as {@link #newChannel(OutputStream)} does, that uses given buffer (or a buffer allocated on
+   * first use, if {@code null}) whenever bytes have to be copied, also by {@link #copy(InputStream,
+   * WritableByteChannel, long)} and {@link #transfer(FileChannel, long, long, WritableByteChannel)} writing into it.
+   * The buffer might be shared by channels that are not written concurrently, like the ones of a track.
+   */
+  public static WritableByteChannel newChannel(final OutputStream out, final byte[] buffer) {
+    return new OutputStreamChannel(Check.notNull(out, OutputStream.class), buffer);
+  }
+
+  /**
+   * Returns a new buffer of {@link #BUFFER_SIZE} bytes, or less if given length is less.
+   */
+  public static byte[] newBuffer(final long length) {
+    return new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+  }
+
+  // ==
+
+  /**
+   * Returns the buffer of target, if it has one, or a new buffer to copy given length.
+   */
+  private static byte[] getBuffer(final WritableByteChannel target, final long length) {
+    if (target instanceof OutputStreamChannel) {
+      return ((OutputStreamChannel) target).getBuffer();
+    }
+    return newBuffer(length);
+  }
+
+  private static class OutputStreamChannel
+      implements WritableByteChannel
+  {
+    private final OutputStream out;
+
+    private byte[] buffer;
+
+    private boolean open;
+
+    private OutputStreamChannel(final OutputStream out, final byte[] buffer) {
+      this.out = out;
+      this.buffer = buffer;
+      this.open = true;
+    }
+
+    private byte[] getBuffer() {
+      if (buffer == null) {
+        buffer = newBuffer(BUFFER_SIZE);
+      }
+      return buffer;
+    }
+
+    public int write(final ByteBuffer src)
+        throws IOException
+    {
+      final int length = src.remaining();
+      if (src.hasArray()) {
+        out.write(src.array(), src.arrayOffset() + src.position(), length);
+        src.position(src.limit());
+      }
+      else {
+        final byte[] buffer = getBuffer();
+        while (src.hasRemaining()) {
+          final int l = Math.min(buffer.length, src.remaining());
+          src.get(buffer, 0, l);
+          out.write(buffer, 0, l);
+        }
+      }
+      return length;
+    }
+
+    public boolean isOpen() {
+      return open;
+    }
+
+    public void close()
+        throws IOException
+    {
+      open = false;
+      out.close();
+    }
+  }
+}
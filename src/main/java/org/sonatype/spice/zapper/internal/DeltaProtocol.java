@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal;
+
+import java.io.IOException;
+
+import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.internal.transport.AbstractClient;
+
+/**
+ * Protocol that is able to upload only the parts of files that remote end does not have in it's existing version of
+ * them: remote end copies the rest from existing versions.
+ */
+public interface DeltaProtocol
+    extends Protocol
+{
+  /**
+   * Learns the blocks of existing versions of transfer files from remote end, finds them in the files of source, and
+   * sets them as the blocks remote end copies instead of receiving (see {@link Transfer#getBlockCopies(ZFile)}). Used
+   * before transfer is segmented.
+   */
+  void createBlockCopies(Transfer transfer, IOSource source, AbstractClient<?> client)
+      throws IOException;
+
+  /**
+   * Segments the transfer cutting the files of source at content-defined boundaries, asks remote end which of the
+   * segments it already holds (by their hashes) in any file it received, and sets those as the blocks remote end copies
+   * instead of receiving (see {@link BlockCopy#getSourcePath()}). Used instead of {@link #getSegmentCreator()}, returns
+   * the count of segments left to send.
+   */
+  int createContentDefinedSegments(Transfer transfer, IOSource source, AbstractClient<?> client)
+      throws IOException;
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.sonatype.spice.zapper.IOTarget;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.internal.transport.AbstractChargerClient;
+import org.sonatype.spice.zapper.internal.transport.AbstractClient;
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
+/**
+ * Protocol that is able to download as well: it learns the files and their segments from remote end, and then
+ * receives the segments, that might arrive in any order and on any track.
+ */
+public interface DownloadProtocol
+    extends Protocol
+{
+  /**
+   * Returns the transfer of given paths, having it's ZFiles and segments set, as told by remote end.
+   */
+  Transfer beforeDownload(TransferIdentifier transferIdentifier, List<Path> paths, AbstractClient<?> client)
+      throws IOException;
+
+  /**
+   * Fetches the content of the segment on given track, to be passed to
+   * {@link #receiveSegment(Segment, InputStream, IOTarget)}. Returned stream must be closed by caller.
+   */
+  InputStream fetchSegment(Transfer transfer, Segment segment, TrackIdentifier trackIdentifier,
+                           AbstractChargerClient<?> client)
+      throws IOException;
+
+  /**
+   * Receives the segment from fetched content, and writes it into target. Returns the count of bytes written, that
+   * is always the segment length. Throws if content is not the expected segment, or does not verify.
+   */
+  long receiveSegment(Segment segment, InputStream content, IOTarget target)
+      throws IOException;
+
+  void afterDownload(Transfer transfer, AbstractClient<?> client)
+      throws IOException;
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal;
+
+import java.io.IOException;
+
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
+/**
+ * Supplier recording the payloads sent into the {@link TransferJournal}, delegating everything to another supplier.
+ */
+class JournalingPayloadSupplier
+    implements PayloadSupplier
+{
+  private final PayloadSupplier payloadSupplier;
+
+  private final TransferJournal journal;
+
+  JournalingPayloadSupplier(final PayloadSupplier payloadSupplier, final TransferJournal journal) {
+    this.payloadSupplier = Check.notNull(payloadSupplier, PayloadSupplier.class);
+    this.journal = Check.notNull(journal, TransferJournal.class);
+  }
+
+  public SegmentPayload getNextPayload(final TrackIdentifier trackIdentifier) {
+    return payloadSupplier.getNextPayload(trackIdentifier);
+  }
+
+  public void payloadSent(final TrackIdentifier trackIdentifier, final SegmentPayload payload) {
+    journal.segmentSent(payload);
+    payloadSupplier.payloadSent(trackIdentifier, payload);
+  }
+
+  public boolean payloadFailed(final TrackIdentifier trackIdentifier, final SegmentPayload payload,
+                               final IOException failure)
+  {
+    return payloadSupplier.payloadFailed(trackIdentifier, payload, failure);
+  }
+}
@@ -12,8 +12,12 @@
  */
 package org.sonatype.spice.zapper.internal;
 
+import java.io.File;
+
 import org.sonatype.spice.zapper.CodecSelector;
 import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.PayloadScheduler;
+import org.sonatype.spice.zapper.TrackExecutorFactory;
 import org.sonatype.spice.zapper.hash.HashAlgorithm;
 
 public class ParametersImpl
@@ -25,17 +29,71 @@ public class ParametersImpl
 
   private final int maximumTrackCount;
 
+  private final int maximumTotalTrackCount;
+
   private final long maximumSegmentLength;
 
+  private final boolean hashingWhileStreaming;
+
+  private final PayloadScheduler payloadScheduler;
+
+  private final boolean adaptiveTrackCount;
+
+  private final boolean trackStreaming;
+
+  private final TrackExecutorFactory trackExecutorFactory;
+
+  private final long handshakeTtl;
+
+  private final File journalDirectory;
+
+  private final int maximumRetryCount;
+
+  private final long retryBackOff;
+
+  private final long maximumRetryBackOff;
+
+  private final long hedgeDelay;
+
+  private final int deltaBlockLength;
+
+  private final long averageSegmentLength;
+
   public ParametersImpl(final HashAlgorithm hashAlgorithm, final CodecSelector codecSelector,
-                        final int maximumTrackCount, final long maximumSegmentLength)
+                        final int maximumTrackCount, final int maximumTotalTrackCount,
+                        final long maximumSegmentLength,
+                        final boolean hashingWhileStreaming, final PayloadScheduler payloadScheduler,
+                        final boolean adaptiveTrackCount, final boolean trackStreaming,
+                        final TrackExecutorFactory trackExecutorFactory, final long handshakeTtl,
+                        final File journalDirectory, final int maximumRetryCount, final long retryBackOff,
+                        final long maximumRetryBackOff, final long hedgeDelay,
+                        final int deltaBlockLength, final long averageSegmentLength)
   {
     this.hashAlgorithm = Check.notNull(hashAlgorithm, HashAlgorithm.class);
     this.codecSelector = Check.notNull(codecSelector, CodecSelector.class);
     this.maximumTrackCount =
         Check.argument(maximumTrackCount > 0, maximumTrackCount, "maximumTrackCount must be positive!");
+    this.maximumTotalTrackCount = Check.argument(maximumTotalTrackCount > 0, maximumTotalTrackCount,
+        "maximumTotalTrackCount must be positive!");
     this.maximumSegmentLength =
         Check.argument(maximumSegmentLength > 0, maximumSegmentLength, "maximumSegmentLength must be positive!");
+    this.hashingWhileStreaming = hashingWhileStreaming;
+    this.payloadScheduler = Check.notNull(payloadScheduler, PayloadScheduler.class);
+    this.adaptiveTrackCount = adaptiveTrackCount;
+    this.trackStreaming = trackStreaming;
+    this.trackExecutorFactory = Check.notNull(trackExecutorFactory, TrackExecutorFactory.class);
+    this.handshakeTtl = Check.argument(handshakeTtl >= 0, handshakeTtl, "handshakeTtl must not be negative!");
+    this.journalDirectory = journalDirectory;
+    this.maximumRetryCount =
+        Check.argument(maximumRetryCount >= 0, maximumRetryCount, "maximumRetryCount must not be negative!");
+    this.retryBackOff = Check.argument(retryBackOff >= 0, retryBackOff, "retryBackOff must not be negative!");
+    this.maximumRetryBackOff = Check.argument(maximumRetryBackOff >= 0, maximumRetryBackOff,
+        "maximumRetryBackOff must not be negative!");
+    this.hedgeDelay = Check.argument(hedgeDelay >= 0, hedgeDelay, "hedgeDelay must not be negative!");
+    this.deltaBlockLength = Check.argument(deltaBlockLength == 0 || deltaBlockLength >= 1024, deltaBlockLength,
+        "deltaBlockLength must be 0 or at least 1024!");
+    this.averageSegmentLength = Check.argument(averageSegmentLength == 0 || averageSegmentLength >= 256,
+        averageSegmentLength, "averageSegmentLength must be 0 or at least 256!");
   }
 
   public HashAlgorithm getHashAlgorithm() {
@@ -50,7 +108,63 @@ public class ParametersImpl
     return maximumTrackCount;
   }
 
+  public int getMaximumTotalTrackCount() {
+    return maximumTotalTrackCount;
+  }
+
   public long getMaximumSegmentLength() {
     return maximumSegmentLength;
   }
+
+  public boolean isHashingWhileStreaming() {
+    return hashingWhileStreaming;
+  }
+
+  public PayloadScheduler getPayloadScheduler() {
+    return payloadScheduler;
+  }
+
+  public boolean isAdaptiveTrackCount() {
+    return adaptiveTrackCount;
+  }
+
+  public boolean isTrackStreaming() {
+    return trackStreaming;
+  }
+
+  public TrackExecutorFactory getTrackExecutorFactory() {
+    return trackExecutorFactory;
+  }
+
+  public long getHandshakeTtl() {
+    return handshakeTtl;
+  }
+
+  public File getJournalDirectory() {
+    return journalDirectory;
+  }
+
+  public int getMaximumRetryCount() {
+    return maximumRetryCount;
+  }
+
+  public long getRetryBackOff() {
+    return retryBackOff;
+  }
+
+  public long getMaximumRetryBackOff() {
+    return maximumRetryBackOff;
+  }
+
+  public long getHedgeDelay() {
+    return hedgeDelay;
+  }
+
+  public int getDeltaBlockLength() {
+    return deltaBlockLength;
+  }
+
+  public long getAverageSegmentLength() {
+    return averageSegmentLength;
+  }
 }
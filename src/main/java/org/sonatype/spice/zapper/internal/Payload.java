@@ -14,6 +14,7 @@ package org.sonatype.spice.zapper.internal;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 import org.sonatype.spice.zapper.Path;
@@ -38,4 +39,12 @@ public interface Payload
 
   InputStream getContent()
       throws IOException;
+
+  /**
+   * Writes the content (same as would be read from {@link #getContent()}) into the target channel, and returns the
+   * count of bytes written, that equals to {@link #getLength()}. Codecs are not applied, and target channel is not
+   * closed. Payloads backed by files should transfer their content without copying it through Java heap, when possible.
+   */
+  long writeTo(WritableByteChannel target)
+      throws IOException;
 }
@@ -12,7 +12,30 @@
  */
 package org.sonatype.spice.zapper.internal;
 
+import java.io.IOException;
+
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
+/**
+ * Hands out payloads to tracks, is invoked concurrently by multiple tracks.
+ */
 public interface PayloadSupplier
 {
-  SegmentPayload getNextPayload();
+  /**
+   * Returns the next payload to be sent by given track, or {@code null} if there is nothing more to send.
+   */
+  SegmentPayload getNextPayload(TrackIdentifier trackIdentifier);
+
+  /**
+   * Notifies that given payload, got from {@link #getNextPayload(TrackIdentifier)}, was sent by given track and was
+   * accepted by remote end.
+   */
+  void payloadSent(TrackIdentifier trackIdentifier, SegmentPayload payload);
+
+  /**
+   * Notifies that given payload, got from {@link #getNextPayload(TrackIdentifier)}, failed to be sent by given track.
+   * Returns {@code true} if supplier took care of the failure (ie. re-queued the payload to be sent again), and the
+   * track should continue with next payload, or {@code false} if the track should fail.
+   */
+  boolean payloadFailed(TrackIdentifier trackIdentifier, SegmentPayload payload, IOException failure);
 }
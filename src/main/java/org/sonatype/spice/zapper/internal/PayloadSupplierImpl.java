@@ -16,8 +16,10 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
 public class PayloadSupplierImpl
-    implements PayloadSupplier
+    extends AbstractPayloadSupplier
 {
   private final List<SegmentPayload> payloads;
 
@@ -29,7 +31,7 @@ public class PayloadSupplierImpl
     this.payloadIterator = payloads.iterator();
   }
 
-  public synchronized SegmentPayload getNextPayload() {
+  public synchronized SegmentPayload getNextPayload(final TrackIdentifier trackIdentifier) {
     if (payloadIterator.hasNext()) {
       return payloadIterator.next();
     }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.internal.transport.AbstractClient;
+
+/**
+ * Protocol that is able to resume an upload that failed: remote end keeps the segments received of a transfer that
+ * was not completed, and tells them when same transfer is resumed, see {@link TransferJournal}.
+ */
+public interface ResumableProtocol
+    extends Protocol
+{
+  /**
+   * Used instead of {@link #beforeUpload(Transfer, AbstractClient)} when transfer is resumed: tells the transfer to
+   * remote end again, and returns the hashes of segment bodies remote end already holds, keyed by segment ID. Remote
+   * end not knowing the transfer (anymore) begins it, and holds none of it's segments.
+   */
+  Map<SegmentIdentifier, Hash> resumeUpload(Transfer transfer, AbstractClient<?> client)
+      throws IOException;
+}
@@ -14,6 +14,7 @@ package org.sonatype.spice.zapper.internal;
 
 import org.sonatype.spice.zapper.Identified;
 import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.hash.Hash;
 
 /**
  * Segment is ZFile part (or whole, depending on range it holds).
@@ -28,10 +29,19 @@ public class Segment
 
   private final ZFile zfile;
 
+  private final Hash hash;
+
   public Segment(final long offset, final long length, final ZFile zfile, final SegmentIdentifier segmentIdentifier) {
+    this(offset, length, zfile, segmentIdentifier, null);
+  }
+
+  public Segment(final long offset, final long length, final ZFile zfile, final SegmentIdentifier segmentIdentifier,
+                 final Hash hash)
+  {
     super(offset, length);
     this.zfile = Check.notNull(zfile, ZFile.class);
     this.segmentIdentifier = Check.notNull(segmentIdentifier, SegmentIdentifier.class);
+    this.hash = hash;
   }
 
   public SegmentIdentifier getIdentifier() {
@@ -41,4 +51,11 @@ public class Segment
   public ZFile getZFile() {
     return zfile;
   }
+
+  /**
+   * Returns the hash of segment content, if it was calculated when segment was created, or {@code null}.
+   */
+  public Hash getHash() {
+    return hash;
+  }
 }
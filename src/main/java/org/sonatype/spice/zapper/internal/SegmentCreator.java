@@ -12,7 +12,10 @@
  */
 package org.sonatype.spice.zapper.internal;
 
+import java.io.IOException;
+
 public interface SegmentCreator
 {
-  int createSegments(Transfer transfer);
+  int createSegments(Transfer transfer)
+      throws IOException;
 }
@@ -14,11 +14,13 @@ package org.sonatype.spice.zapper.internal;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.IOSourceTransferable;
 import org.sonatype.spice.zapper.Path;
 import org.sonatype.spice.zapper.codec.Codec;
 import org.sonatype.spice.zapper.hash.Hash;
@@ -47,13 +49,30 @@ public class SegmentPayload
   public SegmentPayload(final TransferIdentifier transferIdentifier, final Path path, final Segment segment,
                         final IOSource ioSource, final Hash hash, final List<Codec> codecs)
       throws IOException
+  {
+    this(transferIdentifier, path, segment, ioSource, codecs, Check.notNull(hash, Hash.class));
+  }
+
+  /**
+   * Constructor for subclasses that do not know the hash upfront, and hence override {@link #getHash()}.
+   */
+  protected SegmentPayload(final TransferIdentifier transferIdentifier, final Path path, final Segment segment,
+                           final IOSource ioSource, final List<Codec> codecs)
+      throws IOException
+  {
+    this(transferIdentifier, path, segment, ioSource, codecs, null);
+  }
+
+  private SegmentPayload(final TransferIdentifier transferIdentifier, final Path path, final Segment segment,
+                         final IOSource ioSource, final List<Codec> codecs, final Hash hash)
+      throws IOException
   {
     super(Check.notNull(segment, Segment.class).getIdentifier());
     this.transferIdentifier = Check.notNull(transferIdentifier, TransferIdentifier.class);
     this.path = Check.notNull(path, Path.class);
     this.segment = segment;
     this.ioSource = Check.notNull(ioSource, IOSource.class);
-    this.hash = Check.notNull(hash, Hash.class);
+    this.hash = hash;
     final ArrayList<Codec> cds = new ArrayList<Codec>();
     if (codecs != null) {
       cds.addAll(codecs);
@@ -83,10 +102,23 @@ public class SegmentPayload
     return ioSource.readSegment(segment.getZFile().getIdentifier(), segment);
   }
 
+  public long writeTo(final WritableByteChannel target)
+      throws IOException
+  {
+    return writeSegmentTo(target);
+  }
+
   public Hash getHash() {
     return hash;
   }
 
+  /**
+   * Returns the hash of segment body. Same as {@link #getHash()}, unless subclass wraps the body into an envelope.
+   */
+  public Hash getSegmentHash() {
+    return hash;
+  }
+
   public List<Codec> getCodecs() {
     return codecs;
   }
@@ -96,4 +128,20 @@ public class SegmentPayload
   protected IOSource getIoSource() {
     return ioSource;
   }
+
+  /**
+   * Writes the segment body into target, transferring it directly if source is {@link IOSourceTransferable}.
+   * Subclasses wrapping the body should use this method to write it.
+   */
+  protected long writeSegmentTo(final WritableByteChannel target)
+      throws IOException
+  {
+    if (ioSource instanceof IOSourceTransferable) {
+      return ((IOSourceTransferable) ioSource).transferSegment(segment.getZFile().getIdentifier(), segment, target);
+    }
+    else {
+      return ChannelUtils.copy(ioSource.readSegment(segment.getZFile().getIdentifier(), segment), target,
+          segment.getLength());
+    }
+  }
 }
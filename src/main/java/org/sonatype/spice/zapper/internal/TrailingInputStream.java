@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A filter stream that once the wrapped stream is exhausted, continues with a "trailer" stream. The trailer is created
+ * only when the wrapped stream hits EOF, hence it might carry information gathered while the wrapped stream was read
+ * (like hashes of it).
+ */
+public abstract class TrailingInputStream
+    extends FilterInputStream
+{
+  private InputStream trailer;
+
+  protected TrailingInputStream(final InputStream in) {
+    super(in);
+  }
+
+  @Override
+  public int read()
+      throws IOException
+  {
+    if (trailer == null) {
+      final int result = super.read();
+      if (result != -1) {
+        return result;
+      }
+      trailer = createTrailer();
+    }
+    return trailer.read();
+  }
+
+  @Override
+  public int read(final byte b[], final int off, final int len)
+      throws IOException
+  {
+    if (trailer == null) {
+      final int result = super.read(b, off, len);
+      if (result != -1) {
+        return result;
+      }
+      trailer = createTrailer();
+    }
+    return trailer.read(b, off, len);
+  }
+
+  /**
+   * Skips by reading, as the wrapped stream must "see" all the bytes passing thru it.
+   */
+  @Override
+  public long skip(final long n)
+      throws IOException
+  {
+    final byte[] buffer = new byte[(int) Math.min(2048, Math.max(n, 0))];
+    long remaining = n;
+    while (remaining > 0) {
+      final int read = read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (read == -1) {
+        break;
+      }
+      remaining -= read;
+    }
+    return n - remaining;
+  }
+
+  @Override
+  public int available()
+      throws IOException
+  {
+    if (trailer == null) {
+      return super.available();
+    }
+    return trailer.available();
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public void close()
+      throws IOException
+  {
+    try {
+      super.close();
+    }
+    finally {
+      if (trailer != null) {
+        trailer.close();
+      }
+    }
+  }
+
+  // ==
+
+  /**
+   * Invoked once, when wrapped stream is exhausted. Never should return {@code null}.
+   */
+  protected abstract InputStream createTrailer()
+      throws IOException;
+}
@@ -14,9 +14,13 @@ package org.sonatype.spice.zapper.internal;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.PayloadScheduler;
 import org.sonatype.spice.zapper.ZFile;
 import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
 
@@ -29,17 +33,32 @@ public class Transfer
 
   private final List<SegmentPayload> payloads;
 
+  private final Map<Path, ZFile> copySources;
+
+  private final Map<Path, List<BlockCopy>> blockCopies;
+
   private final long totalSize;
 
+  private final int priority;
+
   private final AtomicInteger segmentCounter = new AtomicInteger(1);
 
   private final AtomicInteger trackCounter = new AtomicInteger(1);
 
+  private volatile TransferJournal journal;
+
   public Transfer(final String transferIdentifier, final List<ZFile> zfiles) {
+    this(transferIdentifier, zfiles, 1);
+  }
+
+  public Transfer(final String transferIdentifier, final List<ZFile> zfiles, final int priority) {
     super(new TransferIdentifier(transferIdentifier));
+    this.priority = Check.argument(priority > 0, priority, "priority not positive!");
     this.zfiles = Collections.unmodifiableList(Check.notNull(zfiles, List.class));
     this.segments = new ArrayList<Segment>();
     this.payloads = new ArrayList<SegmentPayload>();
+    this.copySources = new LinkedHashMap<Path, ZFile>();
+    this.blockCopies = new LinkedHashMap<Path, List<BlockCopy>>();
     long ts = 0;
     for (ZFile zfile : zfiles) {
       ts += zfile.getLength();
@@ -59,10 +78,32 @@ public class Transfer
     return zfiles;
   }
 
+  /**
+   * Returns the total size of the files of this transfer, including the files and blocks copied by remote end.
+   */
   public long getTotalSize() {
     return totalSize;
   }
 
+  /**
+   * Returns the size of the segments of this transfer, the bytes actually transferred, hence not including the files
+   * and blocks copied by remote end.
+   */
+  public long getSegmentsSize() {
+    long result = 0;
+    for (Segment segment : segments) {
+      result += segment.getLength();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the priority of this transfer, used to share tracks among concurrently running transfers.
+   */
+  public int getPriority() {
+    return priority;
+  }
+
   public List<Segment> getSegments() {
     return Collections.unmodifiableList(segments);
   }
@@ -72,6 +113,49 @@ public class Transfer
     this.segments.addAll(segments);
   }
 
+  /**
+   * Returns the file of this transfer having same content as given file, that remote end copies given file from
+   * instead of receiving it's segments, or {@code null} if given file is sent.
+   */
+  public ZFile getCopySource(final ZFile zfile) {
+    return copySources.get(zfile.getIdentifier());
+  }
+
+  /**
+   * Returns the sources of files copied by remote end, keyed by path of the copy.
+   */
+  public Map<Path, ZFile> getCopySources() {
+    return Collections.unmodifiableMap(copySources);
+  }
+
+  public void setCopySources(final Map<Path, ZFile> copySources) {
+    this.copySources.clear();
+    this.copySources.putAll(copySources);
+  }
+
+  /**
+   * Returns the blocks of given file that remote end copies from it's existing version of the file instead of
+   * receiving them, in order of their offset. Returns empty list if file is sent whole.
+   */
+  public List<BlockCopy> getBlockCopies(final ZFile zfile) {
+    final List<BlockCopy> result = blockCopies.get(zfile.getIdentifier());
+    return result != null ? result : Collections.<BlockCopy>emptyList();
+  }
+
+  /**
+   * Returns the blocks copied by remote end, keyed by path of the file they belong to.
+   */
+  public Map<Path, List<BlockCopy>> getBlockCopies() {
+    return Collections.unmodifiableMap(blockCopies);
+  }
+
+  public void setBlockCopies(final Map<Path, List<BlockCopy>> blockCopies) {
+    this.blockCopies.clear();
+    for (Map.Entry<Path, List<BlockCopy>> entry : blockCopies.entrySet()) {
+      this.blockCopies.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<BlockCopy>(entry.getValue())));
+    }
+  }
+
   public List<SegmentPayload> getPayloads() {
     return Collections.unmodifiableList(payloads);
   }
@@ -81,7 +165,20 @@ public class Transfer
     this.payloads.addAll(payloads);
   }
 
-  public PayloadSupplier getPayloadSupplier() {
-    return new PayloadSupplierImpl(getPayloads());
+  /**
+   * Returns the journal recording the payloads sent, or {@code null} if transfer is not journaled.
+   */
+  public TransferJournal getJournal() {
+    return journal;
+  }
+
+  public void setJournal(final TransferJournal journal) {
+    this.journal = journal;
+  }
+
+  public PayloadSupplier getPayloadSupplier(final PayloadScheduler payloadScheduler, final int trackCount) {
+    final PayloadSupplier payloadSupplier =
+        Check.notNull(payloadScheduler, PayloadScheduler.class).createPayloadSupplier(getPayloads(), trackCount);
+    return journal != null ? new JournalingPayloadSupplier(payloadSupplier, journal) : payloadSupplier;
   }
 }
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashAlgorithm;
+import org.sonatype.spice.zapper.hash.HashUtils;
+import org.sonatype.spice.zapper.internal.hawtbuf.SegmentRecord;
+import org.sonatype.spice.zapper.internal.zapper.ZapperRecipes;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Journal of an upload transfer kept on disk, to resume the transfer if it fails. Journal starts with the recipe of
+ * the transfer (see {@link ZapperRecipes}), having it's ID and segments, followed by a {@link SegmentRecord} (ID and
+ * body hash) of each segment sent. Records are appended as segments are sent, hence journal of a crashed process might
+ * end with an incomplete record, that is ignored. Journal file is named after the remote URL and the files
+ * transferred (their paths, lengths, timestamps and hashes), so an upload of same files to same remote URL finds it,
+ * while an upload having any of the files changed does not. Journals not written to for {@link #MAXIMUM_AGE} are
+ * deleted, as remote end is not expected to keep the transfer for longer.
+ */
+public class TransferJournal
+{
+  /**
+   * The time (in milliseconds) a journal is kept since last written to: one day, the time server side keeps the
+   * transfers neither committed nor aborted by default.
+   */
+  public static final long MAXIMUM_AGE = 24L * 60L * 60L * 1000L;
+
+  private final Logger logger;
+
+  private final File file;
+
+  private final Map<SegmentIdentifier, Hash> sentSegments;
+
+  private OutputStream output;
+
+  public TransferJournal(final File directory, final String remoteUrl, final List<ZFile> zfiles,
+                         final HashAlgorithm hashAlgorithm)
+  {
+    Check.notNull(directory, "Journal directory is null!");
+    Check.notNull(remoteUrl, "Remote URL is null!");
+    Check.notNull(zfiles, List.class);
+    Check.notNull(hashAlgorithm, HashAlgorithm.class);
+    this.logger = LoggerFactory.getLogger(getClass());
+    final StringBuilder key = new StringBuilder(remoteUrl);
+    for (ZFile zfile : zfiles) {
+      key.append('\n').append(zfile.getIdentifier().stringValue()).append('\t').append(zfile.getLength())
+          .append('\t').append(zfile.getLastModifiedTimestamp()).append('\t').append(zfile.getHash().stringValue());
+    }
+    this.file = new File(directory, HashUtils.getDigest(hashAlgorithm, key.toString()).stringValue() + ".journal");
+    this.sentSegments = new LinkedHashMap<SegmentIdentifier, Hash>();
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Returns the body hashes of segments recorded as sent, keyed by segment ID.
+   */
+  public synchronized Map<SegmentIdentifier, Hash> getSentSegments() {
+    return Collections.unmodifiableMap(new LinkedHashMap<SegmentIdentifier, Hash>(sentSegments));
+  }
+
+  /**
+   * Loads the journal, if it exists, and returns the transfer recorded in it, having it's segments set for given
+   * ZFiles. Returns {@code null} if there is no journal, or it does not record a transfer of given ZFiles.
+   */
+  public synchronized Transfer load(final List<ZFile> zfiles, final int priority)
+      throws IOException
+  {
+    if (!file.isFile()) {
+      return null;
+    }
+    final InputStream in = new PushbackInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      final Transfer recorded;
+      try {
+        recorded = ZapperRecipes.parseRecipe(in);
+      }
+      catch (IOException e) {
+        logger.debug("Ignoring journal {} lacking recipe", file, e);
+        return null;
+      }
+      if (!isSameZFiles(recorded.getZfiles(), zfiles)) {
+        return null;
+      }
+      final HashMap<Path, ZFile> zfilesByPath = new HashMap<Path, ZFile>(zfiles.size());
+      for (ZFile zfile : zfiles) {
+        zfilesByPath.put(zfile.getIdentifier(), zfile);
+      }
+      final Transfer transfer = new Transfer(recorded.getIdentifier().stringValue(), zfiles, priority);
+      final ArrayList<Segment> segments = new ArrayList<Segment>(recorded.getSegments().size());
+      for (Segment segment : recorded.getSegments()) {
+        segments.add(new Segment(segment.getOffset(), segment.getLength(),
+            zfilesByPath.get(segment.getZFile().getIdentifier()), segment.getIdentifier()));
+      }
+      transfer.setSegments(segments);
+      final LinkedHashMap<Path, ZFile> copySources = new LinkedHashMap<Path, ZFile>();
+      for (Map.Entry<Path, ZFile> entry : recorded.getCopySources().entrySet()) {
+        copySources.put(entry.getKey(), zfilesByPath.get(entry.getValue().getIdentifier()));
+      }
+      transfer.setCopySources(copySources);
+      transfer.setBlockCopies(recorded.getBlockCopies());
+
+      sentSegments.clear();
+      final PushbackInputStream records = (PushbackInputStream) in;
+      int b;
+      while ((b = records.read()) != -1) {
+        records.unread(b);
+        try {
+          final SegmentRecord record = SegmentRecord.parseFramed(records);
+          sentSegments.put(new SegmentIdentifier(record.getSegmentId()), ZapperRecipes.getSegmentRecordHash(record));
+        }
+        catch (IOException e) {
+          logger.debug("Ignoring incomplete record at end of journal {}", file, e);
+          break;
+        }
+      }
+      return transfer;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Begins the journal of transfer, replacing the existing one, if any. Records the recipe of the transfer and given
+   * segments as sent.
+   */
+  public synchronized void begin(final Transfer transfer, final Map<SegmentIdentifier, Hash> segments)
+      throws IOException
+  {
+    close(false);
+    file.getParentFile().mkdirs();
+    sentSegments.clear();
+    output = new FileOutputStream(file);
+    output.write(ZapperRecipes.createRecipe(transfer));
+    for (Map.Entry<SegmentIdentifier, Hash> entry : segments.entrySet()) {
+      record(entry.getKey(), entry.getValue());
+    }
+    output.flush();
+  }
+
+  /**
+   * Records the segment of given payload as sent. Journal failing to record is closed, as it is not essential to the
+   * transfer: the upload continues, but resuming it would send more segments than needed.
+   */
+  public synchronized void segmentSent(final SegmentPayload payload) {
+    if (output == null) {
+      return;
+    }
+    try {
+      record(payload.getIdentifier(), payload.getSegmentHash());
+      output.flush();
+    }
+    catch (IOException e) {
+      logger.warn("Could not record segment {} into journal {}", payload.getIdentifier().stringValue(), file, e);
+      close(false);
+    }
+  }
+
+  /**
+   * Closes the journal, and deletes it if transfer succeeded, hence is not to be resumed.
+   */
+  public synchronized void close(final boolean success) {
+    if (output != null) {
+      try {
+        output.close();
+      }
+      catch (IOException e) {
+        logger.warn("Could not close journal {}", file, e);
+      }
+      output = null;
+    }
+    if (success) {
+      file.delete();
+    }
+  }
+
+  /**
+   * Deletes the journals in given directory not written to since given timestamp, ie. those of uploads that were not
+   * resumed (or of files that changed since), hence will never be. Returns the count of journals deleted.
+   */
+  public static int deleteExpired(final File directory, final long timestamp) {
+    final File[] files = directory.listFiles();
+    int result = 0;
+    if (files != null) {
+      for (File file : files) {
+        if (file.isFile() && file.getName().endsWith(".journal") && file.lastModified() < timestamp
+            && file.delete()) {
+          result++;
+        }
+      }
+    }
+    return result;
+  }
+
+  // ==
+
+  private void record(final SegmentIdentifier segmentIdentifier, final Hash hash)
+      throws IOException
+  {
+    output.write(ZapperRecipes.createSegmentRecord(segmentIdentifier, hash).toFramedByteArray());
+    sentSegments.put(segmentIdentifier, hash);
+  }
+
+  private static boolean isSameZFiles(final List<ZFile> recorded, final List<ZFile> zfiles) {
+    if (recorded.size() != zfiles.size()) {
+      return false;
+    }
+    for (int i = 0; i < recorded.size(); i++) {
+      final ZFile r = recorded.get(i);
+      final ZFile z = zfiles.get(i);
+      if (!r.getIdentifier().equals(z.getIdentifier()) || r.getLength() != z.getLength()
+          || r.getLastModifiedTimestamp() != z.getLastModifiedTimestamp() || !r.getHash().equals(z.getHash())) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
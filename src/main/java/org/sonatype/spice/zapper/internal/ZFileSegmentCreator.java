@@ -12,6 +12,7 @@
  */
 package org.sonatype.spice.zapper.internal;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,7 +20,9 @@ import org.sonatype.spice.zapper.ZFile;
 
 /**
  * Segment creator that chops files into given size, or creates a segment carrying whole file if {@code maxSegmentSize}
- * is bigger than the file.
+ * is bigger than the file, or the file is not segmentable. Files copied by remote end from other file of the transfer
+ * (see {@link Transfer#getCopySource(ZFile)}) are not segmented, and neither are the blocks of files copied by remote
+ * end from existing versions of the files (see {@link Transfer#getBlockCopies(ZFile)}).
  *
  * @author cstamas
  */
@@ -32,30 +35,67 @@ public abstract class ZFileSegmentCreator
     this.maxSegmentSize = maxSegmentSize;
   }
 
-  public int createSegments(final Transfer transfer) {
+  public int createSegments(final Transfer transfer)
+      throws IOException
+  {
     final List<ZFile> zfiles = transfer.getZfiles();
     final ArrayList<Segment> segments = new ArrayList<Segment>(zfiles.size());
     for (ZFile zfile : zfiles) {
-      if (zfile.getLength() < maxSegmentSize) {
-        segments.add(createSegment(transfer, 0, zfile.getLength(), zfile));
+      if (transfer.getCopySource(zfile) != null) {
+        continue;
       }
-      else {
-        long offset = 0;
-        long length = maxSegmentSize;
-        while (true) {
-          length = Math.min(length, zfile.getLength() - offset);
-          if (length == 0) {
-            break;
-          }
-          segments.add(createSegment(transfer, offset, length, zfile));
-          offset += length;
+      final List<BlockCopy> blockCopies = transfer.getBlockCopies(zfile);
+      if (blockCopies.isEmpty()) {
+        createSegments(transfer, zfile, 0, zfile.getLength(), segments);
+        continue;
+      }
+      // segment the gaps between copied blocks
+      long offset = 0;
+      for (BlockCopy blockCopy : blockCopies) {
+        if (blockCopy.getOffset() > offset) {
+          createSegments(transfer, zfile, offset, blockCopy.getOffset() - offset, segments);
         }
+        offset = blockCopy.getOffset() + blockCopy.getLength();
+      }
+      if (zfile.getLength() > offset) {
+        createSegments(transfer, zfile, offset, zfile.getLength() - offset, segments);
       }
     }
     transfer.setSegments(segments);
     return segments.size();
   }
 
+  /**
+   * Creates the segments of given range of file.
+   */
+  protected void createSegments(final Transfer transfer, final ZFile zfile, final long rangeOffset,
+                                final long rangeLength, final List<Segment> segments)
+      throws IOException
+  {
+    if (rangeLength < maxSegmentSize || !isSegmentable(zfile)) {
+      segments.add(createSegment(transfer, rangeOffset, rangeLength, zfile));
+    }
+    else {
+      long offset = 0;
+      long length = maxSegmentSize;
+      while (true) {
+        length = Math.min(length, rangeLength - offset);
+        if (length == 0) {
+          break;
+        }
+        segments.add(createSegment(transfer, rangeOffset + offset, length, zfile));
+        offset += length;
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if file might be chopped into multiple segments. By default, all files are segmentable.
+   */
+  protected boolean isSegmentable(final ZFile zfile) {
+    return true;
+  }
+
   protected Segment createSegment(final Transfer transfer, final long offset, final long length, final ZFile zfile) {
     return new Segment(offset, length, zfile, transfer.getNextSegmentIdentifier());
   }
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.lz4;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compressor and decompressor of LZ4 blocks (see the LZ4 block format description): a block is a sequence of literals
+ * and matches, each copying at least 4 bytes from at most 64KB back. Compressor finds the matches by hashing each 4
+ * bytes of input; higher levels follow the chain of earlier positions having same hash for longer matches (as LZ4 HC
+ * does), trading speed for ratio. Blocks are independent, matches never reach outside of block.
+ */
+public class Lz4Blocks
+{
+  public static final int MINIMUM_LEVEL = 1;
+
+  /**
+   * Levels above are left out, as they compress slower than deflate at it's fastest level, and not better.
+   */
+  public static final int MAXIMUM_LEVEL = 3;
+
+  private static final int MIN_MATCH = 4;
+
+  private static final int MF_LIMIT = 12;
+
+  private static final int LAST_LITERALS = 5;
+
+  private static final int MAX_DISTANCE = 65535;
+
+  private static final int HASH_LOG = 16;
+
+  private static final int SKIP_TRIGGER = 6;
+
+  private final int attempts;
+
+  private final int[] hashTable;
+
+  private final int[] chainTable;
+
+  /**
+   * Tables hold positions shifted by this offset, that grows with each block compressed, so positions of earlier
+   * blocks are told apart without clearing the tables for each block.
+   */
+  private int offset;
+
+  /**
+   * Creates compressor of given level: level 1 takes the first match found, each further level doubles the count of
+   * earlier positions tried.
+   */
+  public Lz4Blocks(final int level) {
+    if (level < MINIMUM_LEVEL || level > MAXIMUM_LEVEL) {
+      throw new IllegalArgumentException("Unsupported level " + level);
+    }
+    this.attempts = 1 << (level - 1);
+    this.hashTable = new int[1 << HASH_LOG];
+    this.chainTable = level > 1 ? new int[MAX_DISTANCE + 1] : null;
+    this.offset = 1;
+  }
+
+  /**
+   * Returns the maximum length of compressed block of given length.
+   */
+  public static int getMaximumCompressedLength(final int length) {
+    return length + length / 255 + 16;
+  }
+
+  /**
+   * Compresses the source into destination, that must have room of {@link #getMaximumCompressedLength(int)}, and
+   * returns the compressed length.
+   */
+  public int compress(final byte[] src, final int srcOff, final int srcLen, final byte[] dst, final int dstOff) {
+    final int end = srcOff + srcLen;
+    int dp = dstOff;
+    int anchor = srcOff;
+    if (srcLen > MF_LIMIT) {
+      if (offset > Integer.MAX_VALUE - srcLen) {
+        Arrays.fill(hashTable, 0);
+        offset = 1;
+      }
+      // position p of this block is stored as base + p
+      final int base = offset - srcOff;
+      final int limit = end - MF_LIMIT;
+      final int matchLimit = end - LAST_LITERALS;
+      int ip = srcOff;
+      while (ip < limit) {
+        final int sequence = readInt(src, ip);
+        final int hash = hash(sequence);
+        int matchOffset = -1;
+        int matchLength = 0;
+        int candidate = hashTable[hash] - base;
+        for (int i = 0; i < attempts && candidate >= srcOff && ip - candidate <= MAX_DISTANCE; i++) {
+          // a candidate not matching the byte past the best match so far can not give a longer match
+          if ((matchLength == 0 || src[candidate + matchLength] == src[ip + matchLength])
+              && readInt(src, candidate) == sequence) {
+            int length = MIN_MATCH;
+            while (ip + length < matchLimit && src[candidate + length] == src[ip + length]) {
+              length++;
+            }
+            if (length > matchLength) {
+              matchLength = length;
+              matchOffset = candidate;
+            }
+          }
+          if (chainTable == null) {
+            break;
+          }
+          candidate = chainTable[(base + candidate) & MAX_DISTANCE] - base;
+        }
+        insert(hash, base + ip);
+
+        if (matchOffset < 0) {
+          // step grows while nothing matches, incompressible data is skipped fast
+          ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+          continue;
+        }
+        // extend match backwards over literals
+        while (ip > anchor && matchOffset > srcOff && src[ip - 1] == src[matchOffset - 1]) {
+          ip--;
+          matchOffset--;
+          matchLength++;
+        }
+        dp = writeSequence(src, anchor, ip - anchor, ip - matchOffset, matchLength, dst, dp);
+        if (chainTable != null) {
+          for (int p = ip + 1; p < ip + matchLength && p < limit; p++) {
+            insert(hash(readInt(src, p)), base + p);
+          }
+        }
+        ip += matchLength;
+        anchor = ip;
+      }
+      offset += srcLen;
+    }
+    // last literals
+    final int literals = end - anchor;
+    dp = writeLength(dst, dp, literals, 0);
+    System.arraycopy(src, anchor, dst, dp, literals);
+    return dp + literals - dstOff;
+  }
+
+  /**
+   * Decompresses the source into destination at given offset, and returns the decompressed length. Matches might reach
+   * back into the bytes of destination preceding the offset (the history of linked blocks). Throws if source is not a
+   * valid block, or decompresses into more than destination holds.
+   */
+  public static int decompress(final byte[] src, final int srcOff, final int srcLen, final byte[] dst,
+                               final int dstOff, final int dstLen)
+      throws IOException
+  {
+    final int end = srcOff + srcLen;
+    final int dstEnd = dstOff + dstLen;
+    int sp = srcOff;
+    int dp = dstOff;
+    while (true) {
+      if (sp >= end) {
+        throw new IOException("Truncated LZ4 block");
+      }
+      final int token = src[sp++] & 0xff;
+      int literals = token >>> 4;
+      if (literals == 15) {
+        int b;
+        do {
+          if (sp >= end) {
+            throw new IOException("Truncated LZ4 block");
+          }
+          b = src[sp++] & 0xff;
+          literals += b;
+        }
+        while (b == 255);
+      }
+      if (literals > end - sp || literals > dstEnd - dp) {
+        throw new IOException("Malformed LZ4 block: literals out of bounds");
+      }
+      System.arraycopy(src, sp, dst, dp, literals);
+      sp += literals;
+      dp += literals;
+      if (sp == end) {
+        return dp - dstOff;
+      }
+
+      if (end - sp < 2) {
+        throw new IOException("Truncated LZ4 block");
+      }
+      final int distance = (src[sp] & 0xff) | ((src[sp + 1] & 0xff) << 8);
+      sp += 2;
+      if (distance == 0 || distance > dp) {
+        throw new IOException("Malformed LZ4 block: match out of bounds");
+      }
+      int length = token & 15;
+      if (length == 15) {
+        int b;
+        do {
+          if (sp >= end) {
+            throw new IOException("Truncated LZ4 block");
+          }
+          b = src[sp++] & 0xff;
+          length += b;
+        }
+        while (b == 255);
+      }
+      length += MIN_MATCH;
+      if (length > dstEnd - dp) {
+        throw new IOException("Malformed LZ4 block: match out of bounds");
+      }
+      final int from = dp - distance;
+      if (distance >= length) {
+        System.arraycopy(dst, from, dst, dp, length);
+      }
+      else {
+        // overlapping match repeats the bytes just written
+        for (int i = 0; i < length; i++) {
+          dst[dp + i] = dst[from + i];
+        }
+      }
+      dp += length;
+    }
+  }
+
+  // ==
+
+  private void insert(final int hash, final int storedPosition) {
+    if (chainTable != null) {
+      chainTable[storedPosition & MAX_DISTANCE] = hashTable[hash];
+    }
+    hashTable[hash] = storedPosition;
+  }
+
+  private static int writeSequence(final byte[] src, final int literalOffset, final int literals, final int distance,
+                                   final int matchLength, final byte[] dst, final int dstOff)
+  {
+    int dp = writeLength(dst, dstOff, literals, Math.min(matchLength - MIN_MATCH, 15));
+    System.arraycopy(src, literalOffset, dst, dp, literals);
+    dp += literals;
+    dst[dp++] = (byte) distance;
+    dst[dp++] = (byte) (distance >>> 8);
+    int length = matchLength - MIN_MATCH;
+    if (length >= 15) {
+      length -= 15;
+      while (length >= 255) {
+        dst[dp++] = (byte) 255;
+        length -= 255;
+      }
+      dst[dp++] = (byte) length;
+    }
+    return dp;
+  }
+
+  /**
+   * Writes the token having given literal length and match length nibble, followed by the rest of literal length.
+   */
+  private static int writeLength(final byte[] dst, final int dstOff, final int literals, final int matchNibble) {
+    int dp = dstOff;
+    dst[dp++] = (byte) ((Math.min(literals, 15) << 4) | matchNibble);
+    if (literals >= 15) {
+      int length = literals - 15;
+      while (length >= 255) {
+        dst[dp++] = (byte) 255;
+        length -= 255;
+      }
+      dst[dp++] = (byte) length;
+    }
+    return dp;
+  }
+
+  private static int readInt(final byte[] buffer, final int offset) {
+    return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8) | ((buffer[offset + 2] & 0xff) << 16)
+        | ((buffer[offset + 3] & 0xff) << 24);
+  }
+
+  private static int hash(final int sequence) {
+    return (sequence * -1640531535) >>> (32 - HASH_LOG);
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.lz4;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input reading LZ4 frames (see the LZ4 frame format description), one after another until input ends. Supports
+ * independent and linked blocks of any size, and skippable frames. Checksums carried by frames are skipped, not
+ * verified (zapper verifies the hashes of content anyway), except the header checksum.
+ */
+public class Lz4InputStream
+    extends InputStream
+{
+  private static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+
+  private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+
+  private static final int HISTORY_SIZE = 64 * 1024;
+
+  private final InputStream in;
+
+  private boolean linkedBlocks;
+
+  private boolean blockChecksum;
+
+  private boolean contentChecksum;
+
+  private byte[] compressed;
+
+  /**
+   * The history of linked blocks, followed by the block decompressed.
+   */
+  private byte[] buffer;
+
+  private int position;
+
+  private int limit;
+
+  private boolean eof;
+
+  public Lz4InputStream(final InputStream in)
+      throws IOException
+  {
+    this.in = in;
+    if (!readFrameHeader()) {
+      throw new EOFException("Empty LZ4 input");
+    }
+  }
+
+  @Override
+  public int read()
+      throws IOException
+  {
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    return buffer[position++] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len)
+      throws IOException
+  {
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    final int result = Math.min(len, limit - position);
+    System.arraycopy(buffer, position, b, off, result);
+    position += result;
+    return result;
+  }
+
+  @Override
+  public int available() {
+    return limit - position;
+  }
+
+  @Override
+  public void close()
+      throws IOException
+  {
+    in.close();
+  }
+
+  // ==
+
+  private boolean ensureAvailable()
+      throws IOException
+  {
+    while (position == limit) {
+      if (eof || !readBlock()) {
+        eof = true;
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the header of next frame, skipping skippable frames. Returns {@code false} if input ended instead.
+   */
+  private boolean readFrameHeader()
+      throws IOException
+  {
+    while (true) {
+      final int first = in.read();
+      if (first == -1) {
+        return false;
+      }
+      final int magic = first | (readByte() << 8) | (readByte() << 16) | (readByte() << 24);
+      if ((magic & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC) {
+        skipFully(readInt() & 0xFFFFFFFFL);
+        continue;
+      }
+      if (magic != Lz4OutputStream.MAGIC) {
+        throw new IOException(String.format("Not a LZ4 frame, magic %08x", magic));
+      }
+      final byte[] descriptor = new byte[14];
+      descriptor[0] = (byte) readByte();
+      descriptor[1] = (byte) readByte();
+      final int flags = descriptor[0] & 0xff;
+      if ((flags >>> 6) != 1) {
+        throw new IOException(String.format("Unsupported LZ4 frame version %s", flags >>> 6));
+      }
+      linkedBlocks = (flags & 0x20) == 0;
+      blockChecksum = (flags & 0x10) != 0;
+      contentChecksum = (flags & 0x04) != 0;
+      int length = 2;
+      if ((flags & 0x08) != 0) {
+        // content size
+        readFully(descriptor, length, 8);
+        length += 8;
+      }
+      if ((flags & 0x01) != 0) {
+        throw new IOException("Unsupported LZ4 frame having dictionary");
+      }
+      final int maximumBlockSize = 1 << (8 + 2 * ((descriptor[1] >>> 4) & 0x07));
+      if (maximumBlockSize < HISTORY_SIZE) {
+        throw new IOException(String.format("Unsupported LZ4 block maximum size %s", descriptor[1]));
+      }
+      if (readByte() != ((XxHash32.hash(descriptor, 0, length, 0) >>> 8) & 0xff)) {
+        throw new IOException("LZ4 frame header checksum mismatch");
+      }
+      if (compressed == null || compressed.length < maximumBlockSize) {
+        compressed = new byte[maximumBlockSize];
+        buffer = new byte[HISTORY_SIZE + maximumBlockSize];
+      }
+      position = 0;
+      limit = 0;
+      return true;
+    }
+  }
+
+  /**
+   * Reads next block, or ends the frame and begins next one. Returns {@code false} if input ended.
+   */
+  private boolean readBlock()
+      throws IOException
+  {
+    final int size = readInt();
+    if (size == 0) {
+      if (contentChecksum) {
+        skipFully(4);
+      }
+      return readFrameHeader();
+    }
+    final int length = size & 0x7FFFFFFF;
+    if (length > compressed.length) {
+      throw new IOException(String.format("LZ4 block of %s bytes exceeds maximum block size", length));
+    }
+    // keep the history linked blocks might refer to
+    int start = 0;
+    if (linkedBlocks && limit > 0) {
+      start = Math.min(limit, HISTORY_SIZE);
+      System.arraycopy(buffer, limit - start, buffer, 0, start);
+    }
+    if (size != length) {
+      readFully(buffer, start, length);
+      limit = start + length;
+    }
+    else {
+      readFully(compressed, 0, length);
+      limit = start + Lz4Blocks.decompress(compressed, 0, length, buffer, start, buffer.length - start);
+    }
+    position = start;
+    if (blockChecksum) {
+      skipFully(4);
+    }
+    return true;
+  }
+
+  private int readByte()
+      throws IOException
+  {
+    final int result = in.read();
+    if (result == -1) {
+      throw new EOFException("Truncated LZ4 frame");
+    }
+    return result;
+  }
+
+  private int readInt()
+      throws IOException
+  {
+    return readByte() | (readByte() << 8) | (readByte() << 16) | (readByte() << 24);
+  }
+
+  private void readFully(final byte[] b, final int off, final int len)
+      throws IOException
+  {
+    int read = 0;
+    while (read < len) {
+      final int l = in.read(b, off + read, len - read);
+      if (l == -1) {
+        throw new EOFException("Truncated LZ4 frame");
+      }
+      read += l;
+    }
+  }
+
+  private void skipFully(final long len)
+      throws IOException
+  {
+    for (long i = 0; i < len; i++) {
+      readByte();
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.lz4;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output writing a LZ4 frame (see the LZ4 frame format description) of independent blocks of 64KB, without checksums
+ * (zapper verifies the hashes of content anyway). Blocks that do not compress are stored as they are. The frame is
+ * ended when output is closed.
+ */
+public class Lz4OutputStream
+    extends FilterOutputStream
+{
+  static final int MAGIC = 0x184D2204;
+
+  static final int BLOCK_SIZE = 64 * 1024;
+
+  private static final int UNCOMPRESSED = 0x80000000;
+
+  private final Lz4Blocks blocks;
+
+  private final byte[] buffer;
+
+  private final byte[] compressed;
+
+  private int position;
+
+  private boolean closed;
+
+  public Lz4OutputStream(final OutputStream out, final int level)
+      throws IOException
+  {
+    super(out);
+    this.blocks = new Lz4Blocks(level);
+    this.buffer = new byte[BLOCK_SIZE];
+    this.compressed = new byte[Lz4Blocks.getMaximumCompressedLength(BLOCK_SIZE)];
+    writeHeader();
+  }
+
+  @Override
+  public void write(final int b)
+      throws IOException
+  {
+    if (position == buffer.length) {
+      writeBlock();
+    }
+    buffer[position++] = (byte) b;
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len)
+      throws IOException
+  {
+    int written = 0;
+    while (written < len) {
+      if (position == buffer.length) {
+        writeBlock();
+      }
+      final int chunk = Math.min(len - written, buffer.length - position);
+      System.arraycopy(b, off + written, buffer, position, chunk);
+      position += chunk;
+      written += chunk;
+    }
+  }
+
+  /**
+   * Writes what is buffered as a (possibly shorter) block, and flushes the output.
+   */
+  @Override
+  public void flush()
+      throws IOException
+  {
+    writeBlock();
+    out.flush();
+  }
+
+  /**
+   * Writes what is buffered and the end mark of frame, and closes the output.
+   */
+  @Override
+  public void close()
+      throws IOException
+  {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      writeBlock();
+      writeInt(0);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  // ==
+
+  private void writeHeader()
+      throws IOException
+  {
+    // version 01, independent blocks, no checksums, no content size, and 64KB blocks
+    final byte[] descriptor = new byte[] {(byte) 0x60, (byte) 0x40};
+    writeInt(MAGIC);
+    out.write(descriptor);
+    out.write((XxHash32.hash(descriptor, 0, descriptor.length, 0) >>> 8) & 0xff);
+  }
+
+  private void writeBlock()
+      throws IOException
+  {
+    if (position == 0) {
+      return;
+    }
+    final int length = blocks.compress(buffer, 0, position, compressed, 0);
+    if (length < position) {
+      writeInt(length);
+      out.write(compressed, 0, length);
+    }
+    else {
+      writeInt(position | UNCOMPRESSED);
+      out.write(buffer, 0, position);
+    }
+    position = 0;
+  }
+
+  private void writeInt(final int value)
+      throws IOException
+  {
+    out.write(value);
+    out.write(value >>> 8);
+    out.write(value >>> 16);
+    out.write(value >>> 24);
+  }
+}
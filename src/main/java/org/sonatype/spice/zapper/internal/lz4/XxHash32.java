@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.lz4;
+
+/**
+ * The xxHash32 of a byte array, as used by the LZ4 frame format for it's checksums.
+ */
+public final class XxHash32
+{
+  private static final int PRIME1 = -1640531535;
+
+  private static final int PRIME2 = -2048144777;
+
+  private static final int PRIME3 = -1028477379;
+
+  private static final int PRIME4 = 668265263;
+
+  private static final int PRIME5 = 374761393;
+
+  private XxHash32() {
+    // no instances
+  }
+
+  public static int hash(final byte[] buffer, final int offset, final int length, final int seed) {
+    final int end = offset + length;
+    int p = offset;
+    int h;
+    if (length >= 16) {
+      int v1 = seed + PRIME1 + PRIME2;
+      int v2 = seed + PRIME2;
+      int v3 = seed;
+      int v4 = seed - PRIME1;
+      while (p <= end - 16) {
+        v1 = round(v1, readInt(buffer, p));
+        v2 = round(v2, readInt(buffer, p + 4));
+        v3 = round(v3, readInt(buffer, p + 8));
+        v4 = round(v4, readInt(buffer, p + 12));
+        p += 16;
+      }
+      h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7) + Integer.rotateLeft(v3, 12)
+          + Integer.rotateLeft(v4, 18);
+    }
+    else {
+      h = seed + PRIME5;
+    }
+    h += length;
+    while (p <= end - 4) {
+      h = Integer.rotateLeft(h + readInt(buffer, p) * PRIME3, 17) * PRIME4;
+      p += 4;
+    }
+    while (p < end) {
+      h = Integer.rotateLeft(h + (buffer[p] & 0xff) * PRIME5, 11) * PRIME1;
+      p++;
+    }
+    h ^= h >>> 15;
+    h *= PRIME2;
+    h ^= h >>> 13;
+    h *= PRIME3;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  // ==
+
+  private static int round(final int acc, final int input) {
+    return Integer.rotateLeft(acc + input * PRIME2, 13) * PRIME1;
+  }
+
+  private static int readInt(final byte[] buffer, final int offset) {
+    return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8) | ((buffer[offset + 2] & 0xff) << 16)
+        | ((buffer[offset + 3] & 0xff) << 24);
+  }
+}
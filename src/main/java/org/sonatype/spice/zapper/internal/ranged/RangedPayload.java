@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.ranged;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+
+/**
+ * Payload of "ranged" protocol: the plain content of a segment, sent to the path of it's file. Segments carrying part
+ * of the file tell their place in file by {@link #getContentRange()}. As remote end is a plain server, no codecs are
+ * applied.
+ */
+public class RangedPayload
+    extends SegmentPayload
+{
+  public RangedPayload(final TransferIdentifier transferIdentifier, final Segment segment, final IOSource ioSource)
+      throws IOException
+  {
+    super(transferIdentifier, segment.getZFile().getIdentifier(), segment, ioSource, segment.getZFile().getHash(),
+        Collections.<Codec>emptyList());
+  }
+
+  /**
+   * Returns the value of "Content-Range" header (like {@code bytes 0-1023/4096}) telling the place of this payload in
+   * the file, or {@code null} if this payload carries the whole file.
+   */
+  public String getContentRange() {
+    final Segment segment = getSegment();
+    final ZFile zfile = segment.getZFile();
+    if (segment.getOffset() == 0 && segment.getLength() == zfile.getLength()) {
+      return null;
+    }
+    return "bytes " + segment.getOffset() + "-" + (segment.getOffset() + segment.getLength() - 1) + "/"
+        + zfile.getLength();
+  }
+}
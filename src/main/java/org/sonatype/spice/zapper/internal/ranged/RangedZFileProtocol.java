@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.ranged;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.sonatype.spice.zapper.IOTarget;
+import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.internal.AbstractIdentified;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.DownloadProtocol;
+import org.sonatype.spice.zapper.internal.PayloadCreator;
+import org.sonatype.spice.zapper.internal.ProtocolIdentifier;
+import org.sonatype.spice.zapper.internal.RangeImpl;
+import org.sonatype.spice.zapper.internal.RangeInputStream;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.SegmentCreator;
+import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.transport.AbstractChargerClient;
+import org.sonatype.spice.zapper.internal.transport.AbstractClient;
+import org.sonatype.spice.zapper.internal.transport.RemoteFile;
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+import org.sonatype.spice.zapper.internal.wholefile.WholeZFileSegmentCreator;
+
+/**
+ * Ranged file protocol segments files same as zapper protocol does, but needs no zapper support on remote end: a
+ * plain server able to serve (like HTTP server sending "Accept-Ranges: bytes") and optionally to receive (like HTTP
+ * server accepting "Content-Range" on PUT) byte ranges of files is enough. Segments are sent as they are, so their
+ * integrity is not verified as with zapper protocol, but segments of a download are fetched only while remote file
+ * did not change (see {@link RemoteZFile#getValidator()}). Remote files that cannot be served in ranges are downloaded
+ * whole, and when remote end is not able to receive ranges, files are uploaded whole. As a plain server might ignore
+ * the ranges of uploads, having each file replaced by it's last range received, the length of files uploaded in ranges
+ * is verified once all sent.
+ */
+public class RangedZFileProtocol
+    extends AbstractIdentified<ProtocolIdentifier>
+    implements DownloadProtocol
+{
+  public static final ProtocolIdentifier ID = new ProtocolIdentifier("ranged-file");
+
+  private final Parameters parameters;
+
+  private final boolean rangedUpload;
+
+  public RangedZFileProtocol(final Parameters parameters) {
+    this(parameters, true);
+  }
+
+  public RangedZFileProtocol(final Parameters parameters, final boolean rangedUpload) {
+    super(ID);
+    this.parameters = Check.notNull(parameters, Parameters.class);
+    this.rangedUpload = rangedUpload;
+  }
+
+  public Parameters getParameters() {
+    return parameters;
+  }
+
+  /**
+   * Returns {@code true} if uploaded files are segmented, hence remote end must accept "Content-Range" uploads.
+   */
+  public boolean isRangedUpload() {
+    return rangedUpload;
+  }
+
+  public SegmentCreator getSegmentCreator() {
+    if (rangedUpload) {
+      return new RangedZFileSegmentCreator(getParameters().getMaximumSegmentLength());
+    }
+    return new WholeZFileSegmentCreator();
+  }
+
+  public PayloadCreator getPayloadCreator() {
+    return new RangedZFilePayloadCreator();
+  }
+
+  public void beforeUpload(final Transfer transfer, final AbstractClient<?> client) {
+    // nop
+  }
+
+  /**
+   * Verifies the files uploaded in ranges have their length on remote end.
+   */
+  public void afterUpload(final Transfer transfer, final AbstractClient<?> client)
+      throws IOException
+  {
+    if (!rangedUpload) {
+      return;
+    }
+    final LinkedHashSet<ZFile> segmented = new LinkedHashSet<ZFile>();
+    for (Segment segment : transfer.getSegments()) {
+      if (segment.getLength() != segment.getZFile().getLength()) {
+        segmented.add(segment.getZFile());
+      }
+    }
+    for (ZFile zfile : segmented) {
+      final RemoteFile remoteFile = client.stat(transfer.getIdentifier(), zfile.getIdentifier());
+      if (remoteFile == null || remoteFile.getLength() != zfile.getLength()) {
+        throw new IOException(String.format("Remote file %s is not %s bytes long as uploaded (remote file %s), "
+            + "remote end does not receive ranges", zfile.getIdentifier().stringValue(), zfile.getLength(),
+            remoteFile));
+      }
+    }
+  }
+
+  /**
+   * Gets the properties of remote files, and segments those that are served in ranges and have a validator.
+   */
+  public Transfer beforeDownload(final TransferIdentifier transferIdentifier, final List<Path> paths,
+                                 final AbstractClient<?> client)
+      throws IOException
+  {
+    final ArrayList<ZFile> zfiles = new ArrayList<ZFile>(paths.size());
+    final HashSet<Path> wholePaths = new HashSet<Path>();
+    for (Path path : paths) {
+      final RemoteFile remoteFile = client.stat(transferIdentifier, path);
+      if (remoteFile == null) {
+        throw new IOException(String.format("Remote file %s not found", path.stringValue()));
+      }
+      zfiles.add(new RemoteZFile(path, remoteFile.getLength(), remoteFile.getLastModified(),
+          remoteFile.getValidator()));
+      if (!remoteFile.isRangesAccepted() || remoteFile.getValidator() == null) {
+        wholePaths.add(path);
+      }
+    }
+    final Transfer transfer = new Transfer(transferIdentifier.stringValue(), zfiles);
+    new RangedZFileSegmentCreator(getParameters().getMaximumSegmentLength(), wholePaths).createSegments(transfer);
+    return transfer;
+  }
+
+  public InputStream fetchSegment(final Transfer transfer, final Segment segment,
+                                  final TrackIdentifier trackIdentifier, final AbstractChargerClient<?> client)
+      throws IOException
+  {
+    final ZFile zfile = segment.getZFile();
+    if (segment.getOffset() == 0 && segment.getLength() == zfile.getLength()) {
+      return client.downloadRange(transfer.getIdentifier(), zfile.getIdentifier(), null, null, trackIdentifier);
+    }
+    return client.downloadRange(transfer.getIdentifier(), zfile.getIdentifier(), segment,
+        ((RemoteZFile) zfile).getValidator(), trackIdentifier);
+  }
+
+  /**
+   * Writes the content into target, verifying it is exactly of segment length, as that is all what can be verified.
+   */
+  public long receiveSegment(final Segment segment, final InputStream content, final IOTarget target)
+      throws IOException
+  {
+    final long written = target.writeSegment(segment.getZFile(), segment,
+        new RangeInputStream(content, new RangeImpl(0, segment.getLength()), false, false));
+    if (written != segment.getLength()) {
+      throw new IOException(String.format("Range %s+%s of %s shorter than requested: %s bytes missing",
+          segment.getOffset(), segment.getLength(), segment.getZFile().getIdentifier().stringValue(),
+          segment.getLength() - written));
+    }
+    if (content.read() != -1) {
+      throw new IOException(String.format("Range %s+%s of %s longer than requested",
+          segment.getOffset(), segment.getLength(), segment.getZFile().getIdentifier().stringValue()));
+    }
+    return written;
+  }
+
+  public void afterDownload(final Transfer transfer, final AbstractClient<?> client) {
+    // nop
+  }
+}
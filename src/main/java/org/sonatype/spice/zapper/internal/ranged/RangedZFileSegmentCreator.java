@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.ranged;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.ZFileSegmentCreator;
+
+/**
+ * {@link ZFileSegmentCreator} that chops files into ranges, except the files that remote end is unable to serve in
+ * ranges, as those are transferred whole.
+ */
+public class RangedZFileSegmentCreator
+    extends ZFileSegmentCreator
+{
+  private final Set<Path> wholePaths;
+
+  public RangedZFileSegmentCreator(final long maxSegmentSize) {
+    this(maxSegmentSize, Collections.<Path>emptySet());
+  }
+
+  public RangedZFileSegmentCreator(final long maxSegmentSize, final Set<Path> wholePaths) {
+    super(maxSegmentSize);
+    this.wholePaths = Check.notNull(wholePaths, Set.class);
+  }
+
+  @Override
+  protected boolean isSegmentable(final ZFile zfile) {
+    return !wholePaths.contains(zfile.getIdentifier());
+  }
+}
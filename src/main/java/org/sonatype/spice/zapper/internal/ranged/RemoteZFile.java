@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.ranged;
+
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashAlgorithmIdentifier;
+import org.sonatype.spice.zapper.internal.ZFileImpl;
+import org.sonatype.spice.zapper.internal.transport.RemoteFile;
+
+/**
+ * ZFile of a file on a plain remote end, as learned before downloading it. It's content hash is not known (see
+ * {@link #UNKNOWN_HASH}), but it might have a validator, that tells whether the remote file is still the same (see
+ * {@link RemoteFile#getValidator()}).
+ */
+public class RemoteZFile
+    extends ZFileImpl
+{
+  /**
+   * The hash of remote files, telling their content hash is not known.
+   */
+  public static final Hash UNKNOWN_HASH = new Hash(new HashAlgorithmIdentifier("unknown", 1), new byte[]{0});
+
+  private final String validator;
+
+  public RemoteZFile(final Path path, final long length, final long lastModified, final String validator) {
+    super(path, length, lastModified, UNKNOWN_HASH);
+    this.validator = validator;
+  }
+
+  /**
+   * Returns the validator of remote file, or {@code null} if it has none.
+   */
+  public String getValidator() {
+    return validator;
+  }
+
+  // ==
+
+  @Override
+  public String toString() {
+    return super.toString() + "(validator=" + getValidator() + ")";
+  }
+}
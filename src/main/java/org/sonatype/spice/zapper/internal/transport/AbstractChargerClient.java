@@ -13,17 +13,26 @@
 package org.sonatype.spice.zapper.internal.transport;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
 
+import org.sonatype.spice.zapper.IOTarget;
 import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.Range;
+import org.sonatype.spice.zapper.internal.DownloadProtocol;
 import org.sonatype.spice.zapper.internal.PayloadSupplier;
 import org.sonatype.spice.zapper.internal.Protocol;
+import org.sonatype.spice.zapper.internal.Segment;
 import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.transport.TrackScheduler.TransferShare;
+import org.sonatype.spice.zapper.internal.zapper.ZapperProtocol;
 
 /**
  * Client using "charger" that handles multi-thread invocations. Obviously, this is not needed if the actual underlying
@@ -34,28 +43,83 @@ import org.sonatype.spice.zapper.internal.Transfer;
 public abstract class AbstractChargerClient<T extends AbstractChargerTrack>
     extends AbstractClient<T>
 {
+  private final TrackScheduler trackScheduler;
+
   public AbstractChargerClient(final Parameters parameters, final String remoteUrl) {
     super(parameters, remoteUrl);
+    this.trackScheduler = new TrackScheduler(parameters.getMaximumTotalTrackCount(),
+        parameters.getTrackExecutorFactory().createExecutorService());
   }
 
   public void close() {
-    // nop
+    trackScheduler.shutdown();
+  }
+
+  @Override
+  protected void doUpload(final Transfer transfer, final Protocol protocol, final int transferTrackCount)
+      throws IOException
+  {
+    // tracks over the budget would never send
+    final int trackCount = Math.min(transferTrackCount, trackScheduler.getTrackBudget());
+    final PayloadSupplier payloadSupplier =
+        transfer.getPayloadSupplier(getParameters().getPayloadScheduler(), trackCount);
+    final RetryingPayloadSupplier retryingPayloadSupplier = createRetryingPayloadSupplier(payloadSupplier);
+    final HedgingPayloadSupplier hedgingPayloadSupplier = createHedgingPayloadSupplier(protocol,
+        retryingPayloadSupplier != null ? retryingPayloadSupplier : payloadSupplier);
+    final PayloadSupplier trackPayloadSupplier = hedgingPayloadSupplier != null ? hedgingPayloadSupplier
+        : (retryingPayloadSupplier != null ? retryingPayloadSupplier : payloadSupplier);
+    final TransferShare transferShare =
+        trackScheduler.register(trackCount, transfer.getPriority(), createConcurrencyLimiter(protocol, trackCount));
+    final List<Callable<State>> tracks = new ArrayList<Callable<State>>(trackCount);
+    for (int i = 0; i < trackCount; i++) {
+      final Callable<State> track = createCallable(transfer.getNextTrackIdentifier(), transfer, protocol,
+          trackPayloadSupplier, transferShare);
+      if (hedgingPayloadSupplier != null && track instanceof AbstractChargerTrack) {
+        hedgingPayloadSupplier.register((AbstractChargerTrack) track);
+      }
+      tracks.add(track);
+    }
+    execute(tracks, transferShare);
+    if (retryingPayloadSupplier != null) {
+      retryingPayloadSupplier.checkFailures();
+    }
   }
 
   @Override
-  protected void doUpload(final Transfer transfer, final Protocol protocol, final int trackCount)
+  protected boolean isDownloadSupported() {
+    return true;
+  }
+
+  @Override
+  protected void doDownload(final Transfer transfer, final DownloadProtocol protocol, final IOTarget target,
+                            final int transferTrackCount)
       throws IOException
   {
-    final ExecutorService executorService = Executors.newFixedThreadPool(getParameters().getMaximumTrackCount());
-    final PayloadSupplier payloadSupplier = transfer.getPayloadSupplier();
+    // tracks over the budget would never receive
+    final int trackCount = Math.min(transferTrackCount, trackScheduler.getTrackBudget());
+    final Queue<Segment> segments = new ConcurrentLinkedQueue<Segment>(transfer.getSegments());
+    final TransferShare transferShare =
+        trackScheduler.register(trackCount, transfer.getPriority(), createConcurrencyLimiter(trackCount));
     final List<Callable<State>> tracks = new ArrayList<Callable<State>>(trackCount);
     for (int i = 0; i < trackCount; i++) {
-      tracks.add(createCallable(transfer.getNextTrackIdentifier(), transfer, protocol, payloadSupplier));
+      tracks.add(new DownloadTrack(transfer.getNextTrackIdentifier(), transfer, segments, transferShare, this,
+          protocol, target));
     }
+    execute(tracks, transferShare);
+  }
 
+  /**
+   * Executes the tracks of a transfer, and blocks until all of them are done. Closes the share of transfer.
+   */
+  protected void execute(final List<Callable<State>> tracks, final TransferShare transferShare)
+      throws IOException
+  {
+    final List<Future<State>> futures = new ArrayList<Future<State>>(tracks.size());
     try {
       // execute all tracks
-      final List<Future<State>> futures = executorService.invokeAll(tracks);
+      for (Callable<State> track : tracks) {
+        futures.add(trackScheduler.getExecutorService().submit(track));
+      }
       // and block until all done
       for (Future<State> future : futures) {
         future.get();
@@ -67,12 +131,95 @@ public abstract class AbstractChargerClient<T extends AbstractChargerTrack>
       throw ee;
     }
     finally {
-      executorService.shutdownNow();
+      // stop tracks of this transfer still running, if any
+      for (Future<State> future : futures) {
+        future.cancel(true);
+      }
+      transferShare.close();
     }
+    getLogger().debug("Tracks finished with {}", transferShare);
   }
 
   // ==
 
+  protected TrackScheduler getTrackScheduler() {
+    return trackScheduler;
+  }
+
+  /**
+   * Returns {@code true} if tracks should stream all their payloads in one request. This is possible only with
+   * protocols having self-delimiting payloads, like "zapper" is.
+   */
+  protected boolean isTrackStreaming(final Protocol protocol) {
+    return getParameters().isTrackStreaming() && ZapperProtocol.ID.equals(protocol.getIdentifier());
+  }
+
+  /**
+   * Creates the supplier retrying the payloads that failed, or returns {@code null} if payloads are not to be retried
+   * (see {@link Parameters#getMaximumRetryCount()}).
+   */
+  protected RetryingPayloadSupplier createRetryingPayloadSupplier(final PayloadSupplier payloadSupplier) {
+    if (getParameters().getMaximumRetryCount() == 0) {
+      return null;
+    }
+    return new RetryingPayloadSupplier(payloadSupplier, getParameters().getMaximumRetryCount(),
+        getParameters().getRetryBackOff(), getParameters().getMaximumRetryBackOff());
+  }
+
+  /**
+   * Creates the supplier hedging the payloads being sent for too long at the end of transfer, or returns {@code null}
+   * if payloads are not to be hedged (see {@link Parameters#getHedgeDelay()}).
+   */
+  protected HedgingPayloadSupplier createHedgingPayloadSupplier(final Protocol protocol,
+                                                                final PayloadSupplier payloadSupplier)
+  {
+    if (getParameters().getHedgeDelay() == 0 || !ZapperProtocol.ID.equals(protocol.getIdentifier())
+        || isTrackStreaming(protocol)) {
+      return null;
+    }
+    return new HedgingPayloadSupplier(payloadSupplier, getParameters().getHedgeDelay());
+  }
+
+  /**
+   * Creates the limiter for given count of tracks, that are all started, but the limiter decides how many of them
+   * send at once.
+   */
+  protected ConcurrencyLimiter createConcurrencyLimiter(final int trackCount) {
+    if (getParameters().isAdaptiveTrackCount()) {
+      return new AimdConcurrencyLimiter(trackCount);
+    }
+    else {
+      return new NoopConcurrencyLimiter();
+    }
+  }
+
+  /**
+   * Creates the limiter for given count of tracks uploading with given protocol, see
+   * {@link #createConcurrencyLimiter(int)}.
+   */
+  protected ConcurrencyLimiter createConcurrencyLimiter(final Protocol protocol, final int trackCount) {
+    return createConcurrencyLimiter(trackCount);
+  }
+
+  /**
+   * Fetches the framed content of a segment being downloaded on given track, see {@link ZapperProtocol}. Returned
+   * stream must be closed by caller.
+   */
+  public abstract InputStream download(final Transfer transfer, final Segment segment,
+                                       final TrackIdentifier trackIdentifier)
+      throws IOException;
+
+  /**
+   * Fetches the content of a byte range of remote file being downloaded on given track. Returned stream has exactly
+   * the bytes of the range, and must be closed by caller. If validator is given, the range is served only if remote
+   * file is still the same (validator did not change), otherwise the fetch fails.
+   */
+  public abstract InputStream downloadRange(final TransferIdentifier transferIdentifier, final Path path,
+                                            final Range range, final String validator,
+                                            final TrackIdentifier trackIdentifier)
+      throws IOException;
+
   protected abstract Callable<State> createCallable(final TrackIdentifier trackIdentifier, final Transfer transfer,
-                                                    final Protocol protocol, final PayloadSupplier payloadSupplier);
+                                                    final Protocol protocol, final PayloadSupplier payloadSupplier,
+                                                    final ConcurrencyLimiter concurrencyLimiter);
 }
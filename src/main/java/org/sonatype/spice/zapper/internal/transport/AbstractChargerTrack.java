@@ -12,23 +12,154 @@
  */
 package org.sonatype.spice.zapper.internal.transport;
 
+import java.io.IOException;
 import java.util.concurrent.Callable;
 
 import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.Payload;
 import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
 
 public abstract class AbstractChargerTrack
     extends Track
     implements Callable<State>
 {
+  /**
+   * How many times a payload is retried on back-pressure before giving up.
+   */
+  public static final int MAXIMUM_BACK_OFF_COUNT = 10;
+
   final PayloadSupplier payloadSupplier;
 
-  public AbstractChargerTrack(final TrackIdentifier identifier, final PayloadSupplier payloadSupplier) {
+  final ConcurrencyLimiter concurrencyLimiter;
+
+  /**
+   * The payload being sent by this track, if any, guarded by this track.
+   */
+  private SegmentPayload sending;
+
+  /**
+   * The supplier hedging the payloads of this track, if any, told when track starts sending a payload.
+   */
+  private volatile HedgingPayloadSupplier hedgingPayloadSupplier;
+
+  public AbstractChargerTrack(final TrackIdentifier identifier, final PayloadSupplier payloadSupplier,
+                              final ConcurrencyLimiter concurrencyLimiter)
+  {
     super(identifier);
     this.payloadSupplier = Check.notNull(payloadSupplier, PayloadSupplier.class);
+    this.concurrencyLimiter = Check.notNull(concurrencyLimiter, ConcurrencyLimiter.class);
+  }
+
+  /**
+   * Sends the payloads got from supplier until it has none left. Supplier might block (ie. waiting for the back-off of
+   * a retry), hence the permit of concurrency limiter is acquired only once the payload is got, to not have it held
+   * while waiting.
+   */
+  public State call()
+      throws IOException
+  {
+    while (true) {
+      final SegmentPayload payload = getPayloadSupplier().getNextPayload(getIdentifier());
+      if (payload == null) {
+        return State.SUCCESS;
+      }
+      setSending(payload);
+      try {
+        send(payload);
+      }
+      catch (IOException e) {
+        if (getPayloadSupplier().payloadFailed(getIdentifier(), payload, e)) {
+          continue;
+        }
+        throw e;
+      }
+      finally {
+        setSending(null);
+      }
+      getPayloadSupplier().payloadSent(getIdentifier(), payload);
+    }
+  }
+
+  // ==
+
+  private synchronized void setSending(final SegmentPayload payload) {
+    this.sending = payload;
+  }
+
+  void setHedgingPayloadSupplier(final HedgingPayloadSupplier hedgingPayloadSupplier) {
+    this.hedgingPayloadSupplier = hedgingPayloadSupplier;
   }
 
   protected PayloadSupplier getPayloadSupplier() {
     return payloadSupplier;
   }
+
+  protected ConcurrencyLimiter getConcurrencyLimiter() {
+    return concurrencyLimiter;
+  }
+
+  /**
+   * Acquires the permit, sends the payload, and releases the permit. On back-pressure, retries the payload if limiter
+   * allows it. Hedging supplier, if any, is told each time sending starts, once the permit is acquired.
+   */
+  protected void send(final Payload payload)
+      throws IOException
+  {
+    int backOffCount = 0;
+    while (true) {
+      concurrencyLimiter.acquire();
+      if (hedgingPayloadSupplier != null) {
+        hedgingPayloadSupplier.sendStarted(getIdentifier(), payload);
+      }
+      final long started = System.nanoTime();
+      try {
+        upload(payload);
+      }
+      catch (BackPressureIOException e) {
+        concurrencyLimiter.release(-1, 0);
+        backOffCount++;
+        if (backOffCount > MAXIMUM_BACK_OFF_COUNT || !concurrencyLimiter.backOff(e.getRetryAfterMillis())) {
+          throw e;
+        }
+        continue;
+      }
+      catch (IOException e) {
+        concurrencyLimiter.release(-1, 0);
+        throw e;
+      }
+      catch (RuntimeException e) {
+        concurrencyLimiter.release(-1, 0);
+        throw e;
+      }
+      concurrencyLimiter.release(payload.getLength(), System.nanoTime() - started);
+      return;
+    }
+  }
+
+  /**
+   * Aborts the upload of given payload, if this track is still sending it, as it was sent by other track meanwhile
+   * (see {@link HedgingPayloadSupplier}). Upload is aborted holding the lock of this track, hence track can not move on
+   * to another payload meanwhile, and have that one aborted instead.
+   */
+  synchronized void abortPayload(final SegmentPayload payload) {
+    if (sending == payload) {
+      abortUpload();
+    }
+  }
+
+  /**
+   * Aborts the upload in progress on this track, if any. Invoked from other thread, only while the payload to abort is
+   * being sent by {@link #upload(Payload)}, and holding the lock of this track. Does nothing by default, the upload
+   * ends as usual.
+   */
+  protected void abortUpload() {
+    // nothing to do
+  }
+
+  /**
+   * Uploads one payload on this track.
+   */
+  protected abstract State upload(final Payload payload)
+      throws IOException;
 }
@@ -13,8 +13,13 @@
 package org.sonatype.spice.zapper.internal.transport;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.sonatype.spice.zapper.Client;
@@ -22,13 +27,28 @@ import org.sonatype.spice.zapper.IOSource;
 import org.sonatype.spice.zapper.IOSourceListable;
 import org.sonatype.spice.zapper.IOTarget;
 import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.ParametersBuilder;
 import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ReadableIOTarget;
 import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.codec.FilteringCodecSelector;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashUtils;
 import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.DeltaProtocol;
+import org.sonatype.spice.zapper.internal.DownloadProtocol;
 import org.sonatype.spice.zapper.internal.Payload;
 import org.sonatype.spice.zapper.internal.Protocol;
+import org.sonatype.spice.zapper.internal.ResumableProtocol;
+import org.sonatype.spice.zapper.internal.SegmentIdentifier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
 import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.TransferJournal;
+import org.sonatype.spice.zapper.internal.ranged.RangedZFileProtocol;
+import org.sonatype.spice.zapper.internal.ranged.RemoteZFile;
 import org.sonatype.spice.zapper.internal.wholefile.WholeZFileProtocol;
+import org.sonatype.spice.zapper.internal.zapper.ZapperProtocol;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,13 +62,13 @@ public abstract class AbstractClient<T extends Track>
 
   private final String remoteUrl;
 
-  private final Protocol protocol;
+  private final RemoteCapabilitiesCache remoteCapabilitiesCache;
 
   public AbstractClient(final Parameters parameters, final String remoteUrl) {
     this.logger = LoggerFactory.getLogger(getClass());
     this.parameters = Check.notNull(parameters, Parameters.class);
     this.remoteUrl = Check.notNull(remoteUrl, "Remote URL is null!");
-    this.protocol = handshake();
+    this.remoteCapabilitiesCache = new RemoteCapabilitiesCache();
   }
 
   public String getRemoteUrl() {
@@ -61,6 +81,12 @@ public abstract class AbstractClient<T extends Track>
     upload(listableSource, listableSource.listFiles());
   }
 
+  public void upload(IOSourceListable listableSource, int priority)
+      throws IOException
+  {
+    upload(listableSource, listableSource.listFiles(), priority);
+  }
+
   public void upload(IOSource source, Path... paths)
       throws IOException
   {
@@ -74,38 +100,118 @@ public abstract class AbstractClient<T extends Track>
   public void download(IOTarget target, Path... paths)
       throws IOException
   {
-    throw new UnsupportedOperationException("Not implemented!");
+    if (!isDownloadSupported()) {
+      throw new IOException(String.format("%s does not support download", getClass().getSimpleName()));
+    }
+    final DownloadProtocol downloadProtocol = handshakeDownload();
+    final TransferIdentifier transferIdentifier = new TransferIdentifier(UUID.randomUUID().toString());
+    getLogger().info("Starting download transfer ID \"{}\" (using protocol \"{}\")",
+        transferIdentifier.stringValue(), downloadProtocol.getIdentifier().stringValue());
+
+    final long started = System.currentTimeMillis();
+    boolean success = false;
+    try {
+      // learn the files and their segments
+      final Transfer transfer = downloadProtocol.beforeDownload(transferIdentifier, Arrays.asList(paths), this);
+      final int segmentCount = transfer.getSegments().size();
+      final int trackCount = Math.max(1, Math.min(getParameters().getMaximumTrackCount(), segmentCount));
+      getLogger().info("Downloading {} of total {} bytes (in {} files) as {} segments over {} tracks.",
+          transfer.getSegmentsSize(), transfer.getTotalSize(), transfer.getZfiles().size(), segmentCount, trackCount);
+
+      for (ZFile zfile : transfer.getZfiles()) {
+        target.initializeZFile(zfile);
+      }
+      doDownload(transfer, downloadProtocol, target, trackCount);
+      for (ZFile zfile : transfer.getZfiles()) {
+        final ZFile copySource = transfer.getCopySource(zfile);
+        if (copySource != null) {
+          target.copyZFile(copySource, zfile);
+        }
+      }
+      if (target instanceof ReadableIOTarget) {
+        verifyZFiles(transfer, (ReadableIOTarget) target);
+      }
+      for (ZFile zfile : transfer.getZfiles()) {
+        target.finalizeZFile(zfile);
+      }
+      downloadProtocol.afterDownload(transfer, this);
+      success = true;
+    }
+    finally {
+      target.close(success);
+    }
+
+    getLogger().info("Download finished in {} seconds.", (System.currentTimeMillis() - started) / 1000);
   }
 
   protected void upload(final IOSource source, final List<ZFile> _zfiles)
       throws IOException
   {
-    final Transfer transfer = new Transfer(UUID.randomUUID().toString(), _zfiles);
-    getLogger().info("Starting upload transfer ID \"{}\" (using protocol \"{}\")",
-        transfer.getIdentifier().stringValue(), protocol.getIdentifier().stringValue());
+    upload(source, _zfiles, 1);
+  }
 
-    // segment it
-    final int segmentCount = protocol.getSegmentCreator().createSegments(transfer);
+  protected void upload(final IOSource source, final List<ZFile> _zfiles, final int priority)
+      throws IOException
+  {
+    final Protocol protocol = handshake();
+    final TransferJournal journal = createJournal(protocol, _zfiles);
+    final Transfer resumed = journal != null ? journal.load(_zfiles, priority) : null;
+    final Transfer transfer =
+        resumed != null ? resumed : new Transfer(UUID.randomUUID().toString(), _zfiles, priority);
+    getLogger().info("{} upload transfer ID \"{}\" (using protocol \"{}\")",
+        resumed != null ? "Resuming" : "Starting", transfer.getIdentifier().stringValue(),
+        protocol.getIdentifier().stringValue());
 
-    // track count
-    final int trackCount = Math.min(getParameters().getMaximumTrackCount(), segmentCount);
+    // find the blocks remote end has, unless resumed transfer has them recorded
+    if (resumed == null && getParameters().getDeltaBlockLength() > 0 && protocol instanceof DeltaProtocol) {
+      ((DeltaProtocol) protocol).createBlockCopies(transfer, source, this);
+    }
 
-    // payload the segments
-    final int payloadCount = protocol.getPayloadCreator().createPayloads(transfer, source, getRemoteUrl());
+    // segment it, unless resumed transfer has segments recorded
+    final int segmentCount;
+    if (resumed != null) {
+      segmentCount = transfer.getSegments().size();
+    }
+    else if (getParameters().getAverageSegmentLength() > 0 && protocol instanceof DeltaProtocol) {
+      segmentCount = ((DeltaProtocol) protocol).createContentDefinedSegments(transfer, source, this);
+    }
+    else {
+      segmentCount = protocol.getSegmentCreator().createSegments(transfer);
+    }
 
-    getLogger().info(
-        "Uploading total of {} bytes (in {} files) as {} segments ({} payloads) over {} tracks.",
-        transfer.getTotalSize(), transfer.getZfiles().size(), segmentCount, payloadCount, trackCount);
+    // payload the segments
+    protocol.getPayloadCreator().createPayloads(transfer, source, getRemoteUrl());
 
     final long started = System.currentTimeMillis();
     boolean success = false;
     try {
-      protocol.beforeUpload(transfer, this);
+      if (resumed != null) {
+        resumeUpload(transfer, (ResumableProtocol) protocol, journal);
+      }
+      else {
+        if (journal != null) {
+          journal.begin(transfer, Collections.<SegmentIdentifier, Hash>emptyMap());
+        }
+        protocol.beforeUpload(transfer, this);
+      }
+      transfer.setJournal(journal);
+
+      // track count
+      final int payloadCount = transfer.getPayloads().size();
+      final int trackCount = Math.min(getParameters().getMaximumTrackCount(), Math.max(1, payloadCount));
+      getLogger().info(
+          "Uploading {} of total {} bytes (in {} files) as {} segments ({} payloads) over {} tracks.",
+          transfer.getSegmentsSize(), transfer.getTotalSize(), transfer.getZfiles().size(), segmentCount,
+          payloadCount, trackCount);
+
       doUpload(transfer, protocol, trackCount);
       protocol.afterUpload(transfer, this);
       success = true;
     }
     finally {
+      if (journal != null) {
+        journal.close(success);
+      }
       source.close(success);
     }
 
@@ -124,11 +230,128 @@ public abstract class AbstractClient<T extends Track>
 
   // ==
 
-  protected Protocol handshake() {
-    // safest, we will see later for real handshake
-    return new WholeZFileProtocol(getParameters());
+  /**
+   * Returns the journal of upload of given ZFiles, or {@code null} if uploads are not journaled, or protocol is not
+   * able to resume them (see {@link Parameters#getJournalDirectory()}). Expired journals are deleted meanwhile.
+   */
+  protected TransferJournal createJournal(final Protocol protocol, final List<ZFile> zfiles) {
+    if (getParameters().getJournalDirectory() == null || !(protocol instanceof ResumableProtocol)) {
+      return null;
+    }
+    TransferJournal.deleteExpired(getParameters().getJournalDirectory(),
+        System.currentTimeMillis() - TransferJournal.MAXIMUM_AGE);
+    return new TransferJournal(getParameters().getJournalDirectory(), getRemoteUrl(), zfiles,
+        getParameters().getHashAlgorithm());
+  }
+
+  /**
+   * Resumes the transfer loaded from journal: asks remote end for the segments it already holds, and leaves only the
+   * payloads of other segments to be sent. A segment that journal recorded as sent with other hash than remote end
+   * holds is sent again. Journal is begun again, having the held segments recorded as sent.
+   */
+  protected void resumeUpload(final Transfer transfer, final ResumableProtocol protocol,
+                              final TransferJournal journal)
+      throws IOException
+  {
+    final Map<SegmentIdentifier, Hash> held = protocol.resumeUpload(transfer, this);
+    final Map<SegmentIdentifier, Hash> sent = journal.getSentSegments();
+    final LinkedHashMap<SegmentIdentifier, Hash> confirmed = new LinkedHashMap<SegmentIdentifier, Hash>();
+    final ArrayList<SegmentPayload> payloads = new ArrayList<SegmentPayload>();
+    for (SegmentPayload payload : transfer.getPayloads()) {
+      final Hash heldHash = held.get(payload.getIdentifier());
+      final Hash sentHash = sent.get(payload.getIdentifier());
+      if (heldHash != null && (sentHash == null || sentHash.equals(heldHash))) {
+        confirmed.put(payload.getIdentifier(), heldHash);
+      }
+      else {
+        payloads.add(payload);
+      }
+    }
+    transfer.setPayloads(payloads);
+    journal.begin(transfer, confirmed);
+    getLogger().info("Remote end holds {} of {} segments of transfer ID \"{}\".", confirmed.size(),
+        transfer.getSegments().size(), transfer.getIdentifier().stringValue());
+  }
+
+  /**
+   * Returns the protocol to upload with: "zapper" if remote end supports it, "ranged-file" if remote end accepts ranges
+   * (and is expected to receive them too, that is verified once all sent), and the safest "whole-file" otherwise.
+   */
+  protected Protocol handshake()
+      throws IOException
+  {
+    final RemoteCapabilities capabilities = getRemoteCapabilities();
+    if (capabilities.isProtocolSupported(ZapperProtocol.ID)) {
+      return new ZapperProtocol(getProtocolParameters(capabilities));
+    }
+    if (capabilities.isRangesAccepted()) {
+      return new RangedZFileProtocol(getProtocolParameters(capabilities), true);
+    }
+    return new WholeZFileProtocol(getProtocolParameters(capabilities));
+  }
+
+  /**
+   * Returns the protocol to download with: "zapper" if remote end supports it, "ranged-file" otherwise, that needs no
+   * support of remote end, and downloads remote files in ranges only if remote end serves them.
+   */
+  protected DownloadProtocol handshakeDownload()
+      throws IOException
+  {
+    final RemoteCapabilities capabilities = getRemoteCapabilities();
+    if (capabilities.isProtocolSupported(ZapperProtocol.ID)) {
+      return new ZapperProtocol(getProtocolParameters(capabilities));
+    }
+    return new RangedZFileProtocol(getProtocolParameters(capabilities), capabilities.isRangesAccepted());
+  }
+
+  /**
+   * Returns the capabilities of remote end, probing it only if they are not cached, or cache entry expired (see
+   * {@link Parameters#getHandshakeTtl()}).
+   */
+  protected RemoteCapabilities getRemoteCapabilities()
+      throws IOException
+  {
+    RemoteCapabilities capabilities = remoteCapabilitiesCache.get(getRemoteUrl());
+    if (capabilities == null) {
+      capabilities = probe();
+      getLogger().debug("Probed {}: {}", getRemoteUrl(), capabilities);
+      remoteCapabilitiesCache.put(getRemoteUrl(), capabilities, getParameters().getHandshakeTtl());
+    }
+    return capabilities;
   }
 
+  /**
+   * Returns the parameters for protocol, having codecs restricted to ones accepted by remote end, if it told them.
+   */
+  protected Parameters getProtocolParameters(final RemoteCapabilities capabilities) {
+    final Parameters p = getParameters();
+    if (capabilities.getCodecs() == null) {
+      return p;
+    }
+    return ParametersBuilder.copyOf(p)
+        .setCodecSelector(new FilteringCodecSelector(p.getCodecSelector(), capabilities.getCodecs())).build();
+  }
+
+  /**
+   * Asks remote end about it's capabilities. Remote ends not telling anything are considered
+   * {@link RemoteCapabilities#PLAIN}.
+   */
+  protected abstract RemoteCapabilities probe()
+      throws IOException;
+
+  /**
+   * Sends a message payload, and returns the content of the response, that must be closed by caller. Used by
+   * protocols to get answers from remote end, like a download recipe is.
+   */
+  public abstract InputStream exchange(Payload payload)
+      throws IOException;
+
+  /**
+   * Returns the properties of remote file on given path, or {@code null} if remote file does not exist.
+   */
+  public abstract RemoteFile stat(TransferIdentifier transferIdentifier, Path path)
+      throws IOException;
+
   /**
    * Uploads a payload.
    */
@@ -147,4 +370,43 @@ public abstract class AbstractClient<T extends Track>
    */
   protected abstract void doUpload(final Transfer transfer, final Protocol protocol, final int trackCount)
       throws IOException;
+
+  /**
+   * Returns {@code true} if this client implements {@link #doDownload(Transfer, DownloadProtocol, IOTarget, int)}.
+   * Download with client not supporting it fails before remote end is asked for anything.
+   */
+  protected boolean isDownloadSupported() {
+    return false;
+  }
+
+  /**
+   * Performs actual download of the transfer segments into target, having the ZFiles of transfer already initialized.
+   * Either returns cleanly (which is considered as "success"), or should throw {@link IOException} to mark "failure".
+   * Clients not able to download do not override this method, nor {@link #isDownloadSupported()}.
+   */
+  protected void doDownload(final Transfer transfer, final DownloadProtocol protocol, final IOTarget target,
+                            final int trackCount)
+      throws IOException
+  {
+    throw new IOException(String.format("%s does not support download", getClass().getSimpleName()));
+  }
+
+  /**
+   * Verifies the files assembled in target against their hashes, as segments are verified only one by one. Files
+   * learned from plain remote end have no hash known, and are not verified.
+   */
+  protected void verifyZFiles(final Transfer transfer, final ReadableIOTarget target)
+      throws IOException
+  {
+    for (ZFile zfile : transfer.getZfiles()) {
+      if (zfile instanceof RemoteZFile) {
+        continue;
+      }
+      final Hash hash = HashUtils.getDigest(getParameters().getHashAlgorithm(), target.readZFile(zfile));
+      if (!hash.equals(zfile.getHash())) {
+        throw new IOException(String.format("Downloaded file %s hash mismatch: expected %s, got %s",
+            zfile.getIdentifier().stringValue(), zfile.getHash(), hash));
+      }
+    }
+  }
 }
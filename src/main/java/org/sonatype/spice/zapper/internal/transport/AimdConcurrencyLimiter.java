@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.io.InterruptedIOException;
+
+import org.sonatype.spice.zapper.internal.Check;
+
+/**
+ * {@link ConcurrencyLimiter} adapting the count of active tracks using AIMD (additive increase, multiplicative
+ * decrease). Sent payloads are measured in windows: a window closes once at least {@code limit} payloads were sent
+ * and at least the minimum window time elapsed. At the end of each window the limit is increased by one, unless
+ * congestion is detected, in which case limit is decreased by quarter. Congestion is either a drop of overall
+ * throughput compared to previous window, or per-track throughput (inverse of latency per byte) falling under half of
+ * the best seen, without overall throughput improving. On server back-pressure the limit is halved, and no track is
+ * let to send until the server asked retry time elapses. The limit never goes above maximum nor below 1.
+ */
+public class AimdConcurrencyLimiter
+    implements ConcurrencyLimiter
+{
+  /**
+   * Default time to back off if server did not tell.
+   */
+  public static final long DEFAULT_RETRY_AFTER_MILLIS = 1000L;
+
+  private final int maximumLimit;
+
+  private final long minimumWindowNanos;
+
+  private int limit;
+
+  private int active;
+
+  private long pausedUntil;
+
+  private long windowStarted;
+
+  private long windowBytes;
+
+  private int windowCount;
+
+  private double windowTrackThroughputSum;
+
+  private double previousThroughput;
+
+  private double bestTrackThroughput;
+
+  public AimdConcurrencyLimiter(final int maximumLimit) {
+    this(maximumLimit, Math.min(2, maximumLimit), 1000L);
+  }
+
+  public AimdConcurrencyLimiter(final int maximumLimit, final int initialLimit, final long minimumWindowMillis) {
+    this.maximumLimit = Check.argument(maximumLimit > 0, maximumLimit, "maximumLimit not positive!");
+    this.limit = Check.argument(initialLimit > 0 && initialLimit <= maximumLimit, initialLimit,
+        "initialLimit not in range!");
+    this.minimumWindowNanos =
+        Check.argument(minimumWindowMillis >= 0, minimumWindowMillis, "minimumWindowMillis negative!") * 1000000L;
+    this.active = 0;
+    this.pausedUntil = 0;
+    resetWindow(nanoTime());
+    this.previousThroughput = -1;
+    this.bestTrackThroughput = 0;
+  }
+
+  public synchronized int getLimit() {
+    return limit;
+  }
+
+  public synchronized void acquire()
+      throws InterruptedIOException
+  {
+    try {
+      while (true) {
+        final long pause = pausedUntil - System.currentTimeMillis();
+        if (pause > 0) {
+          wait(pause);
+        }
+        else if (active < limit) {
+          active++;
+          return;
+        }
+        else {
+          wait();
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting for track permit");
+    }
+  }
+
+  public synchronized void release(final long bytes, final long nanos) {
+    active--;
+    if (bytes >= 0 && nanos > 0) {
+      windowBytes += bytes;
+      windowCount++;
+      windowTrackThroughputSum += (double) bytes / nanos;
+      final long now = nanoTime();
+      if (windowCount >= limit && now - windowStarted >= minimumWindowNanos) {
+        adjust(now);
+      }
+    }
+    notifyAll();
+  }
+
+  public synchronized boolean backOff(final long retryAfterMillis) {
+    limit = Math.max(1, limit / 2);
+    pausedUntil = Math.max(pausedUntil,
+        System.currentTimeMillis() + (retryAfterMillis >= 0 ? retryAfterMillis : DEFAULT_RETRY_AFTER_MILLIS));
+    resetWindow(nanoTime());
+    previousThroughput = -1;
+    notifyAll();
+    return true;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return getClass().getSimpleName() + "(limit=" + limit + "/" + maximumLimit + ", active=" + active + ")";
+  }
+
+  // ==
+
+  /**
+   * Returns the time windows are measured with, see {@link System#nanoTime()}.
+   */
+  protected long nanoTime() {
+    return System.nanoTime();
+  }
+
+  private void adjust(final long now) {
+    final double throughput = (double) windowBytes / Math.max(1, now - windowStarted);
+    final double trackThroughput = windowTrackThroughputSum / windowCount;
+    bestTrackThroughput = Math.max(bestTrackThroughput, trackThroughput);
+    final boolean degraded = previousThroughput > 0 && throughput < previousThroughput * 0.9d;
+    final boolean improved = previousThroughput < 0 || throughput > previousThroughput * 1.05d;
+    final boolean inflated = !improved && trackThroughput < bestTrackThroughput * 0.5d;
+    if (degraded || inflated) {
+      limit = Math.max(1, limit * 3 / 4);
+    }
+    else {
+      limit = Math.min(maximumLimit, limit + 1);
+    }
+    previousThroughput = throughput;
+    resetWindow(now);
+  }
+
+  private void resetWindow(final long now) {
+    windowStarted = now;
+    windowBytes = 0;
+    windowCount = 0;
+    windowTrackThroughputSum = 0;
+  }
+}
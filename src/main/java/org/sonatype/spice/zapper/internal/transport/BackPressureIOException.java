@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.io.IOException;
+
+/**
+ * Thrown when server refused a payload as it is overloaded (like HTTP 429 or 503 responses), hence the payload might
+ * be retried later.
+ */
+public class BackPressureIOException
+    extends IOException
+{
+  private static final long serialVersionUID = -2873565377470917433L;
+
+  private final long retryAfterMillis;
+
+  public BackPressureIOException(final String message, final long retryAfterMillis) {
+    super(message);
+    this.retryAfterMillis = retryAfterMillis;
+  }
+
+  /**
+   * Returns the time in milliseconds server asked to back off, or negative if server did not tell.
+   */
+  public long getRetryAfterMillis() {
+    return retryAfterMillis;
+  }
+}
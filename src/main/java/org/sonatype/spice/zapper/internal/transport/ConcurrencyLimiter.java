@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.io.IOException;
+
+/**
+ * Limits how many tracks are sending payloads at once. Tracks take the next payload first, and acquire a permit for
+ * each attempt to send it, releasing it once the attempt is done (or failed), reporting the sent byte count and elapsed
+ * time, that limiter implementations might use to adapt the limit. A track backing off holds no permit while it waits.
+ */
+public interface ConcurrencyLimiter
+{
+  /**
+   * Blocks until calling track is allowed to send a payload.
+   */
+  void acquire()
+      throws IOException;
+
+  /**
+   * Releases permit acquired by {@link #acquire()}. The {@code bytes} is negative if payload was not sent.
+   */
+  void release(long bytes, long nanos);
+
+  /**
+   * Invoked when server signalled back-pressure, after the permit was released. Returns {@code true} if the track
+   * should retry the payload (acquiring a permit first), or {@code false} if the back-pressure should be reported as
+   * failure. The {@code retryAfterMillis} is negative if server did not tell how long to back off.
+   */
+  boolean backOff(long retryAfterMillis);
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+
+import org.sonatype.spice.zapper.IOTarget;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.DownloadProtocol;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.Transfer;
+
+/**
+ * Track of a download: takes segments from the queue shared by all tracks of the transfer until it is empty, fetches
+ * them using the client, and lets protocol receive them into target. On back-pressure, the segment is put back to the
+ * queue, to be fetched again, possibly by another track.
+ */
+public class DownloadTrack
+    extends Track
+    implements Callable<State>
+{
+  private final Transfer transfer;
+
+  private final Queue<Segment> segments;
+
+  private final ConcurrencyLimiter concurrencyLimiter;
+
+  private final AbstractChargerClient<?> client;
+
+  private final DownloadProtocol protocol;
+
+  private final IOTarget target;
+
+  public DownloadTrack(final TrackIdentifier identifier, final Transfer transfer, final Queue<Segment> segments,
+                       final ConcurrencyLimiter concurrencyLimiter, final AbstractChargerClient<?> client,
+                       final DownloadProtocol protocol, final IOTarget target)
+  {
+    super(identifier);
+    this.transfer = Check.notNull(transfer, Transfer.class);
+    this.segments = Check.notNull(segments, Queue.class);
+    this.concurrencyLimiter = Check.notNull(concurrencyLimiter, ConcurrencyLimiter.class);
+    this.client = Check.notNull(client, AbstractChargerClient.class);
+    this.protocol = Check.notNull(protocol, DownloadProtocol.class);
+    this.target = Check.notNull(target, IOTarget.class);
+  }
+
+  public State call()
+      throws IOException
+  {
+    int backOffCount = 0;
+    while (true) {
+      concurrencyLimiter.acquire();
+      final Segment segment = segments.poll();
+      if (segment == null) {
+        concurrencyLimiter.release(-1, 0);
+        return State.SUCCESS;
+      }
+      final long started = System.nanoTime();
+      try {
+        receive(segment);
+      }
+      catch (BackPressureIOException e) {
+        concurrencyLimiter.release(-1, 0);
+        segments.add(segment);
+        backOffCount++;
+        if (backOffCount > AbstractChargerTrack.MAXIMUM_BACK_OFF_COUNT
+            || !concurrencyLimiter.backOff(e.getRetryAfterMillis())) {
+          throw e;
+        }
+        continue;
+      }
+      catch (IOException e) {
+        concurrencyLimiter.release(-1, 0);
+        throw e;
+      }
+      catch (RuntimeException e) {
+        concurrencyLimiter.release(-1, 0);
+        throw e;
+      }
+      concurrencyLimiter.release(segment.getLength(), System.nanoTime() - started);
+    }
+  }
+
+  // ==
+
+  protected void receive(final Segment segment)
+      throws IOException
+  {
+    final InputStream content = protocol.fetchSegment(transfer, segment, getIdentifier(), client);
+    try {
+      protocol.receiveSegment(segment, content, target);
+    }
+    finally {
+      content.close();
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.Payload;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Supplier "hedging" the payloads being sent for too long at the end of a transfer, delegating everything else to
+ * another supplier. Once the delegate has nothing left to send, an idle track gets the payload being sent for longest
+ * (and for longer than hedge delay) by another track, to send it again. A payload is being sent since its track
+ * started sending it (see {@link #sendStarted(TrackIdentifier, Payload)}), not since it was handed out, as the track
+ * might wait for a permit of concurrency limiter first. The copy sent first is taken, and the track
+ * sending the other copy is aborted, unless it moved on to another payload already (see
+ * {@link AbstractChargerTrack#abortUpload()}). A copy failing while the other is still being sent is ignored, the
+ * delegate learns about a failure only if both copies failed. An idle track waits while there are payloads being sent,
+ * as those might need to be hedged or retried.
+ */
+public class HedgingPayloadSupplier
+    implements PayloadSupplier
+{
+  private static final long NOT_STARTED = Long.MIN_VALUE;
+
+  private final Logger logger;
+
+  private final PayloadSupplier payloadSupplier;
+
+  private final long hedgeDelayNanos;
+
+  private final Map<TrackIdentifier, AbstractChargerTrack> tracks;
+
+  private final Map<SegmentPayload, InFlight> inFlights;
+
+  private long changeCount;
+
+  public HedgingPayloadSupplier(final PayloadSupplier payloadSupplier, final long hedgeDelay) {
+    this.logger = LoggerFactory.getLogger(getClass());
+    this.payloadSupplier = Check.notNull(payloadSupplier, PayloadSupplier.class);
+    this.hedgeDelayNanos = Check.argument(hedgeDelay > 0, hedgeDelay, "hedgeDelay must be positive!") * 1000000L;
+    this.tracks = new HashMap<TrackIdentifier, AbstractChargerTrack>();
+    this.inFlights = new HashMap<SegmentPayload, InFlight>();
+  }
+
+  /**
+   * Registers the track, to have it aborted when other track sent the payload it sends. Tracks not registered send
+   * their copy to the end.
+   */
+  public synchronized void register(final AbstractChargerTrack track) {
+    tracks.put(track.getIdentifier(), track);
+    track.setHedgingPayloadSupplier(this);
+  }
+
+  /**
+   * Notifies that given track started sending the payload, once it got the permit to send. Only the first copy of
+   * a payload is timed, from last time its track started sending it (ie. after a back-off).
+   */
+  public synchronized void sendStarted(final TrackIdentifier trackIdentifier, final Payload payload) {
+    final InFlight inFlight = inFlights.get(payload);
+    if (inFlight != null && inFlight.trackIdentifiers.size() == 1
+        && inFlight.trackIdentifiers.get(0).equals(trackIdentifier)) {
+      inFlight.started = nanoTime();
+      notifyAll();
+    }
+  }
+
+  public SegmentPayload getNextPayload(final TrackIdentifier trackIdentifier) {
+    while (true) {
+      final long seenChangeCount;
+      synchronized (this) {
+        seenChangeCount = changeCount;
+      }
+      // delegate might block (ie. waiting for retries), hence it is not invoked holding the lock
+      final SegmentPayload payload = payloadSupplier.getNextPayload(trackIdentifier);
+      synchronized (this) {
+        if (payload != null) {
+          InFlight inFlight = inFlights.get(payload);
+          if (inFlight == null) {
+            inFlight = new InFlight();
+            inFlights.put(payload, inFlight);
+          }
+          inFlight.trackIdentifiers.add(trackIdentifier);
+          return payload;
+        }
+        final long now = nanoTime();
+        SegmentPayload slowest = null;
+        InFlight slowestInFlight = null;
+        long nextDue = Long.MAX_VALUE;
+        for (Map.Entry<SegmentPayload, InFlight> entry : inFlights.entrySet()) {
+          final InFlight inFlight = entry.getValue();
+          if (inFlight.trackIdentifiers.size() > 1) {
+            continue; // hedged already
+          }
+          if (inFlight.started == NOT_STARTED) {
+            continue; // not being sent yet, sendStarted notifies
+          }
+          if (inFlight.started + hedgeDelayNanos > now) {
+            nextDue = Math.min(nextDue, inFlight.started + hedgeDelayNanos);
+          }
+          else if (slowestInFlight == null || inFlight.started < slowestInFlight.started) {
+            slowest = entry.getKey();
+            slowestInFlight = inFlight;
+          }
+        }
+        if (slowest != null) {
+          logger.debug("Hedging payload {} of {} on track {}, being sent for {} ms",
+              slowest.getIdentifier().stringValue(), slowest.getPath().stringValue(), trackIdentifier.stringValue(),
+              (now - slowestInFlight.started) / 1000000L);
+          slowestInFlight.trackIdentifiers.add(trackIdentifier);
+          return slowest;
+        }
+        if (changeCount != seenChangeCount) {
+          continue; // something was sent or failed meanwhile, ask delegate again
+        }
+        if (inFlights.isEmpty()) {
+          return null;
+        }
+        try {
+          wait(nextDue == Long.MAX_VALUE ? 0 : Math.max(1L, (nextDue - now + 999999L) / 1000000L));
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+      }
+    }
+  }
+
+  public void payloadSent(final TrackIdentifier trackIdentifier, final SegmentPayload payload) {
+    final List<AbstractChargerTrack> losers = new ArrayList<AbstractChargerTrack>();
+    synchronized (this) {
+      final InFlight inFlight = inFlights.remove(payload);
+      if (inFlight == null) {
+        return; // other copy was sent already
+      }
+      for (TrackIdentifier other : inFlight.trackIdentifiers) {
+        if (!other.equals(trackIdentifier) && tracks.containsKey(other)) {
+          losers.add(tracks.get(other));
+        }
+      }
+      changeCount++;
+      notifyAll();
+    }
+    for (AbstractChargerTrack loser : losers) {
+      abort(loser, trackIdentifier, payload);
+    }
+    payloadSupplier.payloadSent(trackIdentifier, payload);
+  }
+
+  public synchronized boolean payloadFailed(final TrackIdentifier trackIdentifier, final SegmentPayload payload,
+                                            final IOException failure)
+  {
+    final InFlight inFlight = inFlights.get(payload);
+    if (inFlight == null) {
+      return true; // other copy was sent already, this one was (probably) aborted
+    }
+    inFlight.trackIdentifiers.remove(trackIdentifier);
+    if (!inFlight.trackIdentifiers.isEmpty()) {
+      return true; // other copy is still being sent
+    }
+    inFlights.remove(payload);
+    changeCount++;
+    notifyAll();
+    return payloadSupplier.payloadFailed(trackIdentifier, payload, failure);
+  }
+
+  // ==
+
+  /**
+   * Returns the current value of monotonic clock, in nanoseconds.
+   */
+  protected long nanoTime() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Aborts the other copy of payload sent by given track, if loser track is still sending it. Loser might have ended
+   * sending it's copy meanwhile, and moved on to another payload.
+   */
+  protected void abort(final AbstractChargerTrack loser, final TrackIdentifier trackIdentifier,
+                       final SegmentPayload payload)
+  {
+    logger.debug("Aborting payload {} of {} on track {}, sent by track {}", payload.getIdentifier().stringValue(),
+        payload.getPath().stringValue(), loser.getIdentifier().stringValue(), trackIdentifier.stringValue());
+    loser.abortPayload(payload);
+  }
+
+  private static class InFlight
+  {
+    private long started;
+
+    private final List<TrackIdentifier> trackIdentifiers;
+
+    private InFlight() {
+      this.started = NOT_STARTED;
+      this.trackIdentifiers = new ArrayList<TrackIdentifier>(2);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.sonatype.spice.zapper.codec.CodecIdentifier;
+import org.sonatype.spice.zapper.internal.ProtocolIdentifier;
+
+/**
+ * Capabilities of remote end, as discovered by the handshake: the zapper protocols it supports, whether it serves
+ * byte ranges of files, and the codecs it accepts.
+ */
+public class RemoteCapabilities
+{
+  /**
+   * Capabilities of a plain remote end, that supports no zapper protocol, serves no ranges, and did not tell the
+   * codecs it accepts.
+   */
+  public static final RemoteCapabilities PLAIN =
+      new RemoteCapabilities(Collections.<ProtocolIdentifier>emptySet(), false, null);
+
+  private final Set<ProtocolIdentifier> protocols;
+
+  private final boolean rangesAccepted;
+
+  private final Set<CodecIdentifier> codecs;
+
+  public RemoteCapabilities(final Set<ProtocolIdentifier> protocols, final boolean rangesAccepted,
+                            final Set<CodecIdentifier> codecs)
+  {
+    this.protocols = Collections.unmodifiableSet(new HashSet<ProtocolIdentifier>(protocols));
+    this.rangesAccepted = rangesAccepted;
+    this.codecs = codecs != null ? Collections.unmodifiableSet(new HashSet<CodecIdentifier>(codecs)) : null;
+  }
+
+  public boolean isProtocolSupported(final ProtocolIdentifier protocol) {
+    return protocols.contains(protocol);
+  }
+
+  public boolean isRangesAccepted() {
+    return rangesAccepted;
+  }
+
+  /**
+   * Returns the codecs accepted by remote end, or {@code null} if remote end did not tell them.
+   */
+  public Set<CodecIdentifier> getCodecs() {
+    return codecs;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(protocols=" + protocols + ", rangesAccepted=" + rangesAccepted
+        + ", codecs=" + codecs + ")";
+  }
+}
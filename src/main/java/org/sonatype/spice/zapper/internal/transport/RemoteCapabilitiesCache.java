@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sonatype.spice.zapper.internal.Check;
+
+/**
+ * Cache of {@link RemoteCapabilities} keyed by remote URL, where each entry expires after it's time to live.
+ */
+public class RemoteCapabilitiesCache
+{
+  private final Map<String, Entry> entries;
+
+  public RemoteCapabilitiesCache() {
+    this.entries = new ConcurrentHashMap<String, Entry>();
+  }
+
+  /**
+   * Returns the capabilities of remote URL, or {@code null} if not cached or expired.
+   */
+  public RemoteCapabilities get(final String remoteUrl) {
+    final Entry entry = entries.get(remoteUrl);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expires <= System.currentTimeMillis()) {
+      entries.remove(remoteUrl);
+      return null;
+    }
+    return entry.capabilities;
+  }
+
+  /**
+   * Caches the capabilities of remote URL for given milliseconds. Time to live of 0 caches nothing.
+   */
+  public void put(final String remoteUrl, final RemoteCapabilities capabilities, final long ttl) {
+    Check.notNull(remoteUrl, "Remote URL is null!");
+    Check.notNull(capabilities, RemoteCapabilities.class);
+    if (ttl > 0) {
+      entries.put(remoteUrl, new Entry(capabilities, System.currentTimeMillis() + ttl));
+    }
+    else {
+      entries.remove(remoteUrl);
+    }
+  }
+
+  public void remove(final String remoteUrl) {
+    entries.remove(remoteUrl);
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  // ==
+
+  private static class Entry
+  {
+    private final RemoteCapabilities capabilities;
+
+    private final long expires;
+
+    private Entry(final RemoteCapabilities capabilities, final long expires) {
+      this.capabilities = capabilities;
+      this.expires = expires;
+    }
+  }
+}
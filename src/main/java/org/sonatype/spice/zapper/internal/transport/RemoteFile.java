@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.internal.Check;
+
+/**
+ * Properties of a remote file, as told by remote end without transferring it's content.
+ */
+public class RemoteFile
+{
+  private final Path path;
+
+  private final long length;
+
+  private final long lastModified;
+
+  private final String validator;
+
+  private final boolean rangesAccepted;
+
+  public RemoteFile(final Path path, final long length, final long lastModified, final String validator,
+                    final boolean rangesAccepted)
+  {
+    this.path = Check.notNull(path, Path.class);
+    this.length = Check.argument(length >= 0, length, "Length is negative!");
+    this.lastModified = lastModified;
+    this.validator = validator;
+    this.rangesAccepted = rangesAccepted;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * Returns the opaque value that changes whenever the content of remote file changes (like HTTP entity tag is), or
+   * {@code null} if not known.
+   */
+  public String getValidator() {
+    return validator;
+  }
+
+  /**
+   * Returns {@code true} if remote end is able to serve ranges of this file.
+   */
+  public boolean isRangesAccepted() {
+    return rangesAccepted;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(path=" + path + ", length=" + length + ", validator=" + validator
+        + ", rangesAccepted=" + rangesAccepted + ")";
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.sonatype.spice.zapper.AggregatingIOException;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Supplier retrying the payloads that failed to be sent, delegating everything else to another supplier. Failed payload
+ * is re-queued, and is supplied again (to any track) once it's back-off elapsed, before any payload of the delegate.
+ * Back-off grows exponentially with each failure of same payload, and is randomized ("full jitter"), so payloads failed
+ * at once are not retried at once. A track having nothing else to send waits for the re-queued payloads (holding no
+ * permit of it's concurrency limiter, see {@link AbstractChargerTrack#call()}). Payloads failed more times than allowed
+ * are given up, and their failures are reported by {@link #checkFailures()} once all tracks are done. Interrupted sends
+ * are not retried.
+ */
+public class RetryingPayloadSupplier
+    implements PayloadSupplier
+{
+  private final Logger logger;
+
+  private final PayloadSupplier payloadSupplier;
+
+  private final int maximumRetryCount;
+
+  private final long retryBackOff;
+
+  private final long maximumRetryBackOff;
+
+  private final Random random;
+
+  private final Map<SegmentPayload, Integer> failureCounts;
+
+  private final PriorityQueue<Retry> retries;
+
+  private final List<IOException> failures;
+
+  public RetryingPayloadSupplier(final PayloadSupplier payloadSupplier, final int maximumRetryCount,
+                                 final long retryBackOff, final long maximumRetryBackOff)
+  {
+    this.logger = LoggerFactory.getLogger(getClass());
+    this.payloadSupplier = Check.notNull(payloadSupplier, PayloadSupplier.class);
+    this.maximumRetryCount =
+        Check.argument(maximumRetryCount >= 0, maximumRetryCount, "maximumRetryCount must not be negative!");
+    this.retryBackOff = Check.argument(retryBackOff >= 0, retryBackOff, "retryBackOff must not be negative!");
+    this.maximumRetryBackOff = Check.argument(maximumRetryBackOff >= 0, maximumRetryBackOff,
+        "maximumRetryBackOff must not be negative!");
+    this.random = new Random();
+    this.failureCounts = new HashMap<SegmentPayload, Integer>();
+    this.retries = new PriorityQueue<Retry>();
+    this.failures = new ArrayList<IOException>();
+  }
+
+  public SegmentPayload getNextPayload(final TrackIdentifier trackIdentifier) {
+    final SegmentPayload retry = pollRetry(false);
+    if (retry != null) {
+      return retry;
+    }
+    final SegmentPayload payload = payloadSupplier.getNextPayload(trackIdentifier);
+    if (payload != null) {
+      return payload;
+    }
+    // nothing new to send, wait for the re-queued ones, if any
+    return pollRetry(true);
+  }
+
+  public void payloadSent(final TrackIdentifier trackIdentifier, final SegmentPayload payload) {
+    synchronized (this) {
+      failureCounts.remove(payload);
+    }
+    payloadSupplier.payloadSent(trackIdentifier, payload);
+  }
+
+  public synchronized boolean payloadFailed(final TrackIdentifier trackIdentifier, final SegmentPayload payload,
+                                            final IOException failure)
+  {
+    if (failure instanceof InterruptedIOException) {
+      return false;
+    }
+    final Integer previous = failureCounts.get(payload);
+    final int failureCount = previous == null ? 1 : previous + 1;
+    if (failureCount > maximumRetryCount) {
+      failureCounts.remove(payload);
+      final IOException e = new IOException(String.format("Payload %s of %s failed %s times, last with: %s",
+          payload.getIdentifier().stringValue(), payload.getPath().stringValue(), failureCount, failure.getMessage()));
+      e.initCause(failure);
+      failures.add(e);
+      logger.warn("Giving up payload {} of {} after {} failures", payload.getIdentifier().stringValue(),
+          payload.getPath().stringValue(), failureCount);
+      return true;
+    }
+    failureCounts.put(payload, failureCount);
+    final long backOff = getBackOff(failureCount);
+    logger.debug("Retrying payload {} of {} in {} ms, failed on track {} with {}",
+        payload.getIdentifier().stringValue(), payload.getPath().stringValue(), backOff,
+        trackIdentifier.stringValue(), failure.toString());
+    retries.add(new Retry(payload, System.currentTimeMillis() + backOff));
+    notifyAll();
+    return true;
+  }
+
+  /**
+   * Throws {@link AggregatingIOException} carrying the failures of payloads given up, if any.
+   */
+  public synchronized void checkFailures()
+      throws AggregatingIOException
+  {
+    if (!failures.isEmpty()) {
+      throw new AggregatingIOException(String.format("%s payloads failed", failures.size()),
+          failures.toArray(new IOException[failures.size()]));
+    }
+  }
+
+  // ==
+
+  /**
+   * Returns the back-off of retry after given count of failures: random between 0 and the initial back-off doubled on
+   * each failure, capped by maximum.
+   */
+  protected long getBackOff(final int failureCount) {
+    final long window = Math.min(maximumRetryBackOff, retryBackOff << Math.min(failureCount - 1, 30));
+    return (long) (random.nextDouble() * window);
+  }
+
+  /**
+   * Returns the re-queued payload whose back-off elapsed, if any. If told to wait, waits for re-queued payloads not
+   * yet due, and returns {@code null} only if there are none left (or waiting was interrupted).
+   */
+  private synchronized SegmentPayload pollRetry(final boolean wait) {
+    while (true) {
+      final Retry retry = retries.peek();
+      if (retry == null) {
+        return null;
+      }
+      final long delay = retry.due - System.currentTimeMillis();
+      if (delay <= 0) {
+        retries.poll();
+        return retry.payload;
+      }
+      if (!wait) {
+        return null;
+      }
+      try {
+        wait(delay);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+    }
+  }
+
+  private static class Retry
+      implements Comparable<Retry>
+  {
+    private final SegmentPayload payload;
+
+    private final long due;
+
+    private Retry(final SegmentPayload payload, final long due) {
+      this.payload = payload;
+      this.due = due;
+    }
+
+    public int compareTo(final Retry o) {
+      return due < o.due ? -1 : (due == o.due ? 0 : 1);
+    }
+  }
+}
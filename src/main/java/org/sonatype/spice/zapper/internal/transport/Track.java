@@ -13,11 +13,25 @@
 package org.sonatype.spice.zapper.internal.transport;
 
 import org.sonatype.spice.zapper.internal.AbstractIdentified;
+import org.sonatype.spice.zapper.internal.ChannelUtils;
 
 public class Track
     extends AbstractIdentified<TrackIdentifier>
 {
+  private byte[] buffer;
+
   public Track(final TrackIdentifier identifier) {
     super(identifier);
   }
+
+  /**
+   * Returns the buffer used to copy the bytes of payloads sent by this track, allocated on first use. Track sends one
+   * payload at a time, hence all of them reuse same buffer.
+   */
+  public synchronized byte[] getBuffer() {
+    if (buffer == null) {
+      buffer = ChannelUtils.newBuffer(ChannelUtils.BUFFER_SIZE);
+    }
+    return buffer;
+  }
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.sonatype.spice.zapper.executor.PlatformTrackExecutorFactory;
+import org.sonatype.spice.zapper.internal.Check;
+
+/**
+ * Client level scheduler of tracks: owns the executor running tracks of all transfers of a client, and the global
+ * track budget, that is the maximum count of tracks sending at once across all concurrently running transfers. The
+ * budget is shared among registered transfers by their priority (weight): each transfer gets a share proportional to
+ * it's priority, but not more than it's track count (the unused part is redistributed to others), and not less than
+ * 1. Shares are recomputed whenever a transfer registers or unregisters, and tracks over their transfer's share stop
+ * (before taking their next payload) until they fit into it again.
+ */
+public class TrackScheduler
+{
+  private static final Comparator<TransferShare> BY_PRIORITY = new Comparator<TransferShare>()
+  {
+    public int compare(final TransferShare o1, final TransferShare o2) {
+      return o2.priority - o1.priority;
+    }
+  };
+
+  private final int trackBudget;
+
+  private final ExecutorService executorService;
+
+  private final List<TransferShare> transferShares;
+
+  private int active;
+
+  public TrackScheduler(final int trackBudget) {
+    this(trackBudget, new PlatformTrackExecutorFactory().createExecutorService());
+  }
+
+  public TrackScheduler(final int trackBudget, final ExecutorService executorService) {
+    this.trackBudget = Check.argument(trackBudget > 0, trackBudget, "trackBudget not positive!");
+    this.executorService = Check.notNull(executorService, ExecutorService.class);
+    this.transferShares = new ArrayList<TransferShare>();
+    this.active = 0;
+  }
+
+  public int getTrackBudget() {
+    return trackBudget;
+  }
+
+  public ExecutorService getExecutorService() {
+    return executorService;
+  }
+
+  /**
+   * Registers a transfer having given count of tracks and priority (positive, higher is more important). Tracks of the
+   * transfer should acquire permits from returned share, that also applies the given limiter. The share must be
+   * closed once the transfer is done.
+   */
+  public synchronized TransferShare register(final int trackCount, final int priority,
+                                             final ConcurrencyLimiter concurrencyLimiter)
+  {
+    final TransferShare transferShare = new TransferShare(trackCount, priority, concurrencyLimiter);
+    transferShares.add(transferShare);
+    rebalance();
+    return transferShare;
+  }
+
+  public void shutdown() {
+    executorService.shutdownNow();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return getClass().getSimpleName() + "(budget=" + trackBudget + ", active=" + active + ", transfers="
+        + transferShares.size() + ")";
+  }
+
+  // ==
+
+  private synchronized void unregister(final TransferShare transferShare) {
+    if (transferShares.remove(transferShare)) {
+      rebalance();
+    }
+  }
+
+  /**
+   * Water-filling: transfers wanting less than their proportional share are satisfied first, and the rest of budget
+   * is split among others proportionally. Rounding leftovers go to transfers with largest remainders.
+   */
+  private void rebalance() {
+    final List<TransferShare> pending = new ArrayList<TransferShare>(transferShares);
+    int remaining = trackBudget;
+    while (!pending.isEmpty()) {
+      int totalWeight = 0;
+      for (TransferShare transferShare : pending) {
+        totalWeight += transferShare.priority;
+      }
+      final List<TransferShare> satisfied = new ArrayList<TransferShare>();
+      for (TransferShare transferShare : pending) {
+        if (transferShare.trackCount <= fairShare(remaining, transferShare.priority, totalWeight)) {
+          satisfied.add(transferShare);
+        }
+      }
+      if (satisfied.isEmpty()) {
+        int given = 0;
+        for (TransferShare transferShare : pending) {
+          transferShare.share = fairShare(remaining, transferShare.priority, totalWeight);
+          given += transferShare.share;
+        }
+        // largest remainder first, by priority on ties
+        final int budget = remaining;
+        final int weights = totalWeight;
+        Collections.sort(pending, new Comparator<TransferShare>()
+        {
+          public int compare(final TransferShare o1, final TransferShare o2) {
+            final long r1 = (long) budget * o1.priority % weights;
+            final long r2 = (long) budget * o2.priority % weights;
+            return r1 != r2 ? (r1 > r2 ? -1 : 1) : BY_PRIORITY.compare(o1, o2);
+          }
+        });
+        for (int i = 0; given < remaining && i < pending.size(); i++) {
+          final TransferShare transferShare = pending.get(i);
+          if (transferShare.share < transferShare.trackCount) {
+            transferShare.share++;
+            given++;
+          }
+        }
+        break;
+      }
+      for (TransferShare transferShare : satisfied) {
+        transferShare.share = transferShare.trackCount;
+        remaining -= transferShare.trackCount;
+      }
+      pending.removeAll(satisfied);
+    }
+    notifyAll();
+  }
+
+  private int fairShare(final int budget, final int weight, final int totalWeight) {
+    return Math.max(1, (int) ((long) budget * weight / totalWeight));
+  }
+
+  private synchronized void acquire(final TransferShare transferShare)
+      throws InterruptedIOException
+  {
+    try {
+      while (transferShare.active >= transferShare.share || active >= trackBudget) {
+        wait();
+      }
+    }
+    catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting for track permit");
+    }
+    transferShare.active++;
+    active++;
+  }
+
+  private synchronized void release(final TransferShare transferShare) {
+    transferShare.active--;
+    active--;
+    notifyAll();
+  }
+
+  /**
+   * The share of the track budget given to one transfer.
+   */
+  public class TransferShare
+      implements ConcurrencyLimiter
+  {
+    private final int trackCount;
+
+    private final int priority;
+
+    private final ConcurrencyLimiter concurrencyLimiter;
+
+    private int share;
+
+    private int active;
+
+    private TransferShare(final int trackCount, final int priority, final ConcurrencyLimiter concurrencyLimiter) {
+      this.trackCount = Check.argument(trackCount > 0, trackCount, "trackCount not positive!");
+      this.priority = Check.argument(priority > 0, priority, "priority not positive!");
+      this.concurrencyLimiter = Check.notNull(concurrencyLimiter, ConcurrencyLimiter.class);
+    }
+
+    /**
+     * Returns the count of tracks this transfer might have sending at once currently.
+     */
+    public int getShare() {
+      synchronized (TrackScheduler.this) {
+        return share;
+      }
+    }
+
+    public void acquire()
+        throws IOException
+    {
+      concurrencyLimiter.acquire();
+      try {
+        TrackScheduler.this.acquire(this);
+      }
+      catch (IOException e) {
+        concurrencyLimiter.release(-1, 0);
+        throw e;
+      }
+    }
+
+    public void release(final long bytes, final long nanos) {
+      TrackScheduler.this.release(this);
+      concurrencyLimiter.release(bytes, nanos);
+    }
+
+    public boolean backOff(final long retryAfterMillis) {
+      return concurrencyLimiter.backOff(retryAfterMillis);
+    }
+
+    /**
+     * Unregisters the transfer, giving it's share to other transfers.
+     */
+    public void close() {
+      unregister(this);
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + "(share=" + getShare() + "/" + trackCount + ", priority=" + priority
+          + ", " + concurrencyLimiter + ")";
+    }
+  }
+}
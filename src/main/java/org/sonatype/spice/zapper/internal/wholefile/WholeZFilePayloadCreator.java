@@ -18,6 +18,7 @@ import java.util.List;
 
 import org.sonatype.spice.zapper.IOSource;
 import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.codec.CodecSelectors;
 import org.sonatype.spice.zapper.internal.PayloadCreator;
 import org.sonatype.spice.zapper.internal.Segment;
 import org.sonatype.spice.zapper.internal.SegmentPayload;
@@ -54,6 +55,7 @@ public class WholeZFilePayloadCreator
       throws IOException
   {
     return new SegmentPayload(transfer.getIdentifier(), segment.getZFile().getIdentifier(), segment, source,
-        segment.getZFile().getHash(), parameters.getCodecSelector().selectCodecs(segment.getZFile()));
+        segment.getZFile().getHash(),
+        CodecSelectors.selectCodecs(parameters.getCodecSelector(), segment.getZFile(), source));
   }
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.zapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashAlgorithm;
+import org.sonatype.spice.zapper.hash.HashingOutputStream;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.RangeImpl;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.Transfer;
+
+/**
+ * Segment creator of "zapper" protocol that cuts files at content-defined boundaries instead of fixed offsets, as
+ * FastCDC does: a "gear" hash is rolled over the content, and segment ends where it's top bits are all zero. Hence
+ * bytes inserted into or removed from a file shift only the segments around the change, and the rest of segments are
+ * same as they were before. Boundaries are searched only past the minimum length, are harder to hit before the average
+ * length and easier after it ("normalized chunking"), and are forced at maximum length. Created segments carry their
+ * hashes, calculated while reading the content of files from source.
+ */
+public class ContentDefinedSegmentCreator
+    extends ZapperSegmentCreator
+{
+  /**
+   * The random values of bytes rolled into gear hash. Seeded, so boundaries do not change between runs.
+   */
+  private static final long[] GEAR = new long[256];
+
+  static {
+    final Random random = new Random(0x7a617070L);
+    for (int i = 0; i < GEAR.length; i++) {
+      GEAR[i] = random.nextLong();
+    }
+  }
+
+  private final IOSource source;
+
+  private final HashAlgorithm hashAlgorithm;
+
+  private final long minSegmentSize;
+
+  private final long averageSegmentSize;
+
+  private final long maxSegmentSize;
+
+  private final long smallMask;
+
+  private final long largeMask;
+
+  public ContentDefinedSegmentCreator(final IOSource source, final HashAlgorithm hashAlgorithm,
+                                      final long minSegmentSize, final long averageSegmentSize,
+                                      final long maxSegmentSize)
+  {
+    super(maxSegmentSize);
+    this.source = Check.notNull(source, IOSource.class);
+    this.hashAlgorithm = Check.notNull(hashAlgorithm, HashAlgorithm.class);
+    this.minSegmentSize = Check.argument(minSegmentSize >= 64, minSegmentSize, "minSegmentSize less than 64!");
+    this.averageSegmentSize = Check.argument(averageSegmentSize >= minSegmentSize, averageSegmentSize,
+        "averageSegmentSize less than minSegmentSize!");
+    this.maxSegmentSize = Check.argument(maxSegmentSize >= averageSegmentSize, maxSegmentSize,
+        "maxSegmentSize less than averageSegmentSize!");
+    // boundary is hit with probability of 1/2^bits at each byte, masks are harder and easier than average
+    final int bits = 63 - Long.numberOfLeadingZeros(averageSegmentSize);
+    this.smallMask = topBits(Math.min(bits + 2, 63));
+    this.largeMask = topBits(Math.max(bits - 2, 1));
+  }
+
+  /**
+   * Cuts given range of file into segments, reading it from source.
+   */
+  @Override
+  protected void createSegments(final Transfer transfer, final ZFile zfile, final long rangeOffset,
+                                final long rangeLength, final List<Segment> segments)
+      throws IOException
+  {
+    if (rangeLength == 0) {
+      super.createSegments(transfer, zfile, rangeOffset, rangeLength, segments);
+      return;
+    }
+    final InputStream content = source.readSegment(zfile.getIdentifier(), new RangeImpl(rangeOffset, rangeLength));
+    try {
+      final byte[] buffer = new byte[65536];
+      HashingOutputStream hashing = hashAlgorithm.hashOutput(new NullOutputStream());
+      long segmentOffset = rangeOffset;
+      long length = 0; // length of current segment so far
+      long gear = 0;
+      int read;
+      while ((read = content.read(buffer)) != -1) {
+        int start = 0; // beginning of current segment in buffer
+        for (int i = 0; i < read; i++) {
+          length++;
+          if (length <= minSegmentSize) {
+            continue;
+          }
+          gear = (gear << 1) + GEAR[buffer[i] & 0xff];
+          if (length >= maxSegmentSize || (gear & (length < averageSegmentSize ? smallMask : largeMask)) == 0) {
+            hashing.write(buffer, start, i + 1 - start);
+            segments.add(createSegment(transfer, segmentOffset, length, zfile, hashing.getHash()));
+            hashing = hashAlgorithm.hashOutput(new NullOutputStream());
+            segmentOffset += length;
+            start = i + 1;
+            length = 0;
+            gear = 0;
+          }
+        }
+        hashing.write(buffer, start, read - start);
+      }
+      if (length > 0) {
+        segments.add(createSegment(transfer, segmentOffset, length, zfile, hashing.getHash()));
+      }
+      if (segmentOffset + length != rangeOffset + rangeLength) {
+        throw new IOException(String.format("File %s changed while segmented: read %s bytes of %s",
+            zfile.getIdentifier().stringValue(), segmentOffset + length - rangeOffset, rangeLength));
+      }
+    }
+    finally {
+      content.close();
+    }
+  }
+
+  protected Segment createSegment(final Transfer transfer, final long offset, final long length, final ZFile zfile,
+                                  final Hash hash)
+  {
+    return new Segment(offset, length, zfile, transfer.getNextSegmentIdentifier(), hash);
+  }
+
+  // ==
+
+  private static long topBits(final int count) {
+    return -1L << (64 - count);
+  }
+
+  /**
+   * Output discarding everything written, as only the hash of what was written is needed.
+   */
+  private static class NullOutputStream
+      extends OutputStream
+  {
+    @Override
+    public void write(final int b) {
+      // nop
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+      // nop
+    }
+  }
+}
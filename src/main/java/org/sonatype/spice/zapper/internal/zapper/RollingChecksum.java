@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.zapper;
+
+/**
+ * The rsync rolling checksum of a block of bytes: the sum of bytes, and the sum of bytes weighted by their distance
+ * from block end, both modulo 2^16. Moving the block by one byte is cheap, hence checksum of a block starting at every
+ * offset of a file can be calculated.
+ */
+public class RollingChecksum
+{
+  private int length;
+
+  private int a;
+
+  private int b;
+
+  /**
+   * Calculates the checksum of given block.
+   */
+  public void reset(final byte[] buffer, final int offset, final int length) {
+    this.length = length;
+    a = 0;
+    b = 0;
+    for (int i = 0; i < length; i++) {
+      final int value = buffer[offset + i] & 0xff;
+      a += value;
+      b += (length - i) * value;
+    }
+    a &= 0xffff;
+    b &= 0xffff;
+  }
+
+  /**
+   * Moves the block by one byte: the first byte of block leaves it, and a new byte is appended.
+   */
+  public void roll(final byte leaving, final byte entering) {
+    a = (a - (leaving & 0xff) + (entering & 0xff)) & 0xffff;
+    b = (b - length * (leaving & 0xff) + a) & 0xffff;
+  }
+
+  public int getValue() {
+    return (b << 16) | a;
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.zapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashAlgorithm;
+import org.sonatype.spice.zapper.hash.HashingInputStream;
+import org.sonatype.spice.zapper.internal.ChannelUtils;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.RangeEnforcingInputStream;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.internal.TrailingInputStream;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+
+/**
+ * Zapper payload that does not read the segment upfront, but calculates the segment (body) hash and the envelope
+ * (header and body) hash while the content is being streamed, and sends them in the trailing segment footer. Hence,
+ * the segment is read only once, when it is sent. The receiver verifies the hashes on arrival.
+ */
+public class StreamingZapperPayload
+    extends SegmentPayload
+{
+  private final HashAlgorithm hashAlgorithm;
+
+  private final byte[] header;
+
+  private final int footerLength;
+
+  private volatile Hash segmentHash;
+
+  private volatile Hash envelopeHash;
+
+  public StreamingZapperPayload(final TransferIdentifier transferIdentifier, final Path path, final Segment segment,
+                                final IOSource ioSource, final HashAlgorithm hashAlgorithm, final List<Codec> codecs)
+      throws IOException
+  {
+    super(transferIdentifier, path, segment, ioSource, codecs);
+    this.hashAlgorithm = Check.notNull(hashAlgorithm, HashAlgorithm.class);
+    this.header = ZapperFrames.createSegmentHeader(segment);
+    this.footerLength = ZapperFrames.getSegmentFooterLength(hashAlgorithm.getIdentifier(), true);
+  }
+
+  @Override
+  public long getLength() {
+    return header.length + super.getLength() + footerLength;
+  }
+
+  /**
+   * Returns the envelope hash, that is known only once the content was completely read at least once.
+   *
+   * @throws IllegalStateException if content was not yet read.
+   */
+  @Override
+  public Hash getHash() {
+    final Hash result = envelopeHash;
+    if (result == null) {
+      throw new IllegalStateException("Envelope hash is not known before content of " + getIdentifier()
+          + " was streamed!");
+    }
+    return result;
+  }
+
+  /**
+   * Returns the segment (body) hash, that is known only once the content was completely read at least once.
+   *
+   * @throws IllegalStateException if content was not yet read.
+   */
+  @Override
+  public Hash getSegmentHash() {
+    final Hash result = segmentHash;
+    if (result == null) {
+      throw new IllegalStateException("Segment hash is not known before content of " + getIdentifier()
+          + " was streamed!");
+    }
+    return result;
+  }
+
+  @Override
+  public InputStream getContent()
+      throws IOException
+  {
+    // every invocation gets it's own hashing, as content might be re-read (ie. on retry)
+    final HashingInputStream body =
+        hashAlgorithm.hashInput(new RangeEnforcingInputStream(super.getContent(), getSegment(), false, true));
+    final HashingInputStream envelope =
+        hashAlgorithm.hashInput(new SequenceInputStream(new ByteArrayInputStream(header), body));
+
+    return new TrailingInputStream(envelope)
+    {
+      @Override
+      protected InputStream createTrailer() {
+        final Hash bodyHash = body.getHash();
+        final Hash envelopeHash = envelope.getHash();
+        StreamingZapperPayload.this.segmentHash = bodyHash;
+        StreamingZapperPayload.this.envelopeHash = envelopeHash;
+        return new ByteArrayInputStream(ZapperFrames.createSegmentFooter(bodyHash, envelopeHash));
+      }
+    };
+  }
+
+  /**
+   * Content is written by copying it from {@link #getContent()}, as the body has to pass the hashing streams.
+   */
+  @Override
+  public long writeTo(final WritableByteChannel target)
+      throws IOException
+  {
+    return ChannelUtils.copy(getContent(), target, getLength());
+  }
+}
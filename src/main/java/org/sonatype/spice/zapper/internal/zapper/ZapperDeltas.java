@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.zapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashAlgorithm;
+import org.sonatype.spice.zapper.internal.BlockCopy;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.hawtbuf.BlockChecksum;
+import org.sonatype.spice.zapper.internal.hawtbuf.BlockChecksumsMessage;
+import org.sonatype.spice.zapper.internal.hawtbuf.FileBlocks;
+import org.sonatype.spice.zapper.internal.hawtbuf.HeldBlock;
+import org.sonatype.spice.zapper.internal.hawtbuf.HeldBlocksMessage;
+
+/**
+ * Helpers of the zapper "delta" upload, that sends only the parts of files that remote end does not have in it's
+ * existing version of them, as rsync does. Sender asks for the checksums of blocks of existing versions by a framed
+ * {@link BlockChecksumsMessage} listing the file IDs, that is answered with one carrying the checksums (weak rolling
+ * checksum and strong hash) of all whole blocks of files remote end has. Sender then finds the blocks in it's files at
+ * any offset, and remote end copies the blocks found (see {@link BlockCopy}) instead of receiving them. Sender of
+ * segments cut at content-defined boundaries also asks which of it's segments remote end already holds in any file it
+ * received, by a framed {@link HeldBlocksMessage} listing the segment hashes, that is answered with one carrying the
+ * blocks remote end holds, and remote end copies those blocks instead of receiving the segments.
+ */
+public final class ZapperDeltas
+{
+  public static final String BLOCKS_MAGIC = "zBlk";
+
+  public static final String HELD_BLOCKS_MAGIC = "zHbl";
+
+  private ZapperDeltas() {
+    // no instances
+  }
+
+  /**
+   * Creates the request of block checksums of existing versions of given paths.
+   */
+  public static byte[] createBlockChecksumsRequest(final TransferIdentifier transferIdentifier, final List<Path> paths,
+                                                   final int blockLength)
+  {
+    final BlockChecksumsMessage message = new BlockChecksumsMessage()
+        .setMagic(BLOCKS_MAGIC)
+        .setTransferId(transferIdentifier.stringValue())
+        .setBlockLength(blockLength);
+    for (Path path : paths) {
+      message.addFiles(new FileBlocks().setFileId(path.stringValue()));
+    }
+    return message.toFramedByteArray();
+  }
+
+  /**
+   * Creates the answer carrying the block checksums of existing files.
+   */
+  public static byte[] createBlockChecksums(final TransferIdentifier transferIdentifier, final int blockLength,
+                                            final List<FileBlocks> files)
+  {
+    return new BlockChecksumsMessage()
+        .setMagic(BLOCKS_MAGIC)
+        .setTransferId(transferIdentifier.stringValue())
+        .setBlockLength(blockLength)
+        .setFilesList(files)
+        .toFramedByteArray();
+  }
+
+  /**
+   * Parses the request or answer of block checksums.
+   */
+  public static BlockChecksumsMessage parseBlockChecksums(final TransferIdentifier transferIdentifier,
+                                                          final InputStream in)
+      throws IOException
+  {
+    final BlockChecksumsMessage message = BlockChecksumsMessage.parseFramed(in);
+    if (!BLOCKS_MAGIC.equals(message.getMagic())) {
+      throw new IOException(String.format("Unexpected magic %s, expected %s", message.getMagic(), BLOCKS_MAGIC));
+    }
+    if (!transferIdentifier.stringValue().equals(message.getTransferId())) {
+      throw new IOException(String.format("Got block checksums of transfer %s instead of %s",
+          message.getTransferId(), transferIdentifier.stringValue()));
+    }
+    return message;
+  }
+
+  /**
+   * Calculates the checksums of whole blocks of given content, but not more than given count of them. Trailing partial
+   * block (and the blocks beyond maximum count) is not checksummed, hence is never copied. Does not close the content.
+   */
+  public static FileBlocks createFileBlocks(final String fileId, final InputStream content, final int blockLength,
+                                            final int maximumBlockCount, final HashAlgorithm hashAlgorithm)
+      throws IOException
+  {
+    final FileBlocks result = new FileBlocks().setFileId(fileId);
+    final byte[] block = new byte[blockLength];
+    final RollingChecksum checksum = new RollingChecksum();
+    while (result.getBlocksCount() < maximumBlockCount && fill(content, block, 0) == blockLength) {
+      checksum.reset(block, 0, blockLength);
+      result.addBlocks(new BlockChecksum()
+          .setWeak(checksum.getValue())
+          .setStrong(ZapperFrames.toMessage(hashAlgorithm.hash(block))));
+    }
+    return result;
+  }
+
+  /**
+   * Finds the blocks of existing version of a file in given content (of new version of the file) at any offset, and
+   * returns them in order of their offset in content. Does not close the content.
+   */
+  public static List<BlockCopy> createBlockCopies(final FileBlocks fileBlocks, final InputStream content,
+                                                  final int blockLength, final HashAlgorithm hashAlgorithm)
+      throws IOException
+  {
+    final ArrayList<BlockCopy> result = new ArrayList<BlockCopy>();
+    if (fileBlocks.getBlocksCount() == 0) {
+      return result;
+    }
+    // weak checksum -> indexes of blocks having it, strong hash is calculated only when weak matches
+    final HashMap<Integer, List<Integer>> weakIndexes = new HashMap<Integer, List<Integer>>();
+    final Hash[] strongs = new Hash[fileBlocks.getBlocksCount()];
+    for (int i = 0; i < strongs.length; i++) {
+      final BlockChecksum blockChecksum = fileBlocks.getBlocks(i);
+      List<Integer> indexes = weakIndexes.get(blockChecksum.getWeak());
+      if (indexes == null) {
+        indexes = new ArrayList<Integer>(1);
+        weakIndexes.put(blockChecksum.getWeak(), indexes);
+      }
+      indexes.add(i);
+      strongs[i] = ZapperFrames.fromMessage(blockChecksum.getStrong());
+    }
+
+    final byte[] buffer = new byte[Math.max(4 * blockLength, 65536)];
+    final byte[] block = new byte[blockLength];
+    final RollingChecksum checksum = new RollingChecksum();
+    long bufferOffset = 0; // offset of buffer beginning in content
+    int position = 0; // block beginning in buffer
+    int limit = 0;
+    boolean eof = false;
+    boolean checksumValid = false;
+    while (true) {
+      // have the block and the byte following it in buffer, if content has them
+      if (!eof && limit - position <= blockLength) {
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        bufferOffset += position;
+        limit -= position;
+        position = 0;
+        final int filled = fill(content, buffer, limit);
+        eof = filled < buffer.length;
+        limit = filled;
+      }
+      if (limit - position < blockLength) {
+        break;
+      }
+      if (!checksumValid) {
+        checksum.reset(buffer, position, blockLength);
+        checksumValid = true;
+      }
+      final BlockCopy blockCopy = match(weakIndexes.get(checksum.getValue()), strongs, buffer, position, block,
+          bufferOffset + position, hashAlgorithm);
+      if (blockCopy != null) {
+        result.add(blockCopy);
+        position += blockLength;
+        checksumValid = false;
+      }
+      else if (limit - position > blockLength) {
+        checksum.roll(buffer[position], buffer[position + blockLength]);
+        position++;
+      }
+      else {
+        break;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Creates the request asking which of blocks having given hashes remote end holds.
+   */
+  public static byte[] createHeldBlocksRequest(final TransferIdentifier transferIdentifier,
+                                               final Collection<Hash> hashes)
+  {
+    final HeldBlocksMessage message = new HeldBlocksMessage()
+        .setMagic(HELD_BLOCKS_MAGIC)
+        .setTransferId(transferIdentifier.stringValue());
+    for (Hash hash : hashes) {
+      message.addBlocks(new HeldBlock().setHash(ZapperFrames.toMessage(hash)));
+    }
+    return message.toFramedByteArray();
+  }
+
+  /**
+   * Creates the answer carrying the blocks held.
+   */
+  public static byte[] createHeldBlocks(final TransferIdentifier transferIdentifier, final List<HeldBlock> blocks) {
+    return new HeldBlocksMessage()
+        .setMagic(HELD_BLOCKS_MAGIC)
+        .setTransferId(transferIdentifier.stringValue())
+        .setBlocksList(blocks)
+        .toFramedByteArray();
+  }
+
+  /**
+   * Parses the request or answer of held blocks.
+   */
+  public static HeldBlocksMessage parseHeldBlocks(final TransferIdentifier transferIdentifier, final InputStream in)
+      throws IOException
+  {
+    final HeldBlocksMessage message = HeldBlocksMessage.parseFramed(in);
+    if (!HELD_BLOCKS_MAGIC.equals(message.getMagic())) {
+      throw new IOException(String.format("Unexpected magic %s, expected %s", message.getMagic(),
+          HELD_BLOCKS_MAGIC));
+    }
+    if (!transferIdentifier.stringValue().equals(message.getTransferId())) {
+      throw new IOException(String.format("Got held blocks of transfer %s instead of %s", message.getTransferId(),
+          transferIdentifier.stringValue()));
+    }
+    return message;
+  }
+
+  /**
+   * Returns the blocks of given answer keyed by their hashes, skipping those lacking their place.
+   */
+  public static Map<Hash, HeldBlock> getHeldBlocks(final HeldBlocksMessage message) {
+    final HashMap<Hash, HeldBlock> result = new HashMap<Hash, HeldBlock>(message.getBlocksCount());
+    for (HeldBlock block : message.getBlocksList()) {
+      if (block.hasPath() && block.hasOffset() && block.hasLength()) {
+        result.put(ZapperFrames.fromMessage(block.getHash()), block);
+      }
+    }
+    return result;
+  }
+
+  public static org.sonatype.spice.zapper.internal.hawtbuf.BlockCopy toMessage(final BlockCopy blockCopy) {
+    final org.sonatype.spice.zapper.internal.hawtbuf.BlockCopy result =
+        new org.sonatype.spice.zapper.internal.hawtbuf.BlockCopy()
+            .setOffset(blockCopy.getOffset())
+            .setSourceOffset(blockCopy.getSourceOffset())
+            .setLength(blockCopy.getLength())
+            .setHash(ZapperFrames.toMessage(blockCopy.getHash()));
+    if (blockCopy.getSourcePath() != null) {
+      result.setSourcePath(blockCopy.getSourcePath().stringValue());
+    }
+    return result;
+  }
+
+  public static BlockCopy fromMessage(final org.sonatype.spice.zapper.internal.hawtbuf.BlockCopy message)
+      throws IOException
+  {
+    return new BlockCopy(message.getOffset(), message.getLength(), message.getSourceOffset(),
+        ZapperFrames.fromMessage(message.getHash()),
+        message.hasSourcePath() ? ZapperRecipes.parsePath(message.getSourcePath()) : null);
+  }
+
+  /**
+   * Returns the block checksums of given answer keyed by file ID.
+   */
+  public static Map<String, FileBlocks> getFileBlocks(final BlockChecksumsMessage message) {
+    final HashMap<String, FileBlocks> result = new HashMap<String, FileBlocks>(message.getFilesCount());
+    for (FileBlocks fileBlocks : message.getFilesList()) {
+      result.put(fileBlocks.getFileId(), fileBlocks);
+    }
+    return result;
+  }
+
+  // ==
+
+  /**
+   * Returns the copy of block at given position of buffer, if it's weak checksum matched some blocks, and it has same
+   * strong hash as one of them.
+   */
+  private static BlockCopy match(final List<Integer> indexes, final Hash[] strongs, final byte[] buffer,
+                                 final int position, final byte[] block, final long offset,
+                                 final HashAlgorithm hashAlgorithm)
+  {
+    if (indexes == null) {
+      return null;
+    }
+    System.arraycopy(buffer, position, block, 0, block.length);
+    final Hash strong = hashAlgorithm.hash(block);
+    for (Integer index : indexes) {
+      if (strong.equals(strongs[index])) {
+        return new BlockCopy(offset, block.length, (long) index * block.length, strong);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads content into buffer from given position until buffer is full or content ends, and returns the position
+   * reached.
+   */
+  private static int fill(final InputStream content, final byte[] buffer, final int position)
+      throws IOException
+  {
+    int result = position;
+    while (result < buffer.length) {
+      final int read = content.read(buffer, result, buffer.length - result);
+      if (read == -1) {
+        break;
+      }
+      result += read;
+    }
+    return result;
+  }
+}
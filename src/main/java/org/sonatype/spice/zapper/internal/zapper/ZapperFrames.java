@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.zapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.sonatype.spice.zapper.IOTarget;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashAlgorithm;
+import org.sonatype.spice.zapper.hash.HashAlgorithmIdentifier;
+import org.sonatype.spice.zapper.hash.HashingInputStream;
+import org.sonatype.spice.zapper.internal.RangeImpl;
+import org.sonatype.spice.zapper.internal.RangeInputStream;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.hawtbuf.SegmentFooter;
+import org.sonatype.spice.zapper.internal.hawtbuf.SegmentHeader;
+
+import org.fusesource.hawtbuf.Buffer;
+
+/**
+ * Helpers to create and receive the zapper segment envelope: framed {@link SegmentHeader} and {@link SegmentFooter}.
+ */
+public final class ZapperFrames
+{
+  public static final String SEGMENT_HEADER_MAGIC = "zSeh";
+
+  public static final String SEGMENT_FOOTER_MAGIC = "zSef";
+
+  private ZapperFrames() {
+    // no instances
+  }
+
+  public static byte[] createSegmentHeader(final Segment segment) {
+    SegmentHeader header = new SegmentHeader()
+        .setMagic(SEGMENT_HEADER_MAGIC)
+        .setFileId(segment.getZFile().getIdentifier().stringValue())
+        .setSegmentId(segment.getIdentifier().stringValue())
+        .setSegmentOffset(segment.getOffset())
+        .setSegmentLength(segment.getLength());
+
+    return header.toFramedByteArray();
+  }
+
+  /**
+   * Creates footer carrying the segment body hash, and optionally (if not {@code null}) the envelope hash.
+   */
+  public static byte[] createSegmentFooter(final Hash segmentHash, final Hash envelopeHash) {
+    SegmentFooter footer = new SegmentFooter().setMagic(SEGMENT_FOOTER_MAGIC);
+    footer.addHashes(toMessage(segmentHash));
+    if (envelopeHash != null) {
+      footer.addEnvelopeHashes(toMessage(envelopeHash));
+    }
+    return footer.toFramedByteArray();
+  }
+
+  /**
+   * Returns the length of the framed footer created by {@link #createSegmentFooter(Hash, Hash)} for given algorithm,
+   * without knowing the actual hashes. Footer length depends on hash algorithm only, as hashes are of fixed size.
+   */
+  public static int getSegmentFooterLength(final HashAlgorithmIdentifier algorithm, final boolean withEnvelopeHash) {
+    final Hash placeholder = new Hash(algorithm, new byte[algorithm.getHashSize()]);
+    return createSegmentFooter(placeholder, withEnvelopeHash ? placeholder : null).length;
+  }
+
+  /**
+   * Returns the hash from the footer that was calculated with given algorithm, or {@code null} if footer does not
+   * carry such hash.
+   */
+  public static Hash getSegmentHash(final SegmentFooter footer, final HashAlgorithmIdentifier algorithm) {
+    for (org.sonatype.spice.zapper.internal.hawtbuf.Hash hash : footer.getHashesList()) {
+      if (algorithm.stringValue().equals(hash.getHashAlg())) {
+        return fromMessage(hash);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks that header is the header of given segment.
+   */
+  public static void checkSegmentHeader(final SegmentHeader header, final Segment segment)
+      throws IOException
+  {
+    if (!SEGMENT_HEADER_MAGIC.equals(header.getMagic())
+        || !segment.getZFile().getIdentifier().stringValue().equals(header.getFileId())
+        || header.getSegmentOffset() != segment.getOffset() || header.getSegmentLength() != segment.getLength()) {
+      throw new IOException(String.format("Unexpected segment %s of %s (%s+%s), expected %s of %s (%s+%s)",
+          header.getSegmentId(), header.getFileId(), header.getSegmentOffset(), header.getSegmentLength(),
+          segment.getIdentifier().stringValue(), segment.getZFile().getIdentifier().stringValue(),
+          segment.getOffset(), segment.getLength()));
+    }
+  }
+
+  /**
+   * Receives the segment body following an already parsed header, and the footer following the body: writes the body
+   * straight into target while hashing it, and verifies the body hash against the one in footer. Returns the verified
+   * body hash.
+   */
+  public static Hash receiveSegmentBody(final HashAlgorithm hashAlgorithm, final Segment segment,
+                                        final InputStream content, final IOTarget target)
+      throws IOException
+  {
+    final String fileId = segment.getZFile().getIdentifier().stringValue();
+    final HashingInputStream body =
+        hashAlgorithm.hashInput(new RangeInputStream(content, new RangeImpl(0, segment.getLength()), false, false));
+    final long written = target.writeSegment(segment.getZFile(), segment, body);
+    if (written != segment.getLength()) {
+      throw new IOException(String.format("Segment %s of %s shorter than declared: %s bytes missing",
+          segment.getIdentifier().stringValue(), fileId, segment.getLength() - written));
+    }
+
+    final SegmentFooter footer = SegmentFooter.parseFramed(content);
+    if (!SEGMENT_FOOTER_MAGIC.equals(footer.getMagic())) {
+      throw new IOException(String.format("Segment %s of %s has unexpected footer magic %s",
+          segment.getIdentifier().stringValue(), fileId, footer.getMagic()));
+    }
+    final Hash expected = getSegmentHash(footer, hashAlgorithm.getIdentifier());
+    if (expected == null) {
+      throw new IOException(String.format("Segment %s of %s carries no %s hash",
+          segment.getIdentifier().stringValue(), fileId, hashAlgorithm.getIdentifier().stringValue()));
+    }
+    if (!expected.equals(body.getHash())) {
+      throw new IOException(String.format("Segment %s of %s hash mismatch: expected %s, got %s",
+          segment.getIdentifier().stringValue(), fileId, expected, body.getHash()));
+    }
+    return expected;
+  }
+
+  public static org.sonatype.spice.zapper.internal.hawtbuf.Hash toMessage(final Hash hash) {
+    return new org.sonatype.spice.zapper.internal.hawtbuf.Hash()
+        .setHashAlg(hash.getHashAlgorithmIdentifier().stringValue())
+        .setHashBytes(new Buffer(hash.byteValue()));
+  }
+
+  public static Hash fromMessage(final org.sonatype.spice.zapper.internal.hawtbuf.Hash message) {
+    final byte[] hashBytes = message.getHashBytes().toByteArray();
+    return new Hash(new HashAlgorithmIdentifier(message.getHashAlg(), hashBytes.length), hashBytes);
+  }
+}
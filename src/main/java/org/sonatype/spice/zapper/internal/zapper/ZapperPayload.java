@@ -16,6 +16,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -26,13 +27,10 @@ import org.sonatype.spice.zapper.codec.Codec;
 import org.sonatype.spice.zapper.hash.Hash;
 import org.sonatype.spice.zapper.hash.HashAlgorithm;
 import org.sonatype.spice.zapper.hash.HashUtils;
+import org.sonatype.spice.zapper.internal.ChannelUtils;
 import org.sonatype.spice.zapper.internal.Segment;
 import org.sonatype.spice.zapper.internal.SegmentPayload;
 import org.sonatype.spice.zapper.internal.TransferIdentifier;
-import org.sonatype.spice.zapper.internal.hawtbuf.SegmentFooter;
-import org.sonatype.spice.zapper.internal.hawtbuf.SegmentHeader;
-
-import org.fusesource.hawtbuf.Buffer;
 
 public class ZapperPayload
     extends SegmentPayload
@@ -76,27 +74,23 @@ public class ZapperPayload
     return new SequenceInputStream(Collections.enumeration(parts));
   }
 
+  @Override
+  public long writeTo(final WritableByteChannel target)
+      throws IOException
+  {
+    ChannelUtils.writeFully(header, target);
+    final long bodyLength = writeSegmentTo(target);
+    ChannelUtils.writeFully(footer, target);
+    return header.length + bodyLength + footer.length;
+  }
+
   // ==
 
   protected byte[] createSegmentHeader() {
-    SegmentHeader header = new SegmentHeader()
-        .setFileId(getSegment().getZFile().getIdentifier().stringValue())
-        .setSegmentId(getIdentifier().stringValue())
-        .setSegmentOffset(getSegment().getOffset())
-        .setSegmentLength(getSegment().getLength());
-
-    return header.toFramedByteArray();
+    return ZapperFrames.createSegmentHeader(getSegment());
   }
 
   protected byte[] createSegmentFooter() {
-    SegmentFooter footer = new SegmentFooter();
-
-    final Hash bodyHash = super.getHash();
-
-    footer.addHashes(new org.sonatype.spice.zapper.internal.hawtbuf.Hash()
-        .setHashAlg(bodyHash.getHashAlgorithmIdentifier().stringValue())
-        .setHashBytes(new Buffer(bodyHash.byteValue())));
-
-    return footer.toFramedByteArray();
+    return ZapperFrames.createSegmentFooter(super.getHash(), null);
   }
 }
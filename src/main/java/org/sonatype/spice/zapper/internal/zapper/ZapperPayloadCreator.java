@@ -18,6 +18,7 @@ import java.util.List;
 
 import org.sonatype.spice.zapper.IOSource;
 import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.codec.CodecSelectors;
 import org.sonatype.spice.zapper.hash.Hash;
 import org.sonatype.spice.zapper.hash.HashUtils;
 import org.sonatype.spice.zapper.internal.PayloadCreator;
@@ -51,16 +52,24 @@ public class ZapperPayloadCreator
     return payloads.size();
   }
 
-  protected ZapperPayload createPayload(final Transfer transfer, final Segment segment, final IOSource source,
-                                        final String remoteUrl)
+  protected SegmentPayload createPayload(final Transfer transfer, final Segment segment, final IOSource source,
+                                         final String remoteUrl)
       throws IOException
   {
+    if (parameters.isHashingWhileStreaming()) {
+      // hashes are calculated while sending, segment is read only once
+      return new StreamingZapperPayload(transfer.getIdentifier(), segment.getZFile().getIdentifier(), segment, source,
+          parameters.getHashAlgorithm(),
+          CodecSelectors.selectCodecs(parameters.getCodecSelector(), segment.getZFile(), source));
+    }
+
     // calculate segment's hash, we have to do this always, as we know the hash of whole file only
     final Hash segmentHash =
         HashUtils.getDigest(parameters.getHashAlgorithm(),
             source.readSegment(segment.getZFile().getIdentifier(), segment));
 
     return new ZapperPayload(transfer.getIdentifier(), segment.getZFile().getIdentifier(), segment, source,
-        parameters.getHashAlgorithm(), segmentHash, parameters.getCodecSelector().selectCodecs(segment.getZFile()));
+        parameters.getHashAlgorithm(), segmentHash,
+        CodecSelectors.selectCodecs(parameters.getCodecSelector(), segment.getZFile(), source));
   }
 }
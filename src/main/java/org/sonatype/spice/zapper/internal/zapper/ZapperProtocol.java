@@ -13,21 +13,44 @@
 package org.sonatype.spice.zapper.internal.zapper;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
+import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.IOTarget;
 import org.sonatype.spice.zapper.Parameters;
 import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
 import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.hash.Hash;
 import org.sonatype.spice.zapper.hash.HashUtils;
 import org.sonatype.spice.zapper.internal.AbstractIdentified;
+import org.sonatype.spice.zapper.internal.BlockCopy;
 import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.DeltaProtocol;
+import org.sonatype.spice.zapper.internal.DownloadProtocol;
 import org.sonatype.spice.zapper.internal.MessagePayload;
 import org.sonatype.spice.zapper.internal.PayloadCreator;
-import org.sonatype.spice.zapper.internal.Protocol;
 import org.sonatype.spice.zapper.internal.ProtocolIdentifier;
+import org.sonatype.spice.zapper.internal.RangeImpl;
+import org.sonatype.spice.zapper.internal.ResumableProtocol;
+import org.sonatype.spice.zapper.internal.Segment;
 import org.sonatype.spice.zapper.internal.SegmentCreator;
+import org.sonatype.spice.zapper.internal.SegmentIdentifier;
 import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.hawtbuf.FileBlocks;
+import org.sonatype.spice.zapper.internal.hawtbuf.HeldBlock;
+import org.sonatype.spice.zapper.internal.hawtbuf.SegmentHeader;
+import org.sonatype.spice.zapper.internal.transport.AbstractChargerClient;
 import org.sonatype.spice.zapper.internal.transport.AbstractClient;
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
 
 /**
  * Zapper protocol.
@@ -36,7 +59,7 @@ import org.sonatype.spice.zapper.internal.transport.AbstractClient;
  */
 public class ZapperProtocol
     extends AbstractIdentified<ProtocolIdentifier>
-    implements Protocol
+    implements DownloadProtocol, ResumableProtocol, DeltaProtocol
 {
   public static ProtocolIdentifier ID = new ProtocolIdentifier("zapper");
 
@@ -59,23 +82,214 @@ public class ZapperProtocol
     return new ZapperPayloadCreator(getParameters());
   }
 
+  /**
+   * Sends the recipe of the transfer (see {@link ZapperRecipes}), so remote end knows the files and their segments.
+   */
   public void beforeUpload(final Transfer transfer, final AbstractClient<?> client)
       throws IOException
   {
-    final byte[] payload = new byte[0];
-    final MessagePayload message =
-        new MessagePayload(transfer.getIdentifier(), new Path("beforeUpload"), payload, HashUtils.getDigest(
-            parameters.getHashAlgorithm(), payload), Collections.<Codec>emptyList());
-    client.upload(message);
+    client.upload(createMessage(transfer.getIdentifier(), "beforeUpload", ZapperRecipes.createRecipe(transfer)));
+  }
+
+  /**
+   * Sends the recipe of the transfer again, and gets back the segments remote end already holds, see
+   * {@link ZapperRecipes#createHeldSegments(TransferIdentifier, Map)}.
+   */
+  public Map<SegmentIdentifier, Hash> resumeUpload(final Transfer transfer, final AbstractClient<?> client)
+      throws IOException
+  {
+    final InputStream held = client.exchange(
+        createMessage(transfer.getIdentifier(), "resumeUpload", ZapperRecipes.createRecipe(transfer)));
+    try {
+      return ZapperRecipes.parseHeldSegments(transfer.getIdentifier(), held);
+    }
+    finally {
+      held.close();
+    }
+  }
+
+  /**
+   * Asks for the block checksums of existing versions of transfer files (see {@link ZapperDeltas}), and finds the
+   * blocks in the files of source. Remote end answers them only for files of a begun transfer, hence transfer is begun
+   * by a recipe having whole files as segments first (none of them is sent), and is begun again by
+   * {@link #beforeUpload(Transfer, AbstractClient)}. Files copied from other files of transfer are not looked into, as
+   * they are not sent anyway (see {@link ZapperSegmentCreator}).
+   */
+  public void createBlockCopies(final Transfer transfer, final IOSource source, final AbstractClient<?> client)
+      throws IOException
+  {
+    final int blockLength = parameters.getDeltaBlockLength();
+    final Transfer planned = new Transfer(transfer.getIdentifier().stringValue(), transfer.getZfiles());
+    new ZapperSegmentCreator(Long.MAX_VALUE).createSegments(planned);
+    final ArrayList<Path> paths = new ArrayList<Path>(transfer.getZfiles().size());
+    for (ZFile zfile : transfer.getZfiles()) {
+      if (zfile.getLength() >= blockLength && planned.getCopySource(zfile) == null) {
+        paths.add(zfile.getIdentifier());
+      }
+    }
+    if (paths.isEmpty()) {
+      return;
+    }
+    client.upload(createMessage(transfer.getIdentifier(), "beforeUpload", ZapperRecipes.createRecipe(planned)));
+    final InputStream answer = client.exchange(createMessage(transfer.getIdentifier(), "blockChecksums",
+        ZapperDeltas.createBlockChecksumsRequest(transfer.getIdentifier(), paths, blockLength)));
+    final Map<String, FileBlocks> fileBlocks;
+    try {
+      fileBlocks = ZapperDeltas.getFileBlocks(ZapperDeltas.parseBlockChecksums(transfer.getIdentifier(), answer));
+    }
+    finally {
+      answer.close();
+    }
+
+    final LinkedHashMap<Path, List<BlockCopy>> blockCopies = new LinkedHashMap<Path, List<BlockCopy>>();
+    for (ZFile zfile : transfer.getZfiles()) {
+      final FileBlocks blocks = fileBlocks.get(zfile.getIdentifier().stringValue());
+      if (blocks == null || zfile.getLength() == 0 || planned.getCopySource(zfile) != null) {
+        continue;
+      }
+      final InputStream content = source.readSegment(zfile.getIdentifier(), new RangeImpl(0, zfile.getLength()));
+      try {
+        final List<BlockCopy> copies =
+            ZapperDeltas.createBlockCopies(blocks, content, blockLength, parameters.getHashAlgorithm());
+        if (!copies.isEmpty()) {
+          blockCopies.put(zfile.getIdentifier(), copies);
+        }
+      }
+      finally {
+        content.close();
+      }
+    }
+    transfer.setBlockCopies(blockCopies);
+  }
+
+  /**
+   * Segments the transfer with {@link ContentDefinedSegmentCreator}, asks which of segment hashes remote end holds
+   * (see {@link ZapperDeltas}), and turns the segments held into block copies. Remote end answers them only within a
+   * begun transfer, hence transfer is begun by a recipe having all the segments first (none of them is sent), and is
+   * begun again by {@link #beforeUpload(Transfer, AbstractClient)}.
+   */
+  public int createContentDefinedSegments(final Transfer transfer, final IOSource source,
+                                          final AbstractClient<?> client)
+      throws IOException
+  {
+    final long averageLength = parameters.getAverageSegmentLength();
+    final long maximumLength = Math.max(averageLength, Math.min(8 * averageLength,
+        parameters.getMaximumSegmentLength()));
+    new ContentDefinedSegmentCreator(source, parameters.getHashAlgorithm(), averageLength / 4, averageLength,
+        maximumLength).createSegments(transfer);
+
+    final LinkedHashSet<Hash> hashes = new LinkedHashSet<Hash>();
+    for (Segment segment : transfer.getSegments()) {
+      if (segment.getHash() != null) {
+        hashes.add(segment.getHash());
+      }
+    }
+    if (hashes.isEmpty()) {
+      return transfer.getSegments().size();
+    }
+    client.upload(createMessage(transfer.getIdentifier(), "beforeUpload", ZapperRecipes.createRecipe(transfer)));
+    final InputStream answer = client.exchange(createMessage(transfer.getIdentifier(), "heldBlocks",
+        ZapperDeltas.createHeldBlocksRequest(transfer.getIdentifier(), hashes)));
+    final Map<Hash, HeldBlock> heldBlocks;
+    try {
+      heldBlocks = ZapperDeltas.getHeldBlocks(ZapperDeltas.parseHeldBlocks(transfer.getIdentifier(), answer));
+    }
+    finally {
+      answer.close();
+    }
+
+    final ArrayList<Segment> segments = new ArrayList<Segment>(transfer.getSegments().size());
+    final LinkedHashMap<Path, List<BlockCopy>> blockCopies = new LinkedHashMap<Path, List<BlockCopy>>();
+    for (Map.Entry<Path, List<BlockCopy>> entry : transfer.getBlockCopies().entrySet()) {
+      blockCopies.put(entry.getKey(), new ArrayList<BlockCopy>(entry.getValue()));
+    }
+    for (Segment segment : transfer.getSegments()) {
+      final HeldBlock held = segment.getHash() != null ? heldBlocks.get(segment.getHash()) : null;
+      if (held == null || held.getLength() != segment.getLength()) {
+        segments.add(segment);
+        continue;
+      }
+      List<BlockCopy> fileBlockCopies = blockCopies.get(segment.getZFile().getIdentifier());
+      if (fileBlockCopies == null) {
+        fileBlockCopies = new ArrayList<BlockCopy>();
+        blockCopies.put(segment.getZFile().getIdentifier(), fileBlockCopies);
+      }
+      fileBlockCopies.add(new BlockCopy(segment.getOffset(), segment.getLength(), held.getOffset(),
+          segment.getHash(), ZapperRecipes.parsePath(held.getPath())));
+    }
+    for (List<BlockCopy> fileBlockCopies : blockCopies.values()) {
+      Collections.sort(fileBlockCopies, new Comparator<BlockCopy>()
+      {
+        public int compare(final BlockCopy o1, final BlockCopy o2) {
+          return o1.getOffset() < o2.getOffset() ? -1 : (o1.getOffset() == o2.getOffset() ? 0 : 1);
+        }
+      });
+    }
+    transfer.setBlockCopies(blockCopies);
+    transfer.setSegments(segments);
+    return segments.size();
   }
 
   public void afterUpload(final Transfer transfer, final AbstractClient<?> client)
       throws IOException
   {
-    final byte[] payload = new byte[0];
-    final MessagePayload message =
-        new MessagePayload(transfer.getIdentifier(), new Path("afterUpload"), payload, HashUtils.getDigest(
-            parameters.getHashAlgorithm(), payload), Collections.<Codec>emptyList());
-    client.upload(message);
+    client.upload(createMessage(transfer.getIdentifier(), "afterUpload", new byte[0]));
+  }
+
+  /**
+   * Sends the requested paths, and gets back the recipe of the transfer, see {@link ZapperRecipes}.
+   */
+  public Transfer beforeDownload(final TransferIdentifier transferIdentifier, final List<Path> paths,
+                                 final AbstractClient<?> client)
+      throws IOException
+  {
+    final InputStream recipe = client.exchange(createMessage(transferIdentifier, "beforeDownload",
+        ZapperRecipes.createDownloadRequest(transferIdentifier, paths)));
+    final Transfer transfer;
+    try {
+      transfer = ZapperRecipes.parseRecipe(recipe);
+    }
+    finally {
+      recipe.close();
+    }
+    if (!transferIdentifier.equals(transfer.getIdentifier())) {
+      throw new IOException(String.format("Got recipe of transfer %s instead of %s",
+          transfer.getIdentifier().stringValue(), transferIdentifier.stringValue()));
+    }
+    return transfer;
+  }
+
+  public InputStream fetchSegment(final Transfer transfer, final Segment segment,
+                                  final TrackIdentifier trackIdentifier, final AbstractChargerClient<?> client)
+      throws IOException
+  {
+    return client.download(transfer, segment, trackIdentifier);
+  }
+
+  /**
+   * Receives the framed segment: verifies the header, writes the body straight into target while hashing it, and
+   * verifies the body hash against the one in footer.
+   */
+  public long receiveSegment(final Segment segment, final InputStream content, final IOTarget target)
+      throws IOException
+  {
+    ZapperFrames.checkSegmentHeader(SegmentHeader.parseFramed(content), segment);
+    ZapperFrames.receiveSegmentBody(parameters.getHashAlgorithm(), segment, content, target);
+    return segment.getLength();
+  }
+
+  public void afterDownload(final Transfer transfer, final AbstractClient<?> client)
+      throws IOException
+  {
+    client.upload(createMessage(transfer.getIdentifier(), "afterDownload", new byte[0]));
+  }
+
+  // ==
+
+  protected MessagePayload createMessage(final TransferIdentifier transferIdentifier, final String name,
+                                         final byte[] payload)
+  {
+    return new MessagePayload(transferIdentifier, new Path(name), payload,
+        HashUtils.getDigest(parameters.getHashAlgorithm(), payload), Collections.<Codec>emptyList());
   }
 }
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.zapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.Range;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.internal.BlockCopy;
+import org.sonatype.spice.zapper.internal.RangeImpl;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.SegmentIdentifier;
+import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.ZFileImpl;
+import org.sonatype.spice.zapper.internal.hawtbuf.File;
+import org.sonatype.spice.zapper.internal.hawtbuf.FileSegments;
+import org.sonatype.spice.zapper.internal.hawtbuf.HeldSegmentsMessage;
+import org.sonatype.spice.zapper.internal.hawtbuf.SegmentRecord;
+import org.sonatype.spice.zapper.internal.hawtbuf.SegmentsMessage;
+import org.sonatype.spice.zapper.internal.hawtbuf.TransferMessage;
+
+/**
+ * Helpers to create and parse the zapper transfer recipe: framed {@link TransferMessage} (the files) followed by
+ * framed {@link SegmentsMessage} (the segments of files). The file ID used in recipe and segment headers is the file
+ * path. A file having same content as a file preceding it is told to be copied from that file, and has no segments.
+ */
+public final class ZapperRecipes
+{
+  public static final String TRANSFER_MAGIC = "zRec";
+
+  public static final String SEGMENTS_MAGIC = "zSeg";
+
+  public static final String HELD_MAGIC = "zHld";
+
+  private static final Comparator<Range> BY_OFFSET = new Comparator<Range>()
+  {
+    public int compare(final Range o1, final Range o2) {
+      final long l1 = o1.getOffset();
+      final long l2 = o2.getOffset();
+      return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+    }
+  };
+
+  private ZapperRecipes() {
+    // no instances
+  }
+
+  /**
+   * Creates the download request: a framed {@link TransferMessage} listing the paths only, as the files are not known
+   * to the requester yet.
+   */
+  public static byte[] createDownloadRequest(final TransferIdentifier transferIdentifier, final List<Path> paths) {
+    final TransferMessage message = new TransferMessage()
+        .setMagic(TRANSFER_MAGIC)
+        .setTransferId(transferIdentifier.stringValue())
+        .setTransferTotalSize(0);
+    for (Path path : paths) {
+      message.addFiles(new File().setFileId(path.stringValue()).setPath(path.stringValue()).setFileLastModified(0));
+    }
+    return message.toFramedByteArray();
+  }
+
+  /**
+   * Parses the download request created by {@link #createDownloadRequest(TransferIdentifier, List)}, returning the
+   * requested paths.
+   */
+  public static List<Path> parseDownloadRequest(final InputStream in)
+      throws IOException
+  {
+    final TransferMessage message = TransferMessage.parseFramed(in);
+    checkMagic(TRANSFER_MAGIC, message.getMagic());
+    final ArrayList<Path> paths = new ArrayList<Path>(message.getFilesCount());
+    for (File file : message.getFilesList()) {
+      paths.add(parsePath(file.getPath()));
+    }
+    return paths;
+  }
+
+  /**
+   * Creates the recipe of a segmented transfer.
+   */
+  public static byte[] createRecipe(final Transfer transfer) {
+    final TransferMessage transferMessage = new TransferMessage()
+        .setMagic(TRANSFER_MAGIC)
+        .setTransferId(transfer.getIdentifier().stringValue())
+        .setTransferTotalSize(transfer.getTotalSize());
+    final LinkedHashMap<Path, FileSegments> fileSegments = new LinkedHashMap<Path, FileSegments>();
+    for (ZFile zfile : transfer.getZfiles()) {
+      final File file = new File()
+          .setFileId(zfile.getIdentifier().stringValue())
+          .setPath(zfile.getIdentifier().stringValue())
+          .setFileLastModified(zfile.getLastModifiedTimestamp())
+          .addHashes(ZapperFrames.toMessage(zfile.getHash()));
+      final ZFile copySource = transfer.getCopySource(zfile);
+      if (copySource != null) {
+        file.setCopyOf(copySource.getIdentifier().stringValue());
+      }
+      for (BlockCopy blockCopy : transfer.getBlockCopies(zfile)) {
+        file.addBlockCopies(ZapperDeltas.toMessage(blockCopy));
+      }
+      transferMessage.addFiles(file);
+      fileSegments.put(zfile.getIdentifier(), new FileSegments().setFileId(zfile.getIdentifier().stringValue()));
+    }
+    for (Segment segment : transfer.getSegments()) {
+      fileSegments.get(segment.getZFile().getIdentifier()).addSegments(
+          new org.sonatype.spice.zapper.internal.hawtbuf.Segment()
+              .setSegmentId(segment.getIdentifier().stringValue())
+              .setOffset(segment.getOffset())
+              .setLength(segment.getLength()));
+    }
+    final SegmentsMessage segmentsMessage = new SegmentsMessage()
+        .setMagic(SEGMENTS_MAGIC)
+        .setTransferId(transfer.getIdentifier().stringValue());
+    for (FileSegments segments : fileSegments.values()) {
+      segmentsMessage.addFileSegments(segments);
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] transferBytes = transferMessage.toFramedByteArray();
+    final byte[] segmentsBytes = segmentsMessage.toFramedByteArray();
+    out.write(transferBytes, 0, transferBytes.length);
+    out.write(segmentsBytes, 0, segmentsBytes.length);
+    return out.toByteArray();
+  }
+
+  /**
+   * Parses the recipe created by {@link #createRecipe(Transfer)} into a transfer having it's ZFiles, segments and copy
+   * sources and block copies set. ZFile lengths are the sums of their segment and copied block lengths, or the lengths
+   * of files they are copied from. Recipe is rejected unless the segments and copied blocks of each file cover it
+   * whole without overlaps, and segment IDs are unique.
+   */
+  public static Transfer parseRecipe(final InputStream in)
+      throws IOException
+  {
+    final TransferMessage transferMessage = TransferMessage.parseFramed(in);
+    checkMagic(TRANSFER_MAGIC, transferMessage.getMagic());
+    final SegmentsMessage segmentsMessage = SegmentsMessage.parseFramed(in);
+    checkMagic(SEGMENTS_MAGIC, segmentsMessage.getMagic());
+    if (!transferMessage.getTransferId().equals(segmentsMessage.getTransferId())) {
+      throw new IOException(String.format("Recipe of transfer %s carries segments of transfer %s",
+          transferMessage.getTransferId(), segmentsMessage.getTransferId()));
+    }
+
+    final HashMap<String, FileSegments> fileSegments = new HashMap<String, FileSegments>();
+    for (FileSegments segments : segmentsMessage.getFileSegmentsList()) {
+      fileSegments.put(segments.getFileId(), segments);
+    }
+    final ArrayList<ZFile> zfiles = new ArrayList<ZFile>(transferMessage.getFilesCount());
+    final Map<ZFile, FileSegments> zfileSegments = new LinkedHashMap<ZFile, FileSegments>();
+    final HashMap<String, ZFile> zfilesById = new HashMap<String, ZFile>();
+    final LinkedHashMap<Path, ZFile> copySources = new LinkedHashMap<Path, ZFile>();
+    final LinkedHashMap<Path, List<BlockCopy>> blockCopies = new LinkedHashMap<Path, List<BlockCopy>>();
+    final HashSet<String> segmentIds = new HashSet<String>();
+    for (File file : transferMessage.getFilesList()) {
+      final FileSegments segments = fileSegments.get(file.getFileId());
+      if (segments == null) {
+        throw new IOException(String.format("Recipe lacks segments of file %s", file.getPath()));
+      }
+      if (file.getHashesCount() == 0) {
+        throw new IOException(String.format("Recipe lacks hash of file %s", file.getPath()));
+      }
+      final Hash hash = ZapperFrames.fromMessage(file.getHashes(0));
+      final ZFile copySource = file.hasCopyOf() ? zfilesById.get(file.getCopyOf()) : null;
+      long length = 0;
+      if (file.hasCopyOf()) {
+        if (copySource == null || !copySource.getHash().equals(hash) || segments.getSegmentsCount() > 0
+            || file.getBlockCopiesCount() > 0) {
+          throw new IOException(String.format("Recipe copies file %s from unexpected file %s", file.getPath(),
+              file.getCopyOf()));
+        }
+        length = copySource.getLength();
+      }
+      final ArrayList<Range> ranges = new ArrayList<Range>();
+      for (org.sonatype.spice.zapper.internal.hawtbuf.Segment segment : segments.getSegmentsList()) {
+        if (!segmentIds.add(segment.getSegmentId())) {
+          throw new IOException(String.format("Recipe has duplicate segment %s", segment.getSegmentId()));
+        }
+        if (segment.getOffset() < 0 || segment.getLength() < 1) {
+          throw new IOException(String.format("Recipe has invalid segment %s of file %s", segment.getSegmentId(),
+              file.getPath()));
+        }
+        ranges.add(new RangeImpl(segment.getOffset(), segment.getLength()));
+      }
+      final ArrayList<BlockCopy> fileBlockCopies = new ArrayList<BlockCopy>(file.getBlockCopiesCount());
+      for (org.sonatype.spice.zapper.internal.hawtbuf.BlockCopy blockCopy : file.getBlockCopiesList()) {
+        if (blockCopy.getOffset() < 0 || blockCopy.getLength() < 1 || blockCopy.getSourceOffset() < 0) {
+          throw new IOException(String.format("Recipe has invalid block copy of file %s", file.getPath()));
+        }
+        fileBlockCopies.add(ZapperDeltas.fromMessage(blockCopy));
+      }
+      ranges.addAll(fileBlockCopies);
+      length += checkCovered(file.getPath(), ranges);
+      final ZFile zfile = new ZFileImpl(parsePath(file.getPath()), length, file.getFileLastModified(), hash);
+      zfiles.add(zfile);
+      zfileSegments.put(zfile, segments);
+      zfilesById.put(file.getFileId(), zfile);
+      if (copySource != null) {
+        copySources.put(zfile.getIdentifier(), copySource);
+      }
+      if (!fileBlockCopies.isEmpty()) {
+        blockCopies.put(zfile.getIdentifier(), fileBlockCopies);
+      }
+    }
+
+    final Transfer transfer = new Transfer(transferMessage.getTransferId(), zfiles);
+    transfer.setCopySources(copySources);
+    transfer.setBlockCopies(blockCopies);
+    final ArrayList<Segment> segments = new ArrayList<Segment>();
+    for (Map.Entry<ZFile, FileSegments> entry : zfileSegments.entrySet()) {
+      for (org.sonatype.spice.zapper.internal.hawtbuf.Segment segment : entry.getValue().getSegmentsList()) {
+        segments.add(new Segment(segment.getOffset(), segment.getLength(), entry.getKey(),
+            new SegmentIdentifier(segment.getSegmentId())));
+      }
+    }
+    transfer.setSegments(segments);
+    return transfer;
+  }
+
+  /**
+   * Creates the answer to resumed transfer: a framed {@link HeldSegmentsMessage} listing the segments remote end
+   * already holds, with their hashes.
+   */
+  public static byte[] createHeldSegments(final TransferIdentifier transferIdentifier,
+                                          final Map<SegmentIdentifier, Hash> segments)
+  {
+    final HeldSegmentsMessage message = new HeldSegmentsMessage()
+        .setMagic(HELD_MAGIC)
+        .setTransferId(transferIdentifier.stringValue());
+    for (Map.Entry<SegmentIdentifier, Hash> entry : segments.entrySet()) {
+      message.addSegments(createSegmentRecord(entry.getKey(), entry.getValue()));
+    }
+    return message.toFramedByteArray();
+  }
+
+  /**
+   * Parses the answer created by {@link #createHeldSegments(TransferIdentifier, Map)}, returning the hashes of held
+   * segments keyed by segment ID.
+   */
+  public static Map<SegmentIdentifier, Hash> parseHeldSegments(final TransferIdentifier transferIdentifier,
+                                                               final InputStream in)
+      throws IOException
+  {
+    final HeldSegmentsMessage message = HeldSegmentsMessage.parseFramed(in);
+    checkMagic(HELD_MAGIC, message.getMagic());
+    if (!transferIdentifier.stringValue().equals(message.getTransferId())) {
+      throw new IOException(String.format("Got held segments of transfer %s instead of %s",
+          message.getTransferId(), transferIdentifier.stringValue()));
+    }
+    final LinkedHashMap<SegmentIdentifier, Hash> result = new LinkedHashMap<SegmentIdentifier, Hash>();
+    for (SegmentRecord record : message.getSegmentsList()) {
+      result.put(new SegmentIdentifier(record.getSegmentId()), getSegmentRecordHash(record));
+    }
+    return result;
+  }
+
+  /**
+   * Creates the record of a segment and it's hash, as kept in transfer journal and told about held segments.
+   */
+  public static SegmentRecord createSegmentRecord(final SegmentIdentifier segmentIdentifier, final Hash hash) {
+    return new SegmentRecord()
+        .setSegmentId(segmentIdentifier.stringValue())
+        .addHashes(ZapperFrames.toMessage(hash));
+  }
+
+  /**
+   * Returns the hash of segment record created by {@link #createSegmentRecord(SegmentIdentifier, Hash)}.
+   */
+  public static Hash getSegmentRecordHash(final SegmentRecord record)
+      throws IOException
+  {
+    if (record.getHashesCount() == 0) {
+      throw new IOException(String.format("Record lacks hash of segment %s", record.getSegmentId()));
+    }
+    return ZapperFrames.fromMessage(record.getHashes(0));
+  }
+
+  // ==
+
+  /**
+   * Returns the path received from remote end, failing if it is not a valid path.
+   */
+  static Path parsePath(final String path)
+      throws IOException
+  {
+    try {
+      return new Path(path);
+    }
+    catch (IllegalArgumentException e) {
+      throw new IOException(String.format("Invalid path %s", path));
+    }
+  }
+
+  /**
+   * Checks that given ranges follow each other from offset 0, and returns their total length.
+   */
+  private static long checkCovered(final String path, final List<Range> ranges)
+      throws IOException
+  {
+    Collections.sort(ranges, BY_OFFSET);
+    long length = 0;
+    for (Range range : ranges) {
+      if (range.getOffset() != length) {
+        throw new IOException(String.format("Recipe %s file %s at offset %s", range.getOffset() < length
+            ? "overlaps" : "leaves hole in", path, Math.min(length, range.getOffset())));
+      }
+      length += range.getLength();
+    }
+    return length;
+  }
+
+  private static void checkMagic(final String expected, final String magic)
+      throws IOException
+  {
+    if (!expected.equals(magic)) {
+      throw new IOException(String.format("Unexpected magic %s, expected %s", magic, expected));
+    }
+  }
+}
@@ -12,12 +12,50 @@
  */
 package org.sonatype.spice.zapper.internal.zapper;
 
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.internal.BlockCopy;
+import org.sonatype.spice.zapper.internal.Transfer;
 import org.sonatype.spice.zapper.internal.ZFileSegmentCreator;
 
+/**
+ * Segment creator of "zapper" protocol, that sends the content shared by multiple files of transfer only once: files
+ * having same hash and length as a file preceding them are copied by remote end from that file, hence they have no
+ * blocks copied from their existing versions either.
+ */
 public class ZapperSegmentCreator
     extends ZFileSegmentCreator
 {
   public ZapperSegmentCreator(final long maxSegmentSize) {
     super(maxSegmentSize);
   }
+
+  @Override
+  public int createSegments(final Transfer transfer)
+      throws IOException
+  {
+    final HashMap<Hash, ZFile> sources = new HashMap<Hash, ZFile>();
+    final LinkedHashMap<Path, ZFile> copySources = new LinkedHashMap<Path, ZFile>();
+    for (ZFile zfile : transfer.getZfiles()) {
+      final ZFile source = sources.get(zfile.getHash());
+      if (source == null) {
+        sources.put(zfile.getHash(), zfile);
+      }
+      else if (source.getLength() == zfile.getLength()) {
+        copySources.put(zfile.getIdentifier(), source);
+      }
+    }
+    transfer.setCopySources(copySources);
+    final LinkedHashMap<Path, List<BlockCopy>> blockCopies =
+        new LinkedHashMap<Path, List<BlockCopy>>(transfer.getBlockCopies());
+    blockCopies.keySet().removeAll(copySources.keySet());
+    transfer.setBlockCopies(blockCopies);
+    return super.createSegments(transfer);
+  }
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.scheduler;
+
+import java.util.List;
+
+import org.sonatype.spice.zapper.PayloadScheduler;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.PayloadSupplierImpl;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+
+/**
+ * Hands out payloads in the order they were created (directory order), to whichever track asks first.
+ */
+public class FifoPayloadScheduler
+    implements PayloadScheduler
+{
+  public PayloadSupplier createPayloadSupplier(final List<SegmentPayload> payloads, final int trackCount) {
+    return new PayloadSupplierImpl(payloads);
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.scheduler;
+
+import java.util.List;
+
+import org.sonatype.spice.zapper.PayloadScheduler;
+import org.sonatype.spice.zapper.internal.AbstractPayloadSupplier;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
+/**
+ * Hands out payloads largest first ("longest processing time first"), to whichever track asks first. This minimises
+ * the overall transfer time, as no large payload is left to be sent alone at the end of transfer, while other tracks
+ * are idle.
+ */
+public class LargestFirstPayloadScheduler
+    implements PayloadScheduler
+{
+  public PayloadSupplier createPayloadSupplier(final List<SegmentPayload> payloads, final int trackCount) {
+    return new LargestFirstPayloadSupplier(payloads);
+  }
+
+  // ==
+
+  private static class LargestFirstPayloadSupplier
+      extends AbstractPayloadSupplier
+  {
+    private final PayloadQueue queue;
+
+    private LargestFirstPayloadSupplier(final List<SegmentPayload> payloads) {
+      this.queue = new PayloadQueue(PayloadQueue.sortLargestFirst(payloads));
+    }
+
+    public SegmentPayload getNextPayload(final TrackIdentifier trackIdentifier) {
+      return queue.poll();
+    }
+  }
+}
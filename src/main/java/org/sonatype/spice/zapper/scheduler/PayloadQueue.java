@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.scheduler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+
+/**
+ * Lock-free queue of payloads, that keeps track of the length of payloads still queued.
+ */
+class PayloadQueue
+{
+  private static final Comparator<SegmentPayload> LARGEST_FIRST = new Comparator<SegmentPayload>()
+  {
+    public int compare(final SegmentPayload o1, final SegmentPayload o2) {
+      final long l1 = o1.getLength();
+      final long l2 = o2.getLength();
+      return l1 > l2 ? -1 : (l1 == l2 ? 0 : 1);
+    }
+  };
+
+  private final ConcurrentLinkedQueue<SegmentPayload> payloads;
+
+  private final AtomicLong queuedLength;
+
+  PayloadQueue() {
+    this.payloads = new ConcurrentLinkedQueue<SegmentPayload>();
+    this.queuedLength = new AtomicLong(0);
+  }
+
+  PayloadQueue(final Collection<SegmentPayload> payloads) {
+    this();
+    for (SegmentPayload payload : payloads) {
+      add(payload);
+    }
+  }
+
+  void add(final SegmentPayload payload) {
+    payloads.add(payload);
+    queuedLength.addAndGet(payload.getLength());
+  }
+
+  /**
+   * Returns the head of the queue, or {@code null} if queue is empty.
+   */
+  SegmentPayload poll() {
+    final SegmentPayload payload = payloads.poll();
+    if (payload != null) {
+      queuedLength.addAndGet(-payload.getLength());
+    }
+    return payload;
+  }
+
+  boolean isEmpty() {
+    return payloads.isEmpty();
+  }
+
+  /**
+   * Returns the length of payloads queued. As queue is concurrently modified, this is an estimate only.
+   */
+  long getQueuedLength() {
+    return queuedLength.get();
+  }
+
+  /**
+   * Returns a copy of given list sorted by payload length descending. Sort is stable, so payloads of same length
+   * remain in their original order.
+   */
+  static List<SegmentPayload> sortLargestFirst(final List<SegmentPayload> payloads) {
+    final ArrayList<SegmentPayload> result =
+        new ArrayList<SegmentPayload>(Check.notNull(payloads, "Payload list is null!"));
+    Collections.sort(result, LARGEST_FIRST);
+    return result;
+  }
+}
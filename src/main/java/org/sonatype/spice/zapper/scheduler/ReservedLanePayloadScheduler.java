@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sonatype.spice.zapper.PayloadScheduler;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.AbstractPayloadSupplier;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
+/**
+ * Reserves some tracks (a "lane") for small payloads, so small files are not stuck behind large segments. Payloads
+ * shorter than the threshold are small, and are handed out in their original order to lane tracks first, while large
+ * payloads are handed out largest first to the rest of tracks. Once a lane runs dry, it's tracks help out with the
+ * other lane, so no track is idle while there is something to send. At least one track is always left out of the
+ * small lane, hence with only one track this scheduler behaves as largest first.
+ */
+public class ReservedLanePayloadScheduler
+    implements PayloadScheduler
+{
+  private final long smallPayloadThreshold;
+
+  private final int laneTrackCount;
+
+  /**
+   * Creates scheduler that considers payloads shorter than {@code smallPayloadThreshold} bytes as small, and reserves
+   * {@code laneTrackCount} tracks for them.
+   */
+  public ReservedLanePayloadScheduler(final long smallPayloadThreshold, final int laneTrackCount) {
+    this.smallPayloadThreshold =
+        Check.argument(smallPayloadThreshold > 0, smallPayloadThreshold, "smallPayloadThreshold not positive!");
+    this.laneTrackCount = Check.argument(laneTrackCount > 0, laneTrackCount, "laneTrackCount not positive!");
+  }
+
+  public long getSmallPayloadThreshold() {
+    return smallPayloadThreshold;
+  }
+
+  public int getLaneTrackCount() {
+    return laneTrackCount;
+  }
+
+  public PayloadSupplier createPayloadSupplier(final List<SegmentPayload> payloads, final int trackCount) {
+    final ArrayList<SegmentPayload> small = new ArrayList<SegmentPayload>();
+    final ArrayList<SegmentPayload> large = new ArrayList<SegmentPayload>();
+    for (SegmentPayload payload : Check.notNull(payloads, "Payload list is null!")) {
+      if (payload.getLength() < smallPayloadThreshold) {
+        small.add(payload);
+      }
+      else {
+        large.add(payload);
+      }
+    }
+    return new ReservedLanePayloadSupplier(new PayloadQueue(small),
+        new PayloadQueue(PayloadQueue.sortLargestFirst(large)), Math.min(laneTrackCount, trackCount - 1));
+  }
+
+  // ==
+
+  private static class ReservedLanePayloadSupplier
+      extends AbstractPayloadSupplier
+  {
+    private final PayloadQueue small;
+
+    private final PayloadQueue large;
+
+    private final int laneTrackCount;
+
+    private final TrackSlots trackSlots;
+
+    private ReservedLanePayloadSupplier(final PayloadQueue small, final PayloadQueue large,
+                                        final int laneTrackCount)
+    {
+      this.small = small;
+      this.large = large;
+      this.laneTrackCount = laneTrackCount;
+      this.trackSlots = new TrackSlots();
+    }
+
+    public SegmentPayload getNextPayload(final TrackIdentifier trackIdentifier) {
+      final SegmentPayload payload;
+      if (trackSlots.getSlot(trackIdentifier) < laneTrackCount) {
+        payload = small.poll();
+        return payload != null ? payload : large.poll();
+      }
+      else {
+        payload = large.poll();
+        return payload != null ? payload : small.poll();
+      }
+    }
+  }
+}
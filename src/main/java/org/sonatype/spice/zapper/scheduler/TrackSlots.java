@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.scheduler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
+/**
+ * Assigns a stable slot number to tracks, in order they first ask for a payload: first track gets slot 0, second
+ * track slot 1, and so on.
+ */
+class TrackSlots
+{
+  private final ConcurrentMap<TrackIdentifier, Integer> slots;
+
+  private final AtomicInteger slotCounter;
+
+  TrackSlots() {
+    this.slots = new ConcurrentHashMap<TrackIdentifier, Integer>();
+    this.slotCounter = new AtomicInteger(0);
+  }
+
+  int getSlot(final TrackIdentifier trackIdentifier) {
+    Integer slot = slots.get(trackIdentifier);
+    if (slot == null) {
+      // only one counter value might win, but a gap in slots would not harm
+      final Integer newSlot = slotCounter.getAndIncrement();
+      slot = slots.putIfAbsent(trackIdentifier, newSlot);
+      if (slot == null) {
+        slot = newSlot;
+      }
+    }
+    return slot;
+  }
+}
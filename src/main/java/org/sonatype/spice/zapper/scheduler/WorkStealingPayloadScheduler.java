@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.scheduler;
+
+import java.util.List;
+
+import org.sonatype.spice.zapper.PayloadScheduler;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.AbstractPayloadSupplier;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
+/**
+ * Distributes payloads upfront over per-track queues weighted by length: payloads are taken largest first, and each is
+ * put into the queue having least bytes queued so far. Tracks then send payloads from their own queue without
+ * contending with each other, and once a track's own queue is empty, it steals the head (largest remaining payload)
+ * of the queue having most bytes still queued. Queues are lock-free, so no monitor is shared by the tracks.
+ */
+public class WorkStealingPayloadScheduler
+    implements PayloadScheduler
+{
+  public PayloadSupplier createPayloadSupplier(final List<SegmentPayload> payloads, final int trackCount) {
+    Check.argument(trackCount > 0, trackCount, "trackCount not positive!");
+    final PayloadQueue[] queues = new PayloadQueue[trackCount];
+    for (int i = 0; i < trackCount; i++) {
+      queues[i] = new PayloadQueue();
+    }
+    for (SegmentPayload payload : PayloadQueue.sortLargestFirst(payloads)) {
+      PayloadQueue lightest = queues[0];
+      for (PayloadQueue queue : queues) {
+        if (queue.getQueuedLength() < lightest.getQueuedLength()) {
+          lightest = queue;
+        }
+      }
+      lightest.add(payload);
+    }
+    return new WorkStealingPayloadSupplier(queues);
+  }
+
+  // ==
+
+  private static class WorkStealingPayloadSupplier
+      extends AbstractPayloadSupplier
+  {
+    private final PayloadQueue[] queues;
+
+    private final TrackSlots trackSlots;
+
+    private WorkStealingPayloadSupplier(final PayloadQueue[] queues) {
+      this.queues = queues;
+      this.trackSlots = new TrackSlots();
+    }
+
+    public SegmentPayload getNextPayload(final TrackIdentifier trackIdentifier) {
+      final int slot = trackSlots.getSlot(trackIdentifier);
+      if (slot < queues.length) {
+        final SegmentPayload payload = queues[slot].poll();
+        if (payload != null) {
+          return payload;
+        }
+      }
+      return steal();
+    }
+
+    private SegmentPayload steal() {
+      while (true) {
+        PayloadQueue victim = null;
+        for (PayloadQueue queue : queues) {
+          if (!queue.isEmpty() && (victim == null || queue.getQueuedLength() > victim.getQueuedLength())) {
+            victim = queue;
+          }
+        }
+        if (victim == null) {
+          return null;
+        }
+        final SegmentPayload payload = victim.poll();
+        if (payload != null) {
+          return payload;
+        }
+        // lost the race for victim's last payload, look again
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+import org.sonatype.spice.zapper.IOTarget;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.Range;
+import org.sonatype.spice.zapper.fs.AbstractDirectory;
+import org.sonatype.spice.zapper.fs.StagingDirectoryIOTarget;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.RangeInputStream;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+
+/**
+ * {@link IOTargetFactory} receiving transfers into a directory, each staged in it's own subdirectory of a staging
+ * directory until complete, see {@link StagingDirectoryIOTarget}. Staging directory should be outside of the directory,
+ * to not have files being received served from it, by default it is a sibling of the directory.
+ */
+public class DirectoryIOTargetFactory
+    implements IOTargetFactory
+{
+  private final File root;
+
+  private final File stagingRoot;
+
+  public DirectoryIOTargetFactory(final File root) {
+    this(root, new File(Check.notNull(root, File.class).getAbsoluteFile().getParentFile(),
+        "." + root.getName() + ".zapper"));
+  }
+
+  public DirectoryIOTargetFactory(final File root, final File stagingRoot) {
+    this.root = Check.notNull(root, File.class);
+    this.stagingRoot = Check.notNull(stagingRoot, File.class);
+  }
+
+  public File getStagingRoot() {
+    return stagingRoot;
+  }
+
+  public IOTarget createTarget(final TransferIdentifier transferIdentifier)
+      throws IOException
+  {
+    // transfer ID names a directory
+    if (!transferIdentifier.stringValue().matches("[A-Za-z0-9_\\-]+")) {
+      throw new IOException(String.format("Invalid transfer ID %s", transferIdentifier.stringValue()));
+    }
+    final File staging = new File(stagingRoot, transferIdentifier.stringValue());
+    if (staging.exists()) {
+      // left behind by a receiver that was stopped, is not to be mixed into this transfer
+      new StagingDirectoryIOTarget(root, staging).close(false);
+    }
+    return new StagingDirectoryIOTarget(root, staging);
+  }
+
+  public InputStream readReceived(final Path path, final Range range)
+      throws IOException
+  {
+    if (!root.isDirectory()) {
+      return null;
+    }
+    // files linked from elsewhere were not received
+    final File file = new File(root, path.stringValue());
+    if (!file.isFile() || !new AbstractDirectory(root).isWithinRoot(file)
+        || file.getCanonicalPath().startsWith(stagingRoot.getCanonicalPath() + File.separator)) {
+      return null;
+    }
+    final FileInputStream content = new FileInputStream(file);
+    return range != null ? new RangeInputStream(content, range, true, true) : content;
+  }
+
+  public void removeAbandonedTargets(final Set<TransferIdentifier> transferIdentifiers, final long timestamp)
+      throws IOException
+  {
+    final File[] stagings = stagingRoot.listFiles();
+    if (stagings == null) {
+      return;
+    }
+    for (File staging : stagings) {
+      if (staging.isDirectory() && staging.lastModified() < timestamp
+          && !transferIdentifiers.contains(new TransferIdentifier(staging.getName()))) {
+        new StagingDirectoryIOTarget(root, staging).close(false);
+      }
+    }
+  }
+}
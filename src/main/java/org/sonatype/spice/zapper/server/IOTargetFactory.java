@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+import org.sonatype.spice.zapper.IOTarget;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.Range;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+
+/**
+ * Creates the {@link IOTarget} receiving the files of an uploaded transfer. The target is closed successfully only if
+ * all the segments of transfer were received, hence targets should make the files visible only then.
+ */
+public interface IOTargetFactory
+{
+  IOTarget createTarget(TransferIdentifier transferIdentifier)
+      throws IOException;
+
+  /**
+   * Returns the content of given range (or whole content if range is {@code null}) of the file on given path, as
+   * received by an earlier transfer, or {@code null} if there is no such file. Used to send only the parts of new
+   * versions of files, that differ from the versions already received.
+   */
+  InputStream readReceived(Path path, Range range)
+      throws IOException;
+
+  /**
+   * Removes the targets created before given timestamp (and not closed) for transfers other than given ones, ie. those
+   * left behind by a receiver that was stopped.
+   */
+  void removeAbandonedTargets(Set<TransferIdentifier> transferIdentifiers, long timestamp)
+      throws IOException;
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.server;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.internal.Check;
+
+/**
+ * Index of blocks of files received by committed transfers, by their hashes, answering where a block of given hash is
+ * held. Blocks of a file are dropped from index when file is received again. Index is kept in memory, and is bounded:
+ * the blocks looked up least recently are dropped first once it is full.
+ */
+public class ReceivedBlockIndex
+{
+  private final int maximumSize;
+
+  private final LinkedHashMap<Hash, ReceivedBlock> blocks;
+
+  private final Map<Path, Set<Hash>> paths;
+
+  public ReceivedBlockIndex(final int maximumSize) {
+    this.maximumSize = Check.argument(maximumSize > 0, maximumSize, "maximumSize must be positive!");
+    this.blocks = new LinkedHashMap<Hash, ReceivedBlock>(16, 0.75f, true);
+    this.paths = new HashMap<Path, Set<Hash>>();
+  }
+
+  /**
+   * Returns the block having given hash, or {@code null} if none is known.
+   */
+  public synchronized ReceivedBlock get(final Hash hash) {
+    return blocks.get(hash);
+  }
+
+  /**
+   * Records the block of file on given path.
+   */
+  public synchronized void put(final Hash hash, final Path path, final long offset, final long length) {
+    remove(hash);
+    blocks.put(hash, new ReceivedBlock(path, offset, length));
+    Set<Hash> hashes = paths.get(path);
+    if (hashes == null) {
+      hashes = new HashSet<Hash>();
+      paths.put(path, hashes);
+    }
+    hashes.add(hash);
+    while (blocks.size() > maximumSize) {
+      remove(blocks.keySet().iterator().next());
+    }
+  }
+
+  /**
+   * Drops the block having given hash, ie. when it turned out to be changed.
+   */
+  public synchronized void remove(final Hash hash) {
+    final ReceivedBlock block = blocks.remove(hash);
+    if (block != null) {
+      final Set<Hash> hashes = paths.get(block.getPath());
+      hashes.remove(hash);
+      if (hashes.isEmpty()) {
+        paths.remove(block.getPath());
+      }
+    }
+  }
+
+  /**
+   * Drops all the blocks of file on given path, ie. when file is about to be replaced.
+   */
+  public synchronized void removePath(final Path path) {
+    final Set<Hash> hashes = paths.remove(path);
+    if (hashes != null) {
+      for (Hash hash : hashes) {
+        blocks.remove(hash);
+      }
+    }
+  }
+
+  public synchronized int size() {
+    return blocks.size();
+  }
+
+  /**
+   * Place of a received block: the path of file and range of block in it.
+   */
+  public static class ReceivedBlock
+  {
+    private final Path path;
+
+    private final long offset;
+
+    private final long length;
+
+    private ReceivedBlock(final Path path, final long offset, final long length) {
+      this.path = path;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public long getLength() {
+      return length;
+    }
+  }
+}
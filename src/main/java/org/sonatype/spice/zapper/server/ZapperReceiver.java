@@ -0,0 +1,662 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.server;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.sonatype.spice.zapper.IOTarget;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ReadableIOTarget;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.codec.CodecIdentifier;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashAlgorithm;
+import org.sonatype.spice.zapper.hash.HashUtils;
+import org.sonatype.spice.zapper.hash.HashingInputStream;
+import org.sonatype.spice.zapper.internal.BlockCopy;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.ProtocolIdentifier;
+import org.sonatype.spice.zapper.internal.RangeImpl;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.SegmentIdentifier;
+import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.hawtbuf.BlockChecksumsMessage;
+import org.sonatype.spice.zapper.internal.hawtbuf.FileBlocks;
+import org.sonatype.spice.zapper.internal.hawtbuf.HeldBlock;
+import org.sonatype.spice.zapper.internal.hawtbuf.HeldBlocksMessage;
+import org.sonatype.spice.zapper.internal.hawtbuf.SegmentHeader;
+import org.sonatype.spice.zapper.internal.zapper.ZapperDeltas;
+import org.sonatype.spice.zapper.internal.zapper.ZapperFrames;
+import org.sonatype.spice.zapper.internal.zapper.ZapperProtocol;
+import org.sonatype.spice.zapper.internal.zapper.ZapperRecipes;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receiver of "zapper" protocol uploads, independent of the server it is used with: the server adapter passes the
+ * content of each request along with it's transfer ID, path and the codecs applied to it. The recipe of transfer sent
+ * on "beforeUpload" tells the files and their segments, and the target they are received into. Segments might arrive in
+ * any order, concurrently on any count of tracks, one per request or many of them streamed in one request (on "track"
+ * path). Each segment body is written straight to it's place in target while it is hashed, and is verified against the
+ * hash in it's footer. Files told by recipe to have same content as other file are copied from it by target once all
+ * segments arrived. A segment failing to verify is not received, even if an earlier copy of it was, as it's body was
+ * written already. The "afterUpload" commits the transfer if all it's segments were received, and the files assembled
+ * in target (if target is able to read them back) verify against their hashes, and aborts it otherwise, hence target
+ * gets all the files or none of them. A transfer neither committed nor aborted is kept until nothing is
+ * received for it during the transfer timeout, hence a client resuming it (on "resumeUpload" path) is answered with the
+ * segments already received, and sends only the rest. A client asking for block checksums of files (on "blockChecksums"
+ * path) is answered with the checksums of files received by earlier transfers, and sends only the parts of new versions
+ * of the files where it did not find those blocks. Block checksums are answered only for the files of a begun transfer,
+ * hence a client asking for them begins the transfer by a preliminary recipe, and begins it again by the final recipe
+ * (a transfer might be begun again until any of it's segments is received). A client asking which segments (by their
+ * hashes) are held (on "heldBlocks" path) is answered with the places of blocks having those hashes in files received
+ * by earlier transfers (see {@link ReceivedBlockIndex}), and does not send those segments. Held blocks are answered
+ * only within a begun transfer, for no more hashes than it has segments, and only those blocks having the length of
+ * any of it's segments. The blocks are copied from
+ * the received files on commit, and are verified against their hashes.
+ */
+public class ZapperReceiver
+{
+  public static final String BEFORE_UPLOAD = "beforeUpload";
+
+  public static final String AFTER_UPLOAD = "afterUpload";
+
+  public static final String RESUME_UPLOAD = "resumeUpload";
+
+  public static final String BLOCK_CHECKSUMS = "blockChecksums";
+
+  public static final String HELD_BLOCKS = "heldBlocks";
+
+  public static final String TRACK = "track";
+
+  /**
+   * The minimum block length of delta uploads, shorter blocks would tell too much about the content of files.
+   */
+  public static final int MINIMUM_BLOCK_LENGTH = 1024;
+
+  /**
+   * The maximum block length of delta uploads, a block is kept in memory while it's checksums are calculated.
+   */
+  public static final int MAXIMUM_BLOCK_LENGTH = 16 * 1024 * 1024;
+
+  /**
+   * The maximum count of block checksums answered at once, blocks of files beyond are not checksummed.
+   */
+  public static final int MAXIMUM_BLOCK_CHECKSUM_COUNT = 100000;
+
+  /**
+   * The maximum count of blocks of received files indexed by their hashes, to answer which blocks are held.
+   */
+  public static final int MAXIMUM_HELD_BLOCK_COUNT = 100000;
+
+  /**
+   * The default time (in milliseconds) a transfer is kept since anything was last received for it: one day.
+   */
+  public static final long DEFAULT_TRANSFER_TIMEOUT = 24L * 60L * 60L * 1000L;
+
+  private final Logger logger;
+
+  private final IOTargetFactory targetFactory;
+
+  private final HashAlgorithm hashAlgorithm;
+
+  private final Map<CodecIdentifier, Codec> codecs;
+
+  private final ConcurrentMap<TransferIdentifier, ReceivedTransfer> transfers;
+
+  private final ReceivedBlockIndex receivedBlocks;
+
+  private final long transferTimeout;
+
+  public ZapperReceiver(final IOTargetFactory targetFactory, final HashAlgorithm hashAlgorithm,
+                        final List<Codec> codecs)
+  {
+    this(targetFactory, hashAlgorithm, codecs, DEFAULT_TRANSFER_TIMEOUT);
+  }
+
+  /**
+   * Creates receiver that expires the transfers nothing was received for during given time (in milliseconds), see
+   * {@link #expireTransfers()}.
+   */
+  public ZapperReceiver(final IOTargetFactory targetFactory, final HashAlgorithm hashAlgorithm,
+                        final List<Codec> codecs, final long transferTimeout)
+  {
+    Check.argument(transferTimeout > 0, transferTimeout, "Transfer timeout must be greater than zero!");
+    this.logger = LoggerFactory.getLogger(getClass());
+    this.targetFactory = Check.notNull(targetFactory, IOTargetFactory.class);
+    this.hashAlgorithm = Check.notNull(hashAlgorithm, HashAlgorithm.class);
+    final LinkedHashMap<CodecIdentifier, Codec> cds = new LinkedHashMap<CodecIdentifier, Codec>();
+    for (Codec codec : Check.notNull(codecs, List.class)) {
+      cds.put(codec.getIdentifier(), codec);
+    }
+    this.codecs = Collections.unmodifiableMap(cds);
+    this.transfers = new ConcurrentHashMap<TransferIdentifier, ReceivedTransfer>();
+    this.receivedBlocks = new ReceivedBlockIndex(MAXIMUM_HELD_BLOCK_COUNT);
+    this.transferTimeout = transferTimeout;
+  }
+
+  /**
+   * Returns the protocols this receiver supports, to be told to clients when probed.
+   */
+  public Set<ProtocolIdentifier> getProtocols() {
+    return Collections.singleton(ZapperProtocol.ID);
+  }
+
+  /**
+   * Returns the codecs this receiver is able to decode, to be told to clients when probed.
+   */
+  public Set<CodecIdentifier> getCodecs() {
+    return codecs.keySet();
+  }
+
+  /**
+   * Returns the count of transfers begun but not yet committed or aborted.
+   */
+  public int getTransferCount() {
+    return transfers.size();
+  }
+
+  /**
+   * Receives the content sent to given path within a transfer, having given codecs applied (in order). Does not close
+   * the content. Returns the answer to be sent back, or {@code null} if there is nothing to answer. Throws if content
+   * is not recognized, or does not verify.
+   */
+  public byte[] receive(final TransferIdentifier transferIdentifier, final Path path,
+                      final List<CodecIdentifier> codecIdentifiers, final InputStream content)
+      throws IOException
+  {
+    Check.notNull(transferIdentifier, TransferIdentifier.class);
+    Check.notNull(path, Path.class);
+    final InputStream in = decode(codecIdentifiers, content);
+    if (BEFORE_UPLOAD.equals(path.stringValue())) {
+      expireTransfers();
+      begin(parseRecipe(transferIdentifier, in));
+    }
+    else if (RESUME_UPLOAD.equals(path.stringValue())) {
+      expireTransfers();
+      return resume(parseRecipe(transferIdentifier, in));
+    }
+    else if (BLOCK_CHECKSUMS.equals(path.stringValue())) {
+      return blockChecksums(getTransfer(transferIdentifier),
+          ZapperDeltas.parseBlockChecksums(transferIdentifier, in));
+    }
+    else if (HELD_BLOCKS.equals(path.stringValue())) {
+      return heldBlocks(getTransfer(transferIdentifier), ZapperDeltas.parseHeldBlocks(transferIdentifier, in));
+    }
+    else if (AFTER_UPLOAD.equals(path.stringValue())) {
+      commit(transferIdentifier);
+    }
+    else if (TRACK.equals(path.stringValue())) {
+      final PushbackInputStream track = new PushbackInputStream(new BufferedInputStream(in));
+      final ReceivedTransfer transfer = getTransfer(transferIdentifier);
+      int b;
+      while ((b = track.read()) != -1) {
+        track.unread(b);
+        receiveSegment(transfer, null, track);
+      }
+    }
+    else {
+      receiveSegment(getTransfer(transferIdentifier), path, in);
+    }
+    return null;
+  }
+
+  /**
+   * Aborts the transfer, if it is in progress, removing whatever was received.
+   */
+  public void abort(final TransferIdentifier transferIdentifier)
+      throws IOException
+  {
+    final ReceivedTransfer transfer = transfers.remove(transferIdentifier);
+    if (transfer != null) {
+      logger.info("Aborting transfer {}", transferIdentifier.stringValue());
+      transfer.target.close(false);
+    }
+  }
+
+  /**
+   * Aborts the transfers nothing was received for during the transfer timeout, removing whatever was received, and has
+   * the target factory remove the targets left behind by transfers not known (anymore), ie. by a receiver that was
+   * stopped. Invoked whenever a transfer is begun or resumed, hence abandoned transfers do not pile up. Returns the
+   * count of transfers aborted.
+   */
+  public int expireTransfers()
+      throws IOException
+  {
+    final long expired = System.currentTimeMillis() - transferTimeout;
+    int result = 0;
+    for (ReceivedTransfer transfer : new ArrayList<ReceivedTransfer>(transfers.values())) {
+      if (transfer.lastReceivedTimestamp < expired && transfers.remove(transfer.transfer.getIdentifier(), transfer)) {
+        logger.info("Expiring transfer {}", transfer.transfer.getIdentifier().stringValue());
+        transfer.target.close(false);
+        result++;
+      }
+    }
+    targetFactory.removeAbandonedTargets(new HashSet<TransferIdentifier>(transfers.keySet()), expired);
+    return result;
+  }
+
+  // ==
+
+  protected InputStream decode(final List<CodecIdentifier> codecIdentifiers, final InputStream content)
+      throws IOException
+  {
+    InputStream result = content;
+    if (codecIdentifiers != null) {
+      for (CodecIdentifier codecIdentifier : codecIdentifiers) {
+        final Codec codec = codecs.get(codecIdentifier);
+        if (codec == null) {
+          throw new IOException(String.format("Unsupported codec %s", codecIdentifier.stringValue()));
+        }
+        result = codec.decode(result);
+      }
+    }
+    return result;
+  }
+
+  protected Transfer parseRecipe(final TransferIdentifier transferIdentifier, final InputStream recipe)
+      throws IOException
+  {
+    final Transfer transfer = ZapperRecipes.parseRecipe(recipe);
+    if (!transferIdentifier.equals(transfer.getIdentifier())) {
+      throw new IOException(String.format("Got recipe of transfer %s within transfer %s",
+          transfer.getIdentifier().stringValue(), transferIdentifier.stringValue()));
+    }
+    return transfer;
+  }
+
+  /**
+   * Begins the transfer, or begins it again if none of it's segments was received yet.
+   */
+  protected void begin(final Transfer transfer)
+      throws IOException
+  {
+    final TransferIdentifier transferIdentifier = transfer.getIdentifier();
+    final ReceivedTransfer existing = transfers.get(transferIdentifier);
+    if (existing != null && !existing.received.isEmpty()) {
+      throw new IOException(String.format("Transfer %s already begun", transferIdentifier.stringValue()));
+    }
+    if (existing != null) {
+      abort(transferIdentifier);
+    }
+    final IOTarget target = targetFactory.createTarget(transferIdentifier);
+    boolean success = false;
+    try {
+      for (ZFile zfile : transfer.getZfiles()) {
+        target.initializeZFile(zfile);
+      }
+      if (transfers.putIfAbsent(transferIdentifier, new ReceivedTransfer(transfer, target)) != null) {
+        throw new IOException(String.format("Transfer %s already begun", transferIdentifier.stringValue()));
+      }
+      success = true;
+    }
+    finally {
+      if (!success) {
+        target.close(false);
+      }
+    }
+    logger.info("Begun transfer {} of {} bytes in {} files", transferIdentifier.stringValue(),
+        transfer.getTotalSize(), transfer.getZfiles().size());
+  }
+
+  /**
+   * Resumes the transfer, beginning it if it is not known (anymore), and answers the segments already received.
+   */
+  protected byte[] resume(final Transfer transfer)
+      throws IOException
+  {
+    final TransferIdentifier transferIdentifier = transfer.getIdentifier();
+    ReceivedTransfer received = transfers.get(transferIdentifier);
+    if (received == null) {
+      begin(transfer);
+      received = getTransfer(transferIdentifier);
+    }
+    else if (!received.isSameSegments(transfer)) {
+      throw new IOException(String.format("Transfer %s resumed with other segments",
+          transferIdentifier.stringValue()));
+    }
+    received.touch();
+    final LinkedHashMap<SegmentIdentifier, Hash> held = new LinkedHashMap<SegmentIdentifier, Hash>();
+    for (Map.Entry<String, Hash> entry : received.received.entrySet()) {
+      held.put(new SegmentIdentifier(entry.getKey()), entry.getValue());
+    }
+    logger.info("Resuming transfer {} having {} of {} segments", transferIdentifier.stringValue(), held.size(),
+        received.segments.size());
+    return ZapperRecipes.createHeldSegments(transferIdentifier, held);
+  }
+
+  /**
+   * Answers the block checksums of requested files of transfer received by earlier transfers, see
+   * {@link ZapperDeltas}. Files not in the transfer are not answered.
+   */
+  protected byte[] blockChecksums(final ReceivedTransfer transfer, final BlockChecksumsMessage request)
+      throws IOException
+  {
+    final long blockLength = request.getBlockLength();
+    if (blockLength < MINIMUM_BLOCK_LENGTH || blockLength > MAXIMUM_BLOCK_LENGTH) {
+      throw new IOException(String.format("Unsupported block length %s", blockLength));
+    }
+    final HashSet<String> paths = new HashSet<String>();
+    for (ZFile zfile : transfer.transfer.getZfiles()) {
+      paths.add(zfile.getIdentifier().stringValue());
+    }
+    final ArrayList<FileBlocks> files = new ArrayList<FileBlocks>(request.getFilesCount());
+    int remaining = MAXIMUM_BLOCK_CHECKSUM_COUNT;
+    for (FileBlocks file : request.getFilesList()) {
+      if (remaining == 0 || !paths.contains(file.getFileId())) {
+        continue;
+      }
+      final InputStream content = targetFactory.readReceived(new Path(file.getFileId()), null);
+      if (content != null) {
+        try {
+          final FileBlocks blocks =
+              ZapperDeltas.createFileBlocks(file.getFileId(), content, (int) blockLength, remaining, hashAlgorithm);
+          remaining -= blocks.getBlocksCount();
+          files.add(blocks);
+        }
+        finally {
+          content.close();
+        }
+      }
+    }
+    return ZapperDeltas.createBlockChecksums(new TransferIdentifier(request.getTransferId()), (int) blockLength,
+        files);
+  }
+
+  /**
+   * Answers the places of requested blocks held in files received by earlier transfers, see {@link ZapperDeltas}.
+   * Transfer might ask for as many blocks as it has segments, and is answered only the blocks it might copy instead of
+   * it's segments, those of same length as any of them.
+   */
+  protected byte[] heldBlocks(final ReceivedTransfer transfer, final HeldBlocksMessage request)
+      throws IOException
+  {
+    if (request.getBlocksCount() > transfer.segments.size()) {
+      throw new IOException(String.format("Transfer %s asks for %s held blocks, having %s segments",
+          transfer.transfer.getIdentifier().stringValue(), request.getBlocksCount(), transfer.segments.size()));
+    }
+    final HashSet<Long> lengths = new HashSet<Long>();
+    for (Segment segment : transfer.segments.values()) {
+      lengths.add(segment.getLength());
+    }
+    final ArrayList<HeldBlock> blocks = new ArrayList<HeldBlock>();
+    for (HeldBlock block : request.getBlocksList()) {
+      final ReceivedBlockIndex.ReceivedBlock received =
+          receivedBlocks.get(ZapperFrames.fromMessage(block.getHash()));
+      if (received != null && lengths.contains(received.getLength())) {
+        blocks.add(new HeldBlock()
+            .setHash(block.getHash())
+            .setPath(received.getPath().stringValue())
+            .setOffset(received.getOffset())
+            .setLength(received.getLength()));
+      }
+    }
+    return ZapperDeltas.createHeldBlocks(new TransferIdentifier(request.getTransferId()), blocks);
+  }
+
+  protected void commit(final TransferIdentifier transferIdentifier)
+      throws IOException
+  {
+    final ReceivedTransfer transfer = transfers.remove(transferIdentifier);
+    if (transfer == null) {
+      throw new IOException(String.format("Unknown transfer %s", transferIdentifier.stringValue()));
+    }
+    boolean success = false;
+    try {
+      final int missing = transfer.segments.size() - transfer.received.size();
+      if (missing > 0) {
+        throw new IOException(String.format("Transfer %s lacks %s segments", transferIdentifier.stringValue(),
+            missing));
+      }
+      for (ZFile zfile : transfer.transfer.getZfiles()) {
+        for (BlockCopy blockCopy : transfer.transfer.getBlockCopies(zfile)) {
+          copyBlock(transfer, zfile, blockCopy);
+        }
+      }
+      for (ZFile zfile : transfer.transfer.getZfiles()) {
+        final ZFile copySource = transfer.transfer.getCopySource(zfile);
+        if (copySource != null) {
+          transfer.target.copyZFile(copySource, zfile);
+        }
+      }
+      if (transfer.target instanceof ReadableIOTarget) {
+        verifyZFiles(transfer, (ReadableIOTarget) transfer.target);
+      }
+      for (ZFile zfile : transfer.transfer.getZfiles()) {
+        transfer.target.finalizeZFile(zfile);
+      }
+      success = true;
+    }
+    finally {
+      transfer.target.close(success);
+    }
+    indexBlocks(transfer);
+    logger.info("Committed transfer {}", transferIdentifier.stringValue());
+  }
+
+  /**
+   * Verifies the files assembled in target against their hashes, as segments and blocks are verified only one by one,
+   * and might have been overwritten by a copy failing to verify.
+   */
+  protected void verifyZFiles(final ReceivedTransfer transfer, final ReadableIOTarget target)
+      throws IOException
+  {
+    for (ZFile zfile : transfer.transfer.getZfiles()) {
+      final Hash hash = HashUtils.getDigest(hashAlgorithm, target.readZFile(zfile));
+      if (!hash.equals(zfile.getHash())) {
+        throw new IOException(String.format("Transfer %s file %s hash mismatch: expected %s, got %s",
+            transfer.transfer.getIdentifier().stringValue(), zfile.getIdentifier().stringValue(), zfile.getHash(),
+            hash));
+      }
+    }
+  }
+
+  /**
+   * Indexes the received segments and copied blocks of committed transfer, replacing the blocks of files it replaced.
+   */
+  protected void indexBlocks(final ReceivedTransfer transfer) {
+    for (ZFile zfile : transfer.transfer.getZfiles()) {
+      receivedBlocks.removePath(zfile.getIdentifier());
+    }
+    for (Map.Entry<String, Hash> entry : transfer.received.entrySet()) {
+      final Segment segment = transfer.segments.get(entry.getKey());
+      receivedBlocks.put(entry.getValue(), segment.getZFile().getIdentifier(), segment.getOffset(),
+          segment.getLength());
+    }
+    for (ZFile zfile : transfer.transfer.getZfiles()) {
+      for (BlockCopy blockCopy : transfer.transfer.getBlockCopies(zfile)) {
+        receivedBlocks.put(blockCopy.getHash(), zfile.getIdentifier(), blockCopy.getOffset(), blockCopy.getLength());
+      }
+    }
+  }
+
+  /**
+   * Receives one framed segment. If path is given, segment must be of file on that path. Segment failing to verify is
+   * dropped from received ones, as it's body (partially) overwrote the one received earlier, if any.
+   */
+  protected void receiveSegment(final ReceivedTransfer transfer, final Path path, final InputStream content)
+      throws IOException
+  {
+    final SegmentHeader header = SegmentHeader.parseFramed(content);
+    final Segment segment = transfer.segments.get(header.getSegmentId());
+    if (segment == null || (path != null && !path.equals(segment.getZFile().getIdentifier()))) {
+      throw new IOException(String.format("Unexpected segment %s of %s in transfer %s", header.getSegmentId(),
+          header.getFileId(), transfer.transfer.getIdentifier().stringValue()));
+    }
+    ZapperFrames.checkSegmentHeader(header, segment);
+    boolean success = false;
+    try {
+      transfer.received.put(header.getSegmentId(),
+          ZapperFrames.receiveSegmentBody(hashAlgorithm, segment, content, transfer.target));
+      success = true;
+    }
+    finally {
+      if (!success) {
+        transfer.received.remove(header.getSegmentId());
+      }
+    }
+    transfer.touch();
+  }
+
+  /**
+   * Copies the block of file from it's version (or other file) received by an earlier transfer, verifying the block is
+   * still the one client found. Blocks of other files are copied only from the places index holds them at, as told to
+   * client, and those that changed are dropped from index.
+   */
+  protected void copyBlock(final ReceivedTransfer transfer, final ZFile zfile, final BlockCopy blockCopy)
+      throws IOException
+  {
+    Path sourcePath = zfile.getIdentifier();
+    if (blockCopy.getSourcePath() != null) {
+      final ReceivedBlockIndex.ReceivedBlock held = receivedBlocks.get(blockCopy.getHash());
+      if (held == null || !held.getPath().equals(blockCopy.getSourcePath())
+          || held.getOffset() != blockCopy.getSourceOffset() || held.getLength() != blockCopy.getLength()) {
+        throw new IOException(String.format("Transfer %s copies block at %s of %s, that is not held",
+            transfer.transfer.getIdentifier().stringValue(), blockCopy.getSourceOffset(),
+            blockCopy.getSourcePath().stringValue()));
+      }
+      sourcePath = held.getPath();
+    }
+    final InputStream content = targetFactory.readReceived(sourcePath,
+        new RangeImpl(blockCopy.getSourceOffset(), blockCopy.getLength()));
+    if (content == null) {
+      if (blockCopy.getSourcePath() != null) {
+        receivedBlocks.remove(blockCopy.getHash());
+      }
+      throw new IOException(String.format("Transfer %s copies blocks of %s, that was not received",
+          transfer.transfer.getIdentifier().stringValue(), sourcePath.stringValue()));
+    }
+    try {
+      final HashingInputStream block = hashAlgorithm.hashInput(content);
+      final long written = transfer.target.writeSegment(zfile, blockCopy, block);
+      if (written != blockCopy.getLength() || !blockCopy.getHash().equals(block.getHash())) {
+        if (blockCopy.getSourcePath() != null) {
+          receivedBlocks.remove(blockCopy.getHash());
+        }
+        throw new IOException(String.format("Block at %s of %s changed since it was found",
+            blockCopy.getSourceOffset(), sourcePath.stringValue()));
+      }
+    }
+    finally {
+      content.close();
+    }
+  }
+
+  protected ReceivedTransfer getTransfer(final TransferIdentifier transferIdentifier)
+      throws IOException
+  {
+    final ReceivedTransfer transfer = transfers.get(transferIdentifier);
+    if (transfer == null) {
+      throw new IOException(String.format("Unknown transfer %s", transferIdentifier.stringValue()));
+    }
+    return transfer;
+  }
+
+  /**
+   * State of a transfer being received: it's segments by ID, the body hashes of segments received so far by ID, it's
+   * target, and when anything was last received for it.
+   */
+  protected static class ReceivedTransfer
+  {
+    private final Transfer transfer;
+
+    private final IOTarget target;
+
+    private final Map<String, Segment> segments;
+
+    private final Map<String, Hash> received;
+
+    private volatile long lastReceivedTimestamp;
+
+    private ReceivedTransfer(final Transfer transfer, final IOTarget target) {
+      this.transfer = transfer;
+      this.target = target;
+      this.segments = new HashMap<String, Segment>();
+      for (Segment segment : transfer.getSegments()) {
+        segments.put(segment.getIdentifier().stringValue(), segment);
+      }
+      this.received = new ConcurrentHashMap<String, Hash>();
+      touch();
+    }
+
+    private void touch() {
+      lastReceivedTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns {@code true} if given transfer has same segments, of same files, as this one, and has same files and
+     * blocks copied.
+     */
+    private boolean isSameSegments(final Transfer other) {
+      if (other.getSegments().size() != segments.size() || !isSameCopies(other)) {
+        return false;
+      }
+      for (Segment segment : other.getSegments()) {
+        final Segment own = segments.get(segment.getIdentifier().stringValue());
+        if (own == null || own.getOffset() != segment.getOffset() || own.getLength() != segment.getLength()
+            || !own.getZFile().getIdentifier().equals(segment.getZFile().getIdentifier())
+            || !own.getZFile().getHash().equals(segment.getZFile().getHash())) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean isSameCopies(final Transfer other) {
+      if (!other.getCopySources().keySet().equals(transfer.getCopySources().keySet())
+          || !other.getBlockCopies().keySet().equals(transfer.getBlockCopies().keySet())) {
+        return false;
+      }
+      for (Map.Entry<Path, ZFile> entry : other.getCopySources().entrySet()) {
+        if (!entry.getValue().getIdentifier().equals(transfer.getCopySources().get(entry.getKey()).getIdentifier())) {
+          return false;
+        }
+      }
+      for (Map.Entry<Path, List<BlockCopy>> entry : other.getBlockCopies().entrySet()) {
+        final List<BlockCopy> own = transfer.getBlockCopies().get(entry.getKey());
+        if (own.size() != entry.getValue().size()) {
+          return false;
+        }
+        for (int i = 0; i < own.size(); i++) {
+          if (!isSameBlockCopy(own.get(i), entry.getValue().get(i))) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    private static boolean isSameBlockCopy(final BlockCopy a, final BlockCopy b) {
+      final boolean sameSource = a.getSourcePath() == null ? b.getSourcePath() == null
+          : a.getSourcePath().equals(b.getSourcePath());
+      return sameSource && a.getOffset() == b.getOffset() && a.getLength() == b.getLength()
+          && a.getSourceOffset() == b.getSourceOffset() && a.getHash().equals(b.getHash());
+    }
+  }
+}
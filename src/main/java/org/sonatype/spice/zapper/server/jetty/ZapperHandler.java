@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.server.jetty;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.codec.CodecIdentifier;
+import org.sonatype.spice.zapper.internal.Check;
+import org.sonatype.spice.zapper.internal.ProtocolIdentifier;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.server.ZapperReceiver;
+
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * Jetty handler adapting {@link ZapperReceiver}: tells the receiver capabilities on OPTIONS, and passes the content of
+ * PUT requests carrying a transfer ID to the receiver, sending back it's answer, if any. Other requests are left to
+ * other handlers. Content that the receiver does not accept is answered with "400 Bad Request".
+ */
+public class ZapperHandler
+    extends AbstractHandler
+{
+  private final ZapperReceiver receiver;
+
+  public ZapperHandler(final ZapperReceiver receiver) {
+    this.receiver = Check.notNull(receiver, ZapperReceiver.class);
+  }
+
+  public ZapperReceiver getReceiver() {
+    return receiver;
+  }
+
+  public void handle(final String target, final Request baseRequest, final HttpServletRequest request,
+                     final HttpServletResponse response)
+      throws IOException, ServletException
+  {
+    if (baseRequest.isHandled()) {
+      return;
+    }
+    if (HttpMethods.OPTIONS.equals(request.getMethod())) {
+      final StringBuilder protocols = new StringBuilder();
+      for (ProtocolIdentifier protocol : receiver.getProtocols()) {
+        protocols.append(protocols.length() > 0 ? "," : "").append(protocol.stringValue());
+      }
+      final StringBuilder codecs = new StringBuilder();
+      for (CodecIdentifier codec : receiver.getCodecs()) {
+        codecs.append(codecs.length() > 0 ? "," : "").append(codec.stringValue());
+      }
+      response.setHeader("X-Zapper-Protocols", protocols.toString());
+      response.setHeader("X-Zapper-Codecs", codecs.toString());
+      baseRequest.setHandled(true);
+    }
+    else if (HttpMethods.PUT.equals(request.getMethod()) && request.getHeader("X-Zapper-Transfer-ID") != null) {
+      baseRequest.setHandled(true);
+      try {
+        final byte[] answer = receiver.receive(new TransferIdentifier(request.getHeader("X-Zapper-Transfer-ID")),
+            new Path(target.substring(1)), getCodecs(request), request.getInputStream());
+        if (answer != null) {
+          response.setStatus(HttpServletResponse.SC_OK);
+          response.setContentType("application/octet-stream");
+          response.setContentLength(answer.length);
+          response.getOutputStream().write(answer);
+        }
+        else {
+          response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        }
+      }
+      catch (IOException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      }
+      catch (IllegalArgumentException e) {
+        // invalid path
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      }
+    }
+  }
+
+  // ==
+
+  protected List<CodecIdentifier> getCodecs(final HttpServletRequest request) {
+    final ArrayList<CodecIdentifier> result = new ArrayList<CodecIdentifier>();
+    final Enumeration<?> headers = request.getHeaders("X-Zapper-Codecs");
+    while (headers.hasMoreElements()) {
+      for (String codec : String.valueOf(headers.nextElement()).split(",")) {
+        if (codec.trim().length() > 0) {
+          result.add(new CodecIdentifier(codec.trim()));
+        }
+      }
+    }
+    return result;
+  }
+}
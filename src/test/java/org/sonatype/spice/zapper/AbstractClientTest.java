@@ -55,6 +55,10 @@ public abstract class AbstractClientTest
     }
   }
 
+  protected int getPort() {
+    return port;
+  }
+
   protected List<Handler> getHandlers() {
     ResourceHandler resourceHandler = new ResourceHandler();
     resourceHandler.setDirectoriesListed(true);
@@ -110,8 +114,7 @@ public abstract class AbstractClientTest
   protected long timedUpload()
       throws Exception
   {
-    final MatchingCodecSelector codecSelector = MatchingCodecSelector.builder().add(".*", new GzipCodec()).build();
-    final Parameters parameters = ParametersBuilder.defaults().setCodecSelector(codecSelector).build();
+    final Parameters parameters = getParametersBuilder().build();
 
     final Client client = getClient(parameters, "http://localhost:" + port + "/");
     final IOSourceListable directory = new DirectoryIOSource(new File("target/classes"));
@@ -128,5 +131,12 @@ public abstract class AbstractClientTest
 
   // ==
 
+  protected ParametersBuilder getParametersBuilder()
+      throws Exception
+  {
+    final MatchingCodecSelector codecSelector = MatchingCodecSelector.builder().add(".*", new GzipCodec()).build();
+    return ParametersBuilder.defaults().setCodecSelector(codecSelector);
+  }
+
   protected abstract Client getClient(final Parameters parameters, final String remoteUrl);
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * Handler acting as a plain HTTP server of a directory, that serves files in ranges ("Range" with "If-Range" on GET)
+ * and receives them in ranges ("Content-Range" on PUT), telling it accepts ranges when probed. Optionally ignores
+ * ranges, as servers not supporting them do, or ignores the ranges of PUTs only, as servers not receiving them might.
+ */
+public class RangedFileHandler
+    extends AbstractHandler
+{
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+  private final File root;
+
+  private final AtomicInteger probeCount;
+
+  private final AtomicInteger rangedGetCount;
+
+  private final AtomicInteger rangedPutCount;
+
+  private volatile boolean ignoringRanges;
+
+  private volatile boolean ignoringContentRanges;
+
+  public RangedFileHandler(final File root) {
+    this.root = root;
+    this.probeCount = new AtomicInteger(0);
+    this.rangedGetCount = new AtomicInteger(0);
+    this.rangedPutCount = new AtomicInteger(0);
+  }
+
+  public void setIgnoringRanges(final boolean ignoringRanges) {
+    this.ignoringRanges = ignoringRanges;
+  }
+
+  public void setIgnoringContentRanges(final boolean ignoringContentRanges) {
+    this.ignoringContentRanges = ignoringContentRanges;
+  }
+
+  public int getProbeCount() {
+    return probeCount.get();
+  }
+
+  public int getRangedGetCount() {
+    return rangedGetCount.get();
+  }
+
+  public int getRangedPutCount() {
+    return rangedPutCount.get();
+  }
+
+  public void handle(final String target, final Request baseRequest, final HttpServletRequest request,
+                     final HttpServletResponse response)
+      throws IOException, ServletException
+  {
+    if (baseRequest.isHandled()) {
+      return;
+    }
+    final File file = new File(root, target.substring(1));
+    if (HttpMethods.OPTIONS.equals(request.getMethod())) {
+      baseRequest.setHandled(true);
+      probeCount.incrementAndGet();
+      if (!ignoringRanges) {
+        response.setHeader("Accept-Ranges", "bytes");
+      }
+    }
+    else if (HttpMethods.PUT.equals(request.getMethod())) {
+      baseRequest.setHandled(true);
+      put(file, request);
+      response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+    else if (HttpMethods.HEAD.equals(request.getMethod()) || HttpMethods.GET.equals(request.getMethod())) {
+      baseRequest.setHandled(true);
+      if (!file.isFile()) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        return;
+      }
+      get(file, request, response, HttpMethods.GET.equals(request.getMethod()));
+    }
+  }
+
+  // ==
+
+  protected void put(final File file, final HttpServletRequest request)
+      throws IOException
+  {
+    long offset = 0;
+    final String contentRange = ignoringContentRanges ? null : request.getHeader("Content-Range");
+    if (contentRange != null) {
+      final Matcher matcher = CONTENT_RANGE.matcher(contentRange);
+      if (!matcher.matches()) {
+        throw new IOException("Unexpected Content-Range: " + contentRange);
+      }
+      offset = Long.parseLong(matcher.group(1));
+      rangedPutCount.incrementAndGet();
+    }
+    file.getParentFile().mkdirs();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      if (contentRange == null) {
+        raf.setLength(0);
+      }
+      raf.seek(offset);
+      final InputStream in = request.getInputStream();
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        raf.write(buffer, 0, read);
+      }
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  protected void get(final File file, final HttpServletRequest request, final HttpServletResponse response,
+                     final boolean withContent)
+      throws IOException
+  {
+    final String etag = "\"" + file.length() + "-" + file.lastModified() + "\"";
+    response.setDateHeader("Last-Modified", file.lastModified());
+    response.setHeader("ETag", etag);
+    if (!ignoringRanges) {
+      response.setHeader("Accept-Ranges", "bytes");
+    }
+
+    long offset = 0;
+    long length = file.length();
+    final String range = request.getHeader("Range");
+    final String ifRange = request.getHeader("If-Range");
+    if (!ignoringRanges && range != null && (ifRange == null || ifRange.equals(etag))) {
+      final Matcher matcher = RANGE.matcher(range);
+      if (!matcher.matches()) {
+        response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return;
+      }
+      offset = Long.parseLong(matcher.group(1));
+      length = Math.min(Long.parseLong(matcher.group(2)) + 1, file.length()) - offset;
+      response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      response.setHeader("Content-Range", "bytes " + offset + "-" + (offset + length - 1) + "/" + file.length());
+      rangedGetCount.incrementAndGet();
+    }
+    response.setHeader("Content-Length", String.valueOf(length));
+    if (!withContent) {
+      return;
+    }
+    final InputStream in = new FileInputStream(file);
+    try {
+      in.skip(offset);
+      final OutputStream out = response.getOutputStream();
+      final byte[] buffer = new byte[8192];
+      while (length > 0) {
+        final int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+        if (read == -1) {
+          break;
+        }
+        out.write(buffer, 0, read);
+        length -= read;
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+}
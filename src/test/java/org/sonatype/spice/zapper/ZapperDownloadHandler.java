@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.fs.DirectoryIOSource;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashAlgorithm;
+import org.sonatype.spice.zapper.hash.HashUtils;
+import org.sonatype.spice.zapper.internal.ChannelUtils;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.ZFileImpl;
+import org.sonatype.spice.zapper.internal.zapper.ZapperFrames;
+import org.sonatype.spice.zapper.internal.zapper.ZapperPayload;
+import org.sonatype.spice.zapper.internal.zapper.ZapperProtocol;
+import org.sonatype.spice.zapper.internal.zapper.ZapperRecipes;
+import org.sonatype.spice.zapper.internal.zapper.ZapperSegmentCreator;
+
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * Handler serving downloads of "zapper" protocol from a directory: tells it supports zapper protocol when probed,
+ * answers the download request with the recipe, and
+ * segment GETs with framed segments. Segment GETs carrying a standard "Range" header are refused, as the answer is not
+ * a partial content. Optionally corrupts the body of every served segment, or tells wrong hashes of whole files.
+ */
+public class ZapperDownloadHandler
+    extends AbstractHandler
+{
+  private final DirectoryIOSource source;
+
+  private final HashAlgorithm hashAlgorithm;
+
+  private final long maximumSegmentLength;
+
+  private final Map<String, Transfer> transfers;
+
+  private volatile boolean corrupting;
+
+  private volatile boolean misreportingHashes;
+
+  public ZapperDownloadHandler(final File root, final HashAlgorithm hashAlgorithm, final long maximumSegmentLength)
+      throws IOException
+  {
+    this.source = new DirectoryIOSource(root, hashAlgorithm);
+    this.hashAlgorithm = hashAlgorithm;
+    this.maximumSegmentLength = maximumSegmentLength;
+    this.transfers = new ConcurrentHashMap<String, Transfer>();
+  }
+
+  public void setCorrupting(final boolean corrupting) {
+    this.corrupting = corrupting;
+  }
+
+  public void setMisreportingHashes(final boolean misreportingHashes) {
+    this.misreportingHashes = misreportingHashes;
+  }
+
+  public Map<String, Transfer> getTransfers() {
+    return transfers;
+  }
+
+  public void handle(final String target, final Request baseRequest, final HttpServletRequest request,
+                     final HttpServletResponse response)
+      throws IOException, ServletException
+  {
+    if (HttpMethods.OPTIONS.equals(request.getMethod())) {
+      response.setHeader("X-Zapper-Protocols", ZapperProtocol.ID.stringValue());
+      baseRequest.setHandled(true);
+      return;
+    }
+    final String transferId = request.getHeader("X-Zapper-Transfer-ID");
+    if (transferId == null) {
+      return;
+    }
+    if (HttpMethods.PUT.equals(request.getMethod()) && "/beforeDownload".equals(target)) {
+      final List<ZFile> zfiles = new ArrayList<ZFile>();
+      for (Path path : ZapperRecipes.parseDownloadRequest(request.getInputStream())) {
+        final ZFile zfile = source.createZFile(path);
+        if (misreportingHashes) {
+          zfiles.add(new ZFileImpl(zfile.getIdentifier(), zfile.getLength(), zfile.getLastModifiedTimestamp(),
+              new Hash(hashAlgorithm.getIdentifier(), new byte[hashAlgorithm.getIdentifier().getHashSize()])));
+        }
+        else {
+          zfiles.add(zfile);
+        }
+      }
+      final Transfer transfer = new Transfer(transferId, zfiles);
+      new ZapperSegmentCreator(maximumSegmentLength).createSegments(transfer);
+      transfers.put(transferId, transfer);
+      write(response, ZapperRecipes.createRecipe(transfer));
+      baseRequest.setHandled(true);
+    }
+    else if (HttpMethods.PUT.equals(request.getMethod()) && "/afterDownload".equals(target)) {
+      transfers.remove(transferId);
+      baseRequest.setHandled(true);
+    }
+    else if (HttpMethods.GET.equals(request.getMethod()) && transfers.containsKey(transferId)) {
+      if (request.getHeader("Range") != null) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Segment GET with standard Range header");
+        baseRequest.setHandled(true);
+        return;
+      }
+      final String segmentId = request.getHeader("X-Zapper-Segment-ID");
+      final String segmentRange = request.getHeader("X-Zapper-Segment-Range");
+      for (Segment segment : transfers.get(transferId).getSegments()) {
+        if (segment.getIdentifier().stringValue().equals(segmentId)) {
+          final String expectedRange =
+              "bytes=" + segment.getOffset() + "-" + (segment.getOffset() + segment.getLength() - 1);
+          if (!expectedRange.equals(segmentRange)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unexpected segment range " + segmentRange);
+            baseRequest.setHandled(true);
+            return;
+          }
+          final ZapperPayload payload =
+              new ZapperPayload(transfers.get(transferId).getIdentifier(),
+                  segment.getZFile().getIdentifier(), segment, source, hashAlgorithm,
+                  HashUtils.getDigest(hashAlgorithm, source.readSegment(segment.getZFile().getIdentifier(), segment)),
+                  Collections.<Codec>emptyList());
+          final ByteArrayOutputStream content = new ByteArrayOutputStream();
+          payload.writeTo(ChannelUtils.newChannel(content));
+          final byte[] bytes = content.toByteArray();
+          if (corrupting) {
+            bytes[ZapperFrames.createSegmentHeader(segment).length] ^= 0x55;
+          }
+          write(response, bytes);
+          baseRequest.setHandled(true);
+          return;
+        }
+      }
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      baseRequest.setHandled(true);
+    }
+  }
+
+  // ==
+
+  private void write(final HttpServletResponse response, final byte[] bytes)
+      throws IOException
+  {
+    response.setContentLength(bytes.length);
+    response.getOutputStream().write(bytes);
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.IOException;
+
+import org.sonatype.spice.zapper.AbstractClientTest;
+import org.sonatype.spice.zapper.Client;
+import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.fs.DirectoryIOTarget;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.fail;
+
+public class Hc4AsyncClientTest
+    extends AbstractClientTest
+{
+  @Override
+  protected Client getClient(Parameters parameters, String remoteUrl) {
+    try {
+      return new Hc4AsyncClientBuilder(parameters, remoteUrl).build();
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Test
+  public void downloadNotSupported()
+      throws Exception
+  {
+    final Client client = getClient(getParametersBuilder().build(), "http://localhost:" + getPort() + "/");
+    try {
+      client.download(new DirectoryIOTarget(util.createTempDir()), new Path("some/file.bin"));
+      fail("Download should not be supported");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("does not support download"));
+    }
+    finally {
+      client.close();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.sonatype.spice.zapper.AbstractClientTest;
+import org.sonatype.spice.zapper.Client;
+import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.ParametersBuilder;
+
+import com.google.common.collect.ImmutableList;
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+public class Hc4ClientBackPressureTest
+    extends AbstractClientTest
+{
+  private final AtomicInteger putCounter = new AtomicInteger(0);
+
+  /**
+   * Adding a handler that rejects every 5th PUT with "503 Service Unavailable", hence client must retry them.
+   */
+  protected List<Handler> getHandlers() {
+    final List<Handler> handlers = super.getHandlers();
+
+    final Handler backPressureHandler = new AbstractHandler()
+    {
+      public void handle(final String target, final Request baseRequest, final HttpServletRequest request,
+                         final HttpServletResponse response)
+          throws IOException, ServletException
+      {
+        if (HttpMethods.PUT.equals(request.getMethod()) && putCounter.incrementAndGet() % 5 == 0) {
+          response.setHeader("Retry-After", "0");
+          response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+          baseRequest.setHandled(true);
+        }
+      }
+    };
+
+    return ImmutableList.<Handler>builder().add(backPressureHandler).addAll(handlers).build();
+  }
+
+  @Override
+  protected ParametersBuilder getParametersBuilder()
+      throws Exception
+  {
+    return super.getParametersBuilder().setAdaptiveTrackCount(true);
+  }
+
+  @Override
+  protected Client getClient(Parameters parameters, String remoteUrl) {
+    return new Hc4ClientBuilder(parameters, remoteUrl).build();
+  }
+}
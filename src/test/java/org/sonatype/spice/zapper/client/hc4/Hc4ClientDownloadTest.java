@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sonatype.spice.zapper.AbstractClientTest;
+import org.sonatype.spice.zapper.Client;
+import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.ParametersBuilder;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.ZapperDownloadHandler;
+import org.sonatype.spice.zapper.fs.DirectoryIOSource;
+import org.sonatype.spice.zapper.fs.DirectoryIOTarget;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+
+import com.google.common.collect.ImmutableList;
+import org.eclipse.jetty.server.Handler;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.fail;
+
+public class Hc4ClientDownloadTest
+    extends AbstractClientTest
+{
+  private final File root = new File("target/classes").getAbsoluteFile();
+
+  private ZapperDownloadHandler downloadHandler;
+
+  @Override
+  protected List<Handler> getHandlers() {
+    try {
+      // small segments, to have files segmented
+      downloadHandler = new ZapperDownloadHandler(root, new Sha1HashAlgorithm(), 1024);
+    }
+    catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+    return ImmutableList.<Handler>builder().add(downloadHandler).addAll(super.getHandlers()).build();
+  }
+
+  @Override
+  protected ParametersBuilder getParametersBuilder()
+      throws Exception
+  {
+    return super.getParametersBuilder().setMaximumTrackCount(4);
+  }
+
+  @Override
+  protected Client getClient(final Parameters parameters, final String remoteUrl) {
+    return new Hc4ClientBuilder(parameters, remoteUrl).build();
+  }
+
+  @Test
+  public void downloadedFilesSameAsRemote()
+      throws Exception
+  {
+    final List<ZFile> remote = DirectoryIOSource.builder(root).build().listFiles();
+    final List<Path> paths = new ArrayList<Path>();
+    for (ZFile zfile : remote) {
+      paths.add(zfile.getIdentifier());
+    }
+    final File targetDir = util.createTempDir();
+
+    final Client client = getClient(getParametersBuilder().build(), "http://localhost:" + getPort() + "/");
+    try {
+      client.download(new DirectoryIOTarget(targetDir), paths.toArray(new Path[paths.size()]));
+    }
+    finally {
+      client.close();
+    }
+
+    final List<ZFile> downloaded = DirectoryIOSource.builder(targetDir).build().listFiles();
+    assertThat(downloaded.size(), greaterThan(0));
+    assertThat(downloaded.size(), equalTo(remote.size()));
+    for (int i = 0; i < remote.size(); i++) {
+      assertThat(downloaded.get(i).getIdentifier(), equalTo(remote.get(i).getIdentifier()));
+      assertThat(downloaded.get(i).getHash(), equalTo(remote.get(i).getHash()));
+      assertThat(downloaded.get(i).getLastModifiedTimestamp(), equalTo(remote.get(i).getLastModifiedTimestamp()));
+    }
+    // transfer state is dropped
+    assertThat(downloadHandler.getTransfers().size(), equalTo(0));
+  }
+
+  @Test
+  public void corruptedSegmentFailsDownload()
+      throws Exception
+  {
+    downloadHandler.setCorrupting(true);
+    final File targetDir = util.createTempDir();
+
+    final Client client = getClient(getParametersBuilder().build(), "http://localhost:" + getPort() + "/");
+    try {
+      client.download(new DirectoryIOTarget(targetDir), new Path("org/sonatype/spice/zapper/Client.class"));
+      fail("Corrupted segment should fail the download");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("hash mismatch"));
+    }
+    finally {
+      client.close();
+    }
+    // partially written file is removed, with directories created for it
+    assertThat(new File(targetDir, "org/sonatype/spice/zapper/Client.class").exists(), equalTo(false));
+    assertThat(new File(targetDir, "org").exists(), equalTo(false));
+    assertThat(targetDir.isDirectory(), equalTo(true));
+  }
+
+  @Test
+  public void wholeFileHashMismatchFailsDownload()
+      throws Exception
+  {
+    // segments are intact, but assembled file is not what remote end told
+    downloadHandler.setMisreportingHashes(true);
+    final File targetDir = util.createTempDir();
+
+    final Client client = getClient(getParametersBuilder().build(), "http://localhost:" + getPort() + "/");
+    try {
+      client.download(new DirectoryIOTarget(targetDir), new Path("org/sonatype/spice/zapper/Client.class"));
+      fail("Assembled file with unexpected hash should fail the download");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("hash mismatch"));
+    }
+    finally {
+      client.close();
+    }
+    assertThat(new File(targetDir, "org").exists(), equalTo(false));
+  }
+}
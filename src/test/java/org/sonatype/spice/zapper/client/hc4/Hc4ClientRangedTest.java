@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sonatype.spice.zapper.AbstractClientTest;
+import org.sonatype.spice.zapper.Client;
+import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.ParametersBuilder;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.RangedFileHandler;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.fs.DirectoryIOSource;
+import org.sonatype.spice.zapper.fs.DirectoryIOTarget;
+
+import com.google.common.collect.ImmutableList;
+import org.eclipse.jetty.server.Handler;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.fail;
+
+/**
+ * Uploads and downloads with "ranged-file" protocol against a plain HTTP server, that tells it accepts ranges when
+ * probed.
+ */
+public class Hc4ClientRangedTest
+    extends AbstractClientTest
+{
+  private RangedFileHandler rangedFileHandler;
+
+  @Override
+  protected List<Handler> getHandlers() {
+    rangedFileHandler = new RangedFileHandler(util.createTempDir());
+    return ImmutableList.<Handler>of(rangedFileHandler);
+  }
+
+  @Override
+  protected ParametersBuilder getParametersBuilder()
+      throws Exception
+  {
+    // small segments, to have files segmented
+    return super.getParametersBuilder().setMaximumTrackCount(4).setMaximumSegmentLength(1024);
+  }
+
+  @Override
+  protected Client getClient(final Parameters parameters, final String remoteUrl) {
+    return new Hc4ClientBuilder(parameters, remoteUrl).build();
+  }
+
+  @Test
+  public void downloadedFilesSameAsUploaded()
+      throws Exception
+  {
+    final File root = new File("target/classes").getAbsoluteFile();
+    final List<ZFile> uploaded = DirectoryIOSource.builder(root).build().listFiles();
+    final List<Path> paths = new ArrayList<Path>();
+    for (ZFile zfile : uploaded) {
+      paths.add(zfile.getIdentifier());
+    }
+
+    timedUpload();
+    assertThat(rangedFileHandler.getRangedPutCount(), greaterThan(0));
+    assertThat(download(paths), equalTo(uploaded.size()));
+    assertThat(rangedFileHandler.getRangedGetCount(), greaterThan(0));
+
+    // discovered capabilities are reused by the transfers of a client, not by other clients
+    assertThat(rangedFileHandler.getProbeCount(), equalTo(2));
+
+    // server ignoring ranges has files downloaded whole
+    rangedFileHandler.setIgnoringRanges(true);
+    final int rangedGetCount = rangedFileHandler.getRangedGetCount();
+    assertThat(download(paths), equalTo(uploaded.size()));
+    assertThat(rangedFileHandler.getRangedGetCount(), equalTo(rangedGetCount));
+  }
+
+  @Test
+  public void capabilitiesProbedOnlyWhenExpired()
+      throws Exception
+  {
+    final Client client = getClient(getParametersBuilder().setHandshakeTtl(0).build(),
+        "http://localhost:" + getPort() + "/");
+    try {
+      final DirectoryIOSource source = DirectoryIOSource.builder(new File("target/classes")).build();
+      client.upload(source, new Path("org/sonatype/spice/zapper/Client.class"));
+      client.upload(source, new Path("org/sonatype/spice/zapper/Client.class"));
+    }
+    finally {
+      client.close();
+    }
+    assertThat(rangedFileHandler.getProbeCount(), equalTo(2));
+  }
+
+  @Test
+  public void uploadFailsWhenRangesNotReceived()
+      throws Exception
+  {
+    rangedFileHandler.setIgnoringContentRanges(true);
+    final Client client = getClient(getParametersBuilder().build(), "http://localhost:" + getPort() + "/");
+    try {
+      client.upload(DirectoryIOSource.builder(new File("target/classes")).build(),
+          new Path("org/sonatype/spice/zapper/internal/transport/AbstractClient.class"));
+      fail("Upload to remote end ignoring ranges should fail");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("does not receive ranges"));
+    }
+    finally {
+      client.close();
+    }
+  }
+
+  // ==
+
+  /**
+   * Downloads the paths, verifies downloaded files are same as uploaded ones, and returns their count.
+   */
+  private int download(final List<Path> paths)
+      throws Exception
+  {
+    final File targetDir = util.createTempDir();
+    final Client client = getClient(getParametersBuilder().build(), "http://localhost:" + getPort() + "/");
+    try {
+      client.download(new DirectoryIOTarget(targetDir), paths.toArray(new Path[paths.size()]));
+    }
+    finally {
+      client.close();
+    }
+
+    final List<ZFile> uploaded = DirectoryIOSource.builder(new File("target/classes")).build().listFiles();
+    final List<ZFile> downloaded = DirectoryIOSource.builder(targetDir).build().listFiles();
+    assertThat(downloaded.size(), equalTo(uploaded.size()));
+    for (int i = 0; i < uploaded.size(); i++) {
+      assertThat(downloaded.get(i).getIdentifier(), equalTo(uploaded.get(i).getIdentifier()));
+      assertThat(downloaded.get(i).getHash(), equalTo(uploaded.get(i).getHash()));
+    }
+    return downloaded.size();
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.sonatype.spice.zapper.AbstractClientTest;
+import org.sonatype.spice.zapper.AggregatingIOException;
+import org.sonatype.spice.zapper.Client;
+import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.ParametersBuilder;
+import org.sonatype.spice.zapper.fs.DirectoryIOSource;
+
+import com.google.common.collect.ImmutableList;
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.fail;
+
+public class Hc4ClientRetryTest
+    extends AbstractClientTest
+{
+  private static final String FAILING_PATH = "/org/sonatype/spice/zapper/Client.class";
+
+  private final AtomicInteger putCounter = new AtomicInteger(0);
+
+  private final Set<String> failedPaths = Collections.synchronizedSet(new HashSet<String>());
+
+  private final AtomicInteger failingPathCounter = new AtomicInteger(0);
+
+  private volatile boolean failingPathFails;
+
+  /**
+   * Adding a handler that fails every 4th PUT with "500 Internal Server Error" (but same path only once), hence client
+   * must retry them. If told so, it fails every PUT of failing path instead.
+   */
+  @Override
+  protected List<Handler> getHandlers() {
+    final List<Handler> handlers = super.getHandlers();
+
+    final Handler failingHandler = new AbstractHandler()
+    {
+      public void handle(final String target, final Request baseRequest, final HttpServletRequest request,
+                         final HttpServletResponse response)
+          throws IOException, ServletException
+      {
+        if (!HttpMethods.PUT.equals(request.getMethod())) {
+          return;
+        }
+        if (failingPathFails) {
+          if (FAILING_PATH.equals(target)) {
+            failingPathCounter.incrementAndGet();
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            baseRequest.setHandled(true);
+          }
+        }
+        else if (putCounter.incrementAndGet() % 4 == 0 && failedPaths.add(target)) {
+          response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+          baseRequest.setHandled(true);
+        }
+      }
+    };
+
+    return ImmutableList.<Handler>builder().add(failingHandler).addAll(handlers).build();
+  }
+
+  @Override
+  protected ParametersBuilder getParametersBuilder()
+      throws Exception
+  {
+    return super.getParametersBuilder().setRetryBackOff(10L);
+  }
+
+  @Override
+  protected Client getClient(Parameters parameters, String remoteUrl) {
+    return new Hc4ClientBuilder(parameters, remoteUrl).build();
+  }
+
+  @Test
+  public void failedPayloadsRetried()
+      throws Exception
+  {
+    final Client client =
+        getClient(getParametersBuilder().setMaximumRetryCount(2).build(), "http://localhost:" + getPort() + "/");
+    try {
+      client.upload(new DirectoryIOSource(new File("target/classes")));
+    }
+    finally {
+      client.close();
+    }
+    // payloads failed once, and were sent again
+    assertThat(failedPaths.size(), greaterThan(0));
+    assertThat(putCounter.get(), greaterThan(failedPaths.size()));
+  }
+
+  @Test
+  public void payloadFailingBeyondBudgetFailsTransferOnly()
+      throws Exception
+  {
+    failingPathFails = true;
+    final Client client =
+        getClient(getParametersBuilder().setMaximumRetryCount(2).build(), "http://localhost:" + getPort() + "/");
+    try {
+      client.upload(new DirectoryIOSource(new File("target/classes")));
+      fail("Upload should fail");
+    }
+    catch (AggregatingIOException e) {
+      assertThat(e.getMessage(), containsString("1 payloads failed"));
+      assertThat(e.getMessage(), containsString(FAILING_PATH.substring(1)));
+    }
+    finally {
+      client.close();
+    }
+    // initial send and two retries
+    assertThat(failingPathCounter.get(), equalTo(3));
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sonatype.spice.zapper.AbstractClientTest;
+import org.sonatype.spice.zapper.Client;
+import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.TrackExecutorFactory;
+import org.sonatype.spice.zapper.executor.FixedTrackExecutorFactory;
+import org.sonatype.spice.zapper.executor.PlatformTrackExecutorFactory;
+import org.sonatype.spice.zapper.fs.DirectoryIOSource;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.startsWith;
+
+/**
+ * Uploads with clients having the tracks run by given executors.
+ */
+public class Hc4ClientTrackExecutorTest
+    extends AbstractClientTest
+{
+  @Override
+  protected Client getClient(final Parameters parameters, final String remoteUrl) {
+    return new Hc4ClientBuilder(parameters, remoteUrl).build();
+  }
+
+  @Test
+  public void tracksRunByFixedExecutor()
+      throws Exception
+  {
+    assertTracksRunBy(new CountingTrackExecutorFactory(new FixedTrackExecutorFactory(4)));
+  }
+
+  @Test
+  public void tracksRunByPlatformExecutor()
+      throws Exception
+  {
+    assertTracksRunBy(new CountingTrackExecutorFactory(new PlatformTrackExecutorFactory()));
+  }
+
+  // ==
+
+  private void assertTracksRunBy(final CountingTrackExecutorFactory trackExecutorFactory)
+      throws Exception
+  {
+    final File source = util.createTempDir();
+    for (int i = 0; i < 8; i++) {
+      Files.write(new byte[1024], new File(source, "file" + i + ".bin"));
+    }
+    final Client client = getClient(getParametersBuilder().setMaximumTrackCount(4)
+        .setTrackExecutorFactory(trackExecutorFactory).build(), "http://localhost:" + getPort() + "/");
+    try {
+      client.upload(DirectoryIOSource.builder(source).build());
+    }
+    finally {
+      client.close();
+    }
+    assertThat(trackExecutorFactory.created.get(), equalTo(1));
+    assertThat(trackExecutorFactory.threadNames.size(), greaterThan(0));
+    assertThat(trackExecutorFactory.threadNames, everyItem(startsWith("zapper-track-")));
+    assertThat(trackExecutorFactory.executorService.isShutdown(), equalTo(true));
+  }
+
+  /**
+   * Counts the executors created by other factory, and records the names of threads running the tasks.
+   */
+  private static class CountingTrackExecutorFactory
+      implements TrackExecutorFactory
+  {
+    private final TrackExecutorFactory trackExecutorFactory;
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final List<String> threadNames = new CopyOnWriteArrayList<String>();
+
+    private volatile ExecutorService executorService;
+
+    private CountingTrackExecutorFactory(final TrackExecutorFactory trackExecutorFactory) {
+      this.trackExecutorFactory = trackExecutorFactory;
+    }
+
+    public ExecutorService createExecutorService() {
+      created.incrementAndGet();
+      final ExecutorService delegate = trackExecutorFactory.createExecutorService();
+      executorService = new AbstractExecutorService()
+      {
+        public void execute(final Runnable command) {
+          delegate.execute(new Runnable()
+          {
+            public void run() {
+              threadNames.add(Thread.currentThread().getName());
+              command.run();
+            }
+          });
+        }
+
+        public void shutdown() {
+          delegate.shutdown();
+        }
+
+        public List<Runnable> shutdownNow() {
+          return delegate.shutdownNow();
+        }
+
+        public boolean isShutdown() {
+          return delegate.isShutdown();
+        }
+
+        public boolean isTerminated() {
+          return delegate.isTerminated();
+        }
+
+        public boolean awaitTermination(final long timeout, final TimeUnit unit)
+            throws InterruptedException
+        {
+          return delegate.awaitTermination(timeout, unit);
+        }
+      };
+      return executorService;
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.codec.GzipCodec;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.MessagePayload;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+
+import com.google.common.io.ByteStreams;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class PayloadContentProducerTest
+    extends TestSupport
+{
+  private QueueExecutor executor;
+
+  private IOControl ioctrl;
+
+  private byte[] content;
+
+  @Before
+  public void prepare() {
+    executor = new QueueExecutor();
+    ioctrl = mock(IOControl.class);
+    content = new byte[100000];
+    new Random(1).nextBytes(content);
+  }
+
+  @Test
+  public void contentNotReadByReactor()
+      throws Exception
+  {
+    final CountingPayload payload = new CountingPayload(content);
+    final PayloadContentProducer producer =
+        new PayloadContentProducer(payload, Collections.<Codec>emptyList(), executor);
+    final ChannelEncoder encoder = new ChannelEncoder(Integer.MAX_VALUE);
+
+    producer.produceContent(encoder, ioctrl);
+    // nothing pending, reactor is not blocked on reading, but waits for the fill task
+    assertThat(payload.opened, equalTo(0));
+    assertThat(encoder.written.size(), equalTo(0));
+    assertThat(executor.tasks.size(), equalTo(1));
+    verify(ioctrl).suspendOutput();
+    verify(ioctrl, never()).requestOutput();
+
+    executor.runOne();
+    assertThat(payload.opened, equalTo(1));
+    verify(ioctrl).requestOutput();
+    producer.produceContent(encoder, ioctrl);
+    assertThat(encoder.written.size(), equalTo(8192));
+  }
+
+  @Test
+  public void contentProducedWhileChannelFull()
+      throws Exception
+  {
+    final PayloadContentProducer producer =
+        new PayloadContentProducer(new CountingPayload(content), Collections.<Codec>emptyList(), executor);
+    // channel accepting few bytes at once
+    final ChannelEncoder encoder = new ChannelEncoder(1000);
+
+    produce(producer, encoder);
+    producer.close();
+
+    assertThat(encoder.written.toByteArray(), equalTo(content));
+  }
+
+  @Test
+  public void contentEncoded()
+      throws Exception
+  {
+    final CountingPayload payload = new CountingPayload(content);
+    final PayloadContentProducer producer =
+        new PayloadContentProducer(payload, Collections.<Codec>singletonList(new GzipCodec()), executor);
+    final ChannelEncoder encoder = new ChannelEncoder(1000);
+    assertThat(producer.getContentLength(), equalTo(-1L));
+
+    produce(producer, encoder);
+    producer.close();
+
+    final InputStream decoded = new GzipCodec().decode(new ByteArrayInputStream(encoder.written.toByteArray()));
+    assertThat(ByteStreams.toByteArray(decoded), equalTo(content));
+    assertThat(payload.closed, equalTo(true));
+  }
+
+  @Test
+  public void shortContentFails()
+      throws Exception
+  {
+    final CountingPayload payload = new CountingPayload(content)
+    {
+      @Override
+      public long getLength() {
+        return super.getLength() + 1;
+      }
+    };
+    final PayloadContentProducer producer =
+        new PayloadContentProducer(payload, Collections.<Codec>emptyList(), executor);
+    final ChannelEncoder encoder = new ChannelEncoder(Integer.MAX_VALUE);
+    try {
+      produce(producer, encoder);
+      fail("Short content should fail");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("1 bytes missing"));
+    }
+    assertThat(encoder.completed, equalTo(false));
+    assertThat(payload.closed, equalTo(true));
+  }
+
+  @Test
+  public void closeWhileFillingClosesContent()
+      throws Exception
+  {
+    final CountingPayload payload = new CountingPayload(content);
+    final PayloadContentProducer producer =
+        new PayloadContentProducer(payload, Collections.<Codec>emptyList(), executor);
+    final ChannelEncoder encoder = new ChannelEncoder(Integer.MAX_VALUE);
+    producer.produceContent(encoder, ioctrl);
+    executor.runOne();
+    producer.produceContent(encoder, ioctrl);
+
+    // request aborted while next fill task is queued
+    producer.close();
+    assertThat(payload.closed, equalTo(false));
+    executor.runOne();
+    assertThat(payload.closed, equalTo(true));
+    assertThat(encoder.written.size(), equalTo(8192));
+  }
+
+  // ==
+
+  /**
+   * Drives the producer as I/O reactor would do, running the fill tasks in between.
+   */
+  private void produce(final PayloadContentProducer producer, final ChannelEncoder encoder)
+      throws IOException
+  {
+    int rounds = 0;
+    while (!encoder.completed) {
+      producer.produceContent(encoder, ioctrl);
+      executor.runOne();
+      assertThat("Too many rounds", ++rounds < 10000);
+    }
+  }
+
+  private static class QueueExecutor
+      implements Executor
+  {
+    private final List<Runnable> tasks = new LinkedList<Runnable>();
+
+    public void execute(final Runnable command) {
+      tasks.add(command);
+    }
+
+    private void runOne() {
+      if (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+  }
+
+  private static class ChannelEncoder
+      implements ContentEncoder
+  {
+    private final int maximumWrite;
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    private boolean completed;
+
+    private ChannelEncoder(final int maximumWrite) {
+      this.maximumWrite = maximumWrite;
+    }
+
+    public int write(final ByteBuffer src) {
+      assertThat("Write after complete", !completed);
+      final int l = Math.min(src.remaining(), maximumWrite);
+      final byte[] bytes = new byte[l];
+      src.get(bytes);
+      written.write(bytes, 0, l);
+      return l;
+    }
+
+    public void complete() {
+      completed = true;
+    }
+
+    public boolean isCompleted() {
+      return completed;
+    }
+  }
+
+  private static class CountingPayload
+      extends MessagePayload
+  {
+    private int opened;
+
+    private boolean closed;
+
+    private CountingPayload(final byte[] content) {
+      super(new TransferIdentifier("transfer"), new Path("file.bin"), content,
+          new Hash(Sha1HashAlgorithm.ID, new byte[Sha1HashAlgorithm.ID.getHashSize()]),
+          Collections.<Codec>emptyList());
+    }
+
+    @Override
+    public InputStream getContent()
+        throws IOException
+    {
+      opened++;
+      return new ByteArrayInputStream(getMessage())
+      {
+        @Override
+        public void close() {
+          closed = true;
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.client.hc4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.ParametersBuilder;
+import org.sonatype.spice.zapper.fs.DirectoryIOSource;
+import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.hawtbuf.SegmentFooter;
+import org.sonatype.spice.zapper.internal.hawtbuf.SegmentHeader;
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+import org.sonatype.spice.zapper.internal.zapper.ZapperProtocol;
+import org.sonatype.spice.zapper.scheduler.FifoPayloadScheduler;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TrackEntityTest
+    extends TestSupport
+{
+  @Test
+  public void streamsFramedPayloads()
+      throws Exception
+  {
+    final File root = util.createTempDir();
+    writeFile(new File(root, "a.bin"), 3000);
+    writeFile(new File(root, "b.bin"), 5000);
+    final Parameters parameters = ParametersBuilder.defaults().setMaximumSegmentLength(2048).build();
+    final DirectoryIOSource source = new DirectoryIOSource(root, parameters.getHashAlgorithm());
+    final ZapperProtocol protocol = new ZapperProtocol(parameters);
+    final Transfer transfer = new Transfer("T", source.listFiles());
+    final int segmentCount = protocol.getSegmentCreator().createSegments(transfer);
+    protocol.getPayloadCreator().createPayloads(transfer, source, "http://localhost/");
+
+    final TrackEntity entity =
+        new TrackEntity(transfer.getPayloadSupplier(new FifoPayloadScheduler(), 1), new TrackIdentifier("T1"));
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.writeTo(out);
+    assertThat(entity.getPayloadCount(), equalTo(segmentCount));
+
+    final InputStream in = new ByteArrayInputStream(out.toByteArray());
+    int segments = 0;
+    long bodyLength = 0;
+    while (in.available() > 0) {
+      final SegmentHeader header = SegmentHeader.parseFramed(in);
+      assertThat(in.skip(header.getSegmentLength()), equalTo(header.getSegmentLength()));
+      SegmentFooter.parseFramed(in);
+      segments++;
+      bodyLength += header.getSegmentLength();
+    }
+    assertThat(segments, equalTo(segmentCount));
+    assertThat(bodyLength, equalTo(8000L));
+  }
+
+  // ==
+
+  private void writeFile(final File file, final int length)
+      throws Exception
+  {
+    final FileOutputStream fos = new FileOutputStream(file);
+    try {
+      for (int i = 0; i < length; i++) {
+        fos.write(i % 251);
+      }
+    }
+    finally {
+      fos.close();
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.internal.lz4.Lz4Blocks;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Compares codecs compressing typical artifact content: the class files of Zapper itself, as a jar carries them. Runs
+ * only if asked for, with {@code -Dzapper.benchmark=true}.
+ */
+public class CodecBenchmarkTest
+    extends TestSupport
+{
+  private static final int ROUNDS = 10;
+
+  private byte[] content;
+
+  @Before
+  public void collectContent()
+      throws Exception
+  {
+    Assume.assumeTrue(Boolean.getBoolean("zapper.benchmark"));
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    collect(new File(util.getTargetDir(), "classes"), out);
+    content = out.toByteArray();
+  }
+
+  @Test
+  public void gzip()
+      throws Exception
+  {
+    benchmark("gzip(6)", new GzipCodec());
+  }
+
+  @Test
+  public void gzipFastest()
+      throws Exception
+  {
+    benchmark("gzip(1)", new GzipCodec(Deflater.BEST_SPEED));
+  }
+
+  @Test
+  public void lz4()
+      throws Exception
+  {
+    benchmark("lz4(1)", new Lz4Codec());
+  }
+
+  @Test
+  public void lz4Best()
+      throws Exception
+  {
+    benchmark("lz4(" + Lz4Blocks.MAXIMUM_LEVEL + ")", new Lz4Codec(Lz4Blocks.MAXIMUM_LEVEL));
+  }
+
+  // ==
+
+  private void benchmark(final String name, final Codec codec)
+      throws Exception
+  {
+    // we run it a few times first to avoid any "warmup" problems
+    byte[] encoded = null;
+    for (int i = 0; i < ROUNDS; i++) {
+      encoded = encode(codec);
+      decode(codec, encoded);
+    }
+    final long started = System.nanoTime();
+    for (int i = 0; i < ROUNDS; i++) {
+      encoded = encode(codec);
+    }
+    final long encodeNanos = System.nanoTime() - started;
+    final long decodeStarted = System.nanoTime();
+    byte[] decoded = null;
+    for (int i = 0; i < ROUNDS; i++) {
+      decoded = decode(codec, encoded);
+    }
+    final long decodeNanos = System.nanoTime() - decodeStarted;
+    assertThat(decoded, equalTo(content));
+    logger.info(String.format("%s: %s bytes to %.1f%%, encoded %.0f MB/s, decoded %.0f MB/s", name,
+        content.length, 100.0 * encoded.length / content.length, megabytesPerSecond(encodeNanos),
+        megabytesPerSecond(decodeNanos)));
+  }
+
+  private byte[] encode(final Codec codec)
+      throws Exception
+  {
+    final ByteArrayOutputStream result = new ByteArrayOutputStream(content.length);
+    final OutputStream out = codec.encode(result);
+    out.write(content);
+    out.close();
+    return result.toByteArray();
+  }
+
+  private byte[] decode(final Codec codec, final byte[] encoded)
+      throws Exception
+  {
+    final ByteArrayOutputStream result = new ByteArrayOutputStream(content.length);
+    ByteStreams.copy(codec.decode(new ByteArrayInputStream(encoded)), result);
+    return result.toByteArray();
+  }
+
+  private double megabytesPerSecond(final long nanos) {
+    return (double) content.length * ROUNDS / (1024 * 1024) / (nanos / 1000000000.0);
+  }
+
+  private static void collect(final File file, final OutputStream out)
+      throws Exception
+  {
+    if (file.isDirectory()) {
+      for (File child : file.listFiles()) {
+        collect(child, out);
+      }
+    }
+    else {
+      Files.copy(file, out);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.internal.lz4.Lz4Blocks;
+import org.sonatype.spice.zapper.internal.lz4.XxHash32;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+public class Lz4CodecTest
+    extends TestSupport
+{
+  @Test
+  public void xxHashOfKnownInputs() {
+    assertThat(XxHash32.hash(new byte[0], 0, 0, 0), equalTo(0x02CC5D05));
+    assertThat(XxHash32.hash("abc".getBytes(), 0, 3, 0), equalTo(0x32D153FF));
+  }
+
+  @Test
+  public void emptyContentRoundTrips()
+      throws Exception
+  {
+    final byte[] encoded = encode(new Lz4Codec(), new byte[0]);
+    // magic, descriptor of independent 64KB blocks and it's checksum, end mark
+    assertThat(encoded, equalTo(new byte[] {4, 34, 77, 24, 96, 64, -126, 0, 0, 0, 0}));
+    assertThat(decode(encoded), equalTo(new byte[0]));
+  }
+
+  @Test
+  public void linkedBlocksFrameWithChecksumDecoded()
+      throws Exception
+  {
+    // empty frame as written by lz4 command line tool: linked blocks, content checksum
+    assertThat(decode(new byte[] {4, 34, 77, 24, 100, 64, -89, 0, 0, 0, 0, 5, 93, -52, 2}), equalTo(new byte[0]));
+  }
+
+  @Test
+  public void contentRoundTripsOnAllLevels()
+      throws Exception
+  {
+    final Random random = new Random();
+    final byte[] randomContent = new byte[300 * 1024];
+    random.nextBytes(randomContent);
+    final byte[] repetitiveContent = new byte[300 * 1024];
+    for (int i = 0; i < repetitiveContent.length; i++) {
+      // runs, short periods and some noise, to have overlapping and long matches
+      repetitiveContent[i] = (byte) (i % 3000 < 1000 ? 'a' : (i % 7 == 0 ? random.nextInt(4) : i % 13));
+    }
+    for (int level = Lz4Blocks.MINIMUM_LEVEL; level <= Lz4Blocks.MAXIMUM_LEVEL; level++) {
+      final Lz4Codec codec = new Lz4Codec(level);
+      assertThat(decode(encode(codec, "x".getBytes())), equalTo("x".getBytes()));
+      assertThat(decode(encode(codec, randomContent)), equalTo(randomContent));
+      final byte[] encoded = encode(codec, repetitiveContent);
+      assertThat(encoded.length, lessThan(repetitiveContent.length / 4));
+      assertThat(decode(encoded), equalTo(repetitiveContent));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void levelAboveMaximumRejected() {
+    new Lz4Codec(Lz4Blocks.MAXIMUM_LEVEL + 1);
+  }
+
+  // ==
+
+  private byte[] encode(final Codec codec, final byte[] content)
+      throws Exception
+  {
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    final OutputStream out = codec.encode(result);
+    // written in odd chunks, to cross block boundaries
+    for (int i = 0; i < content.length; i += 10007) {
+      out.write(content, i, Math.min(10007, content.length - i));
+    }
+    out.close();
+    return result.toByteArray();
+  }
+
+  private byte[] decode(final byte[] encoded)
+      throws Exception
+  {
+    return ByteStreams.toByteArray(new Lz4Codec().decode(new ByteArrayInputStream(encoded)));
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.codec;
+
+import java.io.File;
+import java.util.Random;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.fs.DirectoryIOSource;
+
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class SamplingCodecSelectorTest
+    extends TestSupport
+{
+  private final Random random = new Random();
+
+  private File root;
+
+  private DirectoryIOSource source;
+
+  private Codec gzip;
+
+  private SamplingCodecSelector selector;
+
+  @Before
+  public void prepare()
+      throws Exception
+  {
+    root = util.createTempDir();
+    source = new DirectoryIOSource(root);
+    gzip = new GzipCodec();
+    selector = new SamplingCodecSelector(MatchingCodecSelector.builder().add(".*", gzip).build());
+  }
+
+  @Test
+  public void compressibleContentEncoded()
+      throws Exception
+  {
+    assertThat(selector.selectCodecs(text("a.txt"), source), contains(gzip));
+    assertThat(selector.selectCodecs(text("a"), source), contains(gzip));
+    // decision of sampled file is remembered
+    assertThat(selector.selectCodecs(source.createZFile(new Path("a.txt"))), contains(gzip));
+  }
+
+  @Test
+  public void compressedContentNotEncoded()
+      throws Exception
+  {
+    assertThat(selector.selectCodecs(random("a.zip"), source), empty());
+    assertThat(selector.selectCodecs(random("a"), source), empty());
+  }
+
+  @Test
+  public void decisionRememberedPerExtension()
+      throws Exception
+  {
+    for (int i = 0; i < SamplingCodecSelector.DEFAULT_SAMPLES_PER_EXTENSION; i++) {
+      assertThat(selector.selectCodecs(random(i + ".JAR"), source), empty());
+      assertThat(selector.selectCodecs(text(i + ".txt"), source), contains(gzip));
+    }
+    // extensions decided, files are not sampled anymore
+    assertThat(selector.selectCodecs(text("x.jar"), source), empty());
+    assertThat(selector.selectCodecs(random("x.txt"), source), contains(gzip));
+    assertThat(selector.selectCodecs(source.createZFile(new Path("x.jar"))), empty());
+    // files without extension are always sampled
+    for (int i = 0; i < SamplingCodecSelector.DEFAULT_SAMPLES_PER_EXTENSION; i++) {
+      assertThat(selector.selectCodecs(random("bin/" + i), source), empty());
+    }
+    assertThat(selector.selectCodecs(text("bin/x"), source), contains(gzip));
+  }
+
+  @Test
+  public void nothingSelectedNotSampled()
+      throws Exception
+  {
+    final SamplingCodecSelector noop = new SamplingCodecSelector(new NoopCodecSelector());
+    assertThat(noop.selectCodecs(text("a.txt"), source), empty());
+    assertThat(noop.selectCodecs(random("a.zip"), source), empty());
+  }
+
+  @Test
+  public void extensions()
+      throws Exception
+  {
+    assertThat(selector.getExtension(zfile("a/b.Tar.GZ")), equalTo("gz"));
+    assertThat(selector.getExtension(zfile("a/.profile")), nullValue());
+    assertThat(selector.getExtension(zfile("a.b/c")), nullValue());
+    assertThat(selector.getExtension(zfile("a.")), nullValue());
+  }
+
+  // ==
+
+  private ZFile text(final String path)
+      throws Exception
+  {
+    final StringBuilder sb = new StringBuilder();
+    while (sb.length() < 64 * 1024) {
+      sb.append("Line ").append(sb.length()).append(" of some plain text that compresses well.\n");
+    }
+    return write(path, sb.toString().getBytes("UTF-8"));
+  }
+
+  private ZFile random(final String path)
+      throws Exception
+  {
+    final byte[] content = new byte[64 * 1024];
+    random.nextBytes(content);
+    return write(path, content);
+  }
+
+  private ZFile write(final String path, final byte[] content)
+      throws Exception
+  {
+    final File file = new File(root, path);
+    file.getParentFile().mkdirs();
+    Files.write(content, file);
+    return source.createZFile(new Path(path));
+  }
+
+  private ZFile zfile(final String path)
+      throws Exception
+  {
+    return write(path, new byte[1]);
+  }
+}
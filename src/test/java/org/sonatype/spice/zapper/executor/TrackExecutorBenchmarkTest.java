@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.executor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.TrackExecutorFactory;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Compares executors running many tracks blocked on (simulated) high-latency I/O. Runs only if asked for, with
+ * {@code -Dzapper.benchmark=true}.
+ */
+public class TrackExecutorBenchmarkTest
+    extends TestSupport
+{
+  private static final int TRACK_COUNT = 200;
+
+  private static final int PAYLOADS_PER_TRACK = 5;
+
+  private static final long LATENCY_MILLIS = 10;
+
+  @Before
+  public void checkEnabled() {
+    Assume.assumeTrue(Boolean.getBoolean("zapper.benchmark"));
+  }
+
+  @Test
+  public void fixed()
+      throws Exception
+  {
+    benchmark("fixed(16)", new FixedTrackExecutorFactory(16));
+  }
+
+  @Test
+  public void platform()
+      throws Exception
+  {
+    benchmark("platform", new PlatformTrackExecutorFactory());
+  }
+
+  @Test
+  public void virtual()
+      throws Exception
+  {
+    Assume.assumeTrue(VirtualTrackExecutorFactory.isAvailable());
+    benchmark("virtual", new VirtualTrackExecutorFactory());
+  }
+
+  // ==
+
+  private void benchmark(final String name, final TrackExecutorFactory trackExecutorFactory)
+      throws Exception
+  {
+    final ExecutorService executorService = trackExecutorFactory.createExecutorService();
+    try {
+      // we run it twice to avoid any "warmup" problems
+      run(executorService);
+      final long started = System.currentTimeMillis();
+      assertThat(run(executorService), equalTo(TRACK_COUNT * PAYLOADS_PER_TRACK));
+      logger.info("{}: {} tracks done in {} ms.", name, TRACK_COUNT, System.currentTimeMillis() - started);
+    }
+    finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private int run(final ExecutorService executorService)
+      throws Exception
+  {
+    final List<Callable<Integer>> tracks = new ArrayList<Callable<Integer>>(TRACK_COUNT);
+    for (int i = 0; i < TRACK_COUNT; i++) {
+      tracks.add(new Callable<Integer>()
+      {
+        public Integer call()
+            throws Exception
+        {
+          for (int p = 0; p < PAYLOADS_PER_TRACK; p++) {
+            Thread.sleep(LATENCY_MILLIS);
+          }
+          return PAYLOADS_PER_TRACK;
+        }
+      });
+    }
+    int payloads = 0;
+    for (Future<Integer> future : executorService.invokeAll(tracks)) {
+      payloads += future.get();
+    }
+    return payloads;
+  }
+}
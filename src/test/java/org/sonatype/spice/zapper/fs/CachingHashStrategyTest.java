@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashUtils;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class CachingHashStrategyTest
+    extends TestSupport
+{
+  @Test
+  public void hashesCachedAcrossInstances()
+      throws Exception
+  {
+    final File dir = util.createTempDir();
+    final File index = new File(dir, "index/hashes.idx");
+    final File file = new File(dir, "file.txt");
+    write(file, "hello");
+    final HashStrategy calculate = new CalculateHashStrategy(new Sha1HashAlgorithm());
+
+    final CachingHashStrategy first = new CachingHashStrategy(calculate, index);
+    final Hash hash = first.getHashFor(file);
+    assertThat(first.getHashFor(file), equalTo(hash));
+    assertThat(first.getMissCount(), equalTo(1L));
+    assertThat(first.getHitCount(), equalTo(1L));
+    first.flush();
+
+    final CachingHashStrategy second = new CachingHashStrategy(calculate, index);
+    assertThat(second.getHashFor(file), equalTo(hash));
+    assertThat(second.getMissCount(), equalTo(0L));
+    assertThat(second.getHitCount(), equalTo(1L));
+
+    // change length
+    write(file, "hello world");
+    final Hash changed = second.getHashFor(file);
+    assertThat(changed, equalTo(HashUtils.getDigest(new Sha1HashAlgorithm(), file)));
+    assertThat(second.getMissCount(), equalTo(1L));
+  }
+
+  // ==
+
+  private void write(final File file, final String content)
+      throws Exception
+  {
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+  }
+}
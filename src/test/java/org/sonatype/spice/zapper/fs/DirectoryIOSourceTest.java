@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.Range;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.internal.ByteBufferInputStream;
+import org.sonatype.spice.zapper.internal.ChannelUtils;
+import org.sonatype.spice.zapper.internal.RangeImpl;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.fail;
+
+public class DirectoryIOSourceTest
+    extends TestSupport
+{
+  @Test
+  public void parallelListingSameAsSequential()
+      throws Exception
+  {
+    final File root = util.resolveFile("target/classes");
+    final List<ZFile> sequential = DirectoryIOSource.builder(root).build().listFiles();
+    final List<ZFile> parallel = DirectoryIOSource.builder(root).setScanThreadCount(4).build().listFiles();
+
+    assertThat(sequential.size(), greaterThan(0));
+    assertThat(parallel.size(), equalTo(sequential.size()));
+    for (int i = 0; i < sequential.size(); i++) {
+      assertThat(parallel.get(i).getIdentifier(), equalTo(sequential.get(i).getIdentifier()));
+      assertThat(parallel.get(i).getHash(), equalTo(sequential.get(i).getHash()));
+    }
+  }
+
+  @Test
+  public void filesOutsideRootRejected()
+      throws Exception
+  {
+    final File parent = util.createTempDir();
+    final File root = new File(parent, "root");
+    root.mkdirs();
+    // sibling having name prefixed by root name
+    new File(parent, "root2").mkdirs();
+    final AbstractDirectory directory = new AbstractDirectory(root);
+    assertThat(directory.getFile(new Path("a/b.jar")), equalTo(new File(root, "a/b.jar").getAbsoluteFile()));
+    assertThat(directory.isWithinRoot(new File(parent, "root2/b.jar")), equalTo(false));
+    assertThat(directory.isWithinRoot(new File(root, "a/../../root2/b.jar")), equalTo(false));
+    assertThat(directory.isWithinRoot(root), equalTo(false));
+    try {
+      new Path("a/../../root2/b.jar");
+      fail("Path should not escape");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void transferredSegmentSameAsRead()
+      throws Exception
+  {
+    final File root = util.createTempDir();
+    final byte[] content = new byte[3 * ChannelUtils.BUFFER_SIZE + 17];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i % 251);
+    }
+    final FileOutputStream fos = new FileOutputStream(new File(root, "file.bin"));
+    fos.write(content);
+    fos.close();
+    final DirectoryIOSource source = DirectoryIOSource.builder(root).build();
+    final Path path = new Path("file.bin");
+    final Range range = new RangeImpl(1000, 2 * ChannelUtils.BUFFER_SIZE + 5);
+    final byte[] expected = readFully(source.readSegment(path, range));
+    assertThat(expected.length, equalTo((int) range.getLength()));
+
+    // to a stream: copied using buffers
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertThat(source.transferSegment(path, range, ChannelUtils.newChannel(out)), equalTo(range.getLength()));
+    assertThat(out.toByteArray(), equalTo(expected));
+
+    // to a file: transferred by FileChannel.transferTo
+    final File target = new File(root, "target.bin");
+    final RandomAccessFile raf = new RandomAccessFile(target, "rw");
+    try {
+      final FileChannel channel = raf.getChannel();
+      assertThat(source.transferSegment(path, range, channel), equalTo(range.getLength()));
+    }
+    finally {
+      raf.close();
+    }
+    assertThat(readFully(source.readSegment(new Path("target.bin"), new RangeImpl(0, target.length()))),
+        equalTo(expected));
+  }
+
+  @Test
+  public void mappedSegmentsSameAsRead()
+      throws Exception
+  {
+    final File root = util.createTempDir();
+    final byte[] content = new byte[10000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i % 251);
+    }
+    final FileOutputStream fos = new FileOutputStream(new File(root, "file.bin"));
+    fos.write(content);
+    fos.close();
+    final Path path = new Path("file.bin");
+    final DirectoryIOSource plain = DirectoryIOSource.builder(root).build();
+    final DirectoryIOSource mapped =
+        DirectoryIOSource.builder(root).setMappingThreshold(0).setMaximumMappedBytes(6000).build();
+
+    // more segments than fits into mapped bytes, and some of them twice, to have them evicted and mapped again
+    final long[] offsets = {0, 3000, 6000, 0, 9000, 3000};
+    for (long offset : offsets) {
+      final Range range = new RangeImpl(offset, Math.min(3000, content.length - offset));
+      final InputStream in = mapped.readSegment(path, range);
+      assertThat(in, instanceOf(ByteBufferInputStream.class));
+      assertThat(readFully(in), equalTo(readFully(plain.readSegment(path, range))));
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      mapped.transferSegment(path, range, ChannelUtils.newChannel(out));
+      assertThat(out.toByteArray(), equalTo(readFully(plain.readSegment(path, range))));
+    }
+
+    // segment longer than mapped bytes is read
+    final Range whole = new RangeImpl(0, content.length);
+    final InputStream in = mapped.readSegment(path, whole);
+    assertThat(in, not(instanceOf(ByteBufferInputStream.class)));
+    assertThat(readFully(in), equalTo(content));
+    mapped.close(true);
+  }
+
+  // ==
+
+  private byte[] readFully(final InputStream in)
+      throws Exception
+  {
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    }
+    finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.ZFileImpl;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.fail;
+
+public class DirectoryIOTargetTest
+    extends TestSupport
+{
+  @Test(timeout = 10000L)
+  public void copyOfShortSourceFails()
+      throws Exception
+  {
+    final File root = util.createTempDir();
+    final DirectoryIOTarget target = new DirectoryIOTarget(root);
+    final Hash hash = new Hash(Sha1HashAlgorithm.ID, new byte[Sha1HashAlgorithm.ID.getHashSize()]);
+    final ZFile source = new ZFileImpl(new Path("source.bin"), 10, 0, hash);
+    final ZFile copy = new ZFileImpl(new Path("copy.bin"), 10, 0, hash);
+    target.initializeZFile(source);
+    target.initializeZFile(copy);
+
+    // source truncated meanwhile
+    final RandomAccessFile raf = new RandomAccessFile(new File(root, "source.bin"), "rw");
+    try {
+      raf.setLength(5);
+    }
+    finally {
+      raf.close();
+    }
+    try {
+      target.copyZFile(source, copy);
+      fail("Copy of short source should fail");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("copied 5 of 10 bytes"));
+    }
+  }
+
+  @Test
+  public void copyOfNotInitializedFileFails()
+      throws Exception
+  {
+    final DirectoryIOTarget target = new DirectoryIOTarget(util.createTempDir());
+    final Hash hash = new Hash(Sha1HashAlgorithm.ID, new byte[Sha1HashAlgorithm.ID.getHashSize()]);
+    final ZFile source = new ZFileImpl(new Path("source.bin"), 10, 0, hash);
+    final ZFile copy = new ZFileImpl(new Path("copy.bin"), 10, 0, hash);
+    target.initializeZFile(copy);
+    try {
+      target.copyZFile(source, copy);
+      fail("Copy of not initialized source should fail");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("File source.bin not initialized"));
+    }
+  }
+}
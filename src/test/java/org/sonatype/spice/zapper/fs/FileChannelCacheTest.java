@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class FileChannelCacheTest
+    extends TestSupport
+{
+  private File[] files;
+
+  @Before
+  public void prepare()
+      throws Exception
+  {
+    final File root = util.createTempDir();
+    files = new File[3];
+    for (int i = 0; i < files.length; i++) {
+      files[i] = new File(root, "file" + i + ".bin");
+      final FileOutputStream fos = new FileOutputStream(files[i]);
+      fos.write(new byte[]{(byte) i, (byte) i});
+      fos.close();
+    }
+  }
+
+  @Test
+  public void channelsAreSharedAndBounded()
+      throws Exception
+  {
+    final FileChannelCache cache = new FileChannelCache(2);
+    final FileChannelCache.Handle h1 = cache.acquire(files[0]);
+    final FileChannelCache.Handle h2 = cache.acquire(files[0]);
+    assertThat(h2.getChannel(), sameInstance(h1.getChannel()));
+    assertThat(cache.getOpenFileCount(), equalTo(1));
+
+    // file0 is eldest and is evicted, but is still in use, so stays open until released
+    cache.acquire(files[1]).release();
+    cache.acquire(files[2]).release();
+    assertThat(cache.getOpenFileCount(), equalTo(2));
+    assertThat(h1.getChannel().isOpen(), equalTo(true));
+    assertThat(read(h1.getChannel(), 1), equalTo((byte) 0));
+    h1.release();
+    assertThat(h2.getChannel().isOpen(), equalTo(true));
+    h2.release();
+    assertThat(h2.getChannel().isOpen(), equalTo(false));
+
+    // acquired again, it is opened again
+    final FileChannelCache.Handle h3 = cache.acquire(files[0]);
+    assertThat(h3.getChannel(), not(sameInstance(h1.getChannel())));
+    assertThat(read(h3.getChannel(), 0), equalTo((byte) 0));
+
+    // clear closes idle ones immediately, and those in use once released
+    cache.clear();
+    assertThat(cache.getOpenFileCount(), equalTo(0));
+    assertThat(h3.getChannel().isOpen(), equalTo(true));
+    h3.release();
+    assertThat(h3.getChannel().isOpen(), equalTo(false));
+  }
+
+  @Test
+  public void closedChannelIsReopened()
+      throws Exception
+  {
+    final FileChannelCache cache = new FileChannelCache(2);
+    final FileChannelCache.Handle h1 = cache.acquire(files[1]);
+    // as if reading thread was interrupted
+    h1.getChannel().close();
+    final FileChannelCache.Handle h2 = cache.acquire(files[1]);
+    assertThat(h2.getChannel().isOpen(), equalTo(true));
+    assertThat(read(h2.getChannel(), 1), equalTo((byte) 1));
+    h1.release();
+    h2.release();
+    assertThat(cache.getOpenFileCount(), equalTo(1));
+    cache.clear();
+    assertThat(h2.getChannel().isOpen(), equalTo(false));
+  }
+
+  @Test
+  public void closeClosesChannelsInUse()
+      throws Exception
+  {
+    final FileChannelCache cache = new FileChannelCache(1);
+    final FileChannelCache.Handle evicted = cache.acquire(files[0]);
+    final FileChannelCache.Handle cached = cache.acquire(files[1]);
+    final FileChannelCache.Handle idle = cache.acquire(files[2]);
+    idle.release();
+    // leaked handles, never released
+    cache.close();
+    assertThat(cache.getOpenFileCount(), equalTo(0));
+    assertThat(evicted.getChannel().isOpen(), equalTo(false));
+    assertThat(cached.getChannel().isOpen(), equalTo(false));
+    assertThat(idle.getChannel().isOpen(), equalTo(false));
+  }
+
+  // ==
+
+  private byte read(final FileChannel channel, final long position)
+      throws Exception
+  {
+    final ByteBuffer buffer = ByteBuffer.allocate(1);
+    assertThat(channel.read(buffer, position), equalTo(1));
+    return buffer.get(0);
+  }
+}
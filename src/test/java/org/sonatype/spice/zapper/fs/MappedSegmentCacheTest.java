@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.MappedByteBuffer;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.internal.RangeImpl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class MappedSegmentCacheTest
+    extends TestSupport
+{
+  private File file;
+
+  private FileChannelCache channels;
+
+  @Before
+  public void prepare()
+      throws Exception
+  {
+    file = new File(util.createTempDir(), "file.bin");
+    final FileOutputStream fos = new FileOutputStream(file);
+    try {
+      fos.write(new byte[12000]);
+    }
+    finally {
+      fos.close();
+    }
+    channels = new FileChannelCache(1);
+  }
+
+  @After
+  public void cleanup() {
+    channels.close();
+  }
+
+  @Test
+  public void leastRecentlyUsedRegionsEvictedOverCap()
+      throws Exception
+  {
+    final MappedSegmentCache cache = new MappedSegmentCache(6000);
+    final MappedByteBuffer a = cache.getRegion(file, new RangeImpl(0, 3000), channels);
+    final MappedByteBuffer b = cache.getRegion(file, new RangeImpl(3000, 3000), channels);
+    assertThat(cache.getMappedBytes(), equalTo(6000L));
+
+    // a is used again, so b is the least recently used when c does not fit
+    assertThat(cache.getRegion(file, new RangeImpl(0, 3000), channels), sameInstance(a));
+    final MappedByteBuffer c = cache.getRegion(file, new RangeImpl(6000, 3000), channels);
+    assertThat(cache.getMappedBytes(), equalTo(6000L));
+    assertThat(cache.getRegion(file, new RangeImpl(6000, 3000), channels), sameInstance(c));
+    assertThat(cache.getRegion(file, new RangeImpl(0, 3000), channels), sameInstance(a));
+
+    // b is mapped again, evicting c as a was used after it
+    assertThat(cache.getRegion(file, new RangeImpl(3000, 3000), channels), not(sameInstance(b)));
+    assertThat(cache.getRegion(file, new RangeImpl(0, 3000), channels), sameInstance(a));
+    assertThat(cache.getRegion(file, new RangeImpl(6000, 3000), channels), not(sameInstance(c)));
+    assertThat(cache.getMappedBytes(), equalTo(6000L));
+  }
+
+  @Test
+  public void mappedBytesNeverOverCap()
+      throws Exception
+  {
+    final MappedSegmentCache cache = new MappedSegmentCache(5000);
+    final long[] lengths = {1000, 4000, 2500, 5000, 100, 3000, 1, 4999};
+    long offset = 0;
+    for (long length : lengths) {
+      cache.getRegion(file, new RangeImpl(offset, length), channels);
+      assertThat(cache.getMappedBytes(), lessThanOrEqualTo(5000L));
+      offset = (offset + 1000) % 6000;
+    }
+    // only last one fits along with nothing else but the one byte region
+    assertThat(cache.getMappedBytes(), equalTo(4999L + 1L));
+  }
+
+  @Test
+  public void regionsOverCapNotMappable() {
+    final MappedSegmentCache cache = new MappedSegmentCache(5000);
+    assertThat(cache.isMappable(new RangeImpl(0, 5000)), equalTo(true));
+    assertThat(cache.isMappable(new RangeImpl(0, 5001)), equalTo(false));
+  }
+
+  @Test
+  public void clearUnmapsAll()
+      throws Exception
+  {
+    final MappedSegmentCache cache = new MappedSegmentCache(6000);
+    final MappedByteBuffer a = cache.getRegion(file, new RangeImpl(0, 3000), channels);
+    cache.clear();
+    assertThat(cache.getMappedBytes(), equalTo(0L));
+    assertThat(cache.getRegion(file, new RangeImpl(0, 3000), channels), not(sameInstance(a)));
+  }
+}
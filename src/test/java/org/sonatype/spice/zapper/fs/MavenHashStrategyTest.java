@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashUtils;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class MavenHashStrategyTest
+    extends TestSupport
+{
+  /**
+   * Valid SHA1, but not the one of the file, to tell sidecar hash from calculated one.
+   */
+  private static final String SIDECAR_SHA1 = "0123456789abcdef0123456789abcdef01234567";
+
+  private File file;
+
+  private File sidecar;
+
+  private Hash calculated;
+
+  private MavenHashStrategy strategy;
+
+  @Before
+  public void prepare()
+      throws Exception
+  {
+    final File dir = util.createTempDir();
+    file = new File(dir, "artifact-1.0.jar");
+    sidecar = new File(dir, "artifact-1.0.jar.sha1");
+    write(file, "artifact content");
+    calculated = HashUtils.getDigest(new Sha1HashAlgorithm(), file);
+    strategy = new MavenHashStrategy(new Sha1HashAlgorithm());
+  }
+
+  @Test
+  public void matchingSidecarUsed()
+      throws Exception
+  {
+    // format of some tools: uppercase hash followed by file name
+    write(sidecar, SIDECAR_SHA1.toUpperCase() + "  artifact-1.0.jar\n");
+    sidecar.setLastModified(file.lastModified());
+    assertThat(strategy.getHashFor(file), equalTo(sidecarHash()));
+  }
+
+  @Test
+  public void staleSidecarIgnored()
+      throws Exception
+  {
+    write(sidecar, SIDECAR_SHA1);
+    // file changed after sidecar was written
+    sidecar.setLastModified(file.lastModified() - 10000L);
+    assertThat(strategy.getHashFor(file), equalTo(calculated));
+  }
+
+  @Test
+  public void malformedSidecarIgnored()
+      throws Exception
+  {
+    final String[] malformed = {
+        "", "not a hash", SIDECAR_SHA1.substring(1), SIDECAR_SHA1 + "8", SIDECAR_SHA1.replace('a', 'x')
+    };
+    for (String content : malformed) {
+      write(sidecar, content);
+      sidecar.setLastModified(file.lastModified());
+      assertThat(content, strategy.getHashFor(file), equalTo(calculated));
+    }
+  }
+
+  @Test
+  public void oversizedSidecarIgnored()
+      throws Exception
+  {
+    final StringBuilder content = new StringBuilder(SIDECAR_SHA1);
+    while (content.length() <= 1024) {
+      content.append(' ');
+    }
+    write(sidecar, content.toString());
+    sidecar.setLastModified(file.lastModified());
+    assertThat(strategy.getHashFor(file), equalTo(calculated));
+  }
+
+  @Test
+  public void missingSidecarCalculated()
+      throws Exception
+  {
+    assertThat(strategy.getHashFor(file), equalTo(calculated));
+  }
+
+  // ==
+
+  private Hash sidecarHash() {
+    return new Hash(Sha1HashAlgorithm.ID, HashUtils.decodeHexString(SIDECAR_SHA1));
+  }
+
+  private void write(final File file, final String content)
+      throws Exception
+  {
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.RangeImpl;
+import org.sonatype.spice.zapper.internal.ZFileImpl;
+
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+public class StagingDirectoryIOTargetTest
+    extends TestSupport
+{
+  private final Hash hash = new Hash(Sha1HashAlgorithm.ID, new byte[Sha1HashAlgorithm.ID.getHashSize()]);
+
+  private File root;
+
+  private File staging;
+
+  @Before
+  public void prepare()
+      throws Exception
+  {
+    root = util.createTempDir();
+    staging = new File(util.createTempDir(), "T1");
+    Files.write(new byte[]{1}, new File(root, "a.bin"));
+  }
+
+  @Test
+  public void replacedFilesCommitted()
+      throws Exception
+  {
+    final StagingDirectoryIOTarget target = new StagingDirectoryIOTarget(root, staging);
+    receive(target, "a.bin", (byte) 2);
+    receive(target, "b/c.bin", (byte) 3);
+    target.close(true);
+    assertThat(Files.toByteArray(new File(root, "a.bin")), equalTo(new byte[]{2}));
+    assertThat(Files.toByteArray(new File(root, "b/c.bin")), equalTo(new byte[]{3}));
+    // no backups left behind
+    assertThat(sortedList(root), equalTo(new String[]{"a.bin", "b"}));
+    assertThat(staging.exists(), equalTo(false));
+  }
+
+  @Test
+  public void failedCommitRolledBack()
+      throws Exception
+  {
+    // "z" can not be made a directory, once "a.bin" and "b/c.bin" were moved
+    Files.write(new byte[]{9}, new File(root, "z"));
+    final StagingDirectoryIOTarget target = new StagingDirectoryIOTarget(root, staging);
+    receive(target, "a.bin", (byte) 2);
+    receive(target, "b/c.bin", (byte) 3);
+    receive(target, "z/d.bin", (byte) 4);
+    try {
+      target.close(true);
+      fail("Commit should fail");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("Could not create directory"));
+    }
+    assertThat(Files.toByteArray(new File(root, "a.bin")), equalTo(new byte[]{1}));
+    assertThat(sortedList(root), equalTo(new String[]{"a.bin", "z"}));
+    assertThat(staging.exists(), equalTo(false));
+  }
+
+  // ==
+
+  private void receive(final StagingDirectoryIOTarget target, final String path, final byte content)
+      throws IOException
+  {
+    final ZFile zfile = new ZFileImpl(new Path(path), 1, 0, hash);
+    target.initializeZFile(zfile);
+    target.writeSegment(zfile, new RangeImpl(0, 1), new ByteArrayInputStream(new byte[]{content}));
+  }
+
+  private static String[] sortedList(final File dir) {
+    final String[] names = dir.list();
+    Arrays.sort(names);
+    return names;
+  }
+}
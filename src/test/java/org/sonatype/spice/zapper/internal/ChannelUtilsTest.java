@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class ChannelUtilsTest
+    extends TestSupport
+{
+  private byte[] content;
+
+  @Before
+  public void prepare() {
+    content = new byte[1000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i % 251);
+    }
+  }
+
+  @Test
+  public void transferCopiesThroughBufferOfChannel()
+      throws Exception
+  {
+    final File file = new File(util.createTempDir(), "file.bin");
+    final FileOutputStream fos = new FileOutputStream(file);
+    try {
+      fos.write(content);
+    }
+    finally {
+      fos.close();
+    }
+    // buffer shorter than content, to have it reused for several rounds
+    final byte[] buffer = new byte[300];
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      assertThat(ChannelUtils.transfer(channel, 0, content.length, ChannelUtils.newChannel(out, buffer)),
+          equalTo((long) content.length));
+    }
+    finally {
+      raf.close();
+    }
+    assertThat(out.toByteArray(), equalTo(content));
+    // last round read the last 100 bytes into the buffer
+    assertThat(Arrays.copyOf(buffer, 100), equalTo(Arrays.copyOfRange(content, 900, 1000)));
+  }
+
+  @Test
+  public void copyCopiesThroughBufferOfChannel()
+      throws Exception
+  {
+    final byte[] buffer = new byte[300];
+    // channels of a track share the buffer
+    for (int i = 0; i < 2; i++) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertThat(ChannelUtils.copy(new ByteArrayInputStream(content), ChannelUtils.newChannel(out, buffer),
+          content.length), equalTo((long) content.length));
+      assertThat(out.toByteArray(), equalTo(content));
+      assertThat(Arrays.copyOf(buffer, 100), equalTo(Arrays.copyOfRange(content, 900, 1000)));
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.fs.DirectoryIOSource;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashAlgorithm;
+import org.sonatype.spice.zapper.hash.HashUtils;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.zapper.ZapperPayload;
+import org.sonatype.spice.zapper.internal.zapper.ZapperSegmentCreator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class TransferJournalTest
+    extends TestSupport
+{
+  private HashAlgorithm hashAlgorithm;
+
+  private DirectoryIOSource source;
+
+  private List<ZFile> zfiles;
+
+  private File directory;
+
+  @Before
+  public void prepare()
+      throws Exception
+  {
+    hashAlgorithm = new Sha1HashAlgorithm();
+    source = new DirectoryIOSource(new File("target/classes").getAbsoluteFile(), hashAlgorithm);
+    zfiles = Collections.singletonList(source.createZFile(new Path("org/sonatype/spice/zapper/Client.class")));
+    directory = util.createTempDir();
+  }
+
+  @Test
+  public void loadedSameAsRecorded()
+      throws Exception
+  {
+    final Transfer transfer = new Transfer("T1", zfiles);
+    new ZapperSegmentCreator(256).createSegments(transfer);
+    final TransferJournal journal = new TransferJournal(directory, "http://localhost/", zfiles, hashAlgorithm);
+    journal.begin(transfer, Collections.<SegmentIdentifier, Hash>emptyMap());
+    for (Segment segment : transfer.getSegments().subList(0, 2)) {
+      journal.segmentSent(createPayload(transfer, segment));
+    }
+    journal.close(false);
+
+    // incomplete record of a crashed process is ignored
+    final RandomAccessFile raf = new RandomAccessFile(journal.getFile(), "rw");
+    try {
+      raf.setLength(raf.length() - 3);
+    }
+    finally {
+      raf.close();
+    }
+
+    final TransferJournal loaded = new TransferJournal(directory, "http://localhost/", zfiles, hashAlgorithm);
+    final Transfer resumed = loaded.load(zfiles, 1);
+    assertThat(resumed.getIdentifier(), equalTo(transfer.getIdentifier()));
+    assertThat(resumed.getSegments().size(), equalTo(transfer.getSegments().size()));
+    for (int i = 0; i < transfer.getSegments().size(); i++) {
+      assertThat(resumed.getSegments().get(i).getIdentifier(), equalTo(transfer.getSegments().get(i).getIdentifier()));
+      assertThat(resumed.getSegments().get(i).getOffset(), equalTo(transfer.getSegments().get(i).getOffset()));
+      assertThat(resumed.getSegments().get(i).getZFile(), equalTo(zfiles.get(0)));
+    }
+    assertThat(loaded.getSentSegments().keySet(),
+        equalTo(Collections.singleton(transfer.getSegments().get(0).getIdentifier())));
+
+    // other remote URL does not find it, succeeded transfer removes it
+    assertThat(new TransferJournal(directory, "http://remote/", zfiles, hashAlgorithm).load(zfiles, 1), nullValue());
+    loaded.close(true);
+    assertThat(journal.getFile().exists(), equalTo(false));
+  }
+
+  @Test
+  public void expiredJournalsDeleted()
+      throws Exception
+  {
+    final Transfer transfer = new Transfer("T1", zfiles);
+    new ZapperSegmentCreator(256).createSegments(transfer);
+    final TransferJournal expired = new TransferJournal(directory, "http://localhost/", zfiles, hashAlgorithm);
+    expired.begin(transfer, Collections.<SegmentIdentifier, Hash>emptyMap());
+    expired.close(false);
+    final long now = System.currentTimeMillis();
+    assertThat(expired.getFile().setLastModified(now - TransferJournal.MAXIMUM_AGE - 1000L), equalTo(true));
+    final TransferJournal recent = new TransferJournal(directory, "http://remote/", zfiles, hashAlgorithm);
+    recent.begin(transfer, Collections.<SegmentIdentifier, Hash>emptyMap());
+    recent.close(false);
+    final File other = new File(directory, "other.bin");
+    assertThat(other.createNewFile() && other.setLastModified(0L), equalTo(true));
+
+    assertThat(TransferJournal.deleteExpired(directory, now - TransferJournal.MAXIMUM_AGE), equalTo(1));
+    assertThat(expired.getFile().exists(), equalTo(false));
+    assertThat(recent.getFile().exists(), equalTo(true));
+    assertThat(other.exists(), equalTo(true));
+  }
+
+  // ==
+
+  private SegmentPayload createPayload(final Transfer transfer, final Segment segment)
+      throws Exception
+  {
+    return new ZapperPayload(transfer.getIdentifier(), segment.getZFile().getIdentifier(), segment, source,
+        hashAlgorithm, HashUtils.getDigest(hashAlgorithm,
+        source.readSegment(segment.getZFile().getIdentifier(), segment)), Collections.<Codec>emptyList());
+  }
+}
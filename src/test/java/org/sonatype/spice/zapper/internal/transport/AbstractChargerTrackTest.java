@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.Payload;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.SegmentIdentifier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.ZFileImpl;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.mock;
+
+public class AbstractChargerTrackTest
+    extends TestSupport
+{
+  @Test
+  public void permitNotHeldWhileWaitingForPayload()
+      throws Exception
+  {
+    final CountingConcurrencyLimiter limiter = new CountingConcurrencyLimiter();
+    final RetryingPayloadSupplier supplier = new RetryingPayloadSupplier(new SinglePayloadSupplier(limiter), 1, 50L,
+        50L);
+    final AbstractChargerTrack track = new AbstractChargerTrack(new TrackIdentifier("T1"), supplier, limiter)
+    {
+      private boolean failed;
+
+      @Override
+      protected State upload(final Payload payload)
+          throws IOException
+      {
+        assertThat(limiter.held.get(), equalTo(1));
+        if (!failed) {
+          failed = true;
+          throw new IOException("Failing once");
+        }
+        return State.SUCCESS;
+      }
+    };
+
+    // payload fails, and track waits for it's back-off to send it again
+    assertThat(track.call(), equalTo(State.SUCCESS));
+    supplier.checkFailures();
+    assertThat(limiter.acquired.get(), equalTo(2));
+    assertThat(limiter.heldWhileGettingPayload.get(), equalTo(0));
+    assertThat(limiter.held.get(), equalTo(0));
+  }
+
+  // ==
+
+  /**
+   * Limiter counting the permits held.
+   */
+  private static class CountingConcurrencyLimiter
+      implements ConcurrencyLimiter
+  {
+    private final AtomicInteger held = new AtomicInteger(0);
+
+    private final AtomicInteger acquired = new AtomicInteger(0);
+
+    private final AtomicInteger heldWhileGettingPayload = new AtomicInteger(0);
+
+    public void acquire() {
+      held.incrementAndGet();
+      acquired.incrementAndGet();
+    }
+
+    public void release(final long bytes, final long nanos) {
+      held.decrementAndGet();
+    }
+
+    public boolean backOff(final long retryAfterMillis) {
+      return false;
+    }
+  }
+
+  /**
+   * Supplies one payload, recording the permits held while payloads are asked for.
+   */
+  private static class SinglePayloadSupplier
+      implements PayloadSupplier
+  {
+    private final CountingConcurrencyLimiter limiter;
+
+    private SegmentPayload payload;
+
+    private SinglePayloadSupplier(final CountingConcurrencyLimiter limiter)
+        throws IOException
+    {
+      this.limiter = limiter;
+      final Hash hash = new Hash(Sha1HashAlgorithm.ID, new byte[Sha1HashAlgorithm.ID.getHashSize()]);
+      final Path path = new Path("file");
+      final ZFile zfile = new ZFileImpl(path, 10, 0, hash);
+      this.payload = new SegmentPayload(new TransferIdentifier("T"), path,
+          new Segment(0, 10, zfile, new SegmentIdentifier("S1")), mock(IOSource.class), hash,
+          Collections.<Codec>emptyList());
+    }
+
+    public synchronized SegmentPayload getNextPayload(final TrackIdentifier trackIdentifier) {
+      // retrying supplier asks before waiting for the back-off
+      limiter.heldWhileGettingPayload.set(Math.max(limiter.heldWhileGettingPayload.get(), limiter.held.get()));
+      final SegmentPayload result = payload;
+      payload = null;
+      return result;
+    }
+
+    public void payloadSent(final TrackIdentifier trackIdentifier, final SegmentPayload payload) {
+      // nothing to do
+    }
+
+    public boolean payloadFailed(final TrackIdentifier trackIdentifier, final SegmentPayload payload,
+                                 final IOException failure)
+    {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Collections;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.ParametersBuilder;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.codec.GzipCodec;
+import org.sonatype.spice.zapper.codec.Lz4Codec;
+import org.sonatype.spice.zapper.codec.MatchingCodecSelector;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.Payload;
+import org.sonatype.spice.zapper.internal.Protocol;
+import org.sonatype.spice.zapper.internal.ProtocolIdentifier;
+import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.ZFileImpl;
+import org.sonatype.spice.zapper.internal.ranged.RangedZFileProtocol;
+import org.sonatype.spice.zapper.internal.wholefile.WholeZFileProtocol;
+import org.sonatype.spice.zapper.internal.zapper.ZapperProtocol;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Handshake of {@link AbstractClient}: caching of remote capabilities, and choice of protocol and codecs.
+ */
+public class AbstractClientHandshakeTest
+    extends TestSupport
+{
+  private static final RemoteCapabilities ZAPPER = new RemoteCapabilities(
+      Collections.singleton(ZapperProtocol.ID), false, Collections.singleton(GzipCodec.ID));
+
+  private static final RemoteCapabilities RANGES =
+      new RemoteCapabilities(Collections.<ProtocolIdentifier>emptySet(), true, null);
+
+  @Test
+  public void capabilitiesCachedForTtl()
+      throws Exception
+  {
+    final ProbingClient client = new ProbingClient(ParametersBuilder.defaults().setHandshakeTtl(200L).build(),
+        RemoteCapabilities.PLAIN);
+    client.handshake();
+    client.handshake();
+    assertThat(client.probes, equalTo(1));
+    Thread.sleep(300L);
+    client.handshake();
+    assertThat(client.probes, equalTo(2));
+  }
+
+  @Test
+  public void capabilitiesNotCachedWithZeroTtl()
+      throws Exception
+  {
+    final ProbingClient client =
+        new ProbingClient(ParametersBuilder.defaults().setHandshakeTtl(0L).build(), RemoteCapabilities.PLAIN);
+    client.handshake();
+    client.handshake();
+    assertThat(client.probes, equalTo(2));
+  }
+
+  @Test
+  public void capabilitiesNotSharedByClients()
+      throws Exception
+  {
+    final Parameters parameters = ParametersBuilder.defaults().build();
+    final ProbingClient client1 = new ProbingClient(parameters, RemoteCapabilities.PLAIN);
+    final ProbingClient client2 = new ProbingClient(parameters, ZAPPER);
+    assertThat(client1.handshake().getIdentifier(), equalTo(WholeZFileProtocol.ID));
+    assertThat(client2.handshake().getIdentifier(), equalTo(ZapperProtocol.ID));
+    assertThat(client1.probes, equalTo(1));
+    assertThat(client2.probes, equalTo(1));
+  }
+
+  @Test
+  public void protocolChosenByCapabilities()
+      throws Exception
+  {
+    final Parameters parameters = ParametersBuilder.defaults().build();
+    assertThat(new ProbingClient(parameters, ZAPPER).handshake().getIdentifier(), equalTo(ZapperProtocol.ID));
+    assertThat(new ProbingClient(parameters, RANGES).handshake().getIdentifier(), equalTo(RangedZFileProtocol.ID));
+    assertThat(new ProbingClient(parameters, RemoteCapabilities.PLAIN).handshake().getIdentifier(),
+        equalTo(WholeZFileProtocol.ID));
+    assertThat(new ProbingClient(parameters, ZAPPER).handshakeDownload().getIdentifier(),
+        equalTo(ZapperProtocol.ID));
+    assertThat(new ProbingClient(parameters, RemoteCapabilities.PLAIN).handshakeDownload().getIdentifier(),
+        equalTo(RangedZFileProtocol.ID));
+  }
+
+  @Test
+  public void codecsRestrictedToAcceptedOnes()
+      throws Exception
+  {
+    final Parameters parameters = ParametersBuilder.defaults().setMaximumTrackCount(3).setHandshakeTtl(1000L)
+        .setJournalDirectory(new File("journal")).setDeltaBlockLength(1024).setCodecSelector(
+            MatchingCodecSelector.builder().add(".*\\.txt", new GzipCodec()).add(".*\\.jar", new Lz4Codec())
+                .build()).build();
+    final ZFile text = zfile("readme.txt");
+    final ZFile jar = zfile("artifact.jar");
+
+    // remote end accepting gzip only
+    final Parameters accepted = ((ZapperProtocol) new ProbingClient(parameters, ZAPPER).handshake()).getParameters();
+    assertThat(accepted.getCodecSelector().selectCodecs(text).get(0).getIdentifier(), equalTo(GzipCodec.ID));
+    assertThat(accepted.getCodecSelector().selectCodecs(jar), empty());
+    // all the rest is kept
+    assertThat(accepted.getMaximumTrackCount(), equalTo(3));
+    assertThat(accepted.getHandshakeTtl(), equalTo(1000L));
+    assertThat(accepted.getJournalDirectory(), equalTo(new File("journal")));
+    assertThat(accepted.getDeltaBlockLength(), equalTo(1024));
+    assertThat(accepted.getPayloadScheduler(), sameInstance(parameters.getPayloadScheduler()));
+
+    // remote end not telling the codecs it accepts
+    final Parameters unknown = ((RangedZFileProtocol) new ProbingClient(parameters, RANGES).handshake())
+        .getParameters();
+    assertThat(unknown, sameInstance(parameters));
+    assertThat(unknown.getCodecSelector().selectCodecs(jar).get(0).getIdentifier(), equalTo(Lz4Codec.ID));
+  }
+
+  // ==
+
+  private ZFile zfile(final String path) {
+    final Hash hash = new Hash(Sha1HashAlgorithm.ID, new byte[Sha1HashAlgorithm.ID.getHashSize()]);
+    return new ZFileImpl(new Path(path), 10, 0, hash);
+  }
+
+  private static class ProbingClient
+      extends AbstractClient<Track>
+  {
+    private final RemoteCapabilities capabilities;
+
+    private int probes;
+
+    private ProbingClient(final Parameters parameters, final RemoteCapabilities capabilities) {
+      super(parameters, "http://localhost/");
+      this.capabilities = capabilities;
+    }
+
+    @Override
+    protected RemoteCapabilities probe() {
+      probes++;
+      return capabilities;
+    }
+
+    @Override
+    public InputStream exchange(final Payload payload) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public RemoteFile stat(final TransferIdentifier transferIdentifier, final Path path) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public State upload(final Payload payload) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public State upload(final Payload payload, final Track track) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void doUpload(final Transfer transfer, final Protocol protocol, final int trackCount) {
+      throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+    }
+  }
+}
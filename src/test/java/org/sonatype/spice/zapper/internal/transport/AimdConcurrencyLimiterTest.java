@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+public class AimdConcurrencyLimiterTest
+    extends TestSupport
+{
+  @Test
+  public void increasesUpToMaximumWhileThroughputScales()
+      throws Exception
+  {
+    final AtomicLong clock = new AtomicLong();
+    final AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(4, 1, 0)
+    {
+      @Override
+      protected long nanoTime() {
+        return clock.get();
+      }
+    };
+    for (int i = 0; i < 5; i++) {
+      // all permits send in parallel, so throughput grows with limit
+      clock.addAndGet(20000000L);
+      sendWindow(limiter, limiter.getLimit());
+    }
+    assertThat(limiter.getLimit(), equalTo(4));
+  }
+
+  @Test
+  public void decreasesOnThroughputDrop()
+      throws Exception
+  {
+    final AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(8, 8, 0);
+    sendWindow(limiter, 8);
+    assertThat(limiter.getLimit(), equalTo(8));
+    // same payloads taking way longer
+    Thread.sleep(100);
+    sendWindow(limiter, 8);
+    assertThat(limiter.getLimit(), equalTo(6));
+  }
+
+  @Test
+  public void backOffHalvesLimitAndPauses()
+      throws Exception
+  {
+    final AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(4, 4, 0);
+    limiter.acquire();
+    limiter.release(-1, 0);
+    assertThat(limiter.backOff(200), equalTo(true));
+    assertThat(limiter.getLimit(), equalTo(2));
+    final long started = System.currentTimeMillis();
+    limiter.acquire();
+    assertThat(System.currentTimeMillis() - started, greaterThanOrEqualTo(150L));
+    limiter.release(-1, 0);
+  }
+
+  // ==
+
+  private void sendWindow(final AimdConcurrencyLimiter limiter, final int count)
+      throws Exception
+  {
+    for (int i = 0; i < count; i++) {
+      limiter.acquire();
+    }
+    for (int i = 0; i < count; i++) {
+      limiter.release(1000, 1000000L);
+    }
+  }
+}
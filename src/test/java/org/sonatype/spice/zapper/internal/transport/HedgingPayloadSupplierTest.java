@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.Payload;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.SegmentIdentifier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.ZFileImpl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.mock;
+
+public class HedgingPayloadSupplierTest
+    extends TestSupport
+{
+  private static final long TIMEOUT_MILLIS = 10000L;
+
+  private final TrackIdentifier first = new TrackIdentifier("T1");
+
+  private final TrackIdentifier second = new TrackIdentifier("T2");
+
+  private SegmentPayload hedged;
+
+  private SegmentPayload other;
+
+  private ExecutorService executorService;
+
+  private final List<Payload> aborted = new CopyOnWriteArrayList<Payload>();
+
+  @Before
+  public void prepare()
+      throws Exception
+  {
+    hedged = createPayload("hedged");
+    other = createPayload("other");
+    executorService = Executors.newFixedThreadPool(2);
+  }
+
+  @After
+  public void cleanup() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void loserSendingOtherPayloadNotAborted()
+      throws Exception
+  {
+    final CountDownLatch firstSendingHedged = new CountDownLatch(1);
+    final CountDownLatch aboutToAbort = new CountDownLatch(1);
+    final CountDownLatch firstSendingOther = new CountDownLatch(1);
+    final CountDownLatch otherReleased = new CountDownLatch(1);
+    final Delegate delegate = new Delegate();
+    final HedgingPayloadSupplier supplier = new HedgingPayloadSupplier(delegate, 1L)
+    {
+      @Override
+      public SegmentPayload getNextPayload(final TrackIdentifier trackIdentifier) {
+        // second track sends only it's copy of hedged payload, and does not hedge other payload too
+        if (second.equals(trackIdentifier) && aboutToAbort.getCount() == 0) {
+          return null;
+        }
+        return super.getNextPayload(trackIdentifier);
+      }
+
+      @Override
+      protected void abort(final AbstractChargerTrack loser, final TrackIdentifier trackIdentifier,
+                           final SegmentPayload payload)
+      {
+        aboutToAbort.countDown();
+        // loser ends sending it's copy, and moves on to other payload before it is aborted
+        await(firstSendingOther);
+        super.abort(loser, trackIdentifier, payload);
+        otherReleased.countDown();
+      }
+    };
+
+    // first track sends it's copy of hedged payload until second track sent it, then sends other payload
+    final TestTrack firstTrack = new TestTrack(first, supplier)
+    {
+      @Override
+      protected State upload(final Payload payload) {
+        if (payload == hedged) {
+          firstSendingHedged.countDown();
+          await(aboutToAbort);
+        }
+        else {
+          firstSendingOther.countDown();
+          await(otherReleased);
+        }
+        return State.SUCCESS;
+      }
+    };
+    final TestTrack secondTrack = new TestTrack(second, supplier);
+    supplier.register(firstTrack);
+    supplier.register(secondTrack);
+
+    final Future<State> firstDone = executorService.submit(firstTrack);
+    await(firstSendingHedged);
+    final Future<State> secondDone = executorService.submit(secondTrack);
+    assertThat(firstDone.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), equalTo(State.SUCCESS));
+    assertThat(secondDone.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), equalTo(State.SUCCESS));
+    assertThat(aborted, empty());
+    assertThat(delegate.sent, containsInAnyOrder((Payload) hedged, other));
+  }
+
+  @Test
+  public void loserSendingHedgedPayloadAborted()
+      throws Exception
+  {
+    final CountDownLatch firstSendingHedged = new CountDownLatch(1);
+    final CountDownLatch firstAborted = new CountDownLatch(1);
+    final Delegate delegate = new Delegate();
+    final HedgingPayloadSupplier supplier = new HedgingPayloadSupplier(delegate, 1L)
+    {
+      @Override
+      public SegmentPayload getNextPayload(final TrackIdentifier trackIdentifier) {
+        // second track sends only it's copy of hedged payload, and does not hedge other payload too
+        if (second.equals(trackIdentifier) && firstAborted.getCount() == 0) {
+          return null;
+        }
+        return super.getNextPayload(trackIdentifier);
+      }
+    };
+    final TestTrack firstTrack = new TestTrack(first, supplier)
+    {
+      @Override
+      protected State upload(final Payload payload)
+          throws IOException
+      {
+        if (payload == hedged) {
+          firstSendingHedged.countDown();
+          await(firstAborted);
+          throw new IOException("Aborted");
+        }
+        return State.SUCCESS;
+      }
+
+      @Override
+      protected void abortUpload() {
+        super.abortUpload();
+        firstAborted.countDown();
+      }
+    };
+    final TestTrack secondTrack = new TestTrack(second, supplier);
+    supplier.register(firstTrack);
+    supplier.register(secondTrack);
+
+    final Future<State> firstDone = executorService.submit(firstTrack);
+    await(firstSendingHedged);
+    final Future<State> secondDone = executorService.submit(secondTrack);
+    assertThat(firstDone.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), equalTo(State.SUCCESS));
+    assertThat(secondDone.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), equalTo(State.SUCCESS));
+    assertThat(aborted, contains((Payload) hedged));
+    assertThat(delegate.sent, containsInAnyOrder((Payload) hedged, other));
+  }
+
+  @Test
+  public void payloadTimedFromSendStarted()
+      throws Exception
+  {
+    final AtomicLong clock = new AtomicLong();
+    final HedgingPayloadSupplier supplier = new HedgingPayloadSupplier(new Delegate(), 1000L)
+    {
+      @Override
+      protected long nanoTime() {
+        return clock.get();
+      }
+    };
+    assertThat(supplier.getNextPayload(first), equalTo(hedged));
+
+    // first track waits for a permit way past hedge delay: payload is not being sent yet
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(5L));
+    final Future<SegmentPayload> secondPayload = executorService.submit(new Callable<SegmentPayload>()
+    {
+      public SegmentPayload call() {
+        return supplier.getNextPayload(second);
+      }
+    });
+    Thread.sleep(200L);
+    assertThat(secondPayload.isDone(), equalTo(false));
+
+    // first track got the permit, and is sending past hedge delay
+    supplier.sendStarted(first, hedged);
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(2L));
+    assertThat(secondPayload.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), equalTo(hedged));
+  }
+
+  // ==
+
+  private static SegmentPayload createPayload(final String name)
+      throws IOException
+  {
+    final Hash hash = new Hash(Sha1HashAlgorithm.ID, new byte[Sha1HashAlgorithm.ID.getHashSize()]);
+    final Path path = new Path(name);
+    final ZFile zfile = new ZFileImpl(path, 10, 0, hash);
+    return new SegmentPayload(new TransferIdentifier("T"), path,
+        new Segment(0, 10, zfile, new SegmentIdentifier(name)), mock(IOSource.class), hash,
+        Collections.<Codec>emptyList());
+  }
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      if (!latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        throw new IllegalStateException("Timed out");
+      }
+    }
+    catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Track recording the payload being sent when it is aborted.
+   */
+  private class TestTrack
+      extends AbstractChargerTrack
+  {
+    private volatile Payload uploading;
+
+    private TestTrack(final TrackIdentifier identifier, final PayloadSupplier payloadSupplier) {
+      super(identifier, payloadSupplier, new NoopConcurrencyLimiter());
+    }
+
+    @Override
+    protected void send(final Payload payload)
+        throws IOException
+    {
+      uploading = payload;
+      try {
+        super.send(payload);
+      }
+      finally {
+        uploading = null;
+      }
+    }
+
+    @Override
+    protected void abortUpload() {
+      aborted.add(uploading);
+    }
+
+    @Override
+    protected State upload(final Payload payload)
+        throws IOException
+    {
+      return State.SUCCESS;
+    }
+  }
+
+  /**
+   * Supplies the hedged payload to first track, and other payload to first track asking after it.
+   */
+  private class Delegate
+      implements PayloadSupplier
+  {
+    private final List<Payload> sent = new CopyOnWriteArrayList<Payload>();
+
+    private boolean hedgedSupplied;
+
+    private boolean otherSupplied;
+
+    public synchronized SegmentPayload getNextPayload(final TrackIdentifier trackIdentifier) {
+      if (!hedgedSupplied) {
+        hedgedSupplied = true;
+        return hedged;
+      }
+      if (!otherSupplied && trackIdentifier.equals(first)) {
+        otherSupplied = true;
+        return other;
+      }
+      return null;
+    }
+
+    public void payloadSent(final TrackIdentifier trackIdentifier, final SegmentPayload payload) {
+      sent.add(payload);
+    }
+
+    public boolean payloadFailed(final TrackIdentifier trackIdentifier, final SegmentPayload payload,
+                                 final IOException failure)
+    {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.transport;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.internal.transport.TrackScheduler.TransferShare;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TrackSchedulerTest
+    extends TestSupport
+{
+  private TrackScheduler trackScheduler;
+
+  @Before
+  public void prepare() {
+    trackScheduler = new TrackScheduler(6);
+  }
+
+  @After
+  public void cleanup() {
+    trackScheduler.shutdown();
+  }
+
+  @Test
+  public void budgetSharedByPriority() {
+    final TransferShare large = trackScheduler.register(6, 1, new NoopConcurrencyLimiter());
+    assertThat(large.getShare(), equalTo(6));
+
+    // small transfer is fully satisfied, large one gets the rest
+    final TransferShare small = trackScheduler.register(2, 1, new NoopConcurrencyLimiter());
+    assertThat(small.getShare(), equalTo(2));
+    assertThat(large.getShare(), equalTo(4));
+
+    // important transfer gets twice as much as large one
+    final TransferShare important = trackScheduler.register(6, 2, new NoopConcurrencyLimiter());
+    assertThat(small.getShare(), equalTo(1));
+    assertThat(large.getShare(), equalTo(2));
+    assertThat(important.getShare(), equalTo(3));
+
+    important.close();
+    small.close();
+    assertThat(large.getShare(), equalTo(6));
+  }
+
+  @Test
+  public void tracksOverShareWait()
+      throws Exception
+  {
+    final TransferShare large = trackScheduler.register(6, 1, new NoopConcurrencyLimiter());
+    for (int i = 0; i < 6; i++) {
+      large.acquire();
+    }
+    final TransferShare small = trackScheduler.register(3, 1, new NoopConcurrencyLimiter());
+    final CountDownLatch acquired = new CountDownLatch(1);
+    trackScheduler.getExecutorService().execute(new Runnable()
+    {
+      public void run() {
+        try {
+          small.acquire();
+          acquired.countDown();
+        }
+        catch (Exception e) {
+          // test fails on timeout
+        }
+      }
+    });
+    // budget is used up by large transfer
+    assertThat(acquired.await(100, TimeUnit.MILLISECONDS), equalTo(false));
+    large.release(1, 1);
+    assertThat(acquired.await(1, TimeUnit.SECONDS), equalTo(true));
+    assertThat(large.getShare(), equalTo(3));
+  }
+}
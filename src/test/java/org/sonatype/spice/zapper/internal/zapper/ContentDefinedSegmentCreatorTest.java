@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.zapper;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.fs.DirectoryIOSource;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.Transfer;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+public class ContentDefinedSegmentCreatorTest
+    extends TestSupport
+{
+  private static final int MIN_LENGTH = 256;
+
+  private static final int AVERAGE_LENGTH = 1024;
+
+  private static final int MAX_LENGTH = 8192;
+
+  @Test
+  public void insertionShiftsOnlySegmentsAroundIt()
+      throws Exception
+  {
+    final File root = util.createTempDir();
+    final File file = new File(root, "data.db");
+    final byte[] content = new byte[256 * 1024];
+    new Random().nextBytes(content);
+    Files.write(content, file);
+    final List<Segment> segments = createSegments(root, content.length);
+
+    final byte[] changed = new byte[content.length + 100];
+    System.arraycopy(content, 0, changed, 0, 100000);
+    System.arraycopy(content, 100000, changed, 100100, content.length - 100000);
+    Files.write(changed, file);
+    final List<Segment> changedSegments = createSegments(root, changed.length);
+
+    final HashSet<Hash> hashes = new HashSet<Hash>();
+    for (Segment segment : segments) {
+      hashes.add(segment.getHash());
+    }
+    int newSegments = 0;
+    for (Segment segment : changedSegments) {
+      if (!hashes.contains(segment.getHash())) {
+        newSegments++;
+      }
+    }
+    assertThat(segments.size(), greaterThan(content.length / MAX_LENGTH));
+    // the segments from insertion until boundaries are same again, out of ~250
+    assertThat(newSegments, lessThan(16));
+  }
+
+  // ==
+
+  /**
+   * Segments the file, and checks the segments are contiguous, are of bounded length, and carry their hashes.
+   */
+  private List<Segment> createSegments(final File root, final long length)
+      throws Exception
+  {
+    final IOSource source = DirectoryIOSource.builder(root).build();
+    final Transfer transfer =
+        new Transfer("transfer", Collections.singletonList(source.createZFile(new Path("data.db"))));
+    new ContentDefinedSegmentCreator(source, new Sha1HashAlgorithm(), MIN_LENGTH, AVERAGE_LENGTH, MAX_LENGTH)
+        .createSegments(transfer);
+    final List<Segment> segments = transfer.getSegments();
+    long offset = 0;
+    for (int i = 0; i < segments.size(); i++) {
+      final Segment segment = segments.get(i);
+      assertThat(segment.getOffset(), equalTo(offset));
+      assertThat(segment.getLength(), lessThanOrEqualTo((long) MAX_LENGTH));
+      if (i < segments.size() - 1) {
+        assertThat(segment.getLength(), greaterThanOrEqualTo((long) MIN_LENGTH));
+      }
+      assertThat(segment.getHash(), notNullValue());
+      offset += segment.getLength();
+    }
+    assertThat(offset, equalTo(length));
+    return segments;
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.zapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Collections;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.fs.DirectoryIOSource;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.HashAlgorithm;
+import org.sonatype.spice.zapper.hash.HashUtils;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.ChannelUtils;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.SegmentIdentifier;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.hawtbuf.SegmentFooter;
+import org.sonatype.spice.zapper.internal.hawtbuf.SegmentHeader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class StreamingZapperPayloadTest
+    extends TestSupport
+{
+  private HashAlgorithm hashAlgorithm;
+
+  private DirectoryIOSource source;
+
+  private ZFile zfile;
+
+  @Before
+  public void prepare()
+      throws Exception
+  {
+    hashAlgorithm = new Sha1HashAlgorithm();
+    final File root = util.createTempDir();
+    final byte[] content = new byte[10000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i % 251);
+    }
+    final FileOutputStream fos = new FileOutputStream(new File(root, "file.bin"));
+    fos.write(content);
+    fos.close();
+    source = new DirectoryIOSource(root, hashAlgorithm);
+    zfile = source.createZFile(new Path("file.bin"));
+  }
+
+  @Test
+  public void footerCarriesHashesOfStreamedContent()
+      throws Exception
+  {
+    final Segment segment = new Segment(3000, 4000, zfile, new SegmentIdentifier("S2"));
+    final StreamingZapperPayload payload =
+        new StreamingZapperPayload(new TransferIdentifier("T"), zfile.getIdentifier(), segment, source,
+            hashAlgorithm, Collections.<Codec>emptyList());
+
+    final byte[] content = readFully(payload.getContent());
+    assertThat((long) content.length, equalTo(payload.getLength()));
+
+    final InputStream in = new ByteArrayInputStream(content);
+    final SegmentHeader header = SegmentHeader.parseFramed(in);
+    assertThat(header.getSegmentOffset(), equalTo(3000L));
+    assertThat(header.getSegmentLength(), equalTo(4000L));
+    final int headerLength = content.length - in.available();
+    final byte[] body = new byte[4000];
+    assertThat(in.read(body), equalTo(4000));
+    final SegmentFooter footer = SegmentFooter.parseFramed(in);
+    assertThat(in.available(), equalTo(0));
+
+    final Hash bodyHash = HashUtils.getDigest(hashAlgorithm, source.readSegment(zfile.getIdentifier(), segment));
+    final Hash envelopeHash = HashUtils.getDigest(hashAlgorithm,
+        new ByteArrayInputStream(content, 0, headerLength + body.length));
+    assertThat(HashUtils.getDigest(hashAlgorithm, body), equalTo(bodyHash));
+    assertThat(footer.getHashes(0).getHashBytes().toByteArray(), equalTo(bodyHash.byteValue()));
+    assertThat(footer.getEnvelopeHashes(0).getHashBytes().toByteArray(), equalTo(envelopeHash.byteValue()));
+    assertThat(payload.getSegmentHash(), equalTo(bodyHash));
+    assertThat(payload.getHash(), equalTo(envelopeHash));
+  }
+
+  @Test
+  public void writtenContentSameAsRead()
+      throws Exception
+  {
+    final Segment segment = new Segment(3000, 4000, zfile, new SegmentIdentifier("S2"));
+    final StreamingZapperPayload streaming =
+        new StreamingZapperPayload(new TransferIdentifier("T"), zfile.getIdentifier(), segment, source,
+            hashAlgorithm, Collections.<Codec>emptyList());
+    final Hash bodyHash = HashUtils.getDigest(hashAlgorithm, source.readSegment(zfile.getIdentifier(), segment));
+    final ZapperPayload zapper =
+        new ZapperPayload(new TransferIdentifier("T"), zfile.getIdentifier(), segment, source, hashAlgorithm,
+            bodyHash, Collections.<Codec>emptyList());
+
+    final ByteArrayOutputStream streamingOut = new ByteArrayOutputStream();
+    assertThat(streaming.writeTo(ChannelUtils.newChannel(streamingOut)), equalTo(streaming.getLength()));
+    assertThat(streamingOut.toByteArray(), equalTo(readFully(streaming.getContent())));
+    assertThat(streaming.getSegmentHash(), equalTo(bodyHash));
+
+    final ByteArrayOutputStream zapperOut = new ByteArrayOutputStream();
+    assertThat(zapper.writeTo(ChannelUtils.newChannel(zapperOut)), equalTo(zapper.getLength()));
+    assertThat(zapperOut.toByteArray(), equalTo(readFully(zapper.getContent())));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void hashNotKnownBeforeStreamed()
+      throws Exception
+  {
+    final Segment segment = new Segment(0, zfile.getLength(), zfile, new SegmentIdentifier("S1"));
+    new StreamingZapperPayload(new TransferIdentifier("T"), zfile.getIdentifier(), segment, source, hashAlgorithm,
+        Collections.<Codec>emptyList()).getHash();
+  }
+
+  // ==
+
+  private byte[] readFully(final InputStream in)
+      throws Exception
+  {
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    }
+    finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.zapper;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Random;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.hash.HashAlgorithm;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.BlockCopy;
+import org.sonatype.spice.zapper.internal.hawtbuf.FileBlocks;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+public class ZapperDeltasTest
+    extends TestSupport
+{
+  private static final int BLOCK_LENGTH = 512;
+
+  @Test
+  public void rolledChecksumSameAsCalculated() {
+    final byte[] content = new byte[2048];
+    new Random().nextBytes(content);
+    final RollingChecksum rolled = new RollingChecksum();
+    final RollingChecksum calculated = new RollingChecksum();
+    rolled.reset(content, 0, BLOCK_LENGTH);
+    for (int i = 1; i + BLOCK_LENGTH <= content.length; i++) {
+      rolled.roll(content[i - 1], content[i + BLOCK_LENGTH - 1]);
+      calculated.reset(content, i, BLOCK_LENGTH);
+      assertThat(rolled.getValue(), equalTo(calculated.getValue()));
+    }
+  }
+
+  @Test
+  public void changedContentRebuiltFromBlocksAndRest()
+      throws Exception
+  {
+    final HashAlgorithm hashAlgorithm = new Sha1HashAlgorithm();
+    final byte[] existing = new byte[100 * BLOCK_LENGTH + 100];
+    new Random().nextBytes(existing);
+    // bytes changed, inserted and removed
+    final byte[] changed = new byte[existing.length + 50];
+    System.arraycopy(existing, 0, changed, 0, 10000);
+    changed[5000]++;
+    System.arraycopy(existing, 10000, changed, 10100, 30000);
+    System.arraycopy(existing, 40050, changed, 40100, existing.length - 40050);
+
+    final FileBlocks fileBlocks = ZapperDeltas.createFileBlocks("file", new ByteArrayInputStream(existing),
+        BLOCK_LENGTH, Integer.MAX_VALUE, hashAlgorithm);
+    assertThat(fileBlocks.getBlocksCount(), equalTo(100));
+    assertThat(ZapperDeltas.createFileBlocks("file", new ByteArrayInputStream(existing), BLOCK_LENGTH, 10,
+        hashAlgorithm).getBlocksCount(), equalTo(10));
+    final List<BlockCopy> blockCopies = ZapperDeltas.createBlockCopies(fileBlocks,
+        new ByteArrayInputStream(changed), BLOCK_LENGTH, hashAlgorithm);
+
+    // rebuild as receiver does: copied blocks from existing, the rest from changed
+    final byte[] rebuilt = new byte[changed.length];
+    final boolean[] copied = new boolean[changed.length];
+    long previousOffset = -1;
+    for (BlockCopy blockCopy : blockCopies) {
+      assertThat(blockCopy.getOffset(), greaterThan(previousOffset));
+      previousOffset = blockCopy.getOffset();
+      System.arraycopy(existing, (int) blockCopy.getSourceOffset(), rebuilt, (int) blockCopy.getOffset(),
+          BLOCK_LENGTH);
+      for (int i = 0; i < BLOCK_LENGTH; i++) {
+        copied[(int) blockCopy.getOffset() + i] = true;
+      }
+    }
+    int sent = 0;
+    for (int i = 0; i < changed.length; i++) {
+      if (!copied[i]) {
+        rebuilt[i] = changed[i];
+        sent++;
+      }
+    }
+    assertThat(rebuilt, equalTo(changed));
+    // at most the block changed, partial blocks around insertion and removal, and the tail are sent
+    assertThat(sent, lessThan(5 * BLOCK_LENGTH));
+    assertThat(blockCopies.size(), greaterThan(90));
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.internal.zapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.BlockCopy;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.SegmentIdentifier;
+import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.ZFileImpl;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+public class ZapperRecipesTest
+    extends TestSupport
+{
+  private final Hash hash = new Hash(Sha1HashAlgorithm.ID, new byte[Sha1HashAlgorithm.ID.getHashSize()]);
+
+  private final ZFile zfile = new ZFileImpl(new Path("file.bin"), 30, 0, hash);
+
+  @Test
+  public void coveredFileParsed()
+      throws Exception
+  {
+    final Transfer transfer = parse(createTransfer(Arrays.asList(segment(20, 10, "S1"), segment(0, 10, "S2")),
+        Collections.singletonList(new BlockCopy(10, 10, 0, hash))));
+    assertThat(transfer.getZfiles().get(0).getLength(), equalTo(30L));
+    assertThat(transfer.getSegments().size(), equalTo(2));
+  }
+
+  @Test
+  public void holeRejected()
+      throws Exception
+  {
+    // a sparse file, sized by the offset of it's last segment
+    assertRejected(createTransfer(Arrays.asList(segment(0, 10, "S1"), segment(1000000, 10, "S2")),
+        Collections.<BlockCopy>emptyList()), "leaves hole");
+  }
+
+  @Test
+  public void overlapRejected()
+      throws Exception
+  {
+    assertRejected(createTransfer(Arrays.asList(segment(0, 10, "S1"), segment(5, 10, "S2")),
+        Collections.singletonList(new BlockCopy(15, 10, 0, hash))), "overlaps");
+  }
+
+  @Test
+  public void duplicateSegmentIdRejected()
+      throws Exception
+  {
+    assertRejected(createTransfer(Arrays.asList(segment(0, 10, "S1"), segment(10, 10, "S1")),
+        Collections.<BlockCopy>emptyList()), "duplicate segment");
+  }
+
+  // ==
+
+  private Segment segment(final long offset, final long length, final String segmentId) {
+    return new Segment(offset, length, zfile, new SegmentIdentifier(segmentId));
+  }
+
+  private Transfer createTransfer(final List<Segment> segments, final List<BlockCopy> blockCopies) {
+    final Transfer transfer = new Transfer("T1", Collections.singletonList(zfile));
+    transfer.setSegments(segments);
+    transfer.setBlockCopies(Collections.singletonMap(zfile.getIdentifier(), blockCopies));
+    return transfer;
+  }
+
+  private static Transfer parse(final Transfer transfer)
+      throws IOException
+  {
+    return ZapperRecipes.parseRecipe(new ByteArrayInputStream(ZapperRecipes.createRecipe(transfer)));
+  }
+
+  private static void assertRejected(final Transfer transfer, final String message)
+      throws IOException
+  {
+    try {
+      parse(transfer);
+      fail("Recipe should be rejected");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString(message));
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.scheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.spice.zapper.IOSource;
+import org.sonatype.spice.zapper.PayloadScheduler;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.AbstractPayloadSupplier;
+import org.sonatype.spice.zapper.internal.PayloadSupplier;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.SegmentIdentifier;
+import org.sonatype.spice.zapper.internal.SegmentPayload;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.ZFileImpl;
+import org.sonatype.spice.zapper.internal.transport.TrackIdentifier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+
+public class PayloadSchedulerTest
+    extends TestSupport
+{
+  private static final long[] LENGTHS = {10, 5000, 20, 1, 3000, 30, 7000, 40, 50, 60, 1000, 70};
+
+  private List<SegmentPayload> payloads;
+
+  @Before
+  public void prepare()
+      throws Exception
+  {
+    final IOSource ioSource = mock(IOSource.class);
+    final Hash hash = new Hash(Sha1HashAlgorithm.ID, new byte[Sha1HashAlgorithm.ID.getHashSize()]);
+    payloads = new ArrayList<SegmentPayload>();
+    for (int i = 0; i < LENGTHS.length; i++) {
+      final Path path = new Path("file" + i);
+      final ZFile zfile = new ZFileImpl(path, LENGTHS[i], 0, hash);
+      final Segment segment = new Segment(0, LENGTHS[i], zfile, new SegmentIdentifier("S" + i));
+      payloads.add(new SegmentPayload(new TransferIdentifier("T"), path, segment, ioSource, hash,
+          Collections.<Codec>emptyList()));
+    }
+  }
+
+  @Test
+  public void largestFirst() {
+    final PayloadSupplier supplier = new LargestFirstPayloadScheduler().createPayloadSupplier(payloads, 2);
+    final List<SegmentPayload> handedOut = drain(supplier, new TrackIdentifier("T1"));
+    assertThat(handedOut, containsInAnyOrder(payloads.toArray()));
+    for (int i = 1; i < handedOut.size(); i++) {
+      assertThat(handedOut.get(i - 1).getLength() >= handedOut.get(i).getLength(), equalTo(true));
+    }
+  }
+
+  @Test
+  public void reservedLane() {
+    final PayloadSupplier supplier = new ReservedLanePayloadScheduler(100, 1).createPayloadSupplier(payloads, 2);
+    final TrackIdentifier lane = new TrackIdentifier("T1");
+    final TrackIdentifier other = new TrackIdentifier("T2");
+    // first asking track gets the lane
+    assertThat(supplier.getNextPayload(lane).getLength(), equalTo(10L));
+    assertThat(supplier.getNextPayload(other).getLength(), equalTo(7000L));
+    assertThat(supplier.getNextPayload(lane).getLength(), equalTo(20L));
+    assertThat(supplier.getNextPayload(other).getLength(), equalTo(5000L));
+    // lane track helps out once small payloads are sent
+    final List<SegmentPayload> rest = drain(supplier, lane);
+    assertThat(rest.size(), equalTo(LENGTHS.length - 4));
+    assertThat(rest.get(rest.size() - 1).getLength(), equalTo(1000L));
+    assertThat(supplier.getNextPayload(other), nullValue());
+  }
+
+  @Test
+  public void workStealing() {
+    final PayloadSupplier supplier = new WorkStealingPayloadScheduler().createPayloadSupplier(payloads, 3);
+    // each track gets one of the largest payloads first
+    assertThat(supplier.getNextPayload(new TrackIdentifier("T1")).getLength(), equalTo(7000L));
+    assertThat(supplier.getNextPayload(new TrackIdentifier("T2")).getLength(), equalTo(5000L));
+    assertThat(supplier.getNextPayload(new TrackIdentifier("T3")).getLength(), equalTo(3000L));
+    // single track steals everything else
+    assertThat(drain(supplier, new TrackIdentifier("T1")).size(), equalTo(LENGTHS.length - 3));
+  }
+
+  @Test
+  public void customSchedulerOnlyOrdersPayloads()
+      throws Exception
+  {
+    final PayloadScheduler scheduler = new PayloadScheduler()
+    {
+      public PayloadSupplier createPayloadSupplier(final List<SegmentPayload> payloads, final int trackCount) {
+        final PayloadQueue queue = new PayloadQueue(payloads);
+        return new AbstractPayloadSupplier()
+        {
+          public SegmentPayload getNextPayload(final TrackIdentifier trackIdentifier) {
+            return queue.poll();
+          }
+        };
+      }
+    };
+    final PayloadSupplier supplier = scheduler.createPayloadSupplier(payloads, 1);
+    final TrackIdentifier track = new TrackIdentifier("T1");
+    final SegmentPayload payload = supplier.getNextPayload(track);
+    supplier.payloadSent(track, payload);
+    // failures are not taken care of by default
+    assertThat(supplier.payloadFailed(track, supplier.getNextPayload(track), new IOException("failed")),
+        equalTo(false));
+    assertThat(drain(supplier, track).size(), equalTo(LENGTHS.length - 2));
+  }
+
+  @Test
+  public void eachPayloadHandedOutOnceConcurrently()
+      throws Exception
+  {
+    final PayloadScheduler[] schedulers = {
+        new FifoPayloadScheduler(), new LargestFirstPayloadScheduler(), new ReservedLanePayloadScheduler(100, 2),
+        new WorkStealingPayloadScheduler()
+    };
+    final ExecutorService executorService = Executors.newFixedThreadPool(4);
+    try {
+      for (PayloadScheduler scheduler : schedulers) {
+        final PayloadSupplier supplier = scheduler.createPayloadSupplier(payloads, 4);
+        final List<Callable<List<SegmentPayload>>> tracks = new ArrayList<Callable<List<SegmentPayload>>>();
+        for (int i = 0; i < 4; i++) {
+          final TrackIdentifier trackIdentifier = new TrackIdentifier("T" + i);
+          tracks.add(new Callable<List<SegmentPayload>>()
+          {
+            public List<SegmentPayload> call() {
+              return drain(supplier, trackIdentifier);
+            }
+          });
+        }
+        final List<SegmentPayload> handedOut = new ArrayList<SegmentPayload>();
+        for (Future<List<SegmentPayload>> future : executorService.invokeAll(tracks)) {
+          handedOut.addAll(future.get());
+        }
+        assertThat(scheduler.getClass().getSimpleName(), handedOut, containsInAnyOrder(payloads.toArray()));
+      }
+    }
+    finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  // ==
+
+  private List<SegmentPayload> drain(final PayloadSupplier supplier, final TrackIdentifier trackIdentifier) {
+    final List<SegmentPayload> result = new ArrayList<SegmentPayload>();
+    SegmentPayload payload = supplier.getNextPayload(trackIdentifier);
+    while (payload != null) {
+      result.add(payload);
+      payload = supplier.getNextPayload(trackIdentifier);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,856 @@
+/*
+ * Copyright (c) 2007-2014 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.spice.zapper.server.jetty;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.sonatype.spice.zapper.AbstractClientTest;
+import org.sonatype.spice.zapper.Client;
+import org.sonatype.spice.zapper.Parameters;
+import org.sonatype.spice.zapper.Path;
+import org.sonatype.spice.zapper.ZFile;
+import org.sonatype.spice.zapper.client.hc4.Hc4ClientBuilder;
+import org.sonatype.spice.zapper.codec.Codec;
+import org.sonatype.spice.zapper.codec.CodecIdentifier;
+import org.sonatype.spice.zapper.codec.GzipCodec;
+import org.sonatype.spice.zapper.codec.Lz4Codec;
+import org.sonatype.spice.zapper.codec.MatchingCodecSelector;
+import org.sonatype.spice.zapper.codec.SamplingCodecSelector;
+import org.sonatype.spice.zapper.fs.DirectoryIOSource;
+import org.sonatype.spice.zapper.hash.Hash;
+import org.sonatype.spice.zapper.hash.Sha1HashAlgorithm;
+import org.sonatype.spice.zapper.internal.BlockCopy;
+import org.sonatype.spice.zapper.internal.Segment;
+import org.sonatype.spice.zapper.internal.Transfer;
+import org.sonatype.spice.zapper.internal.TransferIdentifier;
+import org.sonatype.spice.zapper.internal.ZFileImpl;
+import org.sonatype.spice.zapper.internal.hawtbuf.FileBlocks;
+import org.sonatype.spice.zapper.internal.hawtbuf.HeldBlock;
+import org.sonatype.spice.zapper.internal.zapper.ZapperDeltas;
+import org.sonatype.spice.zapper.internal.zapper.ZapperFrames;
+import org.sonatype.spice.zapper.internal.zapper.ZapperRecipes;
+import org.sonatype.spice.zapper.internal.zapper.ZapperSegmentCreator;
+import org.sonatype.spice.zapper.server.DirectoryIOTargetFactory;
+import org.sonatype.spice.zapper.server.ZapperReceiver;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.fail;
+
+/**
+ * Uploads with "zapper" protocol to the server side receiver.
+ */
+public class ZapperHandlerTest
+    extends AbstractClientTest
+{
+  private final File root = new File("target/classes").getAbsoluteFile();
+
+  private File receiverRoot;
+
+  private DirectoryIOTargetFactory targetFactory;
+
+  private ZapperReceiver receiver;
+
+  private SegmentCountingHandler countingHandler;
+
+  private final AtomicInteger streamingTracks = new AtomicInteger();
+
+  private final AtomicInteger maximumStreamingTracks = new AtomicInteger();
+
+  @Override
+  protected List<Handler> getHandlers() {
+    receiverRoot = util.createTempDir();
+    try {
+      targetFactory = new DirectoryIOTargetFactory(receiverRoot);
+      receiver = new ZapperReceiver(targetFactory, new Sha1HashAlgorithm(),
+          Arrays.<Codec>asList(new GzipCodec(), new Lz4Codec()));
+    }
+    catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+    countingHandler = new SegmentCountingHandler();
+    return ImmutableList.<Handler>of(countingHandler, new ZapperHandler(receiver)
+    {
+      @Override
+      public void handle(final String target, final Request baseRequest, final HttpServletRequest request,
+                         final HttpServletResponse response)
+          throws IOException, ServletException
+      {
+        if (!target.substring(1).equals(ZapperReceiver.TRACK)) {
+          super.handle(target, baseRequest, request, response);
+          return;
+        }
+        final int active = streamingTracks.incrementAndGet();
+        try {
+          while (true) {
+            final int maximum = maximumStreamingTracks.get();
+            if (active <= maximum || maximumStreamingTracks.compareAndSet(maximum, active)) {
+              break;
+            }
+          }
+          // keep the track busy a while, to have tracks of concurrent transfers overlap
+          Thread.sleep(50);
+          super.handle(target, baseRequest, request, response);
+        }
+        catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        finally {
+          streamingTracks.decrementAndGet();
+        }
+      }
+    });
+  }
+
+  @Override
+  protected Client getClient(final Parameters parameters, final String remoteUrl) {
+    return new Hc4ClientBuilder(parameters, remoteUrl).build();
+  }
+
+  @Test
+  public void receivedFilesSameAsUploaded()
+      throws Exception
+  {
+    // small segments, to have files segmented, codecs applied
+    upload(getParametersBuilder().setMaximumTrackCount(4).setMaximumSegmentLength(1024).build());
+    assertReceivedSameAsUploaded();
+  }
+
+  @Test
+  public void lz4EncodedSegmentsReceivedSameAsUploaded()
+      throws Exception
+  {
+    upload(getParametersBuilder().setMaximumTrackCount(4).setMaximumSegmentLength(1024)
+        .setCodecSelector(MatchingCodecSelector.builder().add(".*", new Lz4Codec()).build()).build());
+    assertReceivedSameAsUploaded();
+  }
+
+  @Test
+  public void streamedTracksReceivedSameAsUploaded()
+      throws Exception
+  {
+    upload(getParametersBuilder().setMaximumTrackCount(4).setMaximumSegmentLength(1024).setTrackStreaming(true)
+        .setHashingWhileStreaming(true).build());
+    assertReceivedSameAsUploaded();
+  }
+
+  @Test
+  public void streamedTracksKeepTrackBudget()
+      throws Exception
+  {
+    final File source1 = util.createTempDir();
+    final File source2 = util.createTempDir();
+    final byte[] content = new byte[8 * 1024];
+    new Random().nextBytes(content);
+    write(new File(source1, "first/data.bin"), content);
+    write(new File(source2, "second/data.bin"), content);
+    final Client client = getClient(getParametersBuilder().setMaximumTrackCount(2).setMaximumTotalTrackCount(2)
+        .setMaximumSegmentLength(1024).setTrackStreaming(true).build(), "http://localhost:" + getPort() + "/");
+    try {
+      final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+      final Thread thread = new Thread()
+      {
+        @Override
+        public void run() {
+          try {
+            client.upload(DirectoryIOSource.builder(source1).build());
+          }
+          catch (Exception e) {
+            failure.set(e);
+          }
+        }
+      };
+      thread.start();
+      client.upload(DirectoryIOSource.builder(source2).build());
+      thread.join();
+      if (failure.get() != null) {
+        throw failure.get();
+      }
+    }
+    finally {
+      client.close();
+    }
+    // both transfers have 2 streaming tracks, but they share the budget of 2
+    assertThat(maximumStreamingTracks.get(), greaterThan(0));
+    assertThat(maximumStreamingTracks.get(), lessThan(3));
+  }
+
+  @Test
+  public void incompleteTransferNotCommitted()
+      throws Exception
+  {
+    final ZFile zfile = DirectoryIOSource.builder(root).build()
+        .createZFile(new Path("org/sonatype/spice/zapper/Client.class"));
+    final Transfer transfer = new Transfer("T1", Collections.singletonList(zfile));
+    new ZapperSegmentCreator(1024).createSegments(transfer);
+    receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.BEFORE_UPLOAD),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperRecipes.createRecipe(transfer)));
+    assertThat(receiver.getTransferCount(), equalTo(1));
+    try {
+      receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.AFTER_UPLOAD),
+          Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(new byte[0]));
+      fail("Transfer lacking segments should not commit");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("lacks"));
+    }
+    assertThat(receiver.getTransferCount(), equalTo(0));
+    assertThat(new File(receiverRoot, "org").exists(), equalTo(false));
+  }
+
+  @Test
+  public void abandonedTransfersExpired()
+      throws Exception
+  {
+    final DirectoryIOTargetFactory expiringFactory = new DirectoryIOTargetFactory(util.createTempDir());
+    final ZapperReceiver expiring = new ZapperReceiver(expiringFactory, new Sha1HashAlgorithm(),
+        Collections.<Codec>emptyList(), 100L);
+    // left behind by a receiver that was stopped
+    final File abandoned = new File(expiringFactory.getStagingRoot(), "T0");
+    write(new File(abandoned, "file.bin"), new byte[]{1});
+    assertThat(abandoned.setLastModified(System.currentTimeMillis() - 10000L), equalTo(true));
+
+    begin(expiring, "T1");
+    assertThat(abandoned.exists(), equalTo(false));
+    assertThat(new File(expiringFactory.getStagingRoot(), "T1").isDirectory(), equalTo(true));
+
+    Thread.sleep(200L);
+    begin(expiring, "T2");
+    assertThat(expiring.getTransferCount(), equalTo(1));
+    assertThat(new File(expiringFactory.getStagingRoot(), "T1").exists(), equalTo(false));
+    assertThat(new File(expiringFactory.getStagingRoot(), "T2").isDirectory(), equalTo(true));
+  }
+
+  @Test
+  public void pathEscapingRootNotReceived()
+      throws Exception
+  {
+    final File source = util.createTempDir();
+    write(new File(source, "xx/escaped.bin"), new byte[]{1, 2, 3});
+    final ZFile zfile = DirectoryIOSource.builder(source).build().createZFile(new Path("xx/escaped.bin"));
+    final Transfer transfer = new Transfer("T1", Collections.singletonList(zfile));
+    new ZapperSegmentCreator(1024).createSegments(transfer);
+    // recipe of a file in parent of receiver root, paths are of same length
+    final byte[] recipe = new String(ZapperRecipes.createRecipe(transfer), "ISO-8859-1")
+        .replace("xx/escaped.bin", "../escaped.bin").getBytes("ISO-8859-1");
+    try {
+      receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.BEFORE_UPLOAD),
+          Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(recipe));
+      fail("Transfer of path escaping root should not begin");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("Invalid path"));
+    }
+    assertThat(receiver.getTransferCount(), equalTo(0));
+    assertThat(new File(receiverRoot.getParentFile(), "escaped.bin").exists(), equalTo(false));
+  }
+
+  @Test
+  public void linkEscapingRootNotCommitted()
+      throws Exception
+  {
+    final File outside = util.createTempDir();
+    // links are created by "ln", where it is available
+    Assume.assumeTrue(File.separatorChar == '/');
+    final Process ln = new ProcessBuilder("ln", "-s", outside.getAbsolutePath(),
+        new File(receiverRoot, "link").getAbsolutePath()).start();
+    Assume.assumeTrue(ln.waitFor() == 0);
+    final File source = util.createTempDir();
+    write(new File(source, "link/escaped.bin"), new byte[]{1, 2, 3});
+    try {
+      upload(getParametersBuilder().build(), source);
+      fail("Transfer of path escaping root should not commit");
+    }
+    catch (IOException e) {
+      // expected
+    }
+    assertThat(outside.list().length, equalTo(0));
+  }
+
+  @Test
+  public void failedUploadResumedFromJournal()
+      throws Exception
+  {
+    final File journalDirectory = util.createTempDir();
+    // one track, to have all segments preceding the failing file sent
+    final Parameters parameters = getParametersBuilder().setMaximumTrackCount(1).setMaximumSegmentLength(1024)
+        .setRetryBackOff(10L).setJournalDirectory(journalDirectory).build();
+    final List<ZFile> uploaded = DirectoryIOSource.builder(root).build().listFiles();
+    final ZFile failing = uploaded.get(uploaded.size() - 1);
+    int segmentCount = 0;
+    for (ZFile zfile : uploaded) {
+      segmentCount += (zfile.getLength() + 1023) / 1024;
+    }
+
+    countingHandler.failingPath = "/" + failing.getIdentifier().stringValue();
+    try {
+      upload(parameters);
+      fail("Upload should fail");
+    }
+    catch (IOException e) {
+      // expected
+    }
+    assertThat(journalDirectory.list().length, equalTo(1));
+    assertThat(receiver.getTransferCount(), equalTo(1));
+
+    countingHandler.failingPath = null;
+    countingHandler.segmentCount.set(0);
+    upload(parameters);
+    assertReceivedSameAsUploaded();
+    assertThat(journalDirectory.list().length, equalTo(0));
+    // only the failed file was sent again
+    assertThat((long) countingHandler.segmentCount.get(), equalTo((failing.getLength() + 1023) / 1024));
+    assertThat(countingHandler.segmentCount.get(), lessThan(segmentCount));
+  }
+
+  @Test
+  public void duplicateContentSentOnce()
+      throws Exception
+  {
+    final File source = util.createTempDir();
+    final byte[] content = new byte[5000];
+    new Random().nextBytes(content);
+    write(new File(source, "a/artifact.jar"), content);
+    write(new File(source, "b/artifact-copy.jar"), content);
+    write(new File(source, "b/artifact-other-copy.jar"), content);
+    write(new File(source, "c/other.jar"), new byte[]{1, 2, 3});
+
+    upload(getParametersBuilder().setMaximumSegmentLength(1024).build(), source);
+    // 5 segments of shared content, and 1 of other file
+    assertThat(countingHandler.segmentCount.get(), equalTo(6));
+    final List<ZFile> uploaded = DirectoryIOSource.builder(source).build().listFiles();
+    final List<ZFile> received = DirectoryIOSource.builder(receiverRoot).build().listFiles();
+    assertThat(received.size(), equalTo(4));
+    for (int i = 0; i < uploaded.size(); i++) {
+      assertThat(received.get(i).getIdentifier(), equalTo(uploaded.get(i).getIdentifier()));
+      assertThat(received.get(i).getHash(), equalTo(uploaded.get(i).getHash()));
+    }
+  }
+
+  @Test
+  public void resumedWithOtherCopiesRejected()
+      throws Exception
+  {
+    final File source = util.createTempDir();
+    for (String name : new String[]{"x.bin", "y.bin", "z.bin"}) {
+      write(new File(source, name), new byte[]{1, 2, 3});
+    }
+    final List<ZFile> zfiles = DirectoryIOSource.builder(source).build().listFiles();
+    final Transfer transfer = new Transfer("T1", zfiles);
+    new ZapperSegmentCreator(1024).createSegments(transfer);
+    receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.BEFORE_UPLOAD),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperRecipes.createRecipe(transfer)));
+    receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.RESUME_UPLOAD),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperRecipes.createRecipe(transfer)));
+
+    // same segments, but last file copied from other file
+    final Transfer other = new Transfer("T1", zfiles);
+    new ZapperSegmentCreator(1024).createSegments(other);
+    final Map<Path, ZFile> copySources = new LinkedHashMap<Path, ZFile>(other.getCopySources());
+    copySources.put(zfiles.get(2).getIdentifier(), zfiles.get(1));
+    other.setCopySources(copySources);
+    assertThat(other.getSegments().size(), equalTo(transfer.getSegments().size()));
+    try {
+      receiver.receive(other.getIdentifier(), new Path(ZapperReceiver.RESUME_UPLOAD),
+          Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperRecipes.createRecipe(other)));
+      fail("Transfer resumed with other copies should fail");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("resumed with other segments"));
+    }
+  }
+
+  @Test
+  public void duplicateContentNotDeltaUploaded()
+      throws Exception
+  {
+    final File source = util.createTempDir();
+    final byte[] content = new byte[5 * 1024];
+    new Random().nextBytes(content);
+    write(new File(source, "a/artifact.jar"), content);
+    write(new File(source, "b/artifact-copy.jar"), content);
+    final Parameters parameters =
+        getParametersBuilder().setMaximumSegmentLength(1024).setDeltaBlockLength(1024).build();
+    upload(parameters, source);
+    assertThat(countingHandler.segmentCount.get(), equalTo(5));
+
+    // both versions are received already, the copy is copied again, not delta uploaded
+    content[100]++;
+    write(new File(source, "a/artifact.jar"), content);
+    write(new File(source, "b/artifact-copy.jar"), content);
+    countingHandler.segmentCount.set(0);
+    upload(parameters, source);
+    assertThat(countingHandler.segmentCount.get(), equalTo(1));
+    final List<ZFile> uploaded = DirectoryIOSource.builder(source).build().listFiles();
+    final List<ZFile> received = DirectoryIOSource.builder(receiverRoot).build().listFiles();
+    assertThat(received.size(), equalTo(2));
+    for (int i = 0; i < uploaded.size(); i++) {
+      assertThat(received.get(i).getIdentifier(), equalTo(uploaded.get(i).getIdentifier()));
+      assertThat(received.get(i).getHash(), equalTo(uploaded.get(i).getHash()));
+    }
+  }
+
+  @Test
+  public void deltaUploadSendsChangedPartsOnly()
+      throws Exception
+  {
+    final File source = util.createTempDir();
+    final byte[] content = new byte[64 * 1024];
+    new Random().nextBytes(content);
+    final File file = new File(source, "index/data.db");
+    write(file, content);
+    final Parameters parameters =
+        getParametersBuilder().setMaximumSegmentLength(1024).setDeltaBlockLength(1024).build();
+    upload(parameters, source);
+    assertThat(countingHandler.segmentCount.get(), equalTo(64));
+
+    // change a byte in the middle, and insert some bytes after it
+    content[20000]++;
+    final byte[] changed = new byte[content.length + 100];
+    System.arraycopy(content, 0, changed, 0, 30000);
+    System.arraycopy(content, 30000, changed, 30100, content.length - 30000);
+    write(file, changed);
+    countingHandler.segmentCount.set(0);
+    upload(parameters, source);
+    // the changed block, and the bytes around insertion
+    assertThat(countingHandler.segmentCount.get(), lessThan(5));
+    assertThat(Files.toByteArray(new File(receiverRoot, "index/data.db")), equalTo(changed));
+  }
+
+  @Test
+  public void blockChecksumsAnsweredForFilesOfTransferOnly()
+      throws Exception
+  {
+    final byte[] content = new byte[4096];
+    new Random().nextBytes(content);
+    write(new File(receiverRoot, "data.bin"), content);
+    write(new File(receiverRoot, "secret.bin"), content);
+    final File source = util.createTempDir();
+    write(new File(source, "data.bin"), content);
+    final Transfer transfer = new Transfer("T1",
+        Collections.singletonList(DirectoryIOSource.builder(source).build().createZFile(new Path("data.bin"))));
+    new ZapperSegmentCreator(1024).createSegments(transfer);
+    final byte[] request = ZapperDeltas.createBlockChecksumsRequest(transfer.getIdentifier(),
+        Arrays.asList(new Path("secret.bin"), new Path("data.bin")), 1024);
+
+    try {
+      receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.BLOCK_CHECKSUMS),
+          Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(request));
+      fail("Block checksums should not be answered out of transfer");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("Unknown transfer"));
+    }
+    receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.BEFORE_UPLOAD),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperRecipes.createRecipe(transfer)));
+    final Map<String, FileBlocks> answered = ZapperDeltas.getFileBlocks(ZapperDeltas.parseBlockChecksums(
+        transfer.getIdentifier(), new ByteArrayInputStream(receiver.receive(transfer.getIdentifier(),
+            new Path(ZapperReceiver.BLOCK_CHECKSUMS), Collections.<CodecIdentifier>emptyList(),
+            new ByteArrayInputStream(request)))));
+    assertThat(answered.keySet(), equalTo(Collections.singleton("data.bin")));
+    assertThat(answered.get("data.bin").getBlocksCount(), equalTo(4));
+    try {
+      receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.BLOCK_CHECKSUMS),
+          Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperDeltas
+              .createBlockChecksumsRequest(transfer.getIdentifier(), Arrays.asList(new Path("data.bin")), 1)));
+      fail("Block checksums of short blocks should not be answered");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("Unsupported block length"));
+    }
+    receiver.abort(transfer.getIdentifier());
+  }
+
+  @Test
+  public void blockNotHeldNotCopied()
+      throws Exception
+  {
+    final byte[] content = new byte[1024];
+    new Random().nextBytes(content);
+    write(new File(receiverRoot, "secret.bin"), content);
+    final File source = util.createTempDir();
+    write(new File(source, "copy.bin"), content);
+    final ZFile zfile = DirectoryIOSource.builder(source).build().createZFile(new Path("copy.bin"));
+    final Transfer transfer = new Transfer("T1", Collections.singletonList(zfile));
+    transfer.setSegments(Collections.<Segment>emptyList());
+    transfer.setBlockCopies(Collections.singletonMap(zfile.getIdentifier(), Collections.singletonList(
+        new BlockCopy(0, content.length, 0, new Sha1HashAlgorithm().hash(content), new Path("secret.bin")))));
+    receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.BEFORE_UPLOAD),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperRecipes.createRecipe(transfer)));
+    try {
+      receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.AFTER_UPLOAD),
+          Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(new byte[0]));
+      fail("Block not held should not be copied");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("not held"));
+    }
+    assertThat(new File(receiverRoot, "copy.bin").exists(), equalTo(false));
+  }
+
+  @Test
+  public void heldBlocksAnsweredForSegmentsOfTransferOnly()
+      throws Exception
+  {
+    final byte[] content = new byte[4096];
+    new Random().nextBytes(content);
+    final Transfer held = createTransfer("T0", "held.bin", content, 1024);
+    receiver.receive(held.getIdentifier(), new Path(ZapperReceiver.BEFORE_UPLOAD),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperRecipes.createRecipe(held)));
+    for (Segment segment : held.getSegments()) {
+      receiveSegment(held, segment, content, false);
+    }
+    receiver.receive(held.getIdentifier(), new Path(ZapperReceiver.AFTER_UPLOAD),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(new byte[0]));
+    final byte[] block = new byte[1024];
+    System.arraycopy(content, 0, block, 0, block.length);
+    final byte[] request = ZapperDeltas.createHeldBlocksRequest(new TransferIdentifier("T1"),
+        Collections.singletonList(new Sha1HashAlgorithm().hash(block)));
+
+    try {
+      heldBlocks(new TransferIdentifier("T1"), request);
+      fail("Held blocks should not be answered out of transfer");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("Unknown transfer"));
+    }
+    // blocks of other length than segments are of no use
+    beginTransfer(createTransfer("T1", "other.bin", new byte[2048], 2048));
+    assertThat(heldBlocks(new TransferIdentifier("T1"), request).size(), equalTo(0));
+    beginTransfer(createTransfer("T1", "other.bin", new byte[2048], 1024));
+    assertThat(heldBlocks(new TransferIdentifier("T1"), request).size(), equalTo(1));
+    try {
+      heldBlocks(new TransferIdentifier("T1"), ZapperDeltas.createHeldBlocksRequest(new TransferIdentifier("T1"),
+          Arrays.asList(new Sha1HashAlgorithm().hash(new byte[]{1}), new Sha1HashAlgorithm().hash(new byte[]{2}),
+              new Sha1HashAlgorithm().hash(new byte[]{3}))));
+      fail("More held blocks than segments should not be answered");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("having 2 segments"));
+    }
+    receiver.abort(new TransferIdentifier("T1"));
+  }
+
+  @Test
+  public void contentDefinedUploadSendsNewSegmentsOnly()
+      throws Exception
+  {
+    final byte[] content = new byte[64 * 1024];
+    new Random().nextBytes(content);
+    final File source = util.createTempDir();
+    write(new File(source, "images/1.0.img"), content);
+    final Parameters parameters =
+        getParametersBuilder().setMaximumSegmentLength(8192).setAverageSegmentLength(1024).build();
+    upload(parameters, source);
+    assertThat(countingHandler.segmentCount.get(), greaterThan(8));
+
+    // other file, having some bytes inserted into same content
+    final byte[] changed = new byte[content.length + 100];
+    System.arraycopy(content, 0, changed, 0, 30000);
+    System.arraycopy(content, 30000, changed, 30100, content.length - 30000);
+    final File changedSource = util.createTempDir();
+    write(new File(changedSource, "images/1.1.img"), changed);
+    countingHandler.segmentCount.set(0);
+    upload(parameters, changedSource);
+    // the segments from insertion until boundaries are same again, out of ~60
+    assertThat(countingHandler.segmentCount.get(), lessThan(16));
+    assertThat(Files.toByteArray(new File(receiverRoot, "images/1.1.img")), equalTo(changed));
+    assertThat(Files.toByteArray(new File(receiverRoot, "images/1.0.img")), equalTo(content));
+  }
+
+  @Test
+  public void sampledIncompressibleFileSentWithoutCodecs()
+      throws Exception
+  {
+    final File source = util.createTempDir();
+    final byte[] random = new byte[64 * 1024];
+    new Random().nextBytes(random);
+    write(new File(source, "data/random.bin"), random);
+    final StringBuilder text = new StringBuilder();
+    while (text.length() < random.length) {
+      text.append("Zapper samples the files before encoding them. ");
+    }
+    write(new File(source, "data/text.bin"), text.toString().getBytes("UTF-8"));
+
+    // client wraps the selector to apply only the codecs receiver accepts
+    upload(getParametersBuilder().setCodecSelector(
+        new SamplingCodecSelector(MatchingCodecSelector.builder().add(".*", new GzipCodec()).build())).build(),
+        source);
+
+    assertThat(countingHandler.codecs.get("/data/random.bin"), equalTo(""));
+    assertThat(countingHandler.codecs.get("/data/text.bin"), equalTo(GzipCodec.ID.stringValue()));
+    assertThat(Files.toByteArray(new File(receiverRoot, "data/random.bin")), equalTo(random));
+    assertThat(Files.toByteArray(new File(receiverRoot, "data/text.bin")),
+        equalTo(text.toString().getBytes("UTF-8")));
+  }
+
+  @Test
+  public void stalledSegmentHedged()
+      throws Exception
+  {
+    countingHandler.stallingPath = "/org/sonatype/spice/zapper/Client.class";
+    try {
+      upload(getParametersBuilder().setMaximumTrackCount(4).setMaximumSegmentLength(1024).setHedgeDelay(100L)
+          .build());
+      // the stalled segment was sent again by other track, and upload did not wait for it
+      assertThat(countingHandler.stalled.get(), equalTo(true));
+      assertThat(countingHandler.stallEnded.getCount(), equalTo(1L));
+      assertReceivedSameAsUploaded();
+    }
+    finally {
+      countingHandler.stallReleased.countDown();
+    }
+  }
+
+  @Test
+  public void corruptCopyOfReceivedSegmentDropped()
+      throws Exception
+  {
+    final byte[] content = new byte[2048];
+    new Random().nextBytes(content);
+    final File source = util.createTempDir();
+    write(new File(source, "data.bin"), content);
+    final ZFile zfile = DirectoryIOSource.builder(source).build().createZFile(new Path("data.bin"));
+    final Transfer transfer = new Transfer("T1", Collections.singletonList(zfile));
+    new ZapperSegmentCreator(1024).createSegments(transfer);
+    final Segment segment = transfer.getSegments().get(0);
+    receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.BEFORE_UPLOAD),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperRecipes.createRecipe(transfer)));
+    receiveSegment(transfer, segment, content, false);
+    try {
+      receiveSegment(transfer, segment, content, true);
+      fail("Corrupt segment should not verify");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("hash mismatch"));
+    }
+    final byte[] held = receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.RESUME_UPLOAD),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperRecipes.createRecipe(transfer)));
+    assertThat(ZapperRecipes.parseHeldSegments(transfer.getIdentifier(), new ByteArrayInputStream(held)).size(),
+        equalTo(0));
+    receiver.abort(transfer.getIdentifier());
+  }
+
+  @Test
+  public void fileNotMatchingHashNotCommitted()
+      throws Exception
+  {
+    final byte[] content = new byte[2048];
+    new Random().nextBytes(content);
+    // segments verify, the file assembled from them does not
+    final ZFile zfile = new ZFileImpl(new Path("data.bin"), content.length, 0,
+        new Sha1HashAlgorithm().hash(new byte[content.length]));
+    final Transfer transfer = new Transfer("T1", Collections.singletonList(zfile));
+    new ZapperSegmentCreator(1024).createSegments(transfer);
+    receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.BEFORE_UPLOAD),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperRecipes.createRecipe(transfer)));
+    for (Segment segment : transfer.getSegments()) {
+      receiveSegment(transfer, segment, content, false);
+    }
+    try {
+      receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.AFTER_UPLOAD),
+          Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(new byte[0]));
+      fail("File not matching it's hash should not commit");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage(), containsString("hash mismatch"));
+    }
+    assertThat(receiver.getTransferCount(), equalTo(0));
+    assertThat(new File(receiverRoot, "data.bin").exists(), equalTo(false));
+  }
+
+  // ==
+
+  private void upload(final Parameters parameters)
+      throws Exception
+  {
+    upload(parameters, root);
+  }
+
+  private void upload(final Parameters parameters, final File source)
+      throws Exception
+  {
+    final Client client = getClient(parameters, "http://localhost:" + getPort() + "/");
+    try {
+      client.upload(DirectoryIOSource.builder(source).build());
+    }
+    finally {
+      client.close();
+    }
+  }
+
+  private void begin(final ZapperReceiver zapperReceiver, final String transferId)
+      throws Exception
+  {
+    final ZFile zfile = DirectoryIOSource.builder(root).build()
+        .createZFile(new Path("org/sonatype/spice/zapper/Client.class"));
+    final Transfer transfer = new Transfer(transferId, Collections.singletonList(zfile));
+    new ZapperSegmentCreator(1024).createSegments(transfer);
+    zapperReceiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.BEFORE_UPLOAD),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperRecipes.createRecipe(transfer)));
+  }
+
+  private static Transfer createTransfer(final String transferId, final String path, final byte[] content,
+                                         final long segmentLength)
+      throws Exception
+  {
+    final ZFile zfile = new ZFileImpl(new Path(path), content.length, 0, new Sha1HashAlgorithm().hash(content));
+    final Transfer transfer = new Transfer(transferId, Collections.singletonList(zfile));
+    new ZapperSegmentCreator(segmentLength).createSegments(transfer);
+    return transfer;
+  }
+
+  private void beginTransfer(final Transfer transfer)
+      throws IOException
+  {
+    receiver.receive(transfer.getIdentifier(), new Path(ZapperReceiver.BEFORE_UPLOAD),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(ZapperRecipes.createRecipe(transfer)));
+  }
+
+  private Map<Hash, HeldBlock> heldBlocks(final TransferIdentifier transferIdentifier, final byte[] request)
+      throws IOException
+  {
+    return ZapperDeltas.getHeldBlocks(ZapperDeltas.parseHeldBlocks(transferIdentifier, new ByteArrayInputStream(
+        receiver.receive(transferIdentifier, new Path(ZapperReceiver.HELD_BLOCKS),
+            Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(request)))));
+  }
+
+  /**
+   * Sends the segment of content to receiver, optionally having it's body corrupted after it was hashed.
+   */
+  private void receiveSegment(final Transfer transfer, final Segment segment, final byte[] content,
+                              final boolean corrupt)
+      throws Exception
+  {
+    final byte[] body = new byte[(int) segment.getLength()];
+    System.arraycopy(content, (int) segment.getOffset(), body, 0, body.length);
+    final byte[] footer = ZapperFrames.createSegmentFooter(new Sha1HashAlgorithm().hash(body), null);
+    if (corrupt) {
+      body[0] ^= 0x55;
+    }
+    final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+    frame.write(ZapperFrames.createSegmentHeader(segment));
+    frame.write(body);
+    frame.write(footer);
+    receiver.receive(transfer.getIdentifier(), segment.getZFile().getIdentifier(),
+        Collections.<CodecIdentifier>emptyList(), new ByteArrayInputStream(frame.toByteArray()));
+  }
+
+  private static void write(final File file, final byte[] content)
+      throws IOException
+  {
+    Files.createParentDirs(file);
+    Files.write(content, file);
+  }
+
+  private void assertReceivedSameAsUploaded()
+      throws Exception
+  {
+    final List<ZFile> uploaded = DirectoryIOSource.builder(root).build().listFiles();
+    final List<ZFile> received = DirectoryIOSource.builder(receiverRoot).build().listFiles();
+    assertThat(received.size(), greaterThan(0));
+    assertThat(received.size(), equalTo(uploaded.size()));
+    for (int i = 0; i < uploaded.size(); i++) {
+      assertThat(received.get(i).getIdentifier(), equalTo(uploaded.get(i).getIdentifier()));
+      assertThat(received.get(i).getHash(), equalTo(uploaded.get(i).getHash()));
+      assertThat(received.get(i).getLastModifiedTimestamp(), equalTo(uploaded.get(i).getLastModifiedTimestamp()));
+    }
+    // staging is cleaned up
+    assertThat(targetFactory.getStagingRoot().list().length, equalTo(0));
+    assertThat(receiver.getTransferCount(), equalTo(0));
+  }
+
+  /**
+   * Counts the segments sent to receiver, and remembers the codecs applied to them per path. Fails the segments of
+   * given path, and stalls the first one of other path.
+   */
+  private static class SegmentCountingHandler
+      extends AbstractHandler
+  {
+    private static final long STALL_MILLIS = 60000L;
+
+    private final AtomicInteger segmentCount = new AtomicInteger();
+
+    private final Map<String, String> codecs = new ConcurrentHashMap<String, String>();
+
+    private final AtomicBoolean stalled = new AtomicBoolean();
+
+    private final CountDownLatch stallReleased = new CountDownLatch(1);
+
+    private final CountDownLatch stallEnded = new CountDownLatch(1);
+
+    private volatile String failingPath;
+
+    private volatile String stallingPath;
+
+    public void handle(final String target, final Request baseRequest, final HttpServletRequest request,
+                       final HttpServletResponse response)
+        throws IOException, ServletException
+    {
+      if (!HttpMethods.PUT.equals(request.getMethod()) || target.substring(1).equals(ZapperReceiver.BEFORE_UPLOAD)
+          || target.substring(1).equals(ZapperReceiver.AFTER_UPLOAD)
+          || target.substring(1).equals(ZapperReceiver.RESUME_UPLOAD)
+          || target.substring(1).equals(ZapperReceiver.BLOCK_CHECKSUMS)
+          || target.substring(1).equals(ZapperReceiver.HELD_BLOCKS)) {
+        return;
+      }
+      if (target.equals(failingPath)) {
+        baseRequest.setHandled(true);
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        return;
+      }
+      if (target.equals(stallingPath) && stalled.compareAndSet(false, true)) {
+        try {
+          stallReleased.await(STALL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        stallEnded.countDown();
+      }
+      segmentCount.incrementAndGet();
+      codecs.put(target, request.getHeader("X-Zapper-Codecs") != null ? request.getHeader("X-Zapper-Codecs") : "");
+    }
+  }
+}